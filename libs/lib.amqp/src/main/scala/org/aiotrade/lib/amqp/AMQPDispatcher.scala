@@ -296,16 +296,16 @@ abstract class AMQPDispatcher(factory: ConnectionFactory, val exchange: String)
           case _ => content.asInstanceOf[Array[Byte]]
         }
 
-        val contentEncoding = props.getContentEncoding match {
-          case null | "" => GZIP
-          case x => x
+        val contentEncoding = if (encodedBody.length < COMPRESS_THRESHOLD) {
+          IDENTITY
+        } else {
+          props.getContentEncoding match {
+            case null | "" => DEFAULT_CONTENT_ENCODING
+            case x => x
+          }
         }
 
-        val body = contentEncoding match {
-          case GZIP => Serializer.gzip(encodedBody)
-          case LZMA => Serializer.lzma(encodedBody)
-          case _ => encodedBody
-        }
+        val body = Serializer.compress(encodedBody, contentEncoding)
 
         val outProps = props.builder.contentType(contentType.mimeType).contentEncoding(contentEncoding).headers(headers).build
 
@@ -370,11 +370,7 @@ abstract class AMQPDispatcher(factory: ConnectionFactory, val exchange: String)
 
       log.fine("Got amqp message: " + (body.length / 1024.0) + "k" )
 
-      val unzippedBody = props.getContentEncoding match {
-        case GZIP => Serializer.ungzip(body)
-        case LZMA => Serializer.unlzma(body)
-        case _ => body
-      }
+      val unzippedBody = Serializer.decompress(body, props.getContentEncoding)
 
       val contentType = props.getContentType match {
         case null | "" =>  DEFAULT_CONTENT_TYPE
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2006-2011, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.amqp
+
+import java.io.IOException
+
+/**
+ * A fast codec in LZ4 block format. A body is framed as the 4 bytes (big endian)
+ * length of original content followed by one LZ4 block. It trades ratio for speed,
+ * and suits the many small/medium messages, such as tickers, at market open.
+ * 
+ * @Note hash table is passed in by caller, so it can be reused per thread.
+ * 
+ * @author Caoyuan Deng
+ */
+object Lz4 {
+  val HashLog = 12
+  val HashSize = 1 << HashLog
+
+  private val MinMatch = 4
+  private val LastLiterals = 5
+  private val MFLimit = 12
+  private val MaxOffset = 65535
+  private val RunMask = 15
+  
+  /** 
+   * Max content length that will be decompressed, a larger one in header is
+   * taken as malformed instead of allocating for it 
+   */
+  val MaxContentLength = 64 * 1024 * 1024
+
+  /**
+   * Max length of compressed body for input length
+   */
+  def maxCompressedLength(length: Int) = 4 + length + length / 255 + 16
+
+  /**
+   * @return length of compressed body written to dest, which should have at least
+   *         maxCompressedLength(src.length) bytes.
+   */
+  def compress(src: Array[Byte], dest: Array[Byte], table: Array[Int]): Int = {
+    val n = src.length
+    writeIntBE(dest, 0, n)
+    var op = 4
+
+    var anchor = 0
+    if (n >= MFLimit + 1) {
+      java.util.Arrays.fill(table, -1)
+      val limit = n - MFLimit
+      val matchLimit = n - LastLiterals
+      var ip = 0
+      while (ip < limit) {
+        val seq = readIntLE(src, ip)
+        val h = hash(seq)
+        val ref = table(h)
+        table(h) = ip
+        if (ref >= 0 && ip - ref <= MaxOffset && readIntLE(src, ref) == seq) {
+          // extend backward
+          var s = ip
+          var r = ref
+          while (s > anchor && r > 0 && src(s - 1) == src(r - 1)) {
+            s -= 1
+            r -= 1
+          }
+          // extend forward
+          var len = MinMatch + (ip - s)
+          while (s + len < matchLimit && src(r + len) == src(s + len)) {
+            len += 1
+          }
+
+          op = writeSequence(src, anchor, s - anchor, s - r, len, dest, op)
+          ip = s + len
+          anchor = ip
+        } else {
+          ip += 1
+        }
+      }
+    }
+
+    // last literals
+    op = writeLiterals(src, anchor, n - anchor, dest, op, 0)
+    op
+  }
+
+  /**
+   * @return decompressed content of body
+   */
+  @throws(classOf[IOException])
+  def decompress(src: Array[Byte]): Array[Byte] = {
+    if (src.length < 4) throw new IOException("Malformed lz4 body: length " + src.length)
+    val n = readIntBE(src, 0)
+    // each byte of block expands to at most 255 bytes
+    if (n < 0 || n > MaxContentLength || n > (src.length - 4) * 255L) {
+      throw new IOException("Malformed lz4 body: content length " + n)
+    }
+    val dest = new Array[Byte](n)
+    
+    try {
+      val srcEnd = src.length
+      var ip = 4
+      var op = 0
+      var done = false
+      while (!done) {
+        val token = src(ip) & 0xFF
+        ip += 1
+
+        var litLen = token >>> 4
+        if (litLen == RunMask) {
+          var b = 255
+          while (b == 255) {
+            b = src(ip) & 0xFF
+            ip += 1
+            litLen += b
+          }
+        }
+        System.arraycopy(src, ip, dest, op, litLen)
+        ip += litLen
+        op += litLen
+
+        if (ip >= srcEnd) {
+          done = true
+        } else {
+          val offset = (src(ip) & 0xFF) | ((src(ip + 1) & 0xFF) << 8)
+          ip += 2
+          var ref = op - offset
+          if (offset == 0 || ref < 0) throw new IOException("Malformed lz4 body: offset " + offset + " at " + op)
+
+          var matchLen = token & RunMask
+          if (matchLen == RunMask) {
+            var b = 255
+            while (b == 255) {
+              b = src(ip) & 0xFF
+              ip += 1
+              matchLen += b
+            }
+          }
+          matchLen += MinMatch
+
+          // may overlap, so copy byte by byte
+          val end = op + matchLen
+          while (op < end) {
+            dest(op) = dest(ref)
+            op += 1
+            ref += 1
+          }
+        }
+      }
+
+      if (op != n) throw new IOException("Malformed lz4 body: got " + op + " bytes, expect " + n)
+    } catch {
+      case ex: IndexOutOfBoundsException => throw new IOException("Malformed lz4 body: " + ex.getMessage)
+    }
+
+    dest
+  }
+
+  private def writeSequence(src: Array[Byte], litFrom: Int, litLen: Int, offset: Int, matchLen: Int, dest: Array[Byte], op0: Int): Int = {
+    val ml = matchLen - MinMatch
+    var op = writeLiterals(src, litFrom, litLen, dest, op0, math.min(ml, RunMask))
+    dest(op) = offset.toByte
+    dest(op + 1) = (offset >>> 8).toByte
+    op += 2
+    if (ml >= RunMask) {
+      op = writeLength(ml - RunMask, dest, op)
+    }
+    op
+  }
+
+  /**
+   * Write token with matchBits, then literal length and literals
+   */
+  private def writeLiterals(src: Array[Byte], from: Int, len: Int, dest: Array[Byte], op0: Int, matchBits: Int): Int = {
+    var op = op0
+    dest(op) = ((math.min(len, RunMask) << 4) | matchBits).toByte
+    op += 1
+    if (len >= RunMask) {
+      op = writeLength(len - RunMask, dest, op)
+    }
+    System.arraycopy(src, from, dest, op, len)
+    op + len
+  }
+
+  private def writeLength(len0: Int, dest: Array[Byte], op0: Int): Int = {
+    var len = len0
+    var op = op0
+    while (len >= 255) {
+      dest(op) = 255.toByte
+      op += 1
+      len -= 255
+    }
+    dest(op) = len.toByte
+    op + 1
+  }
+
+  private def hash(seq: Int) = (seq * -1640531535) >>> (32 - HashLog)
+
+  private def readIntLE(buf: Array[Byte], i: Int): Int = {
+    (buf(i) & 0xFF) | ((buf(i + 1) & 0xFF) << 8) | ((buf(i + 2) & 0xFF) << 16) | ((buf(i + 3) & 0xFF) << 24)
+  }
+
+  private def readIntBE(buf: Array[Byte], i: Int): Int = {
+    ((buf(i) & 0xFF) << 24) | ((buf(i + 1) & 0xFF) << 16) | ((buf(i + 2) & 0xFF) << 8) | (buf(i + 3) & 0xFF)
+  }
+
+  private def writeIntBE(buf: Array[Byte], i: Int, v: Int) {
+    buf(i)     = (v >>> 24).toByte
+    buf(i + 1) = (v >>> 16).toByte
+    buf(i + 2) = (v >>> 8).toByte
+    buf(i + 3) = v.toByte
+  }
+}
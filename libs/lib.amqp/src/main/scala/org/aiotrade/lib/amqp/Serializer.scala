@@ -30,15 +30,16 @@
  */
 package org.aiotrade.lib.amqp
 
-import java.io.BufferedInputStream
-import java.io.BufferedOutputStream
 import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
+import java.io.EOFException
 import java.io.IOException
 import java.io.ObjectInputStream
 import java.io.ObjectOutputStream
-import java.util.zip.GZIPInputStream
-import java.util.zip.GZIPOutputStream
+import java.util.zip.CRC32
+import java.util.zip.Deflater
+import java.util.zip.Inflater
+import java.util.zip.ZipException
 import org.aiotrade.lib.avro.ReflectData
 import org.aiotrade.lib.avro.ReflectDatumWriter
 import org.aiotrade.lib.avro.Evt
@@ -109,71 +110,275 @@ object Serializer {
     }
   }
 
+  /**
+   * Compress body by content encoding, an unknown encoding keeps body as it
+   */
+  @throws(classOf[IOException])
+  def compress(body: Array[Byte], contentEncoding: String): Array[Byte] = {
+    contentEncoding match {
+      case GZIP => gzip(body)
+      case LZMA => lzma(body)
+      case LZ4  => lz4(body)
+      case _ => body
+    }
+  }
+
+  @throws(classOf[IOException])
+  def decompress(body: Array[Byte], contentEncoding: String): Array[Byte] = {
+    contentEncoding match {
+      case GZIP => ungzip(body)
+      case LZMA => unlzma(body)
+      case LZ4  => unlz4(body)
+      case _ => body
+    }
+  }
+
+  /**
+   * Writes gzip format via a per thread reused raw Deflater, instead of a new
+   * GZIPOutputStream (and its native zlib stream) per message.
+   */
   @throws(classOf[IOException])
   def gzip(input: Array[Byte]): Array[Byte] = {
-    val out = new ByteArrayOutputStream()
-    val bout = new BufferedOutputStream(new GZIPOutputStream(out))
-    bout.write(input)
-    bout.close
+    val codecs = threadCodecs.get
+    val out = codecs.out
+    val buf = codecs.buf
+    val deflater = codecs.deflater
+    val crc = codecs.crc
+    try {
+      out.write(GzipHeader)
 
-    val body = out.toByteArray
+      deflater.setInput(input)
+      deflater.finish
+      while (!deflater.finished) {
+        val len = deflater.deflate(buf)
+        out.write(buf, 0, len)
+      }
 
-    out.close
-    body
+      crc.update(input)
+      writeIntLE(out, crc.getValue.toInt)
+      writeIntLE(out, input.length)
+
+      out.toByteArray
+    } finally {
+      deflater.reset
+      crc.reset
+      codecs.release
+    }
   }
 
   @throws(classOf[IOException])
   def ungzip(input: Array[Byte]): Array[Byte] = {
-    val in = new ByteArrayInputStream(input)
-    val bin = new BufferedInputStream(new GZIPInputStream(in))
-    val out = new ByteArrayOutputStream()
+    val codecs = threadCodecs.get
+    val out = codecs.out
+    val buf = codecs.buf
+    val inflater = codecs.inflater
+    val crc = codecs.crc
+    try {
+      // a gzip body may have multiple members, which are decompressed and concatenated
+      var pos = 0
+      do {
+        pos = skipGzipHeader(input, pos)
+        val size0 = out.size
 
-    val buf = new Array[Byte](1024)
-    var len = -1
-    while ({len = bin.read(buf); len > 0}) {
-      out.write(buf, 0, len)
-    }
+        inflater.setInput(input, pos, input.length - pos)
+        while (!inflater.finished) {
+          val len = inflater.inflate(buf)
+          if (len == 0 && (inflater.needsInput || inflater.needsDictionary)) {
+            throw new EOFException("Unexpected end of gzip body")
+          }
+          out.write(buf, 0, len)
+          crc.update(buf, 0, len)
+        }
 
-    val body = out.toByteArray
+        val trailer = input.length - inflater.getRemaining
+        if (trailer + 8 > input.length) {
+          throw new EOFException("Unexpected end of gzip trailer")
+        }
+        if (readIntLE(input, trailer) != crc.getValue.toInt || readIntLE(input, trailer + 4) != out.size - size0) {
+          throw new ZipException("Corrupt gzip trailer")
+        }
+        
+        pos = trailer + 8
+        inflater.reset
+        crc.reset
+      } while (pos < input.length)
 
-    in.close
-    bin.close
-    out.close
-    body
+      out.toByteArray
+    } finally {
+      inflater.reset
+      crc.reset
+      codecs.release
+    }
   }
 
+  /**
+   * @Note the encoder is reused per thread, which keeps its match finder (with
+   * 1M dictionary) allocated, instead of creating one per message.
+   */
   @throws(classOf[IOException])
   def lzma(input: Array[Byte]): Array[Byte] = {
-    val in = new ByteArrayInputStream(input)
-    val out = new ByteArrayOutputStream
+    val codecs = threadCodecs.get
+    val out = codecs.out
+    try {
+      codecs.lzmaEncoder.Code(new ByteArrayInputStream(input), out, -1, -1, null)
+      out.toByteArray
+    } finally {
+      codecs.release
+    }
+  }
+
+  @throws(classOf[IOException])
+  def unlzma(input: Array[Byte]): Array[Byte] = {
+    val codecs = threadCodecs.get
+    val out = codecs.out
+    try {
+      codecs.lzmaDecoder.Code(new ByteArrayInputStream(input), out, -1)
+      out.toByteArray
+    } finally {
+      codecs.release
+    }
+  }
+
+  @throws(classOf[IOException])
+  def lz4(input: Array[Byte]): Array[Byte] = {
+    val codecs = threadCodecs.get
+    val dest = codecs.lz4Dest(Lz4.maxCompressedLength(input.length))
+    val len = Lz4.compress(input, dest, codecs.lz4Table)
+    java.util.Arrays.copyOf(dest, len)
+  }
+
+  @throws(classOf[IOException])
+  def unlz4(input: Array[Byte]): Array[Byte] = {
+    Lz4.decompress(input)
+  }
 
-    val encoder = new SevenZip.Compression.LZMA.Encoder
-    encoder.SetEndMarkerMode(true)     // must set true
-    encoder.SetDictionarySize(1 << 20) // 1048576
+  // --- gzip format helpers
 
-    encoder.Code(in, out, -1, -1, null)
+  private val GzipMagic = 0x8b1f
+  private val GzipHeader = Array[Byte](0x1f, 0x8b.toByte, Deflater.DEFLATED.toByte, 0, 0, 0, 0, 0, 0, 0)
+  private val FHCRC    = 2
+  private val FEXTRA   = 4
+  private val FNAME    = 8
+  private val FCOMMENT = 16
+
+  /**
+   * @param from position of member header
+   * @return position of deflate data
+   */
+  @throws(classOf[ZipException])
+  private def skipGzipHeader(input: Array[Byte], from: Int): Int = {
+    if (input.length - from < 10 || readShortLE(input, from) != GzipMagic) {
+      throw new ZipException("Not in gzip format")
+    }
+    if (input(from + 2) != Deflater.DEFLATED) {
+      throw new ZipException("Unsupported gzip compression method")
+    }
+    
+    val flg = input(from + 3) & 0xFF
+    var pos = from + 10
+    if ((flg & FEXTRA) == FEXTRA) {
+      if (pos + 2 > input.length) {
+        throw new ZipException("Truncated gzip header")
+      }
+      pos += 2 + readShortLE(input, pos)
+    }
+    if ((flg & FNAME) == FNAME) {
+      pos = skipZeroTerminated(input, pos)
+    }
+    if ((flg & FCOMMENT) == FCOMMENT) {
+      pos = skipZeroTerminated(input, pos)
+    }
+    if ((flg & FHCRC) == FHCRC) {
+      pos += 2
+    }
+    if (pos > input.length) {
+      throw new ZipException("Truncated gzip header")
+    }
+    pos
+  }
+  
+  private def skipZeroTerminated(input: Array[Byte], from: Int): Int = {
+    var pos = from
+    while (pos < input.length && input(pos) != 0) pos += 1
+    if (pos >= input.length) {
+      throw new ZipException("Truncated gzip header")
+    }
+    pos + 1
+  }
 
-    val body = out.toByteArray
+  private def readShortLE(buf: Array[Byte], i: Int): Int = {
+    (buf(i) & 0xFF) | ((buf(i + 1) & 0xFF) << 8)
+  }
 
-    in.close
-    out.close
-    body
+  private def readIntLE(buf: Array[Byte], i: Int): Int = {
+    (buf(i) & 0xFF) | ((buf(i + 1) & 0xFF) << 8) | ((buf(i + 2) & 0xFF) << 16) | ((buf(i + 3) & 0xFF) << 24)
   }
 
-  @throws(classOf[IOException])
-  def unlzma(input: Array[Byte]): Array[Byte] = {
-    val in = new ByteArrayInputStream(input)
-    val out = new ByteArrayOutputStream
+  private def writeIntLE(out: ByteArrayOutputStream, v: Int) {
+    out.write(v)
+    out.write(v >>> 8)
+    out.write(v >>> 16)
+    out.write(v >>> 24)
+  }
 
-    val decoder = new SevenZip.Compression.LZMA.Decoder
-    decoder.SetDecoderProperties(lzmaProps)
-    decoder.Code(in, out, -1)
+  // --- per thread codecs
 
-    val body = out.toByteArray
+  /**
+   * Output buffers larger than this won't be kept between messages
+   */
+  private val MaxRetainedBufferSize = 1024 * 1024
 
-    in.close
-    out.close
-    body
+  private val threadCodecs = new ThreadLocal[Codecs] {
+    override protected def initialValue = new Codecs
   }
 
+  private final class Codecs {
+    private var _out = new ByteArrayOutputStream(8192)
+    private var _lz4Dest: Array[Byte] = _
+    
+    val buf = new Array[Byte](8192)
+    val crc = new CRC32
+    
+    lazy val deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true)
+    lazy val inflater = new Inflater(true)
+    
+    lazy val lzmaEncoder = {
+      val encoder = new SevenZip.Compression.LZMA.Encoder
+      encoder.SetEndMarkerMode(true)     // must set true
+      encoder.SetDictionarySize(1 << 20) // 1048576
+      encoder
+    }
+    
+    lazy val lzmaDecoder = {
+      val decoder = new SevenZip.Compression.LZMA.Decoder
+      decoder.SetDecoderProperties(lzmaProps)
+      decoder
+    }
+    
+    lazy val lz4Table = new Array[Int](Lz4.HashSize)
+
+    def out = _out
+    
+    def lz4Dest(size: Int): Array[Byte] = {
+      if (_lz4Dest == null || _lz4Dest.length < size) {
+        _lz4Dest = new Array[Byte](size)
+      }
+      val dest = _lz4Dest
+      if (size > MaxRetainedBufferSize) {
+        _lz4Dest = null
+      }
+      dest
+    }
+
+    /**
+     * Reset out for next using, drop it if it has grown too large
+     */
+    def release {
+      if (_out.size > MaxRetainedBufferSize) {
+        _out = new ByteArrayOutputStream(8192)
+      } else {
+        _out.reset
+      }
+    }
+  }
 }
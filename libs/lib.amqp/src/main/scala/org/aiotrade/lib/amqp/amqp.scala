@@ -39,6 +39,22 @@ package object amqp {
 
   val LZMA = "lzma"
   val GZIP = "gzip"
+  val LZ4  = "lz4"
+  /** no compression */
+  val IDENTITY = "identity"
+
+  private val config = org.aiotrade.lib.util.config.Config()
+  
+  /**
+   * Content encoding of published message if it's not set in props
+   */
+  val DEFAULT_CONTENT_ENCODING = config.getString("amqp.contentencoding", GZIP)
+
+  /**
+   * Bodies shorter than this (in bytes) are published uncompressed, compressing
+   * them costs more cpu than it saves on wire.
+   */
+  val COMPRESS_THRESHOLD = config.getInt("amqp.compressthreshold", 512)
   
   val TAG = "tag"
 }
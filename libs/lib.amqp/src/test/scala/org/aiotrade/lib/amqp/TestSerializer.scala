@@ -0,0 +1,164 @@
+package org.aiotrade.lib.amqp
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.util.Random
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+import java.util.zip.ZipException
+import junit.framework.TestCase
+import junit.framework.Assert._
+
+class TestSerializer extends TestCase {
+
+  private val random = new Random(1L)
+
+  private def randomBytes(n: Int) = {
+    val bytes = new Array[Byte](n)
+    random.nextBytes(bytes)
+    bytes
+  }
+
+  /** ticker like content: repeated fields with a few changing bytes */
+  private def repetitiveBytes(n: Int) = {
+    val bytes = new Array[Byte](n)
+    var i = 0
+    while (i < n) {
+      bytes(i) = if (i % 17 == 0) random.nextInt(4).toByte else (i % 7).toByte
+      i += 1
+    }
+    bytes
+  }
+
+  private def samples = List(
+    Array[Byte](),
+    Array[Byte](1),
+    "tick".getBytes,
+    repetitiveBytes(12),
+    repetitiveBytes(13),
+    randomBytes(100),
+    repetitiveBytes(511),
+    repetitiveBytes(70000), // offsets larger than MaxOffset
+    randomBytes(100000),
+    new Array[Byte](300000) // long runs
+  )
+
+  private def assertBytesEquals(expected: Array[Byte], actual: Array[Byte]) {
+    assertEquals(expected.length, actual.length)
+    assertTrue(java.util.Arrays.equals(expected, actual))
+  }
+
+  def testLz4RoundTrip() {
+    for (input <- samples) {
+      val body = Serializer.lz4(input)
+      assertTrue(body.length <= Lz4.maxCompressedLength(input.length))
+      assertBytesEquals(input, Serializer.unlz4(body))
+    }
+  }
+
+  def testLz4RejectsOversizedLength() {
+    val body = Serializer.lz4("tick".getBytes)
+    // content length in header is far larger than the block could expand to
+    body(0) = 0x7f.toByte
+    try {
+      Serializer.unlz4(body)
+      fail("Should reject content length " + body(0))
+    } catch {
+      case ex: IOException =>
+    }
+  }
+
+  def testLz4RejectsTruncatedBody() {
+    val body = Serializer.lz4(repetitiveBytes(1000))
+    for (len <- List(0, 3, 5, body.length / 2, body.length - 1)) {
+      try {
+        Serializer.unlz4(java.util.Arrays.copyOf(body, len))
+        fail("Should reject truncated body of length " + len)
+      } catch {
+        case ex: IOException =>
+      }
+    }
+  }
+
+  def testGzipRoundTrip() {
+    for (input <- samples) {
+      val body = Serializer.gzip(input)
+      assertBytesEquals(input, Serializer.ungzip(body))
+      // wire format is still standard gzip
+      assertBytesEquals(input, jdkUngzip(body))
+      assertBytesEquals(input, Serializer.ungzip(jdkGzip(input)))
+    }
+  }
+
+  def testUngzipMultipleMembers() {
+    val a = repetitiveBytes(1000)
+    val b = randomBytes(300)
+    val out = new ByteArrayOutputStream
+    out.write(jdkGzip(a))
+    out.write(Serializer.gzip(b))
+    out.write(jdkGzip(Array[Byte]()))
+
+    val expected = new ByteArrayOutputStream
+    expected.write(a)
+    expected.write(b)
+    assertBytesEquals(expected.toByteArray, Serializer.ungzip(out.toByteArray))
+  }
+
+  def testUngzipRejectsTruncatedHeader() {
+    val FNAME = 8
+    val FEXTRA = 4
+    val headers = List(
+      Array[Byte](0x1f, 0x8b.toByte, 8, 0, 0),
+      Array[Byte](0x1f, 0x8b.toByte, 8, FNAME.toByte, 0, 0, 0, 0, 0, 0, 'a'.toByte, 'b'.toByte),
+      Array[Byte](0x1f, 0x8b.toByte, 8, FEXTRA.toByte, 0, 0, 0, 0, 0, 0, 100),
+      Array[Byte](0x1f, 0x8b.toByte, 8, FEXTRA.toByte, 0, 0, 0, 0, 0, 0, 100, 0, 1, 2)
+    )
+    for (header <- headers) {
+      try {
+        Serializer.ungzip(header)
+        fail("Should reject truncated header of length " + header.length)
+      } catch {
+        case ex: ZipException =>
+      }
+    }
+  }
+
+  def testUngzipRejectsTruncatedBody() {
+    val body = Serializer.gzip(repetitiveBytes(1000))
+    for (len <- List(body.length / 2, body.length - 4)) {
+      try {
+        Serializer.ungzip(java.util.Arrays.copyOf(body, len))
+        fail("Should reject truncated body of length " + len)
+      } catch {
+        case ex: IOException =>
+      }
+    }
+  }
+
+  def testLzmaRoundTrip() {
+    for (input <- samples) {
+      assertBytesEquals(input, Serializer.unlzma(Serializer.lzma(input)))
+    }
+  }
+
+  private def jdkGzip(input: Array[Byte]): Array[Byte] = {
+    val out = new ByteArrayOutputStream
+    val gout = new GZIPOutputStream(out)
+    gout.write(input)
+    gout.close
+    out.toByteArray
+  }
+
+  private def jdkUngzip(input: Array[Byte]): Array[Byte] = {
+    val in = new GZIPInputStream(new ByteArrayInputStream(input))
+    val out = new ByteArrayOutputStream
+    val buf = new Array[Byte](4096)
+    var len = 0
+    while ({len = in.read(buf); len > 0}) {
+      out.write(buf, 0, len)
+    }
+    in.close
+    out.toByteArray
+  }
+}
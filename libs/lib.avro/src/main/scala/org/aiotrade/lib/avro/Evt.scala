@@ -69,6 +69,7 @@ import scala.reflect.runtime.universe._
  * @param tag an unique int id for this type of Evt
  * @param doc the document of this Evt
  * @param schemaJson the custom schema 
+ * @param codec the custom binary codec of value, @see EvtCodec
  * 
  * @author Caoyuan Deng
  */
@@ -83,7 +84,7 @@ final case class Msg[T](tag: Int, value: T)
  * yet when you call its static 'apply', 'unapply' methods.
  */
 @throws(classOf[RuntimeException])
-final class Evt[T: ClassTag : TypeTag] private (val tag: Int, val doc: String = "", schemaJson: String) {
+final class Evt[T: ClassTag : TypeTag] private (val tag: Int, val doc: String = "", schemaJson: String, val codec: EvtCodec[T]) {
   type ValType = T
   type MsgType = Msg[T]
   
@@ -176,32 +177,54 @@ object Evt {
   val NO_TAG = Int.MinValue
   val Error = Evt[String](Int.MaxValue)
   
+  /**
+   * Whether to encode by evt's custom codec if any. Decoding always accepts both,
+   * so it's off by default, set it true only after all consumers are able to 
+   * decode the custom ones.
+   */
+  val isCodecEnabled = org.aiotrade.lib.util.config.Config().getBool("avro.evtcodec", false)
+  
   def exists(tag: Int): Boolean = tagToEvt.get(tag).isDefined
   def evtOf(tag: Int): Option[Evt[_]] = tagToEvt.get(tag)
   def typeOf(tag: Int): Option[Class[_]] = tagToEvt.get(tag) map (_.tpe)
   def schemaOf(tag: Int): Option[Schema] = tagToEvt.get(tag) map (_.schema)
   def tagToSchema = tagToEvt map {x => (x._1 -> schemaOf(x._1))}
  
-  def toAvro[T](value: T, tag: Int): Array[Byte] = schemaOf(tag) match {
-    case Some(schema) => Avro.encode(value, schema, Avro.AVRO)
+  def toAvro[T](value: T, tag: Int): Array[Byte] = evtOf(tag) match {
+    case Some(evt) if evt.codec != null && isCodecEnabled => evt.asInstanceOf[Evt[T]].codec.encode(value)
+    case Some(evt) => Avro.encode(toReflect(evt.asInstanceOf[Evt[T]], value), evt.schema, Avro.AVRO)
     case None => Array[Byte]()
   }
   
-  def toJson[T](value: T, tag: Int): Array[Byte] = schemaOf(tag) match {
-    case Some(schema) => Avro.encode(value, schema, Avro.JSON)
+  def toJson[T](value: T, tag: Int): Array[Byte] = evtOf(tag) match {
+    case Some(evt) => Avro.encode(toReflect(evt.asInstanceOf[Evt[T]], value), evt.schema, Avro.JSON)
     case None => Array[Byte]()
   }
   
   def fromAvro(bytes: Array[Byte], tag: Int): Option[_] = evtOf(tag) match {
-    case Some(evt) => Avro.decode(bytes, evt.schema, evt.tpe, Avro.AVRO)
+    case Some(evt) if evt.codec != null && EvtCodec.isEncodedBy(bytes) =>
+      try {
+        Some(evt.codec.decode(bytes))
+      } catch {
+        case ex: Throwable => log.log(Level.WARNING, ex.getMessage, ex); None
+      }
+    case Some(evt) => fromReflect(evt, Avro.decode(bytes, evt.schema, evt.tpe, Avro.AVRO))
     case None => None
   }
 
   def fromJson(bytes: Array[Byte], tag: Int): Option[_] = evtOf(tag) match {
-    case Some(evt) => Avro.decode(bytes, evt.schema, evt.tpe, Avro.JSON)
+    case Some(evt) => fromReflect(evt, Avro.decode(bytes, evt.schema, evt.tpe, Avro.JSON))
     case None => None
   }
   
+  private def toReflect[T](evt: Evt[T], value: T): T = {
+    if (evt.codec != null) evt.codec.toReflect(value) else value
+  }
+  
+  private def fromReflect(evt: Evt[_], value: Option[_]): Option[_] = {
+    if (evt.codec != null) value map (evt.codec.asInstanceOf[EvtCodec[Any]].fromReflect(_)) else value
+  }
+  
   @throws(classOf[IOException])
   private def writeTag(tag: Int, out: OutputStream) {
     val buf = new Array[Byte](5) // max bytes is 5
@@ -256,7 +279,7 @@ object Evt {
     sb.toString
   }
   
-  def apply[T: ClassTag : TypeTag](tag: Int, doc: String = "", schemaJson: String = null) = new Evt[T](tag, doc, schemaJson)
+  def apply[T: ClassTag : TypeTag](tag: Int, doc: String = "", schemaJson: String = null, codec: EvtCodec[T] = null) = new Evt[T](tag, doc, schemaJson, codec)
   
   // -- simple test
   def main(args: Array[String]) {
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2006-2011, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.avro
+
+/**
+ * A specialized, non-reflective binary codec of an Evt's value, which is used
+ * by Evt.toAvro/fromAvro instead of the schema based reflect one, for those
+ * heavy evts such as big arrays of same type records.
+ * 
+ * @Note encoded bytes should begin with EvtCodec.MAGIC, which never begins an
+ * avro encoded value of a union/record, so Evt.fromAvro can still decode bytes
+ * encoded by schema.
+ * 
+ * @author Caoyuan Deng
+ */
+trait EvtCodec[T] {
+  def encode(value: T): Array[Byte]
+  def decode(bytes: Array[Byte]): T
+  
+  /**
+   * Value in the shape of evt's schema, which is encoded by the schema based one
+   * when custom codecs are disabled. Override it if T's fields differ from schema.
+   */
+  def toReflect(value: T): T = value
+  
+  /**
+   * Reverse of toReflect, applied on value decoded by the schema based one
+   */
+  def fromReflect(value: T): T = value
+}
+
+object EvtCodec {
+  val MAGIC: Byte = 0xC1.toByte
+  
+  def isEncodedBy(bytes: Array[Byte]) = bytes.length > 0 && bytes(0) == MAGIC
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.benchmark
+
+import org.aiotrade.lib.math.timeseries.TFreq
+import org.aiotrade.lib.securities.QuoteSer
+import org.aiotrade.lib.securities.model.Quote
+import org.aiotrade.lib.securities.model.Sec
+import org.aiotrade.lib.securities.model.Ticker
+import scala.util.Random
+
+/**
+ * Synthetic data for benchmarks, generated by random walk with fixed seed so
+ * that results are comparable between runs.
+ *
+ * @author Caoyuan Deng
+ */
+object BenchData {
+  /** same as DefaultTSer.MAX_DATA_SIZE */
+  val NBars = 15000
+
+  val StartTime = 1293840000000L // 2011-01-01 00:00 UTC
+  val OneMin = 60 * 1000L
+
+  def quotes(n: Int, seed: Long = 1L): Array[Quote] = {
+    val random = new Random(seed)
+    val quotes = new Array[Quote](n)
+    var price = 10.0
+    var i = 0
+    while (i < n) {
+      quotes(i) = nextQuote(random, StartTime + i * OneMin, price)
+      price = quotes(i).close
+      i += 1
+    }
+    quotes
+  }
+
+  def nextQuote(random: Random, time: Long, prevClose: Double): Quote = {
+    val quote = new Quote
+    val open = prevClose * (1 + (random.nextDouble - 0.5) * 0.002)
+    val close = open * (1 + (random.nextDouble - 0.5) * 0.01)
+    quote.time = time
+    quote.open = open
+    quote.close = close
+    quote.high = math.max(open, close) * (1 + random.nextDouble * 0.003)
+    quote.low = math.min(open, close) * (1 - random.nextDouble * 0.003)
+    quote.volume = 1000 + random.nextInt(100000)
+    quote.amount = quote.volume * (open + close) / 2
+    quote.prevClose = prevClose
+    quote.execCount = 1 + random.nextInt(100)
+    quote.lastModify = time
+    quote
+  }
+
+  def quoteSer(n: Int): QuoteSer = {
+    val ser = new QuoteSer(new Sec, TFreq.ONE_MIN)
+    ser.loadAll(quotes(n))
+    ser
+  }
+
+  def tickers(n: Int, seed: Long = 1L): Array[Ticker] = {
+    val random = new Random(seed)
+    val tickers = new Array[Ticker](n)
+    var i = 0
+    while (i < n) {
+      val ticker = new Ticker
+      val price = 5 + random.nextDouble * 50
+      ticker.uniSymbol = "%06d.SZ".format(i)
+      ticker.time = StartTime + i
+      ticker.prevClose = price
+      ticker.lastPrice = price * (1 + (random.nextDouble - 0.5) * 0.1)
+      ticker.dayOpen = price
+      ticker.dayHigh = math.max(price, ticker.lastPrice) * 1.01
+      ticker.dayLow = math.min(price, ticker.lastPrice) * 0.99
+      ticker.dayVolume = random.nextInt(10000000)
+      ticker.dayAmount = ticker.dayVolume * price
+      tickers(i) = ticker
+      i += 1
+    }
+    tickers
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.benchmark
+
+import java.util.concurrent.TimeUnit
+import org.aiotrade.lib.avro.Evt
+import org.aiotrade.lib.math.timeseries.TFreq
+import org.aiotrade.lib.securities.api
+import org.aiotrade.lib.securities.model.Quote
+import org.aiotrade.lib.securities.model.Ticker
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+/**
+ * Avro/JSON encoding and decoding of TickersEvt and QuotesEvt batches.
+ *
+ * @author Caoyuan Deng
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class EvtBench {
+  @Param(Array("1000"))
+  var batchSize: Int = _
+
+  private var tickers: Array[Ticker] = _
+  private var quotes: (String, Array[Quote]) = _
+  
+  private var tickersAvro: Array[Byte] = _
+  private var tickersJson: Array[Byte] = _
+  private var quotesAvro: Array[Byte] = _
+  private var quotesJson: Array[Byte] = _
+
+  @Setup
+  def setup {
+    tickers = BenchData.tickers(batchSize)
+    quotes = (TFreq.ONE_MIN.shortName, BenchData.quotes(batchSize))
+    
+    tickersAvro = Evt.toAvro(tickers, api.TickersEvt.tag)
+    tickersJson = Evt.toJson(tickers, api.TickersEvt.tag)
+    quotesAvro = Evt.toAvro(quotes, api.QuotesEvt.tag)
+    quotesJson = Evt.toJson(quotes, api.QuotesEvt.tag)
+  }
+
+  @Benchmark
+  def tickersToAvro: Array[Byte] = Evt.toAvro(tickers, api.TickersEvt.tag)
+
+  @Benchmark
+  def tickersFromAvro: Option[_] = Evt.fromAvro(tickersAvro, api.TickersEvt.tag)
+
+  @Benchmark
+  def tickersToJson: Array[Byte] = Evt.toJson(tickers, api.TickersEvt.tag)
+
+  @Benchmark
+  def tickersFromJson: Option[_] = Evt.fromJson(tickersJson, api.TickersEvt.tag)
+
+  @Benchmark
+  def quotesToAvro: Array[Byte] = Evt.toAvro(quotes, api.QuotesEvt.tag)
+
+  @Benchmark
+  def quotesFromAvro: Option[_] = Evt.fromAvro(quotesAvro, api.QuotesEvt.tag)
+
+  @Benchmark
+  def quotesToJson: Array[Byte] = Evt.toJson(quotes, api.QuotesEvt.tag)
+
+  @Benchmark
+  def quotesFromJson: Option[_] = Evt.fromJson(quotesJson, api.QuotesEvt.tag)
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.benchmark
+
+import java.util.concurrent.TimeUnit
+import org.aiotrade.lib.indicator.function._
+import org.aiotrade.lib.math.indicator.Factor
+import org.aiotrade.lib.securities.QuoteSer
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+/**
+ * Full computeTo of each lib.indicator function over NBars. The function cache
+ * is released before each invocation, so that functions and those they depend
+ * on are computed from scratch.
+ *
+ * @author Caoyuan Deng
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class FunctionBench {
+  import org.aiotrade.lib.math.indicator.{Function => Functions}
+
+  @Param(Array("ADX", "ADXR", "BOLL", "CCI", "DI", "DM", "DX", "EMA", "MACD", "MA", "MAX", "MFI", "MIN", 
+               "MTM", "OBV", "PROBMASS", "ROC", "RSI", "SAR", "STDDEV", "STOCHD", "STOCHJ", "STOCHK", "SUM", 
+               "TR", "WMS", "ZIGZAG"))
+  var name: String = _
+
+  private var ser: QuoteSer = _
+  private var function: Function = _
+  private var sessionId = 0L
+
+  @Setup(Level.Trial)
+  def setupSer {
+    ser = BenchData.quoteSer(BenchData.NBars)
+  }
+
+  @Setup(Level.Invocation)
+  def setupFunction {
+    Functions.releaseAll
+    function = createFunction(name)
+  }
+
+  @Benchmark
+  def computeAll: Function = {
+    sessionId += 1
+    function.computeTo(sessionId, ser.size - 1)
+    function
+  }
+
+  private def f(value: Double) = new Factor("", value)
+
+  private def createFunction(name: String): Function = name match {
+    case "ADX"      => Functions(classOf[ADXFunction], ser, f(14), f(6))
+    case "ADXR"     => Functions(classOf[ADXRFunction], ser, f(14), f(6))
+    case "BOLL"     => Functions(classOf[BOLLFunction], ser, ser.close, f(20), f(2))
+    case "CCI"      => Functions(classOf[CCIFunction], ser, f(20), f(0.015))
+    case "DI"       => Functions(classOf[DIFunction], ser, f(14))
+    case "DM"       => Functions(classOf[DMFunction], ser)
+    case "DX"       => Functions(classOf[DXFunction], ser, f(14))
+    case "EMA"      => Functions(classOf[EMAFunction], ser, ser.close, f(12))
+    case "MACD"     => Functions(classOf[MACDFunction], ser, ser.close, f(26), f(12))
+    case "MA"       => Functions(classOf[MAFunction], ser, ser.close, f(20))
+    case "MAX"      => Functions(classOf[MAXFunction], ser, ser.close, f(20))
+    case "MFI"      => Functions(classOf[MFIFunction], ser, f(14))
+    case "MIN"      => Functions(classOf[MINFunction], ser, ser.close, f(20))
+    case "MTM"      => Functions(classOf[MTMFunction], ser, ser.close, f(12))
+    case "OBV"      => Functions(classOf[OBVFunction], ser)
+    case "PROBMASS" => Functions(classOf[PROBMASSFunction], ser, ser.close, ser.volume, f(50), f(10))
+    case "ROC"      => Functions(classOf[ROCFunction], ser, ser.close, f(12))
+    case "RSI"      => Functions(classOf[RSIFunction], ser, f(14))
+    case "SAR"      => Functions(classOf[SARFunction], ser, f(0.02), f(0.02), f(0.2))
+    case "STDDEV"   => Functions(classOf[STDDEVFunction], ser, ser.close, f(20))
+    case "STOCHD"   => Functions(classOf[STOCHDFunction], ser, f(9), f(3), f(3))
+    case "STOCHJ"   => Functions(classOf[STOCHJFunction], ser, f(9), f(3), f(3))
+    case "STOCHK"   => Functions(classOf[STOCHKFunction], ser, f(9), f(3))
+    case "SUM"      => Functions(classOf[SUMFunction], ser, ser.close, f(20))
+    case "TR"       => Functions(classOf[TRFunction], ser)
+    case "WMS"      => Functions(classOf[WMSFunction], ser, f(14))
+    case "ZIGZAG"   => Functions(classOf[ZIGZAGFunction], ser, f(0.05))
+  }
+}
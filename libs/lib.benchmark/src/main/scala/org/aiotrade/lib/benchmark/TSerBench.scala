@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.benchmark
+
+import java.util.concurrent.TimeUnit
+import org.aiotrade.lib.indicator.function.MAFunction
+import org.aiotrade.lib.math.indicator.Factor
+import org.aiotrade.lib.math.indicator.Function
+import org.aiotrade.lib.securities.QuoteSer
+import org.aiotrade.lib.securities.model.Quote
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import scala.util.Random
+
+/**
+ * QuoteSer.updateFrom and DefaultTSer.validate of a function attached to it.
+ * 
+ * @Note appending benchmarks grow the ser, it's rebuilt to NBars each iteration
+ * and the iterations are kept short.
+ *
+ * @author Caoyuan Deng
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+class TSerBench {
+  private var ser: QuoteSer = _
+  private var function: MAFunction = _
+  private var random: Random = _
+  private var lastQuote: Quote = _
+
+  @Setup(Level.Iteration)
+  def setup {
+    Function.releaseAll
+    ser = BenchData.quoteSer(BenchData.NBars)
+    function = Function(classOf[MAFunction], ser, ser.close, new Factor("period", 20))
+    function.validate
+    random = new Random(1)
+    lastQuote = BenchData.quotes(1)(0)
+    lastQuote.time = ser.lastOccurredTime
+  }
+
+  /** intraday update of last bar, as by streaming ticks */
+  @Benchmark
+  def updateLast: QuoteSer = {
+    lastQuote.close = lastQuote.close * (1 + (random.nextDouble - 0.5) * 0.001)
+    ser.updateFrom(lastQuote)
+    ser
+  }
+
+  @Benchmark
+  def updateAppend: QuoteSer = {
+    lastQuote = BenchData.nextQuote(random, lastQuote.time + BenchData.OneMin, lastQuote.close)
+    ser.updateFrom(lastQuote)
+    ser
+  }
+
+  /** validate when nothing changed, which is called by every computeTo */
+  @Benchmark
+  def validateUnchanged: MAFunction = {
+    function.validate
+    function
+  }
+
+  @Benchmark
+  def validateAfterAppend: MAFunction = {
+    lastQuote = BenchData.nextQuote(random, lastQuote.time + BenchData.OneMin, lastQuote.close)
+    ser.updateFrom(lastQuote)
+    function.validate
+    function
+  }
+}
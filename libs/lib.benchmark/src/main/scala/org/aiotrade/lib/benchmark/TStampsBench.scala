@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.benchmark
+
+import java.util.concurrent.TimeUnit
+import org.aiotrade.lib.math.timeseries.TStamps
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import scala.util.Random
+
+/**
+ * Lookup of time in TStamps of NBars, times to lookup are random, half of them
+ * are occurred times, half are between occurred times.
+ *
+ * @author Caoyuan Deng
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+class TStampsBench {
+  private val NLookups = 1024 // power of 2
+
+  private var timestamps: TStamps = _
+  private var lookups: Array[Long] = _
+  private var i = 0
+
+  @Setup
+  def setup {
+    timestamps = TStamps(BenchData.NBars)
+    val times = new Array[Long](BenchData.NBars)
+    var j = 0
+    while (j < times.length) {
+      times(j) = BenchData.StartTime + j * BenchData.OneMin
+      j += 1
+    }
+    timestamps ++= times
+
+    val random = new Random(1)
+    lookups = Array.fill(NLookups){
+      val time = times(random.nextInt(times.length))
+      if (random.nextBoolean) time else time + BenchData.OneMin / 2
+    }
+  }
+
+  private def nextTime = {
+    i = (i + 1) & (NLookups - 1)
+    lookups(i)
+  }
+
+  @Benchmark
+  def indexOfOccurredTime: Int = timestamps.indexOfOccurredTime(nextTime)
+
+  @Benchmark
+  def nearestIndexOfOccurredTime: Int = timestamps.nearestIndexOfOccurredTime(nextTime)
+}
@@ -32,8 +32,14 @@
 package org.aiotrade.lib.dataserver.cntdx
 
 import java.io.File
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.logging.Level
 import java.util.logging.Logger
+import org.aiotrade.lib.math.timeseries.TFreq
+import org.aiotrade.lib.securities.data.QuoteStore
 import org.aiotrade.lib.securities.model.Exchange
 import org.aiotrade.lib.securities.model.Quotes1d
 import ru.circumflex.orm._
@@ -49,6 +55,16 @@ object DataImporter {
   private val srcMainResources = "src/main/resources/"
   private val userHome = System.getProperty("user.home")
   val vipDocPath = userHome + "/myprjs/aiotrade.git/data/tdxdata/Vipdoc/"
+  
+  private val nThreads = Runtime.getRuntime.availableProcessors
+  private val threadFactory = new ThreadFactory {
+    private val count = new AtomicInteger
+    def newThread(r: Runnable) = {
+      val t = new Thread(r, "tdx-importer-" + count.incrementAndGet)
+      t.setDaemon(true)
+      t
+    }
+  }
 
   def main(args: Array[String]) {
     try {
@@ -66,41 +82,79 @@ object DataImporter {
     readQuotesFrom(vipDocPath)
   }
 
+  /**
+   * Import day files under dataPath, files are imported in parallel, one task 
+   * per file. Quotes are written to QuoteStore if it's enabled, otherwise to
+   * table Quotes1d.
+   */
   def readQuotesFrom(dataPath: String) {
     val shDir = new File(dataPath + "sh/lday")
     val szDir = new File(dataPath + "sz/lday")
 
     for (dir <- List(shDir, szDir) if dir.exists) {
-      var success = 0
-      var failure = 0
+      val success = new AtomicInteger
+      val failure = new AtomicInteger
+      
+      val tasks = new java.util.ArrayList[Callable[Unit]]
       for (file <- dir.listFiles) {
-        val fileName = file.getName
-        val ex = fileName.substring(0, 2)
-        val symbol = fileName.substring(2, 8) + (if (ex.equalsIgnoreCase("SH")) ".SS" else ".SZ")
+        tasks.add(new Callable[Unit] {
+            def call {
+              if (importFile(file)) success.incrementAndGet else failure.incrementAndGet
+            }
+          })
+      }
+      
+      val executor = Executors.newFixedThreadPool(nThreads, threadFactory)
+      try {
+        executor.invokeAll(tasks)
+      } finally {
+        executor.shutdown
+      }
+      println("\n======== Processed files with success: " + success.get + ", failure: " + failure.get)
+    }
+  }
+  
+  /**
+   * @return true if succeed
+   */
+  private def importFile(file: File): Boolean = {
+    val fileName = file.getName
+    val ex = fileName.substring(0, 2)
+    val symbol = fileName.substring(2, 8) + (if (ex.equalsIgnoreCase("SH")) ".SS" else ".SZ")
 
-        val quotes = TdxDayReader.readQuotes(file)
-        val sec = Exchange.secOf(symbol) match {
-          case Some(sec) =>
+    Exchange.secOf(symbol) match {
+      case Some(sec) =>
+        try {
+          if (QuoteStore.isEnabled) {
+            QuoteStore(sec, TFreq.DAILY) match {
+              case Some(store) =>
+                try {
+                  val n = TdxDayReader.readInto(file, store)
+                  println("Success " + symbol + ": " + n)
+                  true
+                } finally {
+                  store.close
+                }
+              case None => false
+            }
+          } else {
+            // the orm inserts Quote objects, so quotes are materialized here
+            val quotes = TdxDayReader.readQuotes(file)
             quotes.foreach{_.sec = sec}
-              
             if (!debug) {
-              try {
-                Quotes1d.insertBatch_!(quotes)
-                COMMIT
-                println("Commited")
-                success += 1
-                println("Success " + symbol + ": " + quotes.length)
-              } catch {
-                case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex)
-              }
+              Quotes1d.insertBatch_!(quotes)
+              COMMIT
             }
-              
-          case None =>
-            failure += 1
-            println("!!!! Failed to find sec of " + symbol + ": " + quotes.length)
+            println("Success " + symbol + ": " + quotes.length)
+            true
+          }
+        } catch {
+          case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex); false
         }
-      }
-      println("\n======== Processed files with success: " + success + ", failure: " + failure)
+              
+      case None =>
+        println("!!!! Failed to find sec of " + symbol)
+        false
     }
   }
 }
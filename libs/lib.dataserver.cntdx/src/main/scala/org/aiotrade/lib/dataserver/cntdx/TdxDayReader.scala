@@ -33,18 +33,19 @@ package org.aiotrade.lib.dataserver.cntdx
 
 import java.io.BufferedInputStream
 import java.io.ByteArrayOutputStream
-import java.io.EOFException
 import java.io.File
 import java.io.FileInputStream
 import java.io.IOException
 import java.io.InputStream
 import java.io.RandomAccessFile
 import java.nio.ByteBuffer
+import java.nio.ByteOrder
 import java.nio.channels.FileChannel
 import java.util.Calendar
 import java.util.TimeZone
 import org.aiotrade.lib.collection.ArrayList
-import org.aiotrade.lib.math.timeseries.TFreq
+import org.aiotrade.lib.securities.data.QuoteStore
+import org.aiotrade.lib.securities.model.Flag
 import org.aiotrade.lib.securities.model.Quote
 
 /**
@@ -73,6 +74,8 @@ class TdxDayReader private (input: Either[FileChannel, InputStream]) {
 
   private var bBuf: ByteBuffer = _
   private var _recordCount: Int = _
+  /** begin position of current record of cursor, -nBytesRecord means before first record */
+  private var recordBeg = -nBytesRecord
 
   load
 
@@ -84,18 +87,15 @@ class TdxDayReader private (input: Either[FileChannel, InputStream]) {
       case Left(x) => load(x)
       case Right(x) => load(x)
     }
+    bBuf.order(ByteOrder.LITTLE_ENDIAN)
+    recordBeg = -nBytesRecord
   }
 
   private def load(fileChannel: FileChannel) {
     if (isClosed) throw new IOException("This reader has closed")
 
-    //bBuf = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size)
-    val length = fileChannel.size.toInt
-    _recordCount = length / 20
-    bBuf = ByteBuffer.allocate(length)
-    fileChannel.position(0)
-    fileChannel.read(bBuf)
-    bBuf.rewind    
+    bBuf = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size)
+    _recordCount = bBuf.limit / nBytesRecord
   }
 
   private def load(is: InputStream) {
@@ -110,21 +110,50 @@ class TdxDayReader private (input: Either[FileChannel, InputStream]) {
     }
     val bytes = out.toByteArray
     bBuf = ByteBuffer.wrap(bytes)    
-    val length = bytes.length
-    _recordCount = length / 20
+    _recordCount = bytes.length / nBytesRecord
   }
 
   /**
-   * Returns the number of records in the DBF.
+   * Returns the number of records in the file.
    */
   def recordCount = _recordCount
 
-  def hasNext: Boolean = bBuf.position < bBuf.capacity
+  def hasNext: Boolean = recordBeg + 2 * nBytesRecord <= bBuf.limit
+
+  // --- record cursor, fields are read from buffer directly, no object is created per record
+  
+  /**
+   * Moves cursor to next record
+   * @return false if there is no more record
+   */
+  def nextRow: Boolean = {
+    if (hasNext) {
+      recordBeg += nBytesRecord
+      true
+    } else false
+  }
+  
+  /** date of current record in yyyyMMdd */
+  def date: Int = bBuf.getInt(recordBeg)
+  
+  /** begin time of the day of current record in Asia/Shanghai */
+  def time: Long = {
+    val date = this.date
+    cal.clear
+    cal.set(date / 10000, date / 100 % 100 - 1, date % 100)
+    cal.getTimeInMillis
+  }
+  
+  def open:   Double = bBuf.getInt(recordBeg + 4)  / 100.0
+  def high:   Double = bBuf.getInt(recordBeg + 8)  / 100.0
+  def low:    Double = bBuf.getInt(recordBeg + 12) / 100.0
+  def close:  Double = bBuf.getInt(recordBeg + 16) / 100.0
+  def amount: Double = bBuf.getFloat(recordBeg + 20)
+  def volume: Double = bBuf.getInt(recordBeg + 24)
 
   /**
-   * Reads the returns the next row in the DBF stream.
-   * @returns The next row as an Object array. Types of the elements
-   * these arrays follow the convention mentioned in the class description.
+   * Reads the returns the next record as a Quote.
+   * @returns The next record, or null if there is no more record
    */
   @throws(classOf[IOException])
   def nextRecord: Quote = {
@@ -132,38 +161,19 @@ class TdxDayReader private (input: Either[FileChannel, InputStream]) {
       throw new IOException("Source is not open")
     }
 
+    if (!nextRow) return null
+    
     val quote = new Quote
-    try {
-      val date    = readLittleEndianInt(bBuf)
-      val open    = readLittleEndianInt(bBuf) / 100.0
-      val high    = readLittleEndianInt(bBuf) / 100.0
-      val low     = readLittleEndianInt(bBuf) / 100.0
-      val close   = readLittleEndianInt(bBuf) / 100.0
-      val amount  = java.lang.Float.intBitsToFloat(readLittleEndianInt(bBuf))
-      val volume  = readLittleEndianInt(bBuf)
-      val reserve = readLittleEndianInt(bBuf)
-      //println("date: " + date + ", open: " + open + ", high: " + high + ", low: " + low + ", close: " + close + ", amount: " + amount + ", volume: " + volume + ", resever: " + reserve)
-      
-      val dateStr = date.toString
-      cal.set(Calendar.YEAR, dateStr.substring(0, 4).toInt)
-      cal.set(Calendar.MONTH, dateStr.substring(4, 6).toInt - 1)
-      cal.set(Calendar.DAY_OF_MONTH, dateStr.substring(6, 8).toInt)
-      val time = TFreq.DAILY.round(cal.getTimeInMillis, cal)
+    quote.time = time
+    quote.open = open
+    quote.high = high
+    quote.low = low
+    quote.close = close
+    quote.amount = amount
+    quote.volume = volume
       
-      quote.time = time
-      quote.open = open
-      quote.high = high
-      quote.low = low
-      quote.close = close
-      quote.amount = amount
-      quote.volume = volume
-      
-      quote.fromMe_!
-      quote.closed_!
-    } catch {
-      case ex: EOFException => return null
-      case ex: IOException => throw new IOException(ex.getMessage)
-    }
+    quote.fromMe_!
+    quote.closed_!
 
     quote
   }
@@ -257,6 +267,26 @@ object TdxDayReader {
     reader.close
     quotes.toArray
   }
+  
+  /**
+   * Copy records to store by cursor, no Quote is created.
+   * @return number of appended records, records not after store's lastTime are ignored
+   */
+  def readInto(file: File, store: QuoteStore): Int = {
+    val flag = Flag.MaskFromMe | Flag.MaskClosed
+    var n = 0
+    val reader = TdxDayReader(file)
+    try {
+      while (reader.nextRow) {
+        if (store.append(reader.time, 0L, flag, reader.open, reader.high, reader.low, reader.close, reader.volume, reader.amount)) {
+          n += 1
+        }
+      }
+    } finally {
+      reader.close
+    }
+    n
+  }
     
   // --- smiple test
   private val debug = false
@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.dataserver.yahoo
+
+import java.io.InputStream
+import java.util.Calendar
+import java.util.TimeZone
+
+/**
+ * A streaming CSV reader which parses fields directly from bytes of the
+ * InputStream. The line and field bounds are kept in reused buffers, numbers
+ * and dates are decoded in place, so reading a line allocates nothing except
+ * the strings that are really asked for.
+ * 
+ * Double quotes around a field are stripped, commas inside them are kept.
+ * 
+ * @author Caoyuan Deng
+ */
+private[yahoo] final class CsvReader(is: InputStream) {
+  import CsvReader._
+  
+  private val buf = new Array[Byte](8192)
+  private var pos = 0
+  private var limit = 0
+  
+  private var line = new Array[Byte](256)
+  private var lineLength = 0
+  
+  private var fieldStarts = new Array[Int](32)
+  private var fieldEnds = new Array[Int](32)
+  private var _nFields = 0
+  
+  private val stringCache = new Array[String](1024)
+  
+  def nFields = _nFields
+  
+  /**
+   * Read next line and split its fields
+   * @return false if end of stream
+   */
+  def nextLine(): Boolean = {
+    lineLength = 0
+    var eol = false
+    var gotAny = false
+    while (!eol) {
+      if (pos >= limit) {
+        limit = is.read(buf)
+        pos = 0
+        if (limit <= 0) {
+          limit = 0
+          if (!gotAny) {
+            _nFields = 0
+            return false
+          }
+          eol = true
+        }
+      }
+      while (!eol && pos < limit) {
+        val b = buf(pos)
+        pos += 1
+        gotAny = true
+        if (b == '\n') {
+          eol = true
+        } else if (b != '\r') {
+          if (lineLength == line.length) {
+            line = java.util.Arrays.copyOf(line, line.length * 2)
+          }
+          line(lineLength) = b
+          lineLength += 1
+        }
+      }
+    }
+    
+    split()
+    true
+  }
+  
+  private def split() {
+    _nFields = 0
+    var start = 0
+    var inQuote = false
+    var i = 0
+    while (i <= lineLength) {
+      if (i == lineLength || (line(i) == ',' && !inQuote)) {
+        addField(start, i)
+        start = i + 1
+      } else if (line(i) == '"') {
+        inQuote = !inQuote
+      }
+      i += 1
+    }
+  }
+  
+  private def addField(start0: Int, end0: Int) {
+    var start = start0
+    var end = end0
+    while (start < end && (line(start) == ' ' || line(start) == '"')) start += 1
+    while (end > start && (line(end - 1) == ' ' || line(end - 1) == '"')) end -= 1
+    
+    if (_nFields == fieldStarts.length) {
+      fieldStarts = java.util.Arrays.copyOf(fieldStarts, _nFields * 2)
+      fieldEnds = java.util.Arrays.copyOf(fieldEnds, _nFields * 2)
+    }
+    fieldStarts(_nFields) = start
+    fieldEnds(_nFields) = end
+    _nFields += 1
+  }
+  
+  def isEmpty(i: Int) = fieldStarts(i) == fieldEnds(i)
+  
+  /**
+   * @return true if field i is "N/A" or empty
+   */
+  def isNA(i: Int): Boolean = {
+    val start = fieldStarts(i)
+    val end = fieldEnds(i)
+    start == end || 
+    (end - start == 3 && 
+     (line(start) | 0x20) == 'n' && line(start + 1) == '/' && (line(start + 2) | 0x20) == 'a')
+  }
+  
+  /**
+   * @return true if field i ends with ascii suffix, ignoring case
+   */
+  def endsWith(i: Int, suffix: String): Boolean = {
+    val end = fieldEnds(i)
+    val start = end - suffix.length
+    if (start < fieldStarts(i)) return false
+    var j = 0
+    while (j < suffix.length) {
+      if (toUpper(line(start + j)) != toUpper(suffix.charAt(j).toByte)) return false
+      j += 1
+    }
+    true
+  }
+  
+  /**
+   * @return double value of field i, or naValue if it is "N/A" or empty
+   */
+  def double(i: Int, naValue: Double = 0.0): Double = {
+    if (isNA(i)) return naValue
+    
+    val start = fieldStarts(i)
+    val end = fieldEnds(i)
+    var j = start
+    val negative = line(j) == '-'
+    if (line(j) == '-' || line(j) == '+') j += 1
+    
+    var mantissa = 0L
+    var nDigits = 0
+    var nFracDigits = 0
+    var inFrac = false
+    while (j < end) {
+      val b = line(j)
+      if (b >= '0' && b <= '9') {
+        mantissa = mantissa * 10 + (b - '0')
+        nDigits += 1
+        if (inFrac) nFracDigits += 1
+      } else if (b == '.' && !inFrac) {
+        inFrac = true
+      } else {
+        // exponent or something unusual
+        return slowDouble(start, end)
+      }
+      j += 1
+    }
+    if (nDigits == 0 || nDigits > MAX_EXACT_DIGITS) return slowDouble(start, end)
+    
+    // both mantissa (< 2^53) and power of 10 are exact, so the division is correctly rounded
+    val v = mantissa / POW10(nFracDigits)
+    if (negative) -v else v
+  }
+  
+  private def slowDouble(start: Int, end: Int): Double = {
+    try {
+      java.lang.Double.parseDouble(new String(line, start, end - start, "ISO-8859-1"))
+    } catch {
+      case _: NumberFormatException => 0.0
+    }
+  }
+  
+  /** index after the last read digits */
+  private var lastIndex = 0
+  
+  /**
+   * Read consecutive digits from index from
+   * @return the int value, and set lastIndex to index after the digits
+   */
+  private def digits(from: Int, end: Int): Int = {
+    var v = 0
+    var j = from
+    while (j < end && line(j) >= '0' && line(j) <= '9') {
+      v = v * 10 + (line(j) - '0')
+      j += 1
+    }
+    lastIndex = j
+    v
+  }
+  
+  /**
+   * Parse date of "M/d/yyyy" (sep='/') or "yyyy-MM-dd" (sep='-')
+   * @return yyyyMMdd, or -1 if malformed
+   */
+  def date(i: Int): Int = {
+    if (isNA(i)) return -1
+    
+    val start = fieldStarts(i)
+    val end = fieldEnds(i)
+    val a = digits(start, end)
+    if (lastIndex >= end) return -1
+    val sep = line(lastIndex)
+    val b = digits(lastIndex + 1, end)
+    if (lastIndex >= end || line(lastIndex) != sep) return -1
+    val c = digits(lastIndex + 1, end)
+    if (lastIndex != end) return -1
+    
+    val y = if (sep == '/') c else a
+    val m = if (sep == '/') a else b
+    val d = if (sep == '/') b else c
+    if (m < 1 || m > 12 || d < 1 || d > 31) -1 else y * 10000 + m * 100 + d
+  }
+  
+  /**
+   * Parse time of "h:mma" such as "4:00pm", "11:35am", or of 24-hour "h:mm" 
+   * such as "13:05"
+   * @return minutes of day, or -1 if malformed
+   */
+  def minuteOfDay(i: Int): Int = {
+    if (isNA(i)) return -1
+    
+    val start = fieldStarts(i)
+    val end = fieldEnds(i)
+    val h = digits(start, end)
+    if (lastIndex >= end || line(lastIndex) != ':') return -1
+    val m = digits(lastIndex + 1, end)
+    if (m > 59) return -1
+    
+    val isPm = endsWith(i, "pm")
+    val isAm = endsWith(i, "am")
+    if (!isPm && !isAm) {
+      if (lastIndex == end && h <= 23) h * 60 + m else -1
+    } else {
+      if (h > 12) return -1
+      val h24 = if (h == 12) (if (isPm) 12 else 0) else (if (isPm) h + 12 else h)
+      h24 * 60 + m
+    }
+  }
+  
+  /**
+   * @return string of field i, cached by its bytes so that repeated symbols
+   *         in each poll don't allocate
+   */
+  def cachedString(i: Int, upperCase: Boolean = false): String = {
+    val start = fieldStarts(i)
+    val end = fieldEnds(i)
+    var h = 0
+    var j = start
+    while (j < end) {
+      h = 31 * h + (if (upperCase) toUpper(line(j)) else line(j))
+      j += 1
+    }
+    val slot = (h ^ (h >>> 16)) & (stringCache.length - 1)
+    val cached = stringCache(slot)
+    if (cached != null && matches(cached, start, end, upperCase)) {
+      cached
+    } else {
+      val chars = new Array[Char](end - start)
+      j = 0
+      while (j < chars.length) {
+        val b = line(start + j)
+        chars(j) = ((if (upperCase) toUpper(b) else b) & 0xFF).toChar
+        j += 1
+      }
+      val s = new String(chars)
+      stringCache(slot) = s
+      s
+    }
+  }
+  
+  private def matches(s: String, start: Int, end: Int, upperCase: Boolean): Boolean = {
+    if (s.length != end - start) return false
+    var j = 0
+    while (j < s.length) {
+      val b = line(start + j)
+      if (s.charAt(j) != ((if (upperCase) toUpper(b) else b) & 0xFF)) return false
+      j += 1
+    }
+    true
+  }
+  
+  def close() {
+    is.close
+  }
+}
+
+private[yahoo] object CsvReader {
+  private val MAX_EXACT_DIGITS = 15
+  private val POW10 = Array.iterate(1.0, MAX_EXACT_DIGITS + 1)(_ * 10)
+  
+  private def toUpper(b: Byte): Byte = if (b >= 'a' && b <= 'z') (b - 32).toByte else b
+}
+
+/**
+ * Cache of epoch of local 00:00 of yyyyMMdd days in timeZone, the recent days
+ * are kept in a small ring, so a poll of tickers of same day computes it once.
+ * 
+ * @author Caoyuan Deng
+ */
+private[yahoo] final class DayEpochs(timeZone: TimeZone) {
+  private val N = 16
+  private val days = Array.fill(N)(-1)
+  private val epochs = new Array[Long](N)
+  private var next = 0
+  private val cal = Calendar.getInstance(timeZone)
+  
+  /**
+   * @param yyyyMMdd day, the day of month may be 0 or beyond the month, which
+   *        is leniently rolled
+   */
+  def epochOf(yyyyMMdd: Int): Long = {
+    var i = 0
+    while (i < N) {
+      if (days(i) == yyyyMMdd) return epochs(i)
+      i += 1
+    }
+    
+    cal.clear
+    cal.set(yyyyMMdd / 10000, yyyyMMdd / 100 % 100 - 1, yyyyMMdd % 100, 0, 0, 0)
+    val epoch = cal.getTimeInMillis
+    days(next) = yyyyMMdd
+    epochs(next) = epoch
+    next = (next + 1) % N
+    epoch
+  }
+  
+  /**
+   * @return epoch of minuteOfDay at local day yyyyMMdd, DST change in that day
+   *         is considered.
+   */
+  def epochOf(yyyyMMdd: Int, minuteOfDay: Int): Long = {
+    val midnight = epochOf(yyyyMMdd)
+    val time = midnight + minuteOfDay * 60000L
+    time - (timeZone.getOffset(time) - timeZone.getOffset(midnight))
+  }
+}
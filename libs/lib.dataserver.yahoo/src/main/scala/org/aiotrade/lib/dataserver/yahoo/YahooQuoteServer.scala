@@ -31,9 +31,9 @@
 package org.aiotrade.lib.dataserver.yahoo
 
 import java.awt.Image
-import java.io.{BufferedReader, File, InputStreamReader, InputStream}
+import java.io.{File, InputStream}
 import java.net.{HttpURLConnection, URL}
-import java.text.{DateFormat, ParseException, SimpleDateFormat}
+import java.text.{DateFormat, SimpleDateFormat}
 import java.util.{Calendar, Locale, TimeZone}
 import java.util.logging.Level
 import java.util.logging.Logger
@@ -141,6 +141,16 @@ object YahooQuoteServer extends QuoteServer with Singleton {
     } else None
   }
 
+  // field index of table.csv: Date,Open,High,Low,Close,Volume,Adj Close
+  private val DATE = 0
+  private val OPEN = 1
+  private val HIGH = 2
+  private val LOW = 3
+  private val CLOSE = 4
+  private val VOLUME = 5
+  private val ADJ_CLOSE = 6
+  private val N_FIELDS = 7
+
   /**
    * @return readed time
    */
@@ -148,9 +158,9 @@ object YahooQuoteServer extends QuoteServer with Singleton {
   protected def read(contract: QuoteContract, is: InputStream): Array[Quote] = {
     val fromTime = contract.fromTime
     
-    val reader = new BufferedReader(new InputStreamReader(is))
+    val reader = new CsvReader(is)
     /** skip first line */
-    val s = reader.readLine
+    reader.nextLine
 
     val quotes = new ArrayList[Quote]
     val freq = contract.freq
@@ -158,56 +168,39 @@ object YahooQuoteServer extends QuoteServer with Singleton {
     val exchange = exchangeOf(symbol)
     val timeZone = exchange.timeZone
     // * for daily quote, yahoo returns exchange's local date, so use exchange time zone
-    val cal = Calendar.getInstance(timeZone)
-    val dateFormat = new SimpleDateFormat(defaultDatePattern) //dateFormatOf(timeZone)
-    dateFormat.setTimeZone(timeZone)
+    val dayEpochs = new DayEpochs(timeZone)
     
-    def loop(newestTime: Long): Long = reader.readLine match {
-      case null => newestTime // break now
-      case line => line.split(",") match {
-          case Array(dateX, openX, highX, lowX, closeX, volumeX, adjCloseX, _*) =>
-            /**
-             * !NOTICE
-             * must catch the date parse exception, other wise, it's dangerous
-             * for build a calendarTimes in BaseSer
-             */
-            try {
-              val date = dateFormat.parse(dateX.trim)
-              cal.clear
-              cal.setTime(date)
-            } catch {case _: ParseException => loop(newestTime)}
-
-            // the time should be properly set to 00:00 of exchange location's local time, i.e. rounded to TFreq.DAILY
-            val time = cal.getTimeInMillis
-            if (time < fromTime) {
-              loop(newestTime)
-            }
-
-            val quote = new Quote
-            quote.time   = time
-            quote.open   = openX.trim.toDouble
-            quote.high   = highX.trim.toDouble
-            quote.low    = lowX.trim.toDouble
-            quote.close  = closeX.trim.toDouble
-            quote.volume = volumeX.trim.toDouble
-            quote.prevClose = adjCloseX.trim.toDouble
-            quote.amount = -1
-            //quote.adjWeight = adjCloseX.trim
-
-            val newestTime1 = if (quote.high * quote.low * quote.close == 0) {
-              newestTime
-            } else {
-              quotes += quote
-              math.max(newestTime, time)
-            }
-                        
-            loop(newestTime1)
-          case _ => loop(newestTime)
+    var newestTime = Long.MinValue
+    while (reader.nextLine) {
+      /**
+       * !NOTICE
+       * must skip the line of bad date, other wise, it's dangerous
+       * for build a calendarTimes in BaseSer
+       */
+      val date = if (reader.nFields >= N_FIELDS) reader.date(DATE) else -1
+      if (date >= 0) {
+        // the time should be properly set to 00:00 of exchange location's local time, i.e. rounded to TFreq.DAILY
+        val time = dayEpochs.epochOf(date)
+        if (time >= fromTime) {
+          val quote = new Quote
+          quote.time   = time
+          quote.open   = reader.double(OPEN)
+          quote.high   = reader.double(HIGH)
+          quote.low    = reader.double(LOW)
+          quote.close  = reader.double(CLOSE)
+          quote.volume = reader.double(VOLUME)
+          quote.prevClose = reader.double(ADJ_CLOSE)
+          quote.amount = -1
+          //quote.adjWeight = adjClose
+
+          if (quote.high * quote.low * quote.close != 0) {
+            quotes += quote
+            newestTime = math.max(newestTime, time)
+          }
         }
+      }
     }
 
-    loop(Long.MinValue)
-
     quotes.toArray
   }
 
@@ -30,9 +30,8 @@
  */
 package org.aiotrade.lib.dataserver.yahoo
 
-import java.io.{BufferedReader, InputStreamReader, InputStream}
+import java.io.InputStream
 import java.net.{HttpURLConnection, URL, SocketTimeoutException}
-import java.text.ParseException
 import java.util.{Calendar, TimeZone}
 import java.util.logging.Level
 import java.util.logging.Logger
@@ -115,91 +114,92 @@ object YahooTickerServer extends TickerServer with Singleton {
     }
   }
 
+  // field index of format sl1d1t1c1ohgvbap + snx
+  private val SYMBOL = 0
+  private val LAST_PRICE = 1
+  private val DATE = 2
+  private val TIME = 3
+  private val DAY_CHANGE = 4
+  private val DAY_OPEN = 5
+  private val DAY_HIGH = 6
+  private val DAY_LOW = 7
+  private val DAY_VOLUME = 8
+  private val BID_PRICE = 9
+  private val ASK_PRICE = 10
+  private val PREV_CLOSE = 11
+  private val N_FIELDS = 17
+
+  // time in Yahoo! tickers is in Yahoo! Inc's local time instead of exchange place
+  // we need to convert them to UTC time
+  private lazy val dayEpochs = new DayEpochs(sourceTimeZone)
+  
   @throws(classOf[Exception])
   protected def read(is: InputStream): Array[Ticker] = {
-    val reader = new BufferedReader(new InputStreamReader(is))
+    val reader = new CsvReader(is)
     
     val tickers = new ArrayList[Ticker]
 
-    // time in Yahoo! tickers is in Yahoo! Inc's local time instead of exchange place
-    // we need to convert them to UTC time
-    val cal = Calendar.getInstance(sourceTimeZone)
-    val dateFormat = dateFormatOf(sourceTimeZone)
-
-    def loop(newestTime: Long): Long = reader.readLine match {
-      case null => newestTime // break right now
-      case line => 
-        log.fine("line: " + line)
-        line.split(",") match {
-          case Array(symbolX, lastPriceX, dateX, timeX, dayChangeX, dayOpenX, dayHighX, dayLowX, dayVolumeX, bidPriceX1, askPriceX1, prevCloseX, _, _, _, nameX, marketX, _*)
-            if !dateX.toUpperCase.contains("N/A") && !timeX.toUpperCase.contains("N/A") =>
-            val symbol = symbolX.toUpperCase.replace('"', ' ').trim
-            //val symbol  = toUniSymbol(symbolX.toUpperCase.replace('"', ' ').trim)
-            val dateStr = dateX.replace('"', ' ').trim
-            val timeStr = timeX.replace('"', ' ').trim
-
-            val exchange = Exchange.exchangeOf(symbol)
-            
-            /**
-             * !NOTICE
-             * must catch the date parse exception, other wise, it's dangerous
-             * for build a calendarTimes in BaseTSer
-             */
-            try {
-              val date = dateFormat.parse(dateStr + " " + timeStr)
-              cal.clear
-              cal.setTime(date)
-
-              // fix dateStr bug for ".SS" and ".SZ" from yahoo ticker. The bug is like:
-              // When apply: http://quote.yahoo.com/download/javasoft.beans?s=ORCL+BP.L+600000.SS+000002.SZ&d=t&f=sl1d1t1c1ohgvbap&d=t&f=snx
-              // 1. At 8/17/2010 12:10pm CST, we got:
-              // "ORCL",22.72,"8/16/2010","4:00pm",+0.06,22.50,23.00,22.35,19511716,19.00,N/A,22.66,"ORCL","ORCL","ORCL","Oracle Corporatio","NasdaqNM"
-              // "BP.L",409.75,"8/16/2010","11:35am",-6.65,416.30,416.65,406.15,24275120,409.70,409.80,409.75,"BP.L","BP.L","BP.L","BP","London"
-              // "600000.SS",14.39,"8/17/2010","11:30pm",+0.09,14.31,14.47,14.18,34159084,14.38,14.39,14.30,"600000.SS","600000.SS","600000.SS","S/PUDONG DEV BANK","Shanghai"
-              // "000002.SZ",9.01,"8/17/2010","11:30pm",+0.12,8.85,9.01,8.81,61219112,9.00,9.01,8.89,"000002.SZ","000002.SZ","000002.SZ","VANKE-A","Shenzhen"
-              // 2. Then at 8/17/2010 1:35pm CST, we got:
-              // "ORCL",22.72,"8/16/2010","4:00pm",+0.06,22.50,23.00,22.35,19511716,19.00,N/A,22.66,"ORCL","ORCL","ORCL","Oracle Corporatio","NasdaqNM"
-              // "BP.L",409.75,"8/16/2010","11:35am",-6.65,416.30,416.65,406.15,24275120,409.70,409.80,409.75,"BP.L","BP.L","BP.L","BP","London"
-              // "600000.SS",14.36,"8/17/2010","1:20am",+0.06,14.31,14.47,14.18,36886816,14.36,14.37,14.30,"600000.SS","600000.SS","600000.SS","S/PUDONG DEV BANK","Shanghai"
-              // "000002.SZ",8.96,"8/17/2010","1:20am",+0.07,8.85,9.02,8.81,68111120,8.96,8.97,8.89,"000002.SZ","000002.SZ","000002.SZ","VANKE-A","Shenzhen"
-              if ((symbol.endsWith(".SS") || symbol.endsWith(".SZ")) && timeStr.endsWith("pm")) {
-                cal.add(Calendar.DAY_OF_YEAR, -1)
-              }
-            } catch {case _: ParseException => loop(newestTime)}
-
-            val time = cal.getTimeInMillis
-            if (time == 0) {
-              /** for test and finding issues */
-              log.warning("time of ticker: " + symbol + " is 0!")
-            }
-
-            val snapTicker = snapTickerOf(symbol)
-            snapTicker.time = time
-            snapTicker.isChanged = false
-            snapTicker.prevClose = if (prevCloseX.equalsIgnoreCase("N/A")) 0 else prevCloseX.trim.toDouble
-            snapTicker.lastPrice = if (lastPriceX.equalsIgnoreCase("N/A")) 0 else lastPriceX.trim.toDouble
-            snapTicker.dayChange = if (dayChangeX.equalsIgnoreCase("N/A")) 0 else dayChangeX.trim.toDouble
-            snapTicker.dayOpen   = if (dayOpenX.equalsIgnoreCase("N/A")) 0 else dayOpenX.trim.toDouble
-            snapTicker.dayHigh   = if (dayHighX.equalsIgnoreCase("N/A")) 0 else dayHighX.trim.toDouble
-            snapTicker.dayLow    = if (dayLowX.equalsIgnoreCase("N/A")) 0 else dayLowX.trim.toDouble
-            snapTicker.dayVolume = if (dayVolumeX.equalsIgnoreCase("N/A")) 0 else dayVolumeX.trim.toDouble
-            snapTicker.setBidPrice(0, if (bidPriceX1.equalsIgnoreCase("N/A")) 0 else bidPriceX1.trim.toDouble)
-            snapTicker.setAskPrice(0, if (askPriceX1.equalsIgnoreCase("N/A")) 0 else askPriceX1.trim.toDouble)
-            log.fine("tickerSnapshot : "+ snapTicker.toLightTicker.toString)
-            log.fine("tickerSnapshot.isChanged : " + snapTicker.isChanged + ", subscribedSrcSymbols.contains " + symbol + ": " + this.subscribedSrcSymbols.contains(symbol))
-            if (snapTicker.isChanged && this.subscribedSrcSymbols.contains(symbol)) {
-              val ticker = new Ticker
-              ticker.uniSymbol = symbol
-              ticker.copyFrom(snapTicker)
-              tickers += ticker
-            }
-
-            loop(math.max(newestTime, time))
-          case _ => loop(newestTime)
+    var newestTime = Long.MinValue
+    while (reader.nextLine) {
+      /**
+       * !NOTICE
+       * must skip the line of bad date, other wise, it's dangerous
+       * for build a calendarTimes in BaseTSer
+       */
+      val date = if (reader.nFields >= N_FIELDS) reader.date(DATE) else -1
+      val minuteOfDay = if (date >= 0) reader.minuteOfDay(TIME) else -1
+      if (minuteOfDay >= 0) {
+        val symbol = reader.cachedString(SYMBOL, upperCase = true)
+        //val symbol  = toUniSymbol(symbol)
+
+        // fix dateStr bug for ".SS" and ".SZ" from yahoo ticker. The bug is like:
+        // When apply: http://quote.yahoo.com/download/javasoft.beans?s=ORCL+BP.L+600000.SS+000002.SZ&d=t&f=sl1d1t1c1ohgvbap&d=t&f=snx
+        // 1. At 8/17/2010 12:10pm CST, we got:
+        // "ORCL",22.72,"8/16/2010","4:00pm",+0.06,22.50,23.00,22.35,19511716,19.00,N/A,22.66,"ORCL","ORCL","ORCL","Oracle Corporatio","NasdaqNM"
+        // "BP.L",409.75,"8/16/2010","11:35am",-6.65,416.30,416.65,406.15,24275120,409.70,409.80,409.75,"BP.L","BP.L","BP.L","BP","London"
+        // "600000.SS",14.39,"8/17/2010","11:30pm",+0.09,14.31,14.47,14.18,34159084,14.38,14.39,14.30,"600000.SS","600000.SS","600000.SS","S/PUDONG DEV BANK","Shanghai"
+        // "000002.SZ",9.01,"8/17/2010","11:30pm",+0.12,8.85,9.01,8.81,61219112,9.00,9.01,8.89,"000002.SZ","000002.SZ","000002.SZ","VANKE-A","Shenzhen"
+        // 2. Then at 8/17/2010 1:35pm CST, we got:
+        // "ORCL",22.72,"8/16/2010","4:00pm",+0.06,22.50,23.00,22.35,19511716,19.00,N/A,22.66,"ORCL","ORCL","ORCL","Oracle Corporatio","NasdaqNM"
+        // "BP.L",409.75,"8/16/2010","11:35am",-6.65,416.30,416.65,406.15,24275120,409.70,409.80,409.75,"BP.L","BP.L","BP.L","BP","London"
+        // "600000.SS",14.36,"8/17/2010","1:20am",+0.06,14.31,14.47,14.18,36886816,14.36,14.37,14.30,"600000.SS","600000.SS","600000.SS","S/PUDONG DEV BANK","Shanghai"
+        // "000002.SZ",8.96,"8/17/2010","1:20am",+0.07,8.85,9.02,8.81,68111120,8.96,8.97,8.89,"000002.SZ","000002.SZ","000002.SZ","VANKE-A","Shenzhen"
+        val day = if ((symbol.endsWith(".SS") || symbol.endsWith(".SZ")) && reader.endsWith(TIME, "pm")) {
+          date - 1 // day 0 of month is rolled to last day of previous month
+        } else date
+
+        val time = dayEpochs.epochOf(day, minuteOfDay)
+        if (time == 0) {
+          /** for test and finding issues */
+          log.warning("time of ticker: " + symbol + " is 0!")
+        }
+
+        val snapTicker = snapTickerOf(symbol)
+        snapTicker.time = time
+        snapTicker.isChanged = false
+        snapTicker.prevClose = reader.double(PREV_CLOSE)
+        snapTicker.lastPrice = reader.double(LAST_PRICE)
+        snapTicker.dayChange = reader.double(DAY_CHANGE)
+        snapTicker.dayOpen   = reader.double(DAY_OPEN)
+        snapTicker.dayHigh   = reader.double(DAY_HIGH)
+        snapTicker.dayLow    = reader.double(DAY_LOW)
+        snapTicker.dayVolume = reader.double(DAY_VOLUME)
+        snapTicker.setBidPrice(0, reader.double(BID_PRICE))
+        snapTicker.setAskPrice(0, reader.double(ASK_PRICE))
+        if (log.isLoggable(Level.FINE)) {
+          log.fine("tickerSnapshot : "+ snapTicker.toLightTicker.toString)
+          log.fine("tickerSnapshot.isChanged : " + snapTicker.isChanged + ", subscribedSrcSymbols.contains " + symbol + ": " + this.subscribedSrcSymbols.contains(symbol))
+        }
+        if (snapTicker.isChanged && this.subscribedSrcSymbols.contains(symbol)) {
+          val ticker = new Ticker
+          ticker.uniSymbol = symbol
+          ticker.copyFrom(snapTicker)
+          tickers += ticker
         }
-    }
 
-    val newestTime = loop(Long.MinValue)
+        newestTime = math.max(newestTime, time)
+      }
+    }
     
     tickers.toArray
   }
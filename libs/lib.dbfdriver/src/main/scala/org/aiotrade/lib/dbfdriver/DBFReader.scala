@@ -40,11 +40,7 @@ class DBFReader private (input: Either[FileChannel, InputStream], charsetName: S
   private def load(fileChannel: FileChannel) {
     if (isClosed) throw new IOException("This reader has closed")
 
-    //bBuf = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size)
-    bBuf = ByteBuffer.allocate(fileChannel.size.toInt)
-    fileChannel.position(0)
-    fileChannel.read(bBuf)
-    bBuf.rewind
+    bBuf = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size)
     
     header = DBFHeader.read(bBuf)
   }
@@ -118,6 +114,149 @@ class DBFReader private (input: Either[FileChannel, InputStream], charsetName: S
 
   def hasNext: Boolean = bBuf.position < bBuf.capacity
 
+  // --- row cursor, fields are parsed from buffer in place, no object is created per row.
+  // It reads by absolute position, and is independent of nextRecord
+  
+  /** offset of each field in record, the first byte of record is the deleted flag */
+  private lazy val fieldOffsets = {
+    val offsets = new Array[Int](header.fields.length)
+    var offset = 1
+    var i = 0
+    while (i < offsets.length) {
+      offsets(i) = offset
+      offset += header.fields(i).length
+      i += 1
+    }
+    offsets
+  }
+  private lazy val recordLength = header.recordLength & 0xFFFF
+  /** begin position of current row, -1 means before first row */
+  private var rowBeg = -1
+
+  /**
+   * Moves cursor to next row, deleted rows are included, @see isDeleted
+   * @return false if there is no more row
+   */
+  def nextRow: Boolean = {
+    val next = if (rowBeg < 0) header.headerLength & 0xFFFF else rowBeg + recordLength
+    if (next + recordLength <= bBuf.limit && bBuf.get(next) != END_OF_DATA) {
+      rowBeg = next
+      true
+    } else false
+  }
+  
+  def isDeleted: Boolean = bBuf.get(rowBeg) == '*'
+  
+  def stringAt(idx: Int): String = {
+    val bytes = new Array[Byte](header.fields(idx).length)
+    var i = 0
+    val beg = rowBeg + fieldOffsets(idx)
+    while (i < bytes.length) {
+      bytes(i) = bBuf.get(beg + i)
+      i += 1
+    }
+    new String(bytes, charset)
+  }
+
+  def booleanAt(idx: Int): Boolean = bBuf.get(rowBeg + fieldOffsets(idx)) match {
+    case 'Y' | 'y' | 'T' | 't' => true
+    case _ => false
+  }
+  
+  /**
+   * @return 0 if field is empty or is not a valid integer
+   */
+  def longAt(idx: Int): Long = {
+    val beg = rowBeg + fieldOffsets(idx)
+    val end = beg + header.fields(idx).length
+    var value = 0L
+    var negative = false
+    var i = beg
+    while (i < end) {
+      val b = bBuf.get(i)
+      if (b >= '0' && b <= '9') {
+        value = value * 10 + (b - '0')
+      } else if (b == '-') {
+        negative = true
+      } else if (b != ' ' && b != '+') {
+        return 0
+      }
+      i += 1
+    }
+    if (negative) -value else value
+  }
+  
+  def intAt(idx: Int): Int = longAt(idx).toInt
+
+  /**
+   * Decimal numbers in fixed notation are parsed in place, others fall back 
+   * to parseDouble.
+   * @return 0.0 if field is empty or is not a valid number
+   */
+  def doubleAt(idx: Int): Double = {
+    val beg = rowBeg + fieldOffsets(idx)
+    val end = beg + header.fields(idx).length
+    var mantissa = 0L
+    var nDigits = 0
+    var nFractions = -1 // -1 means no '.' met yet
+    var negative = false
+    var i = beg
+    while (i < end) {
+      val b = bBuf.get(i)
+      if (b >= '0' && b <= '9') {
+        mantissa = mantissa * 10 + (b - '0')
+        if (mantissa != 0) nDigits += 1
+        if (nFractions >= 0) nFractions += 1
+      } else if (b == '.' && nFractions < 0) {
+        nFractions = 0
+      } else if (b == '-') {
+        negative = true
+      } else if (b != ' ' && b != '+') {
+        return slowDoubleAt(beg, end)
+      }
+      i += 1
+    }
+    
+    if (nDigits > MaxExactDigits || nFractions >= Pow10.length) {
+      slowDoubleAt(beg, end)
+    } else {
+      // both mantissa and 10^n are exact in double, so is the quotient
+      val value = if (nFractions > 0) mantissa / Pow10(nFractions) else mantissa.toDouble
+      if (negative) -value else value
+    }
+  }
+
+  private def slowDoubleAt(beg: Int, end: Int): Double = {
+    val bytes = new Array[Byte](end - beg)
+    var i = 0
+    while (i < bytes.length) {
+      bytes(i) = bBuf.get(beg + i)
+      i += 1
+    }
+    try {
+      parseDouble(bytes)
+    } catch {
+      case ex: NumberFormatException => 0.0
+    }
+  }
+  
+  /**
+   * @return date of 'D' field in yyyyMMdd, or 0 if empty
+   */
+  def dateAt(idx: Int): Int = {
+    val beg = rowBeg + fieldOffsets(idx)
+    var value = 0
+    var i = beg
+    while (i < beg + 8) {
+      val b = bBuf.get(i)
+      if (b >= '0' && b <= '9') {
+        value = value * 10 + (b - '0')
+      } else return 0
+      i += 1
+    }
+    value
+  }
+
   /**
    * Reads the returns the next row in the DBF stream.
    * @returns The next row as an Object array. Types of the elements
@@ -326,6 +465,10 @@ object DBFReader {
   private val defaultCharsetName = "8859_1"
   
   private val END_OF_DATA = 0x1A
+  
+  /** max number of significant digits that a long mantissa is exact in double */
+  private val MaxExactDigits = 15
+  private val Pow10 = Array.iterate(1.0, 23)(_ * 10)
 
   @throws(classOf[UnsupportedEncodingException])
   @throws(classOf[IOException])
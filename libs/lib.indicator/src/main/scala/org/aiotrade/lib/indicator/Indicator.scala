@@ -30,14 +30,16 @@
  */
 package org.aiotrade.lib.indicator
 
+import java.util.concurrent.atomic.AtomicLong
 import org.aiotrade.lib.indicator.function._
 import org.aiotrade.lib.math.indicator.Factor
 import org.aiotrade.lib.math.indicator.Function
 import org.aiotrade.lib.math.indicator.IndicatorHelper
 import org.aiotrade.lib.math.signal.Side
-import org.aiotrade.lib.math.timeseries.{DefaultTSer, TVar, BaseTSer}
+import org.aiotrade.lib.math.timeseries.{DefaultTSer, TVar, BaseTSer, BooleanTVar, DoubleTVar}
 import org.aiotrade.lib.securities.QuoteSer
 import org.aiotrade.lib.securities.model._
+import org.aiotrade.lib.util.metrics.Metrics
 
 
 /**
@@ -62,23 +64,35 @@ abstract class Indicator(protected var _baseSer: BaseTSer) extends DefaultTSer
    */
   private var _computedTime = Long.MinValue
   
+  /** shared by all instances of the same indicator class */
+  private lazy val computeMetric = Metrics.histogram("indicator." + getClass.getSimpleName + ".compute.us")
+
+  /** 
+   * @Note session id is taken from a global counter, but kept per instance, so 
+   * indicators computing concurrently in different threads won't mess it. 
+   */
+  protected var sessionId: Long = _
+  protected def setSessionId {
+    sessionId = nextSessionId
+  }
+  
   /** Always use unadjusted values?, override it to get you want */
   val isUsingUnadjusted = false
   
   /** To store values of open, high, low, close, volume, amount, closed: */
-  protected var O: TVar[Double] = _
-  protected var H: TVar[Double] = _
-  protected var L: TVar[Double] = _
-  protected var C: TVar[Double] = _
-  protected var V: TVar[Double] = _
-  protected var A: TVar[Double] = _
-  protected var EC: TVar[Double] = _
-  protected var E: TVar[Boolean] = _
+  protected var O: DoubleTVar = _
+  protected var H: DoubleTVar = _
+  protected var L: DoubleTVar = _
+  protected var C: DoubleTVar = _
+  protected var V: DoubleTVar = _
+  protected var A: DoubleTVar = _
+  protected var EC: DoubleTVar = _
+  protected var E: BooleanTVar = _
   // unadjusted
-  protected var OO: TVar[Double] = _
-  protected var HO: TVar[Double] = _
-  protected var LO: TVar[Double] = _
-  protected var CO: TVar[Double] = _
+  protected var OO: DoubleTVar = _
+  protected var HO: DoubleTVar = _
+  protected var LO: DoubleTVar = _
+  protected var CO: DoubleTVar = _
 
   private var _uniSymbol: Option[String] = None
 
@@ -185,7 +199,9 @@ abstract class Indicator(protected var _baseSer: BaseTSer) extends DefaultTSer
          */
         val size = timestamps.size
 
+        val t0 = System.nanoTime
         compute(fromIdx, size)
+        computeMetric.record((System.nanoTime - t0) / 1000)
         
         _computedTime = timestamps.lastOccurredTime
         super.postComputeFrom
@@ -273,143 +289,143 @@ abstract class Indicator(protected var _baseSer: BaseTSer) extends DefaultTSer
   // ----- End of functions for test
     
   final protected def sum(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[SUMFunction], baseSer, baseVar, period).sum(sessionId, idx)
+    Function.acquire(this, classOf[SUMFunction], baseSer, baseVar, period).sum(sessionId, idx)
   }
     
   final protected def max(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[MAXFunction], baseSer, baseVar, period).max(sessionId, idx)
+    Function.acquire(this, classOf[MAXFunction], baseSer, baseVar, period).max(sessionId, idx)
   }
     
   final protected def min(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[MINFunction], baseSer, baseVar, period).min(sessionId, idx)
+    Function.acquire(this, classOf[MINFunction], baseSer, baseVar, period).min(sessionId, idx)
   }
     
   final protected def ma(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[MAFunction], baseSer, baseVar, period).ma(sessionId, idx)
+    Function.acquire(this, classOf[MAFunction], baseSer, baseVar, period).ma(sessionId, idx)
   }
     
   final protected def ema(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[EMAFunction], baseSer, baseVar, period).ema(sessionId, idx)
+    Function.acquire(this, classOf[EMAFunction], baseSer, baseVar, period).ema(sessionId, idx)
   }
     
   final protected def stdDev(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[STDDEVFunction], baseSer, baseVar, period).stdDev(sessionId, idx)
+    Function.acquire(this, classOf[STDDEVFunction], baseSer, baseVar, period).stdDev(sessionId, idx)
   }
     
   final protected def probMass(idx: Int, baseVar: TVar[Double], period: Factor, nInterval: Factor): Array[Array[Double]] = {
-    Function(classOf[PROBMASSFunction], baseSer, baseVar, null, period, nInterval).probMass(sessionId, idx)
+    Function.acquire(this, classOf[PROBMASSFunction], baseSer, baseVar, null, period, nInterval).probMass(sessionId, idx)
   }
     
   final protected def probMass(idx: Int, baseVar: TVar[Double], weight: TVar[Double], period: Factor, nInterval: Factor): Array[Array[Double]] = {
-    Function(classOf[PROBMASSFunction], baseSer, baseVar, weight, period, nInterval).probMass(sessionId, idx)
+    Function.acquire(this, classOf[PROBMASSFunction], baseSer, baseVar, weight, period, nInterval).probMass(sessionId, idx)
   }
     
   final protected def tr(idx: Int): Double = {
-    Function(classOf[TRFunction], baseSer).tr(sessionId, idx)
+    Function.acquire(this, classOf[TRFunction], baseSer).tr(sessionId, idx)
   }
     
   final protected def dmPlus(idx: Int): Double = {
-    Function(classOf[DMFunction], baseSer).dmPlus(sessionId, idx)
+    Function.acquire(this, classOf[DMFunction], baseSer).dmPlus(sessionId, idx)
   }
     
   final protected def dmMinus(idx: Int): Double = {
-    Function(classOf[DMFunction], baseSer).dmMinus(sessionId, idx)
+    Function.acquire(this, classOf[DMFunction], baseSer).dmMinus(sessionId, idx)
   }
     
   final protected def diPlus(idx: Int, period: Factor): Double = {
-    Function(classOf[DIFunction], baseSer, period).diPlus(sessionId, idx)
+    Function.acquire(this, classOf[DIFunction], baseSer, period).diPlus(sessionId, idx)
   }
     
   final protected def diMinus(idx: Int, period: Factor): Double = {
-    Function(classOf[DIFunction], baseSer, period).diMinus(sessionId, idx)
+    Function.acquire(this, classOf[DIFunction], baseSer, period).diMinus(sessionId, idx)
   }
     
   final protected def dx(idx: Int, period: Factor): Double = {
-    Function(classOf[DXFunction], baseSer, period).dx(sessionId, idx)
+    Function.acquire(this, classOf[DXFunction], baseSer, period).dx(sessionId, idx)
   }
     
   final protected def adx(idx: Int, periodDi: Factor, periodAdx: Factor): Double = {
-    Function(classOf[ADXFunction], baseSer, periodDi, periodAdx).adx(sessionId, idx)
+    Function.acquire(this, classOf[ADXFunction], baseSer, periodDi, periodAdx).adx(sessionId, idx)
   }
     
   final protected def adxr(idx: Int, periodDi: Factor, periodAdx: Factor): Double = {
-    Function(classOf[ADXRFunction], baseSer, periodDi, periodAdx).adxr(sessionId, idx)
+    Function.acquire(this, classOf[ADXRFunction], baseSer, periodDi, periodAdx).adxr(sessionId, idx)
   }
     
   final protected def bollMiddle(idx: Int, baseVar: TVar[_], period: Factor, alpha: Factor): Double = {
-    Function(classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollMiddle(sessionId, idx)
+    Function.acquire(this, classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollMiddle(sessionId, idx)
   }
     
   final protected def bollUpper(idx: Int, baseVar: TVar[_], period: Factor, alpha: Factor): Double = {
-    Function(classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollUpper(sessionId, idx)
+    Function.acquire(this, classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollUpper(sessionId, idx)
   }
     
   final protected def bollLower(idx: Int, baseVar: TVar[_], period: Factor, alpha: Factor): Double = {
-    Function(classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollLower(sessionId, idx)
+    Function.acquire(this, classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollLower(sessionId, idx)
   }
     
   final protected def cci(idx: Int, period: Factor, alpha: Factor): Double = {
-    Function(classOf[CCIFunction], baseSer, period, alpha).cci(sessionId, idx)
+    Function.acquire(this, classOf[CCIFunction], baseSer, period, alpha).cci(sessionId, idx)
   }
     
   final protected def macd(idx: Int, baseVar: TVar[_], periodSlow: Factor, periodFast: Factor): Double = {
-    Function(classOf[MACDFunction], baseSer, baseVar, periodSlow, periodFast).macd(sessionId, idx)
+    Function.acquire(this, classOf[MACDFunction], baseSer, baseVar, periodSlow, periodFast).macd(sessionId, idx)
   }
     
   final protected def mfi(idx: Int, period: Factor): Double = {
-    Function(classOf[MFIFunction], baseSer, period).mfi(sessionId, idx)
+    Function.acquire(this, classOf[MFIFunction], baseSer, period).mfi(sessionId, idx)
   }
     
   final protected def mtm(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[MTMFunction], baseSer, baseVar, period).mtm(sessionId, idx)
+    Function.acquire(this, classOf[MTMFunction], baseSer, baseVar, period).mtm(sessionId, idx)
   }
     
   final protected def obv(idx: Int): Double = {
-    Function(classOf[OBVFunction], baseSer).obv(sessionId, idx)
+    Function.acquire(this, classOf[OBVFunction], baseSer).obv(sessionId, idx)
   }
     
   final protected def roc(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[ROCFunction], baseSer, baseVar, period).roc(sessionId, idx)
+    Function.acquire(this, classOf[ROCFunction], baseSer, baseVar, period).roc(sessionId, idx)
   }
     
   final protected def rsi(idx: Int, period: Factor): Double = {
-    Function(classOf[RSIFunction], baseSer, period).rsi(sessionId, idx)
+    Function.acquire(this, classOf[RSIFunction], baseSer, period).rsi(sessionId, idx)
   }
     
   final protected def sar(idx: Int, initial: Factor, step: Factor, maximum: Factor): Double = {
-    Function(classOf[SARFunction], baseSer, initial, step, maximum).sar(sessionId, idx)
+    Function.acquire(this, classOf[SARFunction], baseSer, initial, step, maximum).sar(sessionId, idx)
   }
     
   final protected def sarSide(idx: Int, initial: Factor, step: Factor, maximum: Factor): Side = {
-    Function(classOf[SARFunction], baseSer, initial, step, maximum).sarSide(sessionId, idx)
+    Function.acquire(this, classOf[SARFunction], baseSer, initial, step, maximum).sarSide(sessionId, idx)
   }
     
   final protected def stochK(idx: Int, period: Factor, periodK: Factor): Double = {
-    Function(classOf[STOCHKFunction], baseSer, period, periodK).stochK(sessionId, idx)
+    Function.acquire(this, classOf[STOCHKFunction], baseSer, period, periodK).stochK(sessionId, idx)
   }
     
   final protected def stochD(idx: Int, period: Factor, periodK: Factor, periodD: Factor): Double = {
-    Function(classOf[STOCHDFunction], baseSer, period, periodK, periodD).stochD(sessionId, idx)
+    Function.acquire(this, classOf[STOCHDFunction], baseSer, period, periodK, periodD).stochD(sessionId, idx)
   }
     
   final protected def stochJ(idx: Int, period: Factor, periodK: Factor, periodD: Factor): Double = {
-    Function(classOf[STOCHJFunction], baseSer, period, periodK, periodD).stochJ(sessionId, idx)
+    Function.acquire(this, classOf[STOCHJFunction], baseSer, period, periodK, periodD).stochJ(sessionId, idx)
   }
     
   final protected def wms(idx: Int, period: Factor): Double = {
-    Function(classOf[WMSFunction], baseSer, period).wms(sessionId, idx)
+    Function.acquire(this, classOf[WMSFunction], baseSer, period).wms(sessionId, idx)
   }
     
   final protected def zigzag(idx: Int, percent: Factor): Double = {
-    Function(classOf[ZIGZAGFunction], baseSer, percent).zigzag(sessionId, idx)
+    Function.acquire(this, classOf[ZIGZAGFunction], baseSer, percent).zigzag(sessionId, idx)
   }
     
   final protected def pseudoZigzag(idx: Int, percent: Factor): Double = {
-    Function(classOf[ZIGZAGFunction], baseSer, percent).pseudoZigzag(sessionId, idx)
+    Function.acquire(this, classOf[ZIGZAGFunction], baseSer, percent).pseudoZigzag(sessionId, idx)
   }
     
   final protected def zigzagSide(idx: Int, percent: Factor): Side = {
-    Function(classOf[ZIGZAGFunction], baseSer, percent).zigzagSide(sessionId, idx)
+    Function.acquire(this, classOf[ZIGZAGFunction], baseSer, percent).zigzagSide(sessionId, idx)
   }
     
   override def dispose {
@@ -429,9 +445,7 @@ abstract class Indicator(protected var _baseSer: BaseTSer) extends DefaultTSer
  */
 object Indicator {
   /** a static global session id */
-  protected var sessionId: Long = _
+  private val sessionIdCounter = new AtomicLong
 
-  protected def setSessionId {
-    sessionId += 1
-  }
+  protected def nextSessionId: Long = sessionIdCounter.incrementAndGet
 }
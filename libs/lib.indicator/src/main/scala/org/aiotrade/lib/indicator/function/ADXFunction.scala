@@ -42,9 +42,9 @@ class ADXFunction extends Function {
     
   var periodDi, periodAdx: Factor = _
     
-  val _dx  = TVar[Double]()
+  val _dx  = DoubleTVar()
     
-  val _adx = TVar[Double]()
+  val _adx = DoubleTVar()
 
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer, Nil)
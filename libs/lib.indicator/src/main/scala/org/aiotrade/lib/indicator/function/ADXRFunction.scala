@@ -42,8 +42,8 @@ class ADXRFunction extends Function {
     
   var periodDi, periodAdx: Factor = _
     
-  val _adx  = TVar[Double]()
-  val _adxr = TVar[Double]()
+  val _adx  = DoubleTVar()
+  val _adxr = DoubleTVar()
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
@@ -44,9 +44,9 @@ class BOLLFunction extends Function {
   var period, alpha: Factor = _
   var baseVar: TVar[Double] = _
     
-  val _bollMiddle = TVar[Double]()
-  val _bollUpper  = TVar[Double]()
-  val _bollLower  = TVar[Double]()
+  val _bollMiddle = DoubleTVar()
+  val _bollUpper  = DoubleTVar()
+  val _bollLower  = DoubleTVar()
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
@@ -42,10 +42,10 @@ class CCIFunction extends Function {
     
   var alpha, period: Factor = _
     
-  val _tp        = TVar[Double]()
-  val _deviation = TVar[Double]()
+  val _tp        = DoubleTVar()
+  val _deviation = DoubleTVar()
     
-  val _cci = TVar[Double]()
+  val _cci = DoubleTVar()
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
@@ -42,12 +42,12 @@ class DIFunction extends Function {
     
   var period: Factor = _
     
-  val _dmPlus  = TVar[Double]()
-  val _dmMinus = TVar[Double]()
-  val _tr      = TVar[Double]()
+  val _dmPlus  = DoubleTVar()
+  val _dmMinus = DoubleTVar()
+  val _tr      = DoubleTVar()
     
-  val _diPlus  = TVar[Double]()
-  val _diMinus = TVar[Double]()
+  val _diPlus  = DoubleTVar()
+  val _diMinus = DoubleTVar()
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
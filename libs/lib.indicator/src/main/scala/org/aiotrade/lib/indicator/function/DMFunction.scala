@@ -39,8 +39,8 @@ import org.aiotrade.lib.math.timeseries.BaseTSer
  */
 class DMFunction extends Function {
     
-  val _dmPlus  = TVar[Double]()
-  val _dmMinus = TVar[Double]()
+  val _dmPlus  = DoubleTVar()
+  val _dmMinus = DoubleTVar()
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
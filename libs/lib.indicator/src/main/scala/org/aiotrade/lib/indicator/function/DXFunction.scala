@@ -42,10 +42,10 @@ class DXFunction extends Function {
     
   var period: Factor = _
     
-  val _diPlus  = TVar[Double]()
-  val _diMinus = TVar[Double]()
+  val _diPlus  = DoubleTVar()
+  val _diMinus = DoubleTVar()
     
-  val _dx = TVar[Double]()
+  val _dx = DoubleTVar()
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
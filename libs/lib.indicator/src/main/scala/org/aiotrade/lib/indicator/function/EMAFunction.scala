@@ -47,7 +47,7 @@ class EMAFunction extends Function {
   var period: Factor = _
   var baseVar: TVar[Double] = _
     
-  val _ema = TVar[Double]()
+  val _ema = DoubleTVar()
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
@@ -56,10 +56,18 @@ class EMAFunction extends Function {
     this.period  = args(1).asInstanceOf[Factor]
   }
     
+  override protected def computeRange(fromIdx: Int, toIdx: Int) {
+    if (isBulk(fromIdx, toIdx)) {
+      StatsFunctions.emas(baseVar.values, period.value.toInt, fromIdx, toIdx, _ema.values)
+    } else {
+      super.computeRange(fromIdx, toIdx)
+    }
+  }
+    
   protected def computeSpot(i: Int): Unit = {
     if (i == 0) {
             
-      _ema(i) = baseVar(i)
+      _ema(i) = baseVar.double(i)
             
     } else {
             
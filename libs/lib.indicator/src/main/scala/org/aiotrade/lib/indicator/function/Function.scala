@@ -30,7 +30,7 @@
  */
 package org.aiotrade.lib.indicator.function
 
-import org.aiotrade.lib.math.timeseries.{DefaultTSer, BaseTSer,TVar, Null}
+import org.aiotrade.lib.math.timeseries.{DefaultTSer, BaseTSer, DoubleTVar, TVar, Null}
 import org.aiotrade.lib.math.indicator.Factor
 import org.aiotrade.lib.math.signal.Side
 import org.aiotrade.lib.securities.QuoteSer
@@ -40,6 +40,9 @@ import org.aiotrade.lib.securities.QuoteSer
  * @author Caoyuan Deng
  */
 object Function {
+  /** min number of spots to be computed by bulk kernels instead of spot by spot */
+  val MinBulkSpots = 64
+  
   /**
    * a helper function for keeping the same functin form as Function, don't be
    * puzzled by the name, it actully will return funcion instance
@@ -47,6 +50,14 @@ object Function {
   protected def apply[T <: org.aiotrade.lib.math.indicator.Function](clazz: Class[T], baseSer: BaseTSer, args: Any*): T = {
     org.aiotrade.lib.math.indicator.Function(clazz, baseSer, args: _*)
   }
+  
+  /**
+   * Function held by consumer until consumer is released, i.e. the consumer
+   * indicator is disposed or the consumer function is evicted
+   */
+  protected def acquire[T <: org.aiotrade.lib.math.indicator.Function](consumer: AnyRef, clazz: Class[T], baseSer: BaseTSer, args: Any*): T = {
+    org.aiotrade.lib.math.indicator.Function.acquire(consumer, clazz, baseSer, args: _*)
+  }
 }
 
 import Function._
@@ -69,12 +80,12 @@ abstract class Function extends DefaultTSer
   protected var baseSer: BaseTSer = _
     
   /** To store values of open, high, low, close, volume: */
-  protected var O: TVar[Double] = _
-  protected var H: TVar[Double] = _
-  protected var L: TVar[Double] = _
-  protected var C: TVar[Double] = _
-  protected var V: TVar[Double] = _
-  protected var E: TVar[Double] = _
+  protected var O: DoubleTVar = _
+  protected var H: DoubleTVar = _
+  protected var L: DoubleTVar = _
+  protected var C: DoubleTVar = _
+  protected var V: DoubleTVar = _
+  protected var E: DoubleTVar = _
 
   def set(baseSer: BaseTSer, args: Any*) {
     super.set(baseSer.freq)
@@ -136,14 +147,9 @@ abstract class Function extends DefaultTSer
         validate
       }
 
-      // call computeSpot(i)
       val size = timestamps.size
       val toIdx = math.min(idx, size - 1)
-      var i = fromIdx
-      while (i <= toIdx) {
-        computeSpot(i)
-        i += 1
-      }
+      computeRange(fromIdx, toIdx)
         
       computedIdx = toIdx
         
@@ -166,6 +172,21 @@ abstract class Function extends DefaultTSer
   protected def postComputeTo(sessionId: Long, idx: Int) {
   }
     
+  /**
+   * Compute spots from fromIdx to toIdx. Override it to fill whole vars at once
+   * by bulk kernels, such as StatsFunctions.mas, when isBulk(fromIdx, toIdx),
+   * i.e. during initial loading.
+   */
+  protected def computeRange(fromIdx: Int, toIdx: Int) {
+    var i = fromIdx
+    while (i <= toIdx) {
+      computeSpot(i)
+      i += 1
+    }
+  }
+  
+  protected def isBulk(fromIdx: Int, toIdx: Int): Boolean = toIdx - fromIdx + 1 >= MinBulkSpots
+    
   /**
    * @param i, idx of spot
    */
@@ -209,143 +230,143 @@ abstract class Function extends DefaultTSer
    */
     
   final protected def sum(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[SUMFunction], baseSer, baseVar, period).sum(sessionId, idx)
+    acquire(this, classOf[SUMFunction], baseSer, baseVar, period).sum(sessionId, idx)
   }
     
   final protected def max(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[MAXFunction], baseSer, baseVar, period).max(sessionId, idx)
+    acquire(this, classOf[MAXFunction], baseSer, baseVar, period).max(sessionId, idx)
   }
     
   final protected def min(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[MINFunction], baseSer, baseVar, period).min(sessionId, idx)
+    acquire(this, classOf[MINFunction], baseSer, baseVar, period).min(sessionId, idx)
   }
     
   final protected def ma(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[MAFunction], baseSer, baseVar, period).ma(sessionId, idx)
+    acquire(this, classOf[MAFunction], baseSer, baseVar, period).ma(sessionId, idx)
   }
     
   final protected def ema(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[EMAFunction], baseSer, baseVar, period).ema(sessionId, idx)
+    acquire(this, classOf[EMAFunction], baseSer, baseVar, period).ema(sessionId, idx)
   }
     
   final protected def stdDev(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[STDDEVFunction], baseSer, baseVar, period).stdDev(sessionId, idx)
+    acquire(this, classOf[STDDEVFunction], baseSer, baseVar, period).stdDev(sessionId, idx)
   }
     
   final protected def probMass(idx: Int, baseVar: TVar[Double], period: Factor, nInterval: Factor): Array[Array[Double]] = {
-    Function(classOf[PROBMASSFunction], baseSer, baseVar, null, period, nInterval).probMass(sessionId, idx)
+    acquire(this, classOf[PROBMASSFunction], baseSer, baseVar, null, period, nInterval).probMass(sessionId, idx)
   }
     
   final protected def probMass(idx: Int, baseVar: TVar[Double], weight: TVar[Double] , period: Factor, nInterval: Factor): Array[Array[Double]] = {
-    Function(classOf[PROBMASSFunction], baseSer, baseVar, weight, period, nInterval).probMass(sessionId, idx)
+    acquire(this, classOf[PROBMASSFunction], baseSer, baseVar, weight, period, nInterval).probMass(sessionId, idx)
   }
     
   final protected def tr(idx: Int): Double = {
-    Function(classOf[TRFunction], baseSer).tr(sessionId, idx)
+    acquire(this, classOf[TRFunction], baseSer).tr(sessionId, idx)
   }
     
   final protected def dmPlus(idx: Int): Double = {
-    Function(classOf[DMFunction], baseSer).dmPlus(sessionId, idx)
+    acquire(this, classOf[DMFunction], baseSer).dmPlus(sessionId, idx)
   }
     
   final protected def dmMinus(idx: Int): Double = {
-    Function(classOf[DMFunction], baseSer).dmMinus(sessionId, idx)
+    acquire(this, classOf[DMFunction], baseSer).dmMinus(sessionId, idx)
   }
     
   final protected def diPlus(idx: Int, period: Factor): Double = {
-    Function(classOf[DIFunction], baseSer, period).diPlus(sessionId, idx)
+    acquire(this, classOf[DIFunction], baseSer, period).diPlus(sessionId, idx)
   }
     
   final protected def diMinus(idx: Int, period: Factor): Double = {
-    Function(classOf[DIFunction], baseSer, period).diMinus(sessionId, idx)
+    acquire(this, classOf[DIFunction], baseSer, period).diMinus(sessionId, idx)
   }
     
   final protected def dx(idx: Int, period: Factor): Double = {
-    Function(classOf[DXFunction], baseSer, period).dx(sessionId, idx)
+    acquire(this, classOf[DXFunction], baseSer, period).dx(sessionId, idx)
   }
     
   final protected def adx(idx: Int, periodDi: Factor, periodAdx: Factor): Double = {
-    Function(classOf[ADXFunction], baseSer, periodDi, periodAdx).adx(sessionId, idx)
+    acquire(this, classOf[ADXFunction], baseSer, periodDi, periodAdx).adx(sessionId, idx)
   }
     
   final protected def adxr(idx: Int, periodDi: Factor, periodAdx: Factor): Double = {
-    Function(classOf[ADXRFunction], baseSer, periodDi, periodAdx).adxr(sessionId, idx)
+    acquire(this, classOf[ADXRFunction], baseSer, periodDi, periodAdx).adxr(sessionId, idx)
   }
     
   final protected def bollMiddle(idx: Int, baseVar: TVar[_], period: Factor, alpha: Factor): Double = {
-    Function(classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollMiddle(sessionId, idx)
+    acquire(this, classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollMiddle(sessionId, idx)
   }
     
   final protected def bollUpper(idx: Int, baseVar: TVar[_], period: Factor, alpha: Factor): Double = {
-    Function(classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollUpper(sessionId, idx)
+    acquire(this, classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollUpper(sessionId, idx)
   }
     
   final protected def bollLower(idx: Int, baseVar: TVar[_], period: Factor, alpha: Factor): Double = {
-    Function(classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollLower(sessionId, idx)
+    acquire(this, classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollLower(sessionId, idx)
   }
     
   final protected def cci(idx: Int, period: Factor, alpha: Factor): Double = {
-    Function(classOf[CCIFunction], baseSer, period, alpha).cci(sessionId, idx)
+    acquire(this, classOf[CCIFunction], baseSer, period, alpha).cci(sessionId, idx)
   }
     
   final protected def macd(idx: Int, baseVar: TVar[_], periodSlow: Factor, periodFast: Factor): Double = {
-    Function(classOf[MACDFunction], baseSer, baseVar, periodSlow, periodFast).macd(sessionId, idx)
+    acquire(this, classOf[MACDFunction], baseSer, baseVar, periodSlow, periodFast).macd(sessionId, idx)
   }
     
   final protected def mfi(idx: Int, period: Factor): Double = {
-    Function(classOf[MFIFunction], baseSer, period).mfi(sessionId, idx)
+    acquire(this, classOf[MFIFunction], baseSer, period).mfi(sessionId, idx)
   }
     
   final protected def mtm(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[MTMFunction], baseSer, baseVar, period).mtm(sessionId, idx)
+    acquire(this, classOf[MTMFunction], baseSer, baseVar, period).mtm(sessionId, idx)
   }
     
   final protected def obv(idx: Int): Double = {
-    Function(classOf[OBVFunction], baseSer).obv(sessionId, idx)
+    acquire(this, classOf[OBVFunction], baseSer).obv(sessionId, idx)
   }
     
   final protected def roc(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[ROCFunction], baseSer, baseVar, period).roc(sessionId, idx)
+    acquire(this, classOf[ROCFunction], baseSer, baseVar, period).roc(sessionId, idx)
   }
     
   final protected def rsi(idx: Int, period: Factor): Double = {
-    Function(classOf[RSIFunction], baseSer, period).rsi(sessionId, idx)
+    acquire(this, classOf[RSIFunction], baseSer, period).rsi(sessionId, idx)
   }
     
   final protected def sar(idx: Int, initial: Factor, step: Factor, maximum: Factor): Double = {
-    Function(classOf[SARFunction], baseSer, initial, step, maximum).sar(sessionId, idx)
+    acquire(this, classOf[SARFunction], baseSer, initial, step, maximum).sar(sessionId, idx)
   }
     
   final protected def sarSide(idx: Int, initial: Factor, step: Factor, maximum: Factor): Side = {
-    Function(classOf[SARFunction], baseSer, initial, step, maximum).sarSide(sessionId, idx)
+    acquire(this, classOf[SARFunction], baseSer, initial, step, maximum).sarSide(sessionId, idx)
   }
     
   final protected def stochK(idx: Int, period: Factor, periodK: Factor): Double = {
-    Function(classOf[STOCHKFunction], baseSer, period, periodK).stochK(sessionId, idx)
+    acquire(this, classOf[STOCHKFunction], baseSer, period, periodK).stochK(sessionId, idx)
   }
     
   final protected def stochD(idx: Int, period: Factor, periodK: Factor, periodD: Factor): Double = {
-    Function(classOf[STOCHDFunction], baseSer, period, periodK, periodD).stochD(sessionId, idx)
+    acquire(this, classOf[STOCHDFunction], baseSer, period, periodK, periodD).stochD(sessionId, idx)
   }
     
   final protected def stochJ(idx: Int, period: Factor, periodK: Factor, periodD: Factor): Double = {
-    Function(classOf[STOCHJFunction], baseSer, period, periodK, periodD).stochJ(sessionId, idx)
+    acquire(this, classOf[STOCHJFunction], baseSer, period, periodK, periodD).stochJ(sessionId, idx)
   }
     
   final protected def wms(idx: Int, period: Factor): Double = {
-    Function(classOf[WMSFunction], baseSer, period).wms(sessionId, idx)
+    acquire(this, classOf[WMSFunction], baseSer, period).wms(sessionId, idx)
   }
     
   final protected def zigzag(idx: Int, percent: Factor): Double = {
-    Function(classOf[ZIGZAGFunction], baseSer, percent).zigzag(sessionId, idx)
+    acquire(this, classOf[ZIGZAGFunction], baseSer, percent).zigzag(sessionId, idx)
   }
     
   final protected def pseudoZigzag(idx: Int, percent: Factor): Double = {
-    Function(classOf[ZIGZAGFunction], baseSer, percent).pseudoZigzag(sessionId, idx)
+    acquire(this, classOf[ZIGZAGFunction], baseSer, percent).pseudoZigzag(sessionId, idx)
   }
     
   final protected def zigzagSide(idx: Int, percent: Factor): Side = {
-    Function(classOf[ZIGZAGFunction], baseSer, percent).zigzagSide(sessionId, idx)
+    acquire(this, classOf[ZIGZAGFunction], baseSer, percent).zigzagSide(sessionId, idx)
   }
     
     
@@ -43,10 +43,10 @@ class MACDFunction extends Function {
   var periodSlow, periodFast: Factor = _
   var baseVar: TVar[Double] = _
     
-  val _emaFast = TVar[Double]()
-  val _emaSlow = TVar[Double]()
+  val _emaFast = DoubleTVar()
+  val _emaSlow = DoubleTVar()
     
-  val _macd = TVar[Double]()
+  val _macd = DoubleTVar()
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
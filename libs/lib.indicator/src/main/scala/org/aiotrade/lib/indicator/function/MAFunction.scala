@@ -48,7 +48,7 @@ class MAFunction extends Function {
   var period: Factor = _
   var baseVar: TVar[Double] = _
     
-  val _ma = TVar[Double]()
+  val _ma = DoubleTVar()
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
@@ -59,6 +59,14 @@ class MAFunction extends Function {
     }
   }
     
+  override protected def computeRange(fromIdx: Int, toIdx: Int) {
+    if (isBulk(fromIdx, toIdx)) {
+      StatsFunctions.mas(baseVar.values, period.value.toInt, fromIdx, toIdx, _ma.values)
+    } else {
+      super.computeRange(fromIdx, toIdx)
+    }
+  }
+    
   protected def computeSpot(i: Int) : Unit = {
     if (i < period.value - 1) {
             
@@ -48,7 +48,9 @@ class MAXFunction extends Function {
   var period: Factor = _
   var baseVar: TVar[Double] = _
     
-  val _max = TVar[Double]()
+  val _max = DoubleTVar()
+
+  private val rolling = new RollingMaxMin(true)
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
@@ -57,6 +59,16 @@ class MAXFunction extends Function {
     this.period  = args(1).asInstanceOf[Factor]
   }
     
+  override protected def computeRange(fromIdx: Int, toIdx: Int) {
+    if (isBulk(fromIdx, toIdx)) {
+      StatsFunctions.maxs(baseVar.values, period.value.toInt, fromIdx, toIdx, _max.values)
+      // rolling state is not moved by bulk computing
+      rolling.reset
+    } else {
+      super.computeRange(fromIdx, toIdx)
+    }
+  }
+    
   protected def computeSpot(i: Int): Unit = {
     if (i < period.value - 1) {
             
@@ -64,7 +76,7 @@ class MAXFunction extends Function {
             
     } else {
             
-      _max(i) = imax(i, baseVar, period.value, _max(i - 1))
+      _max(i) = rolling.valueOf(i, baseVar, period.value.toInt)
             
     }
   }
@@ -41,11 +41,11 @@ class MFIFunction extends Function {
     
   var period: Factor = _
     
-  val _tp    = TVar[Double]()
-  val _mfPos = TVar[Double]()
-  val _mfNeg = TVar[Double]()
+  val _tp    = DoubleTVar()
+  val _mfPos = DoubleTVar()
+  val _mfNeg = DoubleTVar()
 
-  val _mfi = TVar[Double]
+  val _mfi = DoubleTVar()
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
@@ -48,7 +48,9 @@ class MINFunction extends Function {
   var period: Factor = _
   var baseVar: TVar[Double] = _
     
-  val _min = TVar[Double]()
+  val _min = DoubleTVar()
+
+  private val rolling = new RollingMaxMin(false)
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
@@ -57,6 +59,16 @@ class MINFunction extends Function {
     this.period  = args(1).asInstanceOf[Factor]
   }
     
+  override protected def computeRange(fromIdx: Int, toIdx: Int) {
+    if (isBulk(fromIdx, toIdx)) {
+      StatsFunctions.mins(baseVar.values, period.value.toInt, fromIdx, toIdx, _min.values)
+      // rolling state is not moved by bulk computing
+      rolling.reset
+    } else {
+      super.computeRange(fromIdx, toIdx)
+    }
+  }
+    
   protected def computeSpot(i: Int): Unit = {
     if (i < period.value - 1) {
             
@@ -64,7 +76,7 @@ class MINFunction extends Function {
             
     } else {
             
-      _min(i) = imin(i, baseVar, period.value, _min(i - 1))
+      _min(i) = rolling.valueOf(i, baseVar, period.value.toInt)
             
     }
   }
@@ -44,7 +44,7 @@ class MTMFunction extends Function {
   var period: Factor = _
   var baseVar: TVar[Double] = _
     
-  val _mtm = TVar[Double]()
+  val _mtm = DoubleTVar()
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
@@ -60,7 +60,7 @@ class MTMFunction extends Function {
             
     } else {
             
-      _mtm(i) = (baseVar(i) / baseVar(i - period.value.toInt)) * 100f
+      _mtm(i) = (baseVar.double(i) / baseVar.double(i - period.value.toInt)) * 100f
             
     }
   }
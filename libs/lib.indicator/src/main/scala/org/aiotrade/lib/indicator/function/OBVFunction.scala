@@ -38,7 +38,7 @@ import org.aiotrade.lib.math.timeseries.BaseTSer
  */
 class OBVFunction extends Function {
     
-  val _obv = TVar[Double]()
+  val _obv = DoubleTVar()
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
@@ -44,7 +44,7 @@ class ROCFunction extends Function {
   var period: Factor = _
   var baseVar: TVar[Double] = _
     
-  val _roc = TVar[Double]()
+  val _roc = DoubleTVar()
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
@@ -60,9 +60,9 @@ class ROCFunction extends Function {
             
     } else {
             
-      val var_j = baseVar(i - period.value.toInt)
+      val var_j = baseVar.double(i - period.value.toInt)
             
-      val roc_i = if (var_j == 0) 0f else ((baseVar(i) - var_j) / var_j) * 100
+      val roc_i = if (var_j == 0) 0f else ((baseVar.double(i) - var_j) / var_j) * 100
             
       _roc(i) = roc_i
             
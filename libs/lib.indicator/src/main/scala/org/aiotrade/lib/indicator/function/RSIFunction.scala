@@ -42,10 +42,10 @@ class RSIFunction extends Function {
     
   var period: Factor = _
     
-  val _up = TVar[Double]()
-  val _dn = TVar[Double]()
+  val _up = DoubleTVar()
+  val _dn = DoubleTVar()
     
-  val _rsi = TVar[Double]()
+  val _rsi = DoubleTVar()
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.indicator.function
+
+import org.aiotrade.lib.math.timeseries.{TVar, Null}
+
+/**
+ * Rolling state of the closed window [idx - period + 1, idx - 1] of a var, i.e.
+ * the bars before idx. When the last bar at idx is updated again and again by
+ * streaming ticks, the closed window keeps unchanged, so the spot at idx can be
+ * computed in O(1) from this state plus the value at idx.
+ *
+ * moveTo(idx, ...) advances the state by one bar in O(1) when idx moves forward
+ * by 1, keeps it when idx is same, otherwise rebuilds it in O(period).
+ *
+ * @author Caoyuan Deng
+ */
+final class RollingMoments {
+  /** rebuild after so many advances to avoid accumulated rounding error, same as StatsFunctions.MaxSlides */
+  private val MaxAdvances = 4096
+
+  private var stateIdx = Int.MinValue
+  private var statePeriod = 0
+  private var nAdvances = 0
+  private var nNulls = 0
+
+  /** Welford state: number, mean and sum of squared deviations of non-Null values */
+  private var _count = 0
+  private var _mean = 0.0
+  private var _m2 = 0.0
+  
+  def count = _count
+  def mean = _mean
+  def m2 = _m2
+  
+  /**
+   * @return true if there is no Null value in closed window
+   */
+  def moveTo(idx: Int, baseVar: TVar[Double], period: Int): Boolean = {
+    if (stateIdx == idx && statePeriod == period) {
+      // same bar being updated, closed window is not changed
+    } else if (stateIdx == idx - 1 && statePeriod == period && nAdvances < MaxAdvances) {
+      add(baseVar.double(idx - 1))
+      if (idx - period >= 0) {
+        remove(baseVar.double(idx - period))
+      }
+      nAdvances += 1
+    } else {
+      reset
+      var j = math.max(idx - period + 1, 0)
+      while (j < idx) {
+        add(baseVar.double(j))
+        j += 1
+      }
+      statePeriod = period
+    }
+    
+    stateIdx = idx
+    nNulls == 0
+  }
+
+  /**
+   * @return population standard deviation of closed window plus value
+   */
+  def stdDevWith(value: Double): Double = {
+    val n = _count + 1
+    val delta = value - _mean
+    val mean = _mean + delta / n
+    val m2 = _m2 + delta * (value - mean)
+    math.sqrt(math.max(m2, 0.0) / n)
+  }
+  
+  def reset {
+    stateIdx = Int.MinValue
+    nAdvances = 0
+    nNulls = 0
+    _count = 0
+    _mean = 0.0
+    _m2 = 0.0
+  }
+
+  private def add(value: Double) {
+    if (Null.is(value)) {
+      nNulls += 1
+    } else {
+      _count += 1
+      val delta = value - _mean
+      _mean += delta / _count
+      _m2 += delta * (value - _mean)
+    }
+  }
+
+  private def remove(value: Double) {
+    if (Null.is(value)) {
+      nNulls -= 1
+    } else if (_count <= 1) {
+      _count = 0
+      _mean = 0.0
+      _m2 = 0.0
+    } else {
+      _count -= 1
+      val delta = value - _mean
+      _mean -= delta / _count
+      _m2 -= delta * (value - _mean)
+    }
+  }
+}
+
+/**
+ * Monotonic deque of indices of the closed window, the head is always the idx
+ * of max (or min) value. Null values are skipped as StatsFunctions.maxmin does.
+ */
+final class RollingMaxMin(isMax: Boolean) {
+  private var stateIdx = Int.MinValue
+  private var statePeriod = 0
+
+  /** ring buffer of indices */
+  private var idxs = new Array[Int](16)
+  private var head = 0
+  private var count = 0
+
+  /**
+   * @return max (or min) value of window [idx - period + 1, idx], which contains value at idx
+   */
+  def valueOf(idx: Int, baseVar: TVar[Double], period: Int): Double = {
+    moveTo(idx, baseVar, period)
+    
+    var extreme = if (isMax) Double.MinValue else Double.MaxValue
+    if (count > 0) {
+      extreme = baseVar.double(idxs(head))
+    }
+    val value = baseVar.double(idx)
+    if (Null.not(value) && (if (isMax) value > extreme else value < extreme)) {
+      extreme = value
+    }
+    extreme
+  }
+
+  def moveTo(idx: Int, baseVar: TVar[Double], period: Int) {
+    if (stateIdx == idx && statePeriod == period) {
+      // same bar being updated, closed window is not changed
+    } else if (stateIdx == idx - 1 && statePeriod == period) {
+      push(idx - 1, baseVar)
+      evictBefore(idx - period + 1)
+    } else {
+      reset
+      if (idxs.length < period) {
+        idxs = new Array[Int](period)
+      }
+      var j = math.max(idx - period + 1, 0)
+      while (j < idx) {
+        push(j, baseVar)
+        j += 1
+      }
+      statePeriod = period
+    }
+    
+    stateIdx = idx
+  }
+
+  def reset {
+    stateIdx = Int.MinValue
+    head = 0
+    count = 0
+  }
+
+  private def push(j: Int, baseVar: TVar[Double]) {
+    val value = baseVar.double(j)
+    if (Null.is(value)) return
+    
+    // pop from tail all those that will never be the extreme again
+    while (count > 0 && {
+        val tail = baseVar.double(idxs((head + count - 1) % idxs.length))
+        if (isMax) tail <= value else tail >= value
+      }) {
+      count -= 1
+    }
+    idxs((head + count) % idxs.length) = j
+    count += 1
+  }
+
+  private def evictBefore(fromIdx: Int) {
+    while (count > 0 && idxs(head) < fromIdx) {
+      head = (head + 1) % idxs.length
+      count -= 1
+    }
+  }
+}
@@ -43,10 +43,10 @@ class SARFunction extends Function {
   var initial, step, maximum: Factor = _
     
   val _side = TVar[Side]()
-  val _ep   = TVar[Double]()
-  val _af   = TVar[Double]()
+  val _ep   = DoubleTVar()
+  val _af   = DoubleTVar()
     
-  val _sar = TVar[Double]()
+  val _sar = DoubleTVar()
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
@@ -52,7 +52,9 @@ class STDDEVFunction extends Function {
   var period: Factor = _
   var baseVar: TVar[Double] = _
     
-  val _stdDev = TVar[Double]()
+  val _stdDev = DoubleTVar()
+
+  private val rolling = new RollingMoments
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
@@ -61,6 +63,16 @@ class STDDEVFunction extends Function {
     this.period  = args(1).asInstanceOf[Factor]
   }
     
+  override protected def computeRange(fromIdx: Int, toIdx: Int) {
+    if (isBulk(fromIdx, toIdx)) {
+      StatsFunctions.stdDevs(baseVar.values, period.value.toInt, fromIdx, toIdx, _stdDev.values)
+      // rolling state is not moved by bulk computing
+      rolling.reset
+    } else {
+      super.computeRange(fromIdx, toIdx)
+    }
+  }
+    
   protected def computeSpot(i: Int): Unit = {
     if (i < period.value - 1) {
             
@@ -68,7 +80,13 @@ class STDDEVFunction extends Function {
             
     } else {
             
-      _stdDev(i) = stdDev(i, baseVar, period.value)
+      val n = period.value.toInt
+      _stdDev(i) = if (rolling.moveTo(i, baseVar, n)) {
+        rolling.stdDevWith(baseVar.double(i))
+      } else {
+        // there are Null values in window, compute it in the old way
+        stdDev(i, baseVar, period.value)
+      }
             
     }
   }
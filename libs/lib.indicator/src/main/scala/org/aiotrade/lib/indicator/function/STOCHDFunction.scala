@@ -42,9 +42,9 @@ class STOCHDFunction extends Function {
     
   var period, periodK, periodD: Factor = _
     
-  val _stochK = TVar[Double]
+  val _stochK = DoubleTVar()
     
-  val _stochD = TVar[Double]
+  val _stochD = DoubleTVar()
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
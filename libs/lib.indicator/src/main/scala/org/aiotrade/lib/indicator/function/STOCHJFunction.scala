@@ -41,10 +41,10 @@ class STOCHJFunction extends Function {
     
   var period, periodK, periodD: Factor = _
     
-  val _stochK = TVar[Double]()
-  val _stochD = TVar[Double]()
+  val _stochK = DoubleTVar()
+  val _stochD = DoubleTVar()
     
-  val _stochJ = TVar[Double]()
+  val _stochJ = DoubleTVar()
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
@@ -42,9 +42,9 @@ class STOCHKFunction extends Function {
     
   var period, periodK: Factor = _
     
-  val _elementK = TVar[Double]()
+  val _elementK = DoubleTVar()
     
-  val _stochK = TVar[Double]()
+  val _stochK = DoubleTVar()
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
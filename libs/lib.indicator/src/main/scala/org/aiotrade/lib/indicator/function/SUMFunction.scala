@@ -48,7 +48,7 @@ class SUMFunction extends Function {
   var period: Factor = _
   var baseVar: TVar[Double] = _
     
-  val _sum = TVar[Double]()
+  val _sum = DoubleTVar()
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
@@ -57,6 +57,14 @@ class SUMFunction extends Function {
     this.period  = args(1).asInstanceOf[Factor]
   }
     
+  override protected def computeRange(fromIdx: Int, toIdx: Int) {
+    if (isBulk(fromIdx, toIdx)) {
+      StatsFunctions.sums(baseVar.values, period.value.toInt, fromIdx, toIdx, _sum.values)
+    } else {
+      super.computeRange(fromIdx, toIdx)
+    }
+  }
+    
   protected def computeSpot(i: Int): Unit = {
     if (i < period.value - 1) {
             
@@ -39,7 +39,7 @@ import org.aiotrade.lib.math.timeseries.BaseTSer
  */
 class TRFunction extends Function {
     
-  val _tr = TVar[Double]()
+  val _tr = DoubleTVar()
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
@@ -41,7 +41,7 @@ class WMSFunction extends Function {
     
   var period: Factor = _
     
-  val _wms = TVar[Double]()
+  val _wms = DoubleTVar()
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
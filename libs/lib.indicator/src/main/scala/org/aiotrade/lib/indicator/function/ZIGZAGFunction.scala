@@ -43,14 +43,14 @@ class ZIGZAGFunction extends Function {
     
   var percent: Factor = _
     
-  val _peakHi    = TVar[Double]()
-  val _peakLo    = TVar[Double]()
+  val _peakHi    = DoubleTVar()
+  val _peakLo    = DoubleTVar()
   val _peakHiIdx = TVar[Int]()
   val _peakLoIdx = TVar[Int]()
   val _side = TVar[Side]()
     
-  val _zigzag       = TVar[Double]()
-  val _pseudoZigzag = TVar[Double]()
+  val _zigzag       = DoubleTVar()
+  val _pseudoZigzag = DoubleTVar()
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
@@ -34,6 +34,14 @@ import org.aiotrade.lib.math.timeseries.Null
 import org.aiotrade.lib.collection.ArrayList
 
 /**
+ * Each function has 3 forms:
+ *   f(values: ArrayList[Double], ...)
+ *   f(values: Array[Double], ...)
+ *   f(values: Array[Double], length: Int, ...)
+ * The last one only sees the first 'length' elements of values, it's the one
+ * that all others go to. The ArrayList form passes in its backing array and
+ * size, so it's a zero-copy view of the series instead of a values.toArray
+ * copy on each call.
  *
  * @author Caoyuan Deng
  */
@@ -44,9 +52,13 @@ object StatsFunctions {
   val VALUE = 0
   val MASS = 1
 
-  def sum(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = sum(values.toArray, fromIdx, toIdx)
-  def sum(values: Array[Double], fromIdx: Int, toIdx: Int): Double = {
-    if (fromIdx < 0 || toIdx >= values.length) {
+  /** max number of slides of rolling states before rebuilding, to bound accumulated rounding error */
+  private val MaxSlides = 4096
+
+  def sum(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = sum(values.underlyingArray, values.size, fromIdx, toIdx)
+  def sum(values: Array[Double], fromIdx: Int, toIdx: Int): Double = sum(values, values.length, fromIdx, toIdx)
+  def sum(values: Array[Double], length: Int, fromIdx: Int, toIdx: Int): Double = {
+    if (fromIdx < 0 || toIdx >= length) {
       return Null.Double
     }
 
@@ -63,15 +75,16 @@ object StatsFunctions {
     sum
   }
 
-  def isum(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = isum(idx, values.toArray, period, prev)
-  def isum(idx: Int, values: Array[Double], period: Int, prev: Double): Double = {
+  def isum(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = isum(idx, values.underlyingArray, values.size, period, prev)
+  def isum(idx: Int, values: Array[Double], period: Int, prev: Double): Double = isum(idx, values, values.length, period, prev)
+  def isum(idx: Int, values: Array[Double], length: Int, period: Int, prev: Double): Double = {
     val lookbackIdx = lookback(idx, period)
 
-    if (lookbackIdx < 0 || idx >= values.length) {
+    if (lookbackIdx < 0 || idx >= length) {
       Null.Double
     } else if (lookbackIdx == 0) {
       /** compute first availabe sum (in case of enough period first time) */
-      sum(values, 0, idx)
+      sum(values, length, 0, idx)
     } else {
       if (Null.is(prev)) {
         /**
@@ -79,35 +92,38 @@ object StatsFunctions {
          * element, thus cause the prevSum to be a Null.Double, we should
          * precess this case by:
          */
-        sum(values, lookbackIdx, idx)
+        sum(values, length, lookbackIdx, idx)
       } else {
-        prev + values(idx) - values(lookbackIdx - 1)
+        /** Null entering or leaving the window is taken as 0, as sum does */
+        prev + nullAsZero(values(idx)) - nullAsZero(values(lookbackIdx - 1))
       }
     }
   }
 
-  def ma(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = ma(values.toArray, fromIdx, toIdx)
-  def ma(values: Array[Double], fromIdx: Int, toIdx: Int): Double = {
-    if (fromIdx < 0 || toIdx >= values.length) {
+  def ma(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = ma(values.underlyingArray, values.size, fromIdx, toIdx)
+  def ma(values: Array[Double], fromIdx: Int, toIdx: Int): Double = ma(values, values.length, fromIdx, toIdx)
+  def ma(values: Array[Double], length: Int, fromIdx: Int, toIdx: Int): Double = {
+    if (fromIdx < 0 || toIdx >= length) {
       return Null.Double
     }
 
     val period1 = period(fromIdx, toIdx).toDouble
-    sum(values, fromIdx, toIdx) / period1
+    sum(values, length, fromIdx, toIdx) / period1
   }
 
   /**
    * ma(t + 1) = ma(t) + ( x(t) / N - x(t - n) / N )
    */
-  def ima(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = ima(idx, values.toArray, period, prev)
-  def ima(idx: Int, values: Array[Double], period: Int, prev: Double): Double = {
+  def ima(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = ima(idx, values.underlyingArray, values.size, period, prev)
+  def ima(idx: Int, values: Array[Double], period: Int, prev: Double): Double = ima(idx, values, values.length, period, prev)
+  def ima(idx: Int, values: Array[Double], length: Int, period: Int, prev: Double): Double = {
     val lookbackIdx = lookback(idx, period)
 
-    if (lookbackIdx < 0 || idx >= values.length) {
+    if (lookbackIdx < 0 || idx >= length) {
       Null.Double
     } else if (lookbackIdx == 0) {
       /** compute first available ma (in case of enough period first time) */
-      ma(values, 0, idx)
+      ma(values, length, 0, idx)
     } else {
       if (Null.is(prev)) {
         /**
@@ -115,16 +131,18 @@ object StatsFunctions {
          * element, thus cause the prevSum to be a Null.Double, we should
          * precess this case by:
          */
-        ma(values, lookbackIdx, idx)
+        ma(values, length, lookbackIdx, idx)
       } else {
-        prev + (values(idx) - values(lookbackIdx - 1)) / (period * 1f)
+        /** Null entering or leaving the window is taken as 0, as ma does */
+        prev + (nullAsZero(values(idx)) - nullAsZero(values(lookbackIdx - 1))) / (period * 1f)
       }
     }
   }
 
-  def ema(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = ema(values.toArray, fromIdx, toIdx)
-  def ema(values: Array[Double], fromIdx: Int, toIdx: Int): Double = {
-    if (fromIdx < 0 || toIdx >= values.length) {
+  def ema(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = ema(values.underlyingArray, values.size, fromIdx, toIdx)
+  def ema(values: Array[Double], fromIdx: Int, toIdx: Int): Double = ema(values, values.length, fromIdx, toIdx)
+  def ema(values: Array[Double], length: Int, fromIdx: Int, toIdx: Int): Double = {
+    if (fromIdx < 0 || toIdx >= length) {
       return Null.Double
     }
 
@@ -144,9 +162,10 @@ object StatsFunctions {
    *            = (1 - 1/N) * ema(t) + (1/N) * x(t)
    *            = (1 - a) * ema(t) + a * x(t)  // let a = 1/N
    */
-  def iema(idx: Int, values: Array[Double], period: Int, prev: Double): Double = iema(idx, values.toArray, period, prev)
-  def iema(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = {
-    var value = values(idx)
+  def iema(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = iema(idx, values.underlyingArray, values.size, period, prev)
+  def iema(idx: Int, values: Array[Double], period: Int, prev: Double): Double = iema(idx, values, values.length, period, prev)
+  def iema(idx: Int, values: Array[Double], length: Int, period: Int, prev: Double): Double = {
+    var value = if (idx >= 0 && idx < length) values(idx) else Null.Double
     if (Null.is(value)) value = 0.0
 
 
@@ -160,22 +179,24 @@ object StatsFunctions {
     //return ((period - 1.0f) / (period + 1.0f)) * prevEma + (2.0f / (period + 1.0f)) * value;
   }
 
-  def max(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = max(values.toArray, fromIdx, toIdx)
-  def max(values: Array[Double], fromIdx: Int, toIdx: Int): Double = {
-    maxmin(values, fromIdx, toIdx)(MAX)
+  def max(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = max(values.underlyingArray, values.size, fromIdx, toIdx)
+  def max(values: Array[Double], fromIdx: Int, toIdx: Int): Double = max(values, values.length, fromIdx, toIdx)
+  def max(values: Array[Double], length: Int, fromIdx: Int, toIdx: Int): Double = {
+    maxmin(values, length, fromIdx, toIdx)(MAX)
   }
 
-  def imax(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = imax(idx, values.toArray, period, prev)
-  def imax(idx: Int, values: Array[Double], period: Int, prev: Double): Double = {
+  def imax(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = imax(idx, values.underlyingArray, values.size, period, prev)
+  def imax(idx: Int, values: Array[Double], period: Int, prev: Double): Double = imax(idx, values, values.length, period, prev)
+  def imax(idx: Int, values: Array[Double], length: Int, period: Int, prev: Double): Double = {
     val lookbackIdx = lookback(idx, period)
 
-    if (lookbackIdx < 0 || idx >= values.length) {
+    if (lookbackIdx < 0 || idx >= length) {
       Null.Double
     } else if (lookbackIdx == 0) {
-      max(values, 0, idx)
+      max(values, length, 0, idx)
     } else {
       if (Null.is(prev) || values(lookbackIdx - 1) == prev) {
-        max(values, lookbackIdx, idx)
+        max(values, length, lookbackIdx, idx)
       } else {
         val value = values(idx)
         if (prev >= value) prev else value
@@ -183,22 +204,24 @@ object StatsFunctions {
     }
   }
 
-  def min(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = min(values.toArray, fromIdx, toIdx)
-  def min(values: Array[Double], fromIdx: Int, toIdx: Int): Double = {
-    maxmin(values, fromIdx, toIdx)(MIN)
+  def min(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = min(values.underlyingArray, values.size, fromIdx, toIdx)
+  def min(values: Array[Double], fromIdx: Int, toIdx: Int): Double = min(values, values.length, fromIdx, toIdx)
+  def min(values: Array[Double], length: Int, fromIdx: Int, toIdx: Int): Double = {
+    maxmin(values, length, fromIdx, toIdx)(MIN)
   }
 
-  def imin(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = imin(idx, values.toArray, period, prev)
-  def imin(idx: Int, values: Array[Double], period: Int, prev: Double): Double = {
+  def imin(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = imin(idx, values.underlyingArray, values.size, period, prev)
+  def imin(idx: Int, values: Array[Double], period: Int, prev: Double): Double = imin(idx, values, values.length, period, prev)
+  def imin(idx: Int, values: Array[Double], length: Int, period: Int, prev: Double): Double = {
     val lookbackIdx = lookback(idx, period)
 
-    if (lookbackIdx < 0 || idx >= values.length) {
+    if (lookbackIdx < 0 || idx >= length) {
       Null.Double
     } else if (lookbackIdx == 0) {
-      min(values, 0, idx)
+      min(values, length, 0, idx)
     } else {
       if (Null.is(prev) || values(lookbackIdx - 1) == prev) {
-        min(values, lookbackIdx, idx)
+        min(values, length, lookbackIdx, idx)
       } else {
         val value = values(idx)
         if (prev <= value) prev else value
@@ -206,15 +229,16 @@ object StatsFunctions {
     }
   }
 
-  def maxmin(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Array[Double] = maxmin(values.toArray, fromIdx, toIdx)
-  def maxmin(values: Array[Double], fromIdx: Int, toIdx: Int): Array[Double] = {
+  def maxmin(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Array[Double] = maxmin(values.underlyingArray, values.size, fromIdx, toIdx)
+  def maxmin(values: Array[Double], fromIdx: Int, toIdx: Int): Array[Double] = maxmin(values, values.length, fromIdx, toIdx)
+  def maxmin(values: Array[Double], length: Int, fromIdx: Int, toIdx: Int): Array[Double] = {
     if (fromIdx < 0) {
       return Array(Null.Double, Null.Double)
     }
 
     var max = Double.MinValue
     var min = Double.MaxValue
-    val lastIdx = math.min(toIdx, values.length - 1)
+    val lastIdx = math.min(toIdx, length - 1)
     var i = fromIdx
     while (i <= lastIdx) {
       val value = values(i)
@@ -231,14 +255,15 @@ object StatsFunctions {
   /**
    * Standard Deviation
    */
-  def stdDev(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = stdDev(values.toArray, fromIdx, toIdx)
-  def stdDev(values: Array[Double], fromIdx: Int, toIdx: Int): Double = {
-    if (fromIdx < 0 || toIdx >= values.length) {
+  def stdDev(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = stdDev(values.underlyingArray, values.size, fromIdx, toIdx)
+  def stdDev(values: Array[Double], fromIdx: Int, toIdx: Int): Double = stdDev(values, values.length, fromIdx, toIdx)
+  def stdDev(values: Array[Double], length: Int, fromIdx: Int, toIdx: Int): Double = {
+    if (fromIdx < 0 || toIdx >= length) {
       return Null.Double
     }
 
-    val ma1 = ma(values, fromIdx, toIdx)
-    val lastIdx = math.min(toIdx, values.length - 1)
+    val ma1 = ma(values, length, fromIdx, toIdx)
+    val lastIdx = math.min(toIdx, length - 1)
     var deviation_square_sum = 0.0
     var i = fromIdx
     while (i <= lastIdx) {
@@ -251,21 +276,29 @@ object StatsFunctions {
     math.sqrt(deviation_square_sum / period1)
   }
 
-  def correlation(xs: ArrayList[Double], ys: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = correlation(xs.toArray, ys.toArray, fromIdx, toIdx)
+  def correlation(xs: ArrayList[Double], ys: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = {
+    assert(
+      xs != null && ys != null && xs.size >= 2 && xs.size == ys.size, 
+      "Invald params: x.length(>=2)=%s, y.length(=x.length)=%s".format(xs.size, ys.size)
+    )
+    correlation(xs.underlyingArray, ys.underlyingArray, xs.size, fromIdx, toIdx)
+  }
   def correlation(xs: Array[Double], ys: Array[Double], fromIdx: Int, toIdx: Int): Double = {
     assert(
       xs != null && ys != null && xs.length >= 2 && xs.length == ys.length, 
       "Invald params: x.length(>=2)=%s, y.length(=x.length)=%s".format(xs.length, ys.length)
     )
-    
-    if (fromIdx < 0 || toIdx >= xs.length) {
+    correlation(xs, ys, xs.length, fromIdx, toIdx)
+  }
+  def correlation(xs: Array[Double], ys: Array[Double], length: Int, fromIdx: Int, toIdx: Int): Double = {
+    if (fromIdx < 0 || toIdx >= length) {
       return Null.Double
     }
     
-    val ma_x = ma(xs, fromIdx, toIdx)
-    val ma_y = ma(ys, fromIdx, toIdx)
+    val ma_x = ma(xs, length, fromIdx, toIdx)
+    val ma_y = ma(ys, length, fromIdx, toIdx)
     
-    val lastIdx = math.min(toIdx, xs.length - 1)
+    val lastIdx = math.min(toIdx, length - 1)
     var covxy = 0.0
     var dev_x = 0.0
     var dev_y = 0.0
@@ -290,16 +323,17 @@ object StatsFunctions {
   /**
    * Probability Mass Function
    */
-  def probMass(values: ArrayList[Double], fromIdx: Int, toIdx: Int, nIntervals: Int): Array[Array[Double]] = probMass(values.toArray, fromIdx, toIdx, nIntervals)
+  def probMass(values: ArrayList[Double], fromIdx: Int, toIdx: Int, nIntervals: Int): Array[Array[Double]] = probMass(values.underlyingArray, null, values.size, fromIdx, toIdx, nIntervals)
   def probMass(values: Array[Double], fromIdx: Int, toIdx: Int, nIntervals: Int): Array[Array[Double]] = {
-    probMass(values, null.asInstanceOf[Array[Double]], fromIdx, toIdx, nIntervals)
+    probMass(values, null.asInstanceOf[Array[Double]], values.length, fromIdx, toIdx, nIntervals)
   }
   
   /**
    * Probability Mass Function
    */
-  def probMass(values: ArrayList[Double], weights: ArrayList[Double], fromIdx: Int, toIdx: Int, nIntervals: Int): Array[Array[Double]] = probMass(values.toArray, weights.toArray, fromIdx, toIdx, nIntervals)
-  def probMass(values: Array[Double], weights: Array[Double],
+  def probMass(values: ArrayList[Double], weights: ArrayList[Double], fromIdx: Int, toIdx: Int, nIntervals: Int): Array[Array[Double]] = probMass(values.underlyingArray, underlyingArrayOrNull(weights), values.size, fromIdx, toIdx, nIntervals)
+  def probMass(values: Array[Double], weights: Array[Double], fromIdx: Int, toIdx: Int, nIntervals: Int): Array[Array[Double]] = probMass(values, weights, values.length, fromIdx, toIdx, nIntervals)
+  def probMass(values: Array[Double], weights: Array[Double], length: Int,
                fromIdx: Int, toIdx: Int, nIntervals: Int
   ): Array[Array[Double]] = {
 
@@ -309,28 +343,29 @@ object StatsFunctions {
 
     val begIdx1 = if (fromIdx < 0) 0 else fromIdx
 
-    val maxmin1 = maxmin(values, begIdx1, toIdx)
+    val maxmin1 = maxmin(values, length, begIdx1, toIdx)
     val max = maxmin1(MAX)
     val min = maxmin1(MIN)
-    probMass(values, weights, begIdx1, toIdx, max, min, nIntervals)
+    probMass(values, weights, length, begIdx1, toIdx, max, min, nIntervals)
   }
 
   /**
    * Probability Density Function
    */
-  def probMass(values: ArrayList[Double], fromIdx: Int, toIdx: Int, interval: Double): Array[Array[Double]] = probMass(values.toArray, fromIdx, toIdx, interval)
+  def probMass(values: ArrayList[Double], fromIdx: Int, toIdx: Int, interval: Double): Array[Array[Double]] = probMass(values.underlyingArray, null, values.size, fromIdx, toIdx, interval)
   def probMass(values: Array[Double],
                fromIdx: Int, toIdx: Int, interval: Double
   ): Array[Array[Double]] = {
 
-    probMass(values, null, fromIdx, toIdx, interval)
+    probMass(values, null, values.length, fromIdx, toIdx, interval)
   }
 
   /**
    * Probability Mass Function
    */
-  def probMass(values: ArrayList[Double], weights: ArrayList[Double], fromIdx: Int, toIdx: Int, interval: Double): Array[Array[Double]] = probMass(values.toArray, weights.toArray, fromIdx, toIdx, interval)
-  def probMass(values: Array[Double], weights: Array[Double],
+  def probMass(values: ArrayList[Double], weights: ArrayList[Double], fromIdx: Int, toIdx: Int, interval: Double): Array[Array[Double]] = probMass(values.underlyingArray, underlyingArrayOrNull(weights), values.size, fromIdx, toIdx, interval)
+  def probMass(values: Array[Double], weights: Array[Double], fromIdx: Int, toIdx: Int, interval: Double): Array[Array[Double]] = probMass(values, weights, values.length, fromIdx, toIdx, interval)
+  def probMass(values: Array[Double], weights: Array[Double], length: Int,
                fromIdx: Int, toIdx: Int, interval: Double
   ): Array[Array[Double]] = {
 
@@ -340,18 +375,17 @@ object StatsFunctions {
 
     val begIdx1 = if (fromIdx < 0) 0 else fromIdx
 
-    val maxmin1 = maxmin(values, begIdx1, toIdx)
+    val maxmin1 = maxmin(values, length, begIdx1, toIdx)
     val max = maxmin1(MAX)
     val min = maxmin1(MIN)
     val nIntervals = (((max - min) / interval) + 1).toInt
-    probMass(values, weights, begIdx1, toIdx, max, min, nIntervals)
+    probMass(values, weights, length, begIdx1, toIdx, max, min, nIntervals)
   }
 
   /**
    * Probability Mass Function
    */
-  private def probMass(values: ArrayList[Double], weights: ArrayList[Double], fromIdx: Int, toIdx: Int, max: Double, min: Double, nIntervals: Int): Array[Array[Double]] = probMass(values.toArray, weights.toArray, fromIdx, toIdx, max, min, nIntervals)
-  private def probMass(values: Array[Double], weights: Array[Double],
+  private def probMass(values: Array[Double], weights: Array[Double], length: Int,
                        fromIdx: Int, toIdx: Int, max: Double, min: Double, nIntervals: Int
   ): Array[Array[Double]] = {
 
@@ -370,7 +404,7 @@ object StatsFunctions {
       i += 1
     }
 
-    val lastIdx = math.min(toIdx, values.size - 1)
+    val lastIdx = math.min(toIdx, length - 1)
     var total = 0.0
     i = begIdx1
     while (i <= lastIdx) {
@@ -394,8 +428,9 @@ object StatsFunctions {
   /**
    * Probability Density Function
    */
-  def probMassWithTimeInfo(values: ArrayList[Double], weights: ArrayList[Double], fromIdx: Int, toIdx: Int, interval: Double): Array[Array[Double]] = probMassWithTimeInfo(values.toArray, weights.toArray, fromIdx, toIdx, interval)
-  def probMassWithTimeInfo(values: Array[Double], weights: Array[Double],
+  def probMassWithTimeInfo(values: ArrayList[Double], weights: ArrayList[Double], fromIdx: Int, toIdx: Int, interval: Double): Array[Array[Double]] = probMassWithTimeInfo(values.underlyingArray, underlyingArrayOrNull(weights), values.size, fromIdx, toIdx, interval)
+  def probMassWithTimeInfo(values: Array[Double], weights: Array[Double], fromIdx: Int, toIdx: Int, interval: Double): Array[Array[Double]] = probMassWithTimeInfo(values, weights, values.length, fromIdx, toIdx, interval)
+  def probMassWithTimeInfo(values: Array[Double], weights: Array[Double], length: Int,
                            fromIdx: Int, toIdx: Int, interval: Double
   ): Array[Array[Double]] = {
 
@@ -403,7 +438,7 @@ object StatsFunctions {
       return null
     }
 
-    val maxmin1 = maxmin(values, fromIdx, toIdx)
+    val maxmin1 = maxmin(values, length, fromIdx, toIdx)
     val max = maxmin1(MAX)
     val min = maxmin1(MIN)
     val nIntervals = (((max - min) / interval) + 1).toInt
@@ -416,7 +451,7 @@ object StatsFunctions {
       i += 1
     }
 
-    val lastIdx = math.min(toIdx, values.length - 1)
+    val lastIdx = math.min(toIdx, length - 1)
     var total = 0.0
     i = fromIdx
     while (i <= lastIdx) {
@@ -437,6 +472,316 @@ object StatsFunctions {
     mass
   }
   
+  // --- whole-series forms
+  
+  /**
+   * Whole-series forms of sum, ma, ema, max, min, stdDev and correlation:
+   *   fs(values: ArrayList[Double], period: Int, fromIdx: Int, toIdx: Int, out: ArrayList[Double])
+   *   fs(values: Array[Double], period: Int, fromIdx: Int, toIdx: Int, out: Array[Double])
+   *   fs(values: Array[Double], length: Int, period: Int, fromIdx: Int, toIdx: Int, out: Array[Double])
+   * They fill out(i), i in [fromIdx, toIdx], with the value of rolling window
+   * [i - period + 1, i] in one pass, instead of computing each window from
+   * scratch or calling the incremental forms spot by spot. out(i) is Null.Double
+   * if the window is not full yet. The loops are kept plain over primitive 
+   * arrays, so the JIT is free to unroll/vectorize them.
+   */
+  def sums(values: ArrayList[Double], period: Int, fromIdx: Int, toIdx: Int, out: ArrayList[Double]) {
+    sums(values.underlyingArray, values.size, period, fromIdx, toIdx, out.underlyingArray)
+  }
+  def sums(values: Array[Double], period: Int, fromIdx: Int, toIdx: Int, out: Array[Double]) {
+    sums(values, values.length, period, fromIdx, toIdx, out)
+  }
+  def sums(values: Array[Double], length: Int, period: Int, fromIdx: Int, toIdx: Int, out: Array[Double]) {
+    rollingSums(values, length, period, fromIdx, toIdx, out, 1.0)
+  }
+
+  def mas(values: ArrayList[Double], period: Int, fromIdx: Int, toIdx: Int, out: ArrayList[Double]) {
+    mas(values.underlyingArray, values.size, period, fromIdx, toIdx, out.underlyingArray)
+  }
+  def mas(values: Array[Double], period: Int, fromIdx: Int, toIdx: Int, out: Array[Double]) {
+    mas(values, values.length, period, fromIdx, toIdx, out)
+  }
+  def mas(values: Array[Double], length: Int, period: Int, fromIdx: Int, toIdx: Int, out: Array[Double]) {
+    rollingSums(values, length, period, fromIdx, toIdx, out, period)
+  }
+
+  /**
+   * Same as iema applied spot by spot: out(0) = values(0), and out(fromIdx - 1)
+   * is taken as the previous ema of fromIdx.
+   */
+  def emas(values: ArrayList[Double], period: Int, fromIdx: Int, toIdx: Int, out: ArrayList[Double]) {
+    emas(values.underlyingArray, values.size, period, fromIdx, toIdx, out.underlyingArray)
+  }
+  def emas(values: Array[Double], period: Int, fromIdx: Int, toIdx: Int, out: Array[Double]) {
+    emas(values, values.length, period, fromIdx, toIdx, out)
+  }
+  def emas(values: Array[Double], length: Int, period: Int, fromIdx: Int, toIdx: Int, out: Array[Double]) {
+    val lastIdx = math.min(toIdx, length - 1)
+    if (fromIdx < 0 || fromIdx > lastIdx) return
+    
+    val a = 1.0 / (period * 1.0)
+    var prev = if (fromIdx > 0) out(fromIdx - 1) else Null.Double
+    var i = fromIdx
+    while (i <= lastIdx) {
+      val ema = if (i == 0) {
+        values(0)
+      } else if (Null.is(prev)) {
+        0.0
+      } else {
+        val value = values(i)
+        (1.0 - a) * prev + a * (if (Null.is(value)) 0.0 else value)
+      }
+      out(i) = ema
+      prev = ema
+      i += 1
+    }
+  }
+
+  def maxs(values: ArrayList[Double], period: Int, fromIdx: Int, toIdx: Int, out: ArrayList[Double]) {
+    maxs(values.underlyingArray, values.size, period, fromIdx, toIdx, out.underlyingArray)
+  }
+  def maxs(values: Array[Double], period: Int, fromIdx: Int, toIdx: Int, out: Array[Double]) {
+    maxs(values, values.length, period, fromIdx, toIdx, out)
+  }
+  def maxs(values: Array[Double], length: Int, period: Int, fromIdx: Int, toIdx: Int, out: Array[Double]) {
+    rollingMaxMins(values, length, period, fromIdx, toIdx, out, true)
+  }
+
+  def mins(values: ArrayList[Double], period: Int, fromIdx: Int, toIdx: Int, out: ArrayList[Double]) {
+    mins(values.underlyingArray, values.size, period, fromIdx, toIdx, out.underlyingArray)
+  }
+  def mins(values: Array[Double], period: Int, fromIdx: Int, toIdx: Int, out: Array[Double]) {
+    mins(values, values.length, period, fromIdx, toIdx, out)
+  }
+  def mins(values: Array[Double], length: Int, period: Int, fromIdx: Int, toIdx: Int, out: Array[Double]) {
+    rollingMaxMins(values, length, period, fromIdx, toIdx, out, false)
+  }
+
+  def stdDevs(values: ArrayList[Double], period: Int, fromIdx: Int, toIdx: Int, out: ArrayList[Double]) {
+    stdDevs(values.underlyingArray, values.size, period, fromIdx, toIdx, out.underlyingArray)
+  }
+  def stdDevs(values: Array[Double], period: Int, fromIdx: Int, toIdx: Int, out: Array[Double]) {
+    stdDevs(values, values.length, period, fromIdx, toIdx, out)
+  }
+  /**
+   * Rolling Welford: mean and sum of squared deviations are moved by replacing
+   * the oldest value with the newest one. Windows that contain Null values go
+   * to stdDev.
+   */
+  def stdDevs(values: Array[Double], length: Int, period: Int, fromIdx: Int, toIdx: Int, out: Array[Double]) {
+    val lastIdx = math.min(toIdx, length - 1)
+    val begIdx = firstFullIdx(period, fromIdx, lastIdx, out)
+    if (begIdx > lastIdx) return
+    
+    var lastNullIdx = lastNullIdxOf(values, begIdx - period + 1, begIdx - 1)
+    var isStateValid = false
+    var nSlides = 0
+    var mean = 0.0
+    var m2 = 0.0
+    var i = begIdx
+    while (i <= lastIdx) {
+      val value = values(i)
+      if (Null.is(value)) lastNullIdx = i
+      
+      if (lastNullIdx > i - period) {
+        out(i) = stdDev(values, length, i - period + 1, i)
+        isStateValid = false
+      } else {
+        if (isStateValid && nSlides < MaxSlides) {
+          val old = values(i - period)
+          val delta = value - old
+          val prevMean = mean
+          mean += delta / period
+          m2 += delta * (value - mean + old - prevMean)
+          nSlides += 1
+        } else {
+          mean = ma(values, length, i - period + 1, i)
+          m2 = 0.0
+          var j = i - period + 1
+          while (j <= i) {
+            val deviation = values(j) - mean
+            m2 += deviation * deviation
+            j += 1
+          }
+          isStateValid = true
+          nSlides = 0
+        }
+        out(i) = math.sqrt(math.max(m2, 0.0) / period)
+      }
+      i += 1
+    }
+  }
+
+  def correlations(xs: ArrayList[Double], ys: ArrayList[Double], period: Int, fromIdx: Int, toIdx: Int, out: ArrayList[Double]) {
+    correlations(xs.underlyingArray, ys.underlyingArray, math.min(xs.size, ys.size), period, fromIdx, toIdx, out.underlyingArray)
+  }
+  def correlations(xs: Array[Double], ys: Array[Double], period: Int, fromIdx: Int, toIdx: Int, out: Array[Double]) {
+    correlations(xs, ys, math.min(xs.length, ys.length), period, fromIdx, toIdx, out)
+  }
+  /**
+   * Co-moments are moved as stdDevs does. Windows that contain Null values go
+   * to correlation.
+   */
+  def correlations(xs: Array[Double], ys: Array[Double], length: Int, period: Int, fromIdx: Int, toIdx: Int, out: Array[Double]) {
+    val lastIdx = math.min(toIdx, length - 1)
+    val begIdx = firstFullIdx(period, fromIdx, lastIdx, out)
+    if (begIdx > lastIdx) return
+    
+    var lastNullIdx = math.max(lastNullIdxOf(xs, begIdx - period + 1, begIdx - 1), lastNullIdxOf(ys, begIdx - period + 1, begIdx - 1))
+    var isStateValid = false
+    var nSlides = 0
+    var mx = 0.0
+    var my = 0.0
+    var cxx = 0.0
+    var cyy = 0.0
+    var cxy = 0.0
+    var i = begIdx
+    while (i <= lastIdx) {
+      val x = xs(i)
+      val y = ys(i)
+      if (Null.is(x) || Null.is(y)) lastNullIdx = i
+      
+      if (lastNullIdx > i - period) {
+        out(i) = correlation(xs, ys, length, i - period + 1, i)
+        isStateValid = false
+      } else {
+        if (isStateValid && nSlides < MaxSlides) {
+          val x0 = xs(i - period)
+          val y0 = ys(i - period)
+          val prevMx = mx
+          val prevMy = my
+          mx += (x - x0) / period
+          my += (y - y0) / period
+          cxx += (x - x0) * (x - mx + x0 - prevMx)
+          cyy += (y - y0) * (y - my + y0 - prevMy)
+          cxy += (x - prevMx) * (y - my) - (x0 - prevMx) * (y0 - my)
+          nSlides += 1
+        } else {
+          mx = ma(xs, length, i - period + 1, i)
+          my = ma(ys, length, i - period + 1, i)
+          cxx = 0.0
+          cyy = 0.0
+          cxy = 0.0
+          var j = i - period + 1
+          while (j <= i) {
+            val dx = xs(j) - mx
+            val dy = ys(j) - my
+            cxx += dx * dx
+            cyy += dy * dy
+            cxy += dx * dy
+            j += 1
+          }
+          isStateValid = true
+          nSlides = 0
+        }
+        out(i) = if (cxx <= 0 || cyy <= 0) 0 else cxy / math.sqrt(cxx * cyy)
+      }
+      i += 1
+    }
+  }
+
+  /**
+   * Prefix sums of the whole range, then each window is a difference of two 
+   * prefix sums divided by divisor. Null values are taken as 0, as sum does.
+   */
+  private def rollingSums(values: Array[Double], length: Int, period: Int, fromIdx: Int, toIdx: Int, out: Array[Double], divisor: Double) {
+    val lastIdx = math.min(toIdx, length - 1)
+    val begIdx = firstFullIdx(period, fromIdx, lastIdx, out)
+    if (begIdx > lastIdx) return
+    
+    val base = begIdx - period + 1
+    val n = lastIdx - base + 1
+    val prefix = new Array[Double](n + 1)
+    var k = 0
+    while (k < n) {
+      val value = values(base + k)
+      prefix(k + 1) = if (Null.is(value)) prefix(k) else prefix(k) + value
+      k += 1
+    }
+    
+    var i = begIdx
+    while (i <= lastIdx) {
+      val end = i - base + 1
+      out(i) = (prefix(end) - prefix(end - period)) / divisor
+      i += 1
+    }
+  }
+
+  /**
+   * Monotonic deque of indices, the head is always the idx of max (or min) 
+   * value of window. Null values are skipped as maxmin does.
+   */
+  private def rollingMaxMins(values: Array[Double], length: Int, period: Int, fromIdx: Int, toIdx: Int, out: Array[Double], isMax: Boolean) {
+    val lastIdx = math.min(toIdx, length - 1)
+    val begIdx = firstFullIdx(period, fromIdx, lastIdx, out)
+    if (begIdx > lastIdx) return
+    
+    val idxs = new Array[Int](period) // ring buffer
+    var head = 0
+    var count = 0
+    var j = begIdx - period + 1
+    while (j <= lastIdx) {
+      // evict those out of window [j - period + 1, j]
+      while (count > 0 && idxs(head) <= j - period) {
+        head = (head + 1) % period
+        count -= 1
+      }
+      
+      val value = values(j)
+      if (Null.not(value)) {
+        // pop from tail all those that will never be the extreme again
+        while (count > 0 && {
+            val tail = values(idxs((head + count - 1) % period))
+            if (isMax) tail <= value else tail >= value
+          }) {
+          count -= 1
+        }
+        idxs((head + count) % period) = j
+        count += 1
+      }
+      
+      if (j >= begIdx) {
+        out(j) = if (count > 0) values(idxs(head)) else if (isMax) Double.MinValue else Double.MaxValue
+      }
+      j += 1
+    }
+  }
+  
+  /**
+   * Fill out with Null.Double for those idxes whose window is not full.
+   * @return the first idx in [fromIdx, lastIdx] that has a full window, or 
+   *         lastIdx + 1 if none
+   */
+  private def firstFullIdx(period: Int, fromIdx: Int, lastIdx: Int, out: Array[Double]): Int = {
+    if (period <= 0 || fromIdx < 0) return lastIdx + 1
+    
+    val begIdx = math.max(fromIdx, period - 1)
+    var i = fromIdx
+    while (i < begIdx && i <= lastIdx) {
+      out(i) = Null.Double
+      i += 1
+    }
+    begIdx
+  }
+
+  @inline private def nullAsZero(value: Double): Double = if (Null.is(value)) 0.0 else value
+
+  /**
+   * @return last idx of Null value in [fromIdx, toIdx], or -1 if none
+   */
+  private def lastNullIdxOf(values: Array[Double], fromIdx: Int, toIdx: Int): Int = {
+    var i = toIdx
+    while (i >= fromIdx) {
+      if (Null.is(values(i))) return i
+      i -= 1
+    }
+    -1
+  }
+  
+  private def underlyingArrayOrNull(values: ArrayList[Double]): Array[Double] = {
+    if (values == null) null else values.underlyingArray
+  }
+
   private def period(fromIdx: Int, toIdx: Int): Int = {
     toIdx - fromIdx + 1
   }
@@ -445,4 +790,3 @@ object StatsFunctions {
     idx - period + 1
   }
 }
-
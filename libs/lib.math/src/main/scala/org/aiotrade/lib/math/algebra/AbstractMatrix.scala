@@ -301,39 +301,28 @@ abstract class AbstractMatrix protected (protected var rows: Int, protected var
     }
 
     if (rows == 2) {
-      return this(0, 0) * this(1, 1) - this(0, 1) * this(1, 0)
+      this(0, 0) * this(1, 1) - this(0, 1) * this(1, 0)
     } else {
-      // TODO: this really should just be one line:
-      // TODO: new CholeskyDecomposition(this).getL().viewDiagonal().aggregate(Functions.TIMES)
-      var sign = 1
-      var ret = 0.0
-
-      var i = 0
-      while (i < columns) {
-        val minor = DenseMatrix(rows - 1, columns - 1)
-        var j = 1
-        while (j < rows) {
-          var flag = false /* column offset flag */
-          var k = 0
-          while (k < columns) {
-            if (k == i) {
-              flag = true
-            } else {
-              minor.set(j - 1, if (flag) k - 1 else k, this(j, k))
-            }
-            k += 1
-          }
-          j += 1
-        }
-        ret += this(0, i) * sign * minor.determinant
-        sign *= -1
-        
-        i += 1
-      }
-
-      ret
+      new LUDecomposition(this).determinant
     }
+  }
 
+  def inverse: Matrix = {
+    val rows = rowSize
+    val columns = columnSize
+    val identity = DenseMatrix(rows, rows)
+    var i = 0
+    while (i < rows) {
+      identity(i, i) = 1.0
+      i += 1
+    }
+    
+    if (rows == columns) {
+      new LUDecomposition(this).solve(identity)
+    } else {
+      // least squares (pseudo) inverse
+      new QRDecomposition(this).solve(identity)
+    }
   }
 
   override 
@@ -2,6 +2,9 @@ package org.aiotrade.lib.math.algebra
 
 import org.aiotrade.lib.math.CardinalityException
 import org.aiotrade.lib.math.IndexException
+import scala.concurrent.forkjoin.ForkJoinPool
+import scala.concurrent.forkjoin.ForkJoinTask
+import scala.concurrent.forkjoin.RecursiveAction
 
 /** Matrix of doubles implemented using a 2-d array */
 class DenseMatrix protected (private var values: Array[Array[Double]]) extends AbstractMatrix(values.length, values(0).length) {
@@ -129,9 +132,95 @@ class DenseMatrix protected (private var values: Array[Array[Double]]) extends A
     DenseVector(values(row), true)
   }
   
+  override
+  def times(other: Matrix): Matrix = {
+    times(other, rowSize.toLong * columnSize * other.columnSize >= DenseMatrix.PARALLEL_THRESHOLD)
+  }
+  
+  /**
+   * Cache-blocked multiply on backing arrays when other is also a DenseMatrix.
+   * 
+   * @param parallel if true, blocks of rows are multiplied in a fork-join pool
+   */
+  def times(other: Matrix, parallel: Boolean): Matrix = other match {
+    case x: DenseMatrix =>
+      if (columnSize != x.rowSize) {
+        throw new CardinalityException(columnSize, x.rowSize)
+      }
+      val result = Array.ofDim[Double](rowSize, x.columnSize)
+      if (parallel) {
+        DenseMatrix.pool.invoke(new DenseMatrix.MultiplyTask(values, x.values, result, 0, rowSize))
+      } else {
+        DenseMatrix.multiply(values, x.values, result, 0, rowSize)
+      }
+      DenseMatrix(result)
+    case _ => super.times(other)
+  }
+  
 }
 
 object DenseMatrix {
+  private val BLOCK_SIZE = 64
+  /** multiply-adds, under which the parallel overhead is not worth */
+  private val PARALLEL_THRESHOLD = 1L << 20
+  
+  private lazy val pool = new ForkJoinPool
+  
+  /**
+   * c(rowFrom until rowUntil) += a(rowFrom until rowUntil) * b, in blocks of
+   * BLOCK_SIZE, with i-k-j order so the inner loop scans rows of b and c.
+   */
+  private def multiply(a: Array[Array[Double]], b: Array[Array[Double]], c: Array[Array[Double]], rowFrom: Int, rowUntil: Int) {
+    val n = b.length
+    val m = if (n == 0) 0 else b(0).length
+    var i0 = rowFrom
+    while (i0 < rowUntil) {
+      val i1 = math.min(i0 + BLOCK_SIZE, rowUntil)
+      var k0 = 0
+      while (k0 < n) {
+        val k1 = math.min(k0 + BLOCK_SIZE, n)
+        var j0 = 0
+        while (j0 < m) {
+          val j1 = math.min(j0 + BLOCK_SIZE, m)
+          var i = i0
+          while (i < i1) {
+            val ai = a(i)
+            val ci = c(i)
+            var k = k0
+            while (k < k1) {
+              val aik = ai(k)
+              if (aik != 0) {
+                val bk = b(k)
+                var j = j0
+                while (j < j1) {
+                  ci(j) += aik * bk(j)
+                  j += 1
+                }
+              }
+              k += 1
+            }
+            i += 1
+          }
+          j0 = j1
+        }
+        k0 = k1
+      }
+      i0 = i1
+    }
+  }
+  
+  private final class MultiplyTask(a: Array[Array[Double]], b: Array[Array[Double]], c: Array[Array[Double]], rowFrom: Int, rowUntil: Int) extends RecursiveAction {
+    override
+    protected def compute() {
+      if (rowUntil - rowFrom <= BLOCK_SIZE) {
+        multiply(a, b, c, rowFrom, rowUntil)
+      } else {
+        val mid = (rowFrom + rowUntil) >>> 1
+        ForkJoinTask.invokeAll(new MultiplyTask(a, b, c, rowFrom, mid), new MultiplyTask(a, b, c, mid, rowUntil))
+      }
+    }
+  }
+  
   def apply(values: Array[Array[Double]], shallowCopy: Boolean) = {
     if (shallowCopy) {
       new DenseMatrix(values)
@@ -0,0 +1,276 @@
+package org.aiotrade.lib.math.algebra
+
+import java.util.Locale
+
+/**
+ * LU decomposition with partial pivoting shamelessly ported from JAMA.
+ * <p/>
+ * For an <tt>m x n</tt> matrix <tt>A</tt> with <tt>m >= n</tt>, the LU decomposition is an 
+ * <tt>m x n</tt> unit lower triangular matrix <tt>L</tt>, an <tt>n x n</tt> upper triangular
+ * matrix <tt>U</tt>, and a permutation vector <tt>piv</tt> of length <tt>m</tt> so that
+ * <tt>A(piv,:) = L*U</tt>.
+ * <p/>
+ * The LU decompostion with pivoting always exists, even if the matrix is singular, so the 
+ * constructor will never fail. The primary use of the LU decomposition is in the solution 
+ * of square systems of simultaneous linear equations, computing of determinant and inverse, 
+ * all in O(n^3). This will fail if <tt>isNonsingular</tt> returns false.
+ */
+class LUDecomposition(a: Matrix) {
+
+  /** Row and column dimensions. */
+  private val m = a.rowSize
+  private val n = a.columnSize
+
+  /** Array for internal storage of decomposition. */
+  private val lu: Array[Array[Double]] = {
+    val xs = Array.ofDim[Double](m, n)
+    var i = 0
+    while (i < m) {
+      val row = xs(i)
+      var j = 0
+      while (j < n) {
+        row(j) = a(i, j)
+        j += 1
+      }
+      i += 1
+    }
+    xs
+  }
+  
+  /** Internal storage of pivot vector. */
+  private val piv = Array.tabulate(m)(i => i)
+  
+  /** Sign of pivot permutation */
+  private var pivsign = 1
+
+  decompose
+
+  /**
+   * Use a "left-looking", dot-product, Crout/Doolittle algorithm.
+   */
+  private def decompose {
+    val luColj = new Array[Double](m)
+
+    // outer loop.
+    var j = 0
+    while (j < n) {
+      // make a copy of the j-th column to localize references.
+      var i = 0
+      while (i < m) {
+        luColj(i) = lu(i)(j)
+        i += 1
+      }
+
+      // apply previous transformations.
+      i = 0
+      while (i < m) {
+        val luRowi = lu(i)
+
+        // most of the time is spent in the following dot product.
+        val kmax = math.min(i, j)
+        var s = 0.0
+        var k = 0
+        while (k < kmax) {
+          s += luRowi(k) * luColj(k)
+          k += 1
+        }
+
+        luColj(i) -= s
+        luRowi(j) = luColj(i)
+        i += 1
+      }
+
+      // find pivot and exchange if necessary.
+      var p = j
+      i = j + 1
+      while (i < m) {
+        if (math.abs(luColj(i)) > math.abs(luColj(p))) {
+          p = i
+        }
+        i += 1
+      }
+      if (p != j) {
+        val row = lu(p)
+        lu(p) = lu(j)
+        lu(j) = row
+        val k = piv(p)
+        piv(p) = piv(j)
+        piv(j) = k
+        pivsign = -pivsign
+      }
+
+      // compute multipliers.
+      if (j < m && lu(j)(j) != 0.0) {
+        i = j + 1
+        while (i < m) {
+          lu(i)(j) /= lu(j)(j)
+          i += 1
+        }
+      }
+      j += 1
+    }
+  }
+
+  /**
+   * Is the matrix nonsingular?
+   *
+   * @return true if U, and hence A, is nonsingular.
+   */
+  def isNonsingular: Boolean = {
+    var j = 0
+    while (j < n) {
+      if (lu(j)(j) == 0) {
+        return false
+      }
+      j += 1
+    }
+    true
+  }
+
+  /**
+   * Returns the lower triangular factor <tt>L</tt>.
+   */
+  def getL: Matrix = {
+    val x = DenseMatrix(m, n)
+    var i = 0
+    while (i < m) {
+      var j = 0
+      while (j < n) {
+        if (i > j) {
+          x(i, j) = lu(i)(j)
+        } else if (i == j) {
+          x(i, j) = 1.0
+        }
+        j += 1
+      }
+      i += 1
+    }
+    x
+  }
+
+  /**
+   * Returns the upper triangular factor <tt>U</tt>.
+   */
+  def getU: Matrix = {
+    val x = DenseMatrix(n, n)
+    var i = 0
+    while (i < n) {
+      var j = i
+      while (j < n) {
+        x(i, j) = lu(i)(j)
+        j += 1
+      }
+      i += 1
+    }
+    x
+  }
+
+  /**
+   * @return Returns the pivot permutation of rows.
+   */
+  def getPivot: Array[Int] = {
+    piv.clone
+  }
+
+  /**
+   * Returns the determinant of <tt>A</tt>.
+   *
+   * @throws IllegalArgumentException  Matrix must be square
+   */
+  def determinant: Double = {
+    if (m != n) {
+      throw new IllegalArgumentException("Matrix must be square.")
+    }
+    var d = pivsign.toDouble
+    var j = 0
+    while (j < n) {
+      d *= lu(j)(j)
+      j += 1
+    }
+    d
+  }
+
+  /**
+   * Solve <tt>A*X = B</tt> <tt>returns X</tt>.
+   *
+   * @param B A matrix with as many rows as <tt>A</tt> and any number of columns.
+   * @return <tt>X</tt> so that <tt>L*U*X = B(piv,:)</tt>
+   * @throws IllegalArgumentException if <tt>B.rows() != A.rows()</tt>.
+   * @throws IllegalStateException if <tt>A</tt> is singular.
+   */
+  def solve(B: Matrix): Matrix = {
+    if (B.rowSize != m) {
+      throw new IllegalArgumentException("Matrix row dimensions must agree.")
+    }
+    if (!isNonsingular) {
+      throw new IllegalStateException("Matrix is singular.")
+    }
+
+    // copy right hand side with pivoting
+    val nx = B.columnSize
+    val x = Array.ofDim[Double](n, nx)
+    var i = 0
+    while (i < n) {
+      val row = x(i)
+      val pi = piv(i)
+      var j = 0
+      while (j < nx) {
+        row(j) = B(pi, j)
+        j += 1
+      }
+      i += 1
+    }
+
+    // solve L*Y = B(piv,:)
+    var k = 0
+    while (k < n) {
+      val xk = x(k)
+      i = k + 1
+      while (i < n) {
+        val xi = x(i)
+        val luik = lu(i)(k)
+        var j = 0
+        while (j < nx) {
+          xi(j) -= xk(j) * luik
+          j += 1
+        }
+        i += 1
+      }
+      k += 1
+    }
+    
+    // solve U*X = Y
+    k = n - 1
+    while (k >= 0) {
+      val xk = x(k)
+      val lukk = lu(k)(k)
+      var j = 0
+      while (j < nx) {
+        xk(j) /= lukk
+        j += 1
+      }
+      i = 0
+      while (i < k) {
+        val xi = x(i)
+        val luik = lu(i)(k)
+        j = 0
+        while (j < nx) {
+          xi(j) -= xk(j) * luik
+          j += 1
+        }
+        i += 1
+      }
+      k -= 1
+    }
+    
+    DenseMatrix(x)
+  }
+  
+  /**
+   * Returns a rough string rendition of a LU.
+   */
+  override
+  def toString = {
+    "LU(%d,%d,nonsingular=%s)".formatLocal(Locale.ENGLISH, m, n, isNonsingular)
+  }
+}
@@ -139,12 +139,22 @@ trait Matrix extends VectorIterable with Cloneable {
   }
   
   /**
-   * Returns matrix determinator using Laplace theorem
+   * Returns matrix determinator via LU decomposition
    *
    * @return a matrix determinator
    */
   def determinant: Double
 
+  /**
+   * Returns the inverse of a square matrix via LU decomposition, or the least
+   * squares (pseudo) inverse of a matrix with more rows than columns via QR 
+   * decomposition
+   *
+   * @return the inverse
+   * @throws IllegalStateException if the square matrix is singular
+   */
+  def inverse: Matrix
+
   /**
    * Return a new matrix containing the values of the recipient divided by the argument
    *
@@ -31,40 +31,244 @@
 
 package org.aiotrade.lib.math.indicator
 
+import java.util.IdentityHashMap
 import java.util.concurrent.ConcurrentHashMap
 import java.util.logging.Level
 import java.util.logging.Logger
 import org.aiotrade.lib.math.timeseries.BaseTSer
 import org.aiotrade.lib.math.timeseries.TSer
+import org.aiotrade.lib.util.metrics.Metrics
 
 
+/**
+ * Cache of function instances, keyed by Id(class, baseSer, args). Since args 
+ * such as Factor are compared by value, an identical sub-computation, such as
+ * EMAFunction of (close, 12), is shared and computed once per baseSer by all
+ * consumers.
+ * 
+ * A consumer (an indicator, or a function that is computed from others) gets 
+ * functions by acquire, and they are reference counted by consumers. When a 
+ * consumer is released, the functions that are no longer held by any consumer
+ * are evicted, and so are their own sub-functions in turn. Functions got by 
+ * apply are not owned by anyone, they are kept until releaseAll.
+ * 
+ * Entries held by each consumer are indexed, so release only visits them, 
+ * instead of scanning the caches.
+ * 
+ * @author Caoyuan Deng
+ */
 object Function {
   private val log = Logger.getLogger(this.getClass.getName)
 
-  private val idToFunction = new ConcurrentHashMap[Id[_ <: Function], Function](8, 0.9f, 1)
+  private type Cache = ConcurrentHashMap[Id[_ <: Function], Entry]
+  
+  private val idToEntry = new Cache(8, 0.9f, 1)
+  /** function cache private to current thread, @see isolated */
+  private val scopedIdToEntry = new ThreadLocal[Cache]()
+  /** consumer -> entries held by it, by identity, guarded by itself */
+  private val consumerToEntries = new IdentityHashMap[AnyRef, IdentityHashMap[Entry, Entry]]
+
+  /** acquirings that are shared with other consumers */
+  private val hits = Metrics.counter("function.cache.hits")
+  /** acquirings and applyings that created new function */
+  private val misses = Metrics.counter("function.cache.misses")
+  private val evictions = Metrics.counter("function.cache.evictions")
+
+  private def cache = scopedIdToEntry.get match {
+    case null => idToEntry
+    case x => x
+  }
+
+  /**
+   * Run body with a function cache private to current thread, so functions
+   * won't be shared with computings of other threads, such as concurrent 
+   * backtest rounds on same baseSer. releaseAll in body only releases this cache.
+   * 
+   * @Note the isolation is per thread: computings run by other threads, such as
+   * reactions to ser events that are delivered by actors, still use the global cache.
+   */
+  def isolated[T](body: => T): T = {
+    val prev = scopedIdToEntry.get
+    val scoped = new Cache(8, 0.9f, 1)
+    scopedIdToEntry.set(scoped)
+    try {
+      body
+    } finally {
+      scopedIdToEntry.set(prev)
+      unindex(scoped)
+    }
+  }
 
   def idOf[T <: Function](klass: Class[T], baseSer: BaseTSer, args: Any*) = Id[T](klass, baseSer, args: _*)
   
   def apply[T <: Function](klass: Class[T], baseSer: BaseTSer, args: Any*): T = {
+    entryOf(klass, baseSer, args: _*) match {
+      case null => null.asInstanceOf[T]
+      case entry => entry.function.asInstanceOf[T]
+    }
+  }
+  
+  /**
+   * Get function and hold it by consumer until release(consumer). It's cheap
+   * to be called again and again by same consumer, i.e. on each spot.
+   */
+  def acquire[T <: Function](consumer: AnyRef, klass: Class[T], baseSer: BaseTSer, args: Any*): T = {
+    var function: T = null.asInstanceOf[T]
+    var done = false
+    while (!done) {
+      entryOf(klass, baseSer, args: _*) match {
+        case null => done = true
+        case entry =>
+          if (entry.addConsumer(consumer)) {
+            function = entry.function.asInstanceOf[T]
+            done = true
+          } else {
+            // evicted between got and added, remove it if it's not yet, then try again
+            cache.remove(idOf(klass, baseSer, args: _*), entry)
+          }
+      }
+    }
+    function
+  }
+  
+  private def entryOf[T <: Function](klass: Class[T], baseSer: BaseTSer, args: Any*): Entry = {
     val id = idOf(klass, baseSer, args: _*)
-    idToFunction.get(id) match {
+    val idToEntry = cache
+    idToEntry.get(id) match {
       case null =>
-        /** if got none from idToFunction, try to create new one */
+        /** if got none from idToEntry, try to create new one */
         try {
           val function = klass.newInstance
           /** don't forget to call set(baseSer, args) immediatley */
           function.set(baseSer, args: _*)
-          idToFunction.putIfAbsent(id, function)
-          function
+          val entry = new Entry(id, function, idToEntry)
+          idToEntry.putIfAbsent(id, entry) match {
+            case null => misses.inc; entry
+            case existed => existed // lost the race, share the existed one
+          }
         } catch {
-          case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex); null.asInstanceOf[T]
+          case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex); null
         }
-      case x => x.asInstanceOf[T]
+      case x => x
     }
   }
   
+  /**
+   * Release functions held by consumer, evict those that are no longer held 
+   * by anyone, whether they are of the global cache or of an isolated cache.
+   */
+  def release(consumer: AnyRef) {
+    val entries = consumerToEntries synchronized {consumerToEntries.remove(consumer)}
+    if (entries == null) return
+    
+    var evicteds: List[Function] = Nil
+    val itr = entries.keySet.iterator
+    while (itr.hasNext) {
+      val entry = itr.next
+      if (entry.removeConsumer(consumer)) {
+        entry.cache.remove(entry.id, entry)
+        evictions.inc
+        evicteds ::= entry.function
+      }
+    }
+    
+    // an evicted function is also a consumer of the functions it's computed from
+    evicteds foreach release
+  }
+  
   def releaseAll() {
-    idToFunction.clear
+    val idToEntry = cache
+    idToEntry.clear
+    unindex(idToEntry)
+  }
+  
+  private def index(consumer: AnyRef, entry: Entry) {
+    consumerToEntries synchronized {
+      val entries = consumerToEntries.get(consumer) match {
+        case null =>
+          val x = new IdentityHashMap[Entry, Entry]
+          consumerToEntries.put(consumer, x)
+          x
+        case x => x
+      }
+      entries.put(entry, entry)
+    }
+  }
+  
+  /** drop index of entries of idToEntry, which is cleared or discarded */
+  private def unindex(idToEntry: Cache) {
+    consumerToEntries synchronized {
+      val itr = consumerToEntries.values.iterator
+      while (itr.hasNext) {
+        val entries = itr.next
+        val entryItr = entries.keySet.iterator
+        while (entryItr.hasNext) {
+          if (entryItr.next.cache eq idToEntry) entryItr.remove
+        }
+        if (entries.isEmpty) itr.remove
+      }
+    }
+  }
+  
+  def size: Int = cache.size
+  
+  /**
+   * Estimated bytes retained by cached functions, 8 bytes per value of each var
+   */
+  def retainedBytes: Long = {
+    var bytes = 0L
+    val itr = cache.values.iterator
+    while (itr.hasNext) {
+      val vars = itr.next.function.vars.iterator
+      while (vars.hasNext) {
+        bytes += vars.next.size * 8L
+      }
+    }
+    bytes
+  }
+  
+  def stats: String = {
+    "functions=" + size + ", hits=" + hits.count + ", misses=" + misses.count + 
+    ", evictions=" + evictions.count + ", retainedBytes=" + retainedBytes
+  }
+  
+  private final class Entry(val id: Id[_ <: Function], val function: Function, val cache: Cache) {
+    /** consumers that hold this function, by identity */
+    private val consumers = new IdentityHashMap[AnyRef, AnyRef]
+    /** fast path of same consumer acquiring again and again */
+    @volatile private var lastConsumer: AnyRef = _
+    /** set when the last consumer is removed, an evicted entry can't be acquired any more */
+    private var isEvicted = false
+    
+    /**
+     * @return false if this entry has been evicted, the caller should get entry again
+     */
+    def addConsumer(consumer: AnyRef): Boolean = {
+      if (lastConsumer eq consumer) true else synchronized {
+        if (isEvicted) false else {
+          lastConsumer = consumer
+          if (consumers.put(consumer, consumer) == null) {
+            index(consumer, this)
+            if (consumers.size > 1) hits.inc
+          }
+          true
+        }
+      }
+    }
+    
+    /**
+     * @return true if the last consumer is removed and this entry is evicted, 
+     *         so an entry that has never been acquired won't be evicted this way
+     */
+    def removeConsumer(consumer: AnyRef): Boolean = synchronized {
+      if (consumers.remove(consumer) != null) {
+        if (lastConsumer eq consumer) lastConsumer = null
+        isEvicted = consumers.isEmpty
+        isEvicted
+      } else false
+    }
+    
+    def refCount: Int = synchronized {consumers.size}
   }
 }
 
@@ -162,6 +162,8 @@ trait IndicatorHelper {self: Indicator =>
     if (baseSerReaction != null) {
       baseSer.reactions -= baseSerReaction
     }
+    // functions held only by this indicator will be evicted
+    Function.release(self)
   }
     
 }
@@ -44,6 +44,7 @@ trait BaseTSer extends TSer {
   // --- Only BaseTSer can have methods that explictly add value
   def createOrReset(time: Long)
   def ++=[V <: TVal](values: Array[V]): TSer
+  def loadAll[V <: TVal](values: Array[V]): TSer
 
   /**
    * @NOTICE we can only trust BaseTSer to translate row <-> time properly.
@@ -254,6 +254,138 @@ class DefaultBaseTSer(_serProvider: SerProvider, _freq: TFreq) extends DefaultTS
     this
   }
 
+  /**
+   * Bulk load TVals to ser, and publish one TSerEvent.Refresh.
+   * 
+   * @Note this is a load from persistence, it does not publish TSerEvent.Loaded,
+   * which is reserved for the data server and triggers adjusting etc.
+   * 
+   * Values should be sorted by time (ascending or descending). Those after
+   * lastOccurredTime are appended in one pass: timestamps are appended at once,
+   * and vars are filled by idx via assignValue(idx, value) without locating
+   * time again. Those not after lastOccurredTime are processed one by one as ++=.
+   */
+  def loadAll[V <: TVal](values: Array[V]): TSer = {
+    if (values.length == 0) return this
+    
+    var frTime = Long.MaxValue
+    var toTime = Long.MinValue
+    try {
+      writeLock.lock
+
+      val lenth = values.length
+      val shouldReverse = !isAscending(values)
+      val lastOccurredTime = if (timestamps.isEmpty) Long.MinValue else timestamps.lastOccurredTime
+
+      // values that will be appended after lastOccurredTime, in ascending order
+      val appendings = new Array[TVal](lenth)
+      var nAppendings = 0
+      var isSorted = true
+      var i = if (shouldReverse) lenth - 1 else 0
+      while (isSorted && i >= 0 && i < lenth) {
+        val value = values(i)
+        if (value != null) {
+          val time = value.time
+          if (time > lastOccurredTime) {
+            if (nAppendings == 0 || time > appendings(nAppendings - 1).time) {
+              appendings(nAppendings) = value
+              nAppendings += 1
+            } else if (time == appendings(nAppendings - 1).time) {
+              // same time, the later one wins, as what ++= does
+              appendings(nAppendings - 1) = value
+            } else {
+              isSorted = false
+            }
+          } else {
+            createOrReset(time)
+            assignValue(value)
+          }
+
+          frTime = math.min(frTime, time)
+          toTime = math.max(toTime, time)
+        } else {
+          log.warning("Value of i=" + i + " is null")
+        }
+
+        if (shouldReverse)
+          i -= 1
+        else
+          i += 1
+      }
+
+      if (isSorted) {
+        if (nAppendings > 0) {
+          val times = new Array[Long](nAppendings)
+          var j = 0
+          while (j < nAppendings) {
+            times(j) = appendings(j).time
+            j += 1
+          }
+
+          val begIdx = appendTimes(times)
+
+          j = 0
+          while (j < nAppendings) {
+            assignValue(begIdx + j, appendings(j))
+            j += 1
+          }
+        }
+      } else {
+        log.warning("Values are not sorted by time, load them one by one")
+        i = 0
+        while (i < lenth) {
+          val value = values(i)
+          if (value != null) {
+            val time = value.time
+            createOrReset(time)
+            assignValue(value)
+
+            frTime = math.min(frTime, time)
+            toTime = math.max(toTime, time)
+          }
+          i += 1
+        }
+      }
+
+    } finally {
+      writeLock.unlock
+    }
+
+    publish(TSerEvent.Refresh(this, shortName, frTime, toTime))
+
+    log.fine("TimestampsLog: " + timestamps.log)
+    this
+  }
+
+  /**
+   * Append times (ascending, and after lastOccurredTime) in one pass, vars are
+   * filled with nulls, so caller can fill them by idx later.
+   * @Note should be called in writeLock
+   * @return begin idx of appended times
+   */
+  protected def appendTimes(times: Array[Long]): Int = {
+    val n = times.length
+    val begIdx = holders.size
+    try {
+      timestamps.writeLock.lock
+
+      // should append timestamps first
+      timestamps ++= times
+      timestamps.log.logAppend(n)
+
+      vars foreach (_.appendNulls(n))
+      holders.sizeHint(begIdx + n)
+      var i = 0
+      while (i < n) {
+        holders += createItem(times(i))
+        i += 1
+      }
+    } finally {
+      timestamps.writeLock.unlock
+    }
+    begIdx
+  }
+
   def isOnCalendarMode = _isOnCalendarMode
   def toOnCalendarMode {
     _isOnCalendarMode = true
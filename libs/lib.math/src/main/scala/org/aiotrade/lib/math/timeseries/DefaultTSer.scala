@@ -151,6 +151,15 @@ class DefaultTSer(private var _freq: TFreq) extends TSer {
     // todo
   }
 
+  /**
+   * Assign tval to vars at idx, where the timestamps and vars have been
+   * filled to idx already. Override it to assign vars by idx directly,
+   * the default one locates them by time again.
+   */
+  protected def assignValue(idx: Int, tval: TVal) {
+    assignValue(tval)
+  }
+
   /**
    * return a holder with value is true
    */
@@ -420,13 +429,48 @@ class DefaultTSer(private var _freq: TFreq) extends TSer {
   override 
   def hashCode: Int = _hashCode
 
+  /**
+   * TVar of Double, Long and Boolean will be created as the primitive specialized
+   * ones, use DoubleTVar(...), LongTVar(...), BooleanTVar(...) instead if you want
+   * to get them statically typed to avoid boxing.
+   */
   object TVar {
-    def apply[V: ClassTag](): TVar[V] = new InnerTVar[V]("", Plot.None)
-    def apply[V: ClassTag](name: String): TVar[V] = new InnerTVar[V](name, Plot.None)
-    def apply[V: ClassTag](name: String, plot: Plot): TVar[V] = new InnerTVar[V](name, plot)
+    def apply[V: ClassTag](): TVar[V] = apply[V]("", Plot.None)
+    def apply[V: ClassTag](name: String): TVar[V] = apply[V](name, Plot.None)
+    def apply[V: ClassTag](name: String, plot: Plot): TVar[V] = {
+      (reflect.classTag[V] match {
+          case ClassTag.Double  => new InnerDoubleTVar(name, plot)
+          case ClassTag.Long    => new InnerLongTVar(name, plot)
+          case ClassTag.Boolean => new InnerBooleanTVar(name, plot)
+          case _ => new InnerTVar[V](name, plot)
+        }
+      ).asInstanceOf[TVar[V]]
+    }
   }
+
+  object DoubleTVar {
+    def apply(): DoubleTVar = new InnerDoubleTVar("", Plot.None)
+    def apply(name: String): DoubleTVar = new InnerDoubleTVar(name, Plot.None)
+    def apply(name: String, plot: Plot): DoubleTVar = new InnerDoubleTVar(name, plot)
+  }
+
+  object LongTVar {
+    def apply(): LongTVar = new InnerLongTVar("", Plot.None)
+    def apply(name: String): LongTVar = new InnerLongTVar(name, Plot.None)
+    def apply(name: String, plot: Plot): LongTVar = new InnerLongTVar(name, plot)
+  }
+
+  object BooleanTVar {
+    def apply(): BooleanTVar = new InnerBooleanTVar("", Plot.None)
+    def apply(name: String): BooleanTVar = new InnerBooleanTVar(name, Plot.None)
+    def apply(name: String, plot: Plot): BooleanTVar = new InnerBooleanTVar(name, plot)
+  }
+  
+  final protected class InnerDoubleTVar(_name: String, _plot: Plot) extends InnerTVar[Double](_name, _plot) with DoubleTVar
+  final protected class InnerLongTVar(_name: String, _plot: Plot) extends InnerTVar[Long](_name, _plot) with LongTVar
+  final protected class InnerBooleanTVar(_name: String, _plot: Plot) extends InnerTVar[Boolean](_name, _plot) with BooleanTVar
   
-  final protected class InnerTVar[V: ClassTag](_name: String, _plot: Plot) extends AbstractInnerTVar[V](_name, _plot) {
+  protected class InnerTVar[V: ClassTag](_name: String, _plot: Plot) extends AbstractInnerTVar[V](_name, _plot) {
 
     private var _values = new ArrayList[V](INIT_CAPACITY)
     def values = _values
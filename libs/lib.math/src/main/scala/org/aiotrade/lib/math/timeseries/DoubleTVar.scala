@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.math.timeseries
+
+/**
+ * TVar of Double. Its values are held in ArrayList[Double], which is backed by a
+ * primitive double array, so apply/update via a DoubleTVar typed reference won't box
+ * or unbox the values.
+ *
+ * @author Caoyuan Deng
+ */
+trait DoubleTVar extends TVar[Double] {
+
+  override 
+  def apply(idx: Int): Double = {
+    val vs = values
+    if (idx >= 0 && idx < vs.size) {
+      vs.underlyingArray(idx)
+    } else Null.Double
+  }
+
+  override 
+  def update(idx: Int, value: Double) {
+    val vs = values
+    if (idx >= 0 && idx < vs.size) {
+      vs.underlyingArray(idx) = value
+    } else {
+      assert(false, "DoubleTVar.update(index, value): this index's value of Var did not be holded yet: " +
+             "idx=" + idx + ", value size=" + vs.size + ", timestamps size=" + timestamps.size)
+    }
+  }
+
+  override 
+  def apply(time: Long): Double = apply(timestamps.indexOfOccurredTime(time))
+
+  override 
+  def update(time: Long, value: Double) {
+    update(timestamps.indexOfOccurredTime(time), value)
+  }
+
+  override 
+  def double(idx: Int): Double = apply(idx)
+  override 
+  def double(time: Long): Double = apply(time)
+
+  override 
+  def float(idx: Int): Float = apply(idx).toFloat
+  override 
+  def float(time: Long): Float = apply(time).toFloat
+
+  override 
+  def toDoubleArray: Array[Double] = values.toArray
+}
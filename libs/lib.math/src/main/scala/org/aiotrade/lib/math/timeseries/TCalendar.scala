@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of AIOTrade Computing Co. nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.math.timeseries
+
+import java.util.Calendar
+import java.util.TimeZone
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Precomputed trading calendar of a timeZone: local day, week, month boundaries
+ * from fromYear to toYear (exclusive), so rounding and bucketing of time are only
+ * array lookups, which are allocation free and thread safe, instead of setting
+ * and getting fields of a Calendar.
+ * 
+ * Sub-day freqs (and Day) are rounded the same as TFreq.round(time, cal), with
+ * DST offset of timeZone at that time. Week, Month and Year freqs are bucketed
+ * to their begin local days, aligned by nUnits from fromYear.
+ * 
+ * Times out of table range fall back to a Calendar.
+ * 
+ * @author Caoyuan Deng
+ */
+final class TCalendar private (val timeZone: TimeZone, val firstDayOfWeek: Int, val fromYear: Int, val toYear: Int) {
+  import TCalendar._
+  
+  /** begin time of each local day, with an extra end one */
+  private val dayBegins: Array[Long] = {
+    val cal = newCalendar
+    cal.clear
+    cal.set(fromYear, Calendar.JANUARY, 1)
+    val from = cal.getTimeInMillis
+    cal.set(toYear, Calendar.JANUARY, 1)
+    val until = cal.getTimeInMillis
+    
+    val nDays = ((until - from) / ONE_DAY).toInt + 1 // DST may shift a few hours, so count again
+    val xs = new Array[Long](nDays + 1)
+    cal.setTimeInMillis(from)
+    var i = 0
+    while (cal.getTimeInMillis < until) {
+      xs(i) = cal.getTimeInMillis
+      cal.add(Calendar.DAY_OF_YEAR, 1)
+      i += 1
+    }
+    xs(i) = until
+    java.util.Arrays.copyOf(xs, i + 1)
+  }
+  
+  private val nDays = dayBegins.length - 1
+  
+  /** week index of each day, and begin time of each week */
+  private val (dayToWeek, weekBegins) = {
+    val cal = newCalendar
+    val dayToWeek = new Array[Int](nDays)
+    val weekBegins = new Array[Long](nDays / 7 + 2)
+    var week = -1
+    var i = 0
+    while (i < nDays) {
+      cal.setTimeInMillis(dayBegins(i))
+      if (i == 0 || cal.get(Calendar.DAY_OF_WEEK) == firstDayOfWeek) {
+        week += 1
+        weekBegins(week) = if (i == 0) {
+          // the first week may begin before fromYear
+          cal.set(Calendar.DAY_OF_WEEK, firstDayOfWeek)
+          if (cal.getTimeInMillis > dayBegins(0)) cal.add(Calendar.WEEK_OF_YEAR, -1)
+          cal.getTimeInMillis
+        } else dayBegins(i)
+      }
+      dayToWeek(i) = week
+      i += 1
+    }
+    (dayToWeek, java.util.Arrays.copyOf(weekBegins, week + 1))
+  }
+  
+  /** month index (from fromYear's January) of each day, and begin time of each month */
+  private val (dayToMonth, monthBegins) = {
+    val cal = newCalendar
+    val dayToMonth = new Array[Int](nDays)
+    val monthBegins = new Array[Long]((toYear - fromYear) * 12)
+    var i = 0
+    while (i < nDays) {
+      cal.setTimeInMillis(dayBegins(i))
+      val month = (cal.get(Calendar.YEAR) - fromYear) * 12 + cal.get(Calendar.MONTH)
+      if (cal.get(Calendar.DAY_OF_MONTH) == 1) {
+        monthBegins(month) = dayBegins(i)
+      }
+      dayToMonth(i) = month
+      i += 1
+    }
+    (dayToMonth, monthBegins)
+  }
+  
+  private def newCalendar = {
+    val cal = Calendar.getInstance(timeZone)
+    cal.setFirstDayOfWeek(firstDayOfWeek)
+    cal
+  }
+  
+  def isInRange(time: Long) = time >= dayBegins(0) && time < dayBegins(nDays)
+  
+  /**
+   * @return index of local day that includes time, or -1 if out of range
+   */
+  def dayOf(time: Long): Int = {
+    if (!isInRange(time)) return -1
+    
+    // guess by 24 hours a day, then correct the DST shift
+    var i = math.min(((time - dayBegins(0)) / ONE_DAY).toInt, nDays - 1)
+    while (dayBegins(i) > time) i -= 1
+    while (dayBegins(i + 1) <= time) i += 1
+    i
+  }
+  
+  /**
+   * @return offset of local time to UTC at time, including DST offset
+   */
+  def offsetAt(time: Long): Int = timeZone.getOffset(time)
+  
+  def dayBegin(time: Long): Long = {
+    val i = dayOf(time)
+    if (i >= 0) dayBegins(i) else fallbackBucketOf(time, TFreq.DAILY)
+  }
+  
+  /**
+   * The same as freq.round(time, cal) with a Calendar of this timeZone, except
+   * that the raw offset is the one at time instead of the current one.
+   */
+  def round(time: Long, freq: TFreq): Long = {
+    val offset = offsetAt(time)
+    ((time + offset) / freq.interval) * freq.interval - offset
+  }
+  
+  /**
+   * @return begin time of freq's interval that includes time
+   */
+  def bucketOf(time: Long, freq: TFreq): Long = {
+    freq.unit match {
+      case TUnit.Week =>
+        val i = dayOf(time)
+        if (i >= 0) {
+          val week = dayToWeek(i)
+          weekBegins(week - week % freq.nUnits)
+        } else fallbackBucketOf(time, freq)
+      case TUnit.Month =>
+        val i = dayOf(time)
+        if (i >= 0) {
+          val month = dayToMonth(i)
+          monthBegins(month - month % freq.nUnits)
+        } else fallbackBucketOf(time, freq)
+      case TUnit.Year =>
+        val i = dayOf(time)
+        if (i >= 0) {
+          val year = dayToMonth(i) / 12
+          monthBegins((year - year % freq.nUnits) * 12)
+        } else fallbackBucketOf(time, freq)
+      case _ =>
+        round(time, freq)
+    }
+  }
+  
+  def sameInterval(timeA: Long, timeB: Long, freq: TFreq): Boolean = {
+    bucketOf(timeA, freq) == bucketOf(timeB, freq)
+  }
+  
+  /**
+   * Out of table range, nUnits of Week/Month/Year is ignored
+   */
+  private def fallbackBucketOf(time: Long, freq: TFreq): Long = {
+    val cal = newCalendar
+    cal.setTimeInMillis(time)
+    freq.unit match {
+      case TUnit.Week  => cal.set(Calendar.DAY_OF_WEEK, firstDayOfWeek)
+      case TUnit.Month => cal.set(Calendar.DAY_OF_MONTH, 1)
+      case TUnit.Year  => cal.set(Calendar.DAY_OF_YEAR, 1)
+      case _ =>
+    }
+    cal.set(Calendar.HOUR_OF_DAY, 0)
+    cal.set(Calendar.MINUTE, 0)
+    cal.set(Calendar.SECOND, 0)
+    cal.set(Calendar.MILLISECOND, 0)
+    cal.getTimeInMillis
+  }
+}
+
+object TCalendar {
+  private val ONE_DAY = 24 * 60 * 60 * 1000L
+  
+  val DEFAULT_FROM_YEAR = 1970
+  val DEFAULT_TO_YEAR = 2070
+  
+  private val cache = new ConcurrentHashMap[String, TCalendar]()
+  
+  /**
+   * @return cached TCalendar of timeZone, with firstDayOfWeek of default locale
+   */
+  def apply(timeZone: TimeZone): TCalendar = {
+    apply(timeZone, Calendar.getInstance(timeZone).getFirstDayOfWeek)
+  }
+  
+  def apply(timeZone: TimeZone, firstDayOfWeek: Int): TCalendar = {
+    val key = timeZone.getID + "-" + firstDayOfWeek
+    cache.get(key) match {
+      case null =>
+        val tcal = new TCalendar(timeZone, firstDayOfWeek, DEFAULT_FROM_YEAR, DEFAULT_TO_YEAR)
+        val existed = cache.putIfAbsent(key, tcal)
+        if (existed != null) existed else tcal
+      case x => x
+    }
+  }
+}
@@ -79,6 +79,16 @@ class TFreq(val unit: TUnit, val nUnits: Int) extends Cloneable with Ordered[TFr
     ((time + offsetToLocalZeroOfDay) / interval) * interval - offsetToLocalZeroOfDay
   }
 
+  /**
+   * Begin time of this freq's interval that includes time, Week, Month and Year
+   * are bucketed by calendar.
+   * @param time time in milliseconds from the epoch (1 January 1970 0:00 UTC)
+   * @param tcal TCalendar of proper timeZone, which is thread safe
+   */
+  def bucketOf(time: Long, tcal: TCalendar): Long = tcal.bucketOf(time, this)
+
+  def sameInterval(timeA: Long, timeB: Long, tcal: TCalendar): Boolean = tcal.sameInterval(timeA, timeB, this)
+
   /**
    * @param timeA time in milliseconds from the epoch (1 January 1970 0:00 UTC)
    * @param timeB time in milliseconds from the epoch (1 January 1970 0:00 UTC)
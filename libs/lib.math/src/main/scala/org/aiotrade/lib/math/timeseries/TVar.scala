@@ -88,6 +88,20 @@ abstract class TVar[V: ClassTag] extends Plottable {
   final def putNull(time: Long): Boolean = put(time, nullVal)
   final def putNull(idx: Int): Boolean = put(idx, nullVal)
 
+  /**
+   * Append count of nullValue at the tail, for bulk appending, where the
+   * timestamps have been appended already.
+   */
+  def appendNulls(count: Int) {
+    val vs = values
+    vs.sizeHint(vs.size + count)
+    var i = 0
+    while (i < count) {
+      vs += nullVal
+      i += 1
+    }
+  }
+
   /** reset to nullValue */
   def reset(time: Long) = update(time, nullVal)
   /** reset to nullValue */
@@ -42,6 +42,7 @@ import java.util.logging.Level
 import java.util.logging.Logger
 import org.aiotrade.lib.util.actors.Publisher
 import org.aiotrade.lib.util.actors.Reactor
+import org.aiotrade.lib.util.metrics.Metrics
 import scala.collection.mutable
 import scala.reflect.ClassTag
 
@@ -92,6 +93,12 @@ abstract class DataServer[V: ClassTag] extends Ordered[DataServer[V]] with Publi
    * the consumer.
    */
   private var flowCount: Int = _ // flow control that tries to balance request and process
+  
+  // --- metrics, the mailbox depth is counted by sending/receiving since the actor doesn't expose it
+  private lazy val metricsPrefix = "dataserver." + getClass.getSimpleName
+  private lazy val requestQueueDepth = Metrics.counter(metricsPrefix + ".requestQueueDepth")
+  private lazy val processQueueDepth = Metrics.counter(metricsPrefix + ".processQueueDepth")
+  private lazy val processTime = Metrics.histogram(metricsPrefix + ".processData.ms")
   // --- a proxy actor for HeartBeat event etc, which will detect the speed of
   // refreshing requests, if consumer can not catch up the producer, will drop
   // some requests.
@@ -101,6 +108,7 @@ abstract class DataServer[V: ClassTag] extends Ordered[DataServer[V]] with Publi
         // refresh from loadedTime for subscribedContracts
         try {
           log.fine("Got HeartBeat message, going to request data, flowCount=" + flowCount)
+          requestQueueDepth.inc
           requestActor ! RequestData(subscribedContracts)
         } catch {
           case ex: Throwable => log.log(Level.WARNING, ex.getMessage, ex)
@@ -121,6 +129,7 @@ abstract class DataServer[V: ClassTag] extends Ordered[DataServer[V]] with Publi
   private val requestActor = new Reactor {
     reactions += {
       case RequestData(contracts) =>
+        requestQueueDepth.dec
         try {
           flowCount += 1
           log.fine("Got RequestData message, going to request data, flowCount=" + flowCount)
@@ -135,6 +144,7 @@ abstract class DataServer[V: ClassTag] extends Ordered[DataServer[V]] with Publi
     reactions += {
       // @Note 'contract' may be null, for instance: batch tickers loaded with multiple symbols.
       case DataLoaded(values, contract) =>
+        processQueueDepth.dec
         val t0 = System.currentTimeMillis
         try {
           flowCount -= 1
@@ -149,6 +159,7 @@ abstract class DataServer[V: ClassTag] extends Ordered[DataServer[V]] with Publi
         }
       
         publish(DataProcessed(contract))
+        processTime.record(System.currentTimeMillis - t0)
         log.info("Processed data in " + (System.currentTimeMillis - t0) + "ms")
     }
   }
@@ -158,6 +169,7 @@ abstract class DataServer[V: ClassTag] extends Ordered[DataServer[V]] with Publi
   def loadData(contracts: Iterable[C]) {
     log.info("Fired RequestData message for " + contracts.map(_.srcSymbol))
     // transit to async load reactor to put requests in queue (actor's mailbox)
+    requestQueueDepth.inc
     requestActor ! RequestData(contracts)
   }
 
@@ -180,6 +192,7 @@ abstract class DataServer[V: ClassTag] extends Ordered[DataServer[V]] with Publi
    * @See reactions += {...}
    */
   protected def publishData(msg: Any) {
+    processQueueDepth.inc
     processActor ! msg
   }
     
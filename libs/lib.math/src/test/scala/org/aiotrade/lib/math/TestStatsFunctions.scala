@@ -0,0 +1,163 @@
+package org.aiotrade.lib.math
+
+import java.util.Random
+import junit.framework.TestCase
+import junit.framework.Assert._
+import org.aiotrade.lib.math.timeseries.Null
+
+/**
+ * Whole-series forms of StatsFunctions should be equivalent to their scalar
+ * forms (computed window by window or chained spot by spot).
+ */
+class TestStatsFunctions extends TestCase {
+
+  /** below, around and above lib.indicator's Function.MinBulkSpots (64), and above MaxSlides (4096) */
+  private val lengths = List(10, 63, 64, 65, 300, 5000)
+  private val periods = List(1, 5, 20, 70)
+  private val tolerance = 1e-9
+
+  /** random walk around a price level, so naive sum of squares would lose precision */
+  private def series(n: Int, seed: Long): Array[Double] = {
+    val random = new Random(seed)
+    val values = new Array[Double](n)
+    var value = 1000.0
+    var i = 0
+    while (i < n) {
+      value += random.nextGaussian
+      values(i) = value
+      i += 1
+    }
+    values
+  }
+
+  /** with single Nulls, and a Null run longer than most periods */
+  private def seriesWithNulls(n: Int, seed: Long): Array[Double] = {
+    val values = series(n, seed)
+    for (i <- List(0, 3, n / 2, n - 1) if i < n) {
+      values(i) = Null.Double
+    }
+    var i = n / 4
+    while (i < math.min(n / 4 + 30, n)) {
+      values(i) = Null.Double
+      i += 1
+    }
+    values
+  }
+
+  private def assertNear(msg: String, expected: Double, actual: Double) {
+    if (Null.is(expected)) {
+      assertTrue(msg + ": expected Null, got " + actual, Null.is(actual))
+    } else {
+      assertEquals(msg, expected, actual, tolerance * math.max(1.0, math.abs(expected)))
+    }
+  }
+
+  /**
+   * Run kernel over whole range, over two sub ranges (fromIdx > 0) and with
+   * toIdx beyond length, and compare each to expected.
+   * 
+   * @param isSquared compare squares of values, for stdDev, whose rounding 
+   *        error is amplified by sqrt when variance is near 0
+   */
+  private def check(name: String, n: Int, period: Int, expected: Array[Double], isSquared: Boolean = false)(kernel: (Int, Int, Array[Double]) => Unit) {
+    val whole = new Array[Double](n)
+    kernel(0, n - 1, whole)
+
+    val split = new Array[Double](n)
+    val k = n / 3
+    kernel(0, k - 1, split)
+    kernel(k, n + 5, split)
+
+    var i = 0
+    while (i < n) {
+      val msg = name + "(n=" + n + ", period=" + period + ") at " + i
+      if (isSquared) {
+        assertNear(msg, expected(i) * expected(i), whole(i) * whole(i))
+        assertNear(msg + " of split range", expected(i) * expected(i), split(i) * split(i))
+      } else {
+        assertNear(msg, expected(i), whole(i))
+        assertNear(msg + " of split range", expected(i), split(i))
+      }
+      i += 1
+    }
+  }
+
+  private def windowed(n: Int, period: Int)(f: (Int, Int) => Double): Array[Double] = {
+    Array.tabulate(n) {i => f(i - period + 1, i)}
+  }
+
+  private def chained(n: Int)(f: (Int, Double) => Double): Array[Double] = {
+    val out = new Array[Double](n)
+    var prev = Null.Double
+    var i = 0
+    while (i < n) {
+      out(i) = f(i, prev)
+      prev = out(i)
+      i += 1
+    }
+    out
+  }
+
+  def testSums() {
+    for (n <- lengths; period <- periods; values <- List(series(n, n), seriesWithNulls(n, n))) {
+      val expected = windowed(n, period) {(from, to) => StatsFunctions.sum(values, from, to)}
+      check("sums", n, period, expected) {(from, to, out) => StatsFunctions.sums(values, period, from, to, out)}
+    }
+    for (n <- lengths; period <- periods; values <- List(series(n, n), seriesWithNulls(n, n))) {
+      val expected = chained(n) {(i, prev) => StatsFunctions.isum(i, values, period, prev)}
+      check("sums vs isum", n, period, expected) {(from, to, out) => StatsFunctions.sums(values, period, from, to, out)}
+    }
+  }
+
+  def testMas() {
+    for (n <- lengths; period <- periods; values <- List(series(n, n), seriesWithNulls(n, n))) {
+      val expected = windowed(n, period) {(from, to) => StatsFunctions.ma(values, from, to)}
+      check("mas", n, period, expected) {(from, to, out) => StatsFunctions.mas(values, period, from, to, out)}
+    }
+    for (n <- lengths; period <- periods; values <- List(series(n, n), seriesWithNulls(n, n))) {
+      val expected = chained(n) {(i, prev) => StatsFunctions.ima(i, values, period, prev)}
+      check("mas vs ima", n, period, expected) {(from, to, out) => StatsFunctions.mas(values, period, from, to, out)}
+    }
+  }
+
+  def testEmas() {
+    for (n <- lengths; period <- periods; values <- List(series(n, n), seriesWithNulls(n, n))) {
+      val expected = chained(n) {(i, prev) => if (i == 0) values(0) else StatsFunctions.iema(i, values, period, prev)}
+      check("emas", n, period, expected) {(from, to, out) => StatsFunctions.emas(values, period, from, to, out)}
+    }
+  }
+
+  def testMaxsMins() {
+    for (n <- lengths; period <- periods; values <- List(series(n, n), seriesWithNulls(n, n))) {
+      val expectedMaxs = windowed(n, period) {(from, to) => StatsFunctions.max(values, from, to)}
+      check("maxs", n, period, expectedMaxs) {(from, to, out) => StatsFunctions.maxs(values, period, from, to, out)}
+
+      val expectedMins = windowed(n, period) {(from, to) => StatsFunctions.min(values, from, to)}
+      check("mins", n, period, expectedMins) {(from, to, out) => StatsFunctions.mins(values, period, from, to, out)}
+    }
+    for (n <- lengths; period <- periods) {
+      val values = series(n, n)
+      val expectedMaxs = chained(n) {(i, prev) => StatsFunctions.imax(i, values, period, prev)}
+      check("maxs vs imax", n, period, expectedMaxs) {(from, to, out) => StatsFunctions.maxs(values, period, from, to, out)}
+
+      val expectedMins = chained(n) {(i, prev) => StatsFunctions.imin(i, values, period, prev)}
+      check("mins vs imin", n, period, expectedMins) {(from, to, out) => StatsFunctions.mins(values, period, from, to, out)}
+    }
+  }
+
+  def testStdDevs() {
+    for (n <- lengths; period <- periods; values <- List(series(n, n), seriesWithNulls(n, n))) {
+      val expected = windowed(n, period) {(from, to) => StatsFunctions.stdDev(values, from, to)}
+      check("stdDevs", n, period, expected, true) {(from, to, out) => StatsFunctions.stdDevs(values, period, from, to, out)}
+    }
+  }
+
+  def testCorrelations() {
+    for (n <- lengths; period <- periods if period > 1) {
+      for ((xs, ys) <- List((series(n, n), series(n, n + 1)), (seriesWithNulls(n, n), series(n, n + 1)))) {
+        val expected = windowed(n, period) {(from, to) => StatsFunctions.correlation(xs, ys, from, to)}
+        check("correlations", n, period, expected) {(from, to, out) => StatsFunctions.correlations(xs, ys, period, from, to, out)}
+      }
+    }
+  }
+}
@@ -31,6 +31,12 @@
 
 package org.aiotrade.lib.neuralnetwork.core.committee
 
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
 import org.aiotrade.lib.collection.ArrayList
 import org.aiotrade.lib.math.vector.InputOutputPoint
 import org.aiotrade.lib.math.vector.InputOutputPointSet
@@ -89,22 +95,29 @@ class NetworkCommittee(private var _combinationFunction: CommitteeFunction) exte
     _combinationFunction.assamble(results.toArray)
   }
     
+  /**
+   * Train members on NetworkCommittee's pool, returns when all of them are trained.
+   * If isSerialProcessing, members are trained one after another.
+   */
   def train(iops: InputOutputPointSet[_ <: InputOutputPoint]) {
-    val threadGroup = new ThreadGroup("a-group-of:" + this)
+    val futures = new ArrayList[Future[Unit]]()
     for (network <- _committee) {
-      val trainRunner = new TrainRunner(network, iops.cloneWithRandomizedOrder)
-      val aThread = new Thread(threadGroup, trainRunner)
-      aThread.start
-            
+      val future = NetworkCommittee.executor.submit(new TrainRunner(network, iops.cloneWithRandomizedOrder))
       if (isSerialProcessing) {
-        while (aThread.isAlive) {
-          Thread.`yield`
-        }
+        await(future)
+      } else {
+        futures += future
       }
     }
 
-    while (threadGroup.activeCount > 0) {
-      Thread.`yield`
+    futures foreach await
+  }
+  
+  private def await(future: Future[Unit]) {
+    try {
+      future.get
+    } catch {
+      case ex: ExecutionException => throw ex.getCause
     }
   }
     
@@ -168,10 +181,21 @@ class NetworkCommittee(private var _combinationFunction: CommitteeFunction) exte
     res
   }
     
-  class TrainRunner(network: Network, iops: InputOutputPointSet[_ <: InputOutputPoint]) extends Runnable {
-    def run() {
+  class TrainRunner(network: Network, iops: InputOutputPointSet[_ <: InputOutputPoint]) extends Callable[Unit] {
+    def call() {
       network.train(iops)
     }
   }
 
+}
+
+object NetworkCommittee {
+  private val threadCount = new AtomicInteger
+  private lazy val executor = Executors.newCachedThreadPool(new ThreadFactory {
+      def newThread(r: Runnable) = {
+        val t = new Thread(r, "NetworkCommittee-" + threadCount.incrementAndGet)
+        t.setDaemon(true)
+        t
+      }
+    })
 }
\ No newline at end of file
@@ -31,6 +31,11 @@
 
 package org.aiotrade.lib.neuralnetwork.machine.mlp
 
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.logging.Logger
 import org.aiotrade.lib.neuralnetwork.core.descriptor.NetworkDescriptor
 import org.aiotrade.lib.neuralnetwork.core.model.Parameter
@@ -40,6 +45,7 @@ import org.aiotrade.lib.collection.ArrayList
 import org.aiotrade.lib.math.vector.InputOutputPoint
 import org.aiotrade.lib.math.vector.InputOutputPointSet
 import org.aiotrade.lib.math.vector.Vec
+import org.aiotrade.lib.neuralnetwork.machine.mlp.neuron.PerceptronNeuron
 import scala.concurrent.SyncVar
 
 /**
@@ -55,6 +61,7 @@ class MlpNetwork extends Network {
   private var _descriptor: MlpNetworkDescriptor = _
   private var _layers = new ArrayList[MlpLayer]()
   private var _param: MlpNetwork.Param = _
+  private var _parallelism = MlpNetwork.defaultParallelism
     
   @throws(classOf[Exception])
   def init(descriptor: NetworkDescriptor) {
@@ -111,6 +118,15 @@ class MlpNetwork extends Network {
     _param = param
   }
     
+  /**
+   * Number of shards of training points that are propagated concurrently in 
+   * batch mode, 1 means sequentially in caller.
+   */
+  def parallelism = _parallelism
+  def parallelism_=(parallelism: Int) {
+    _parallelism = math.max(1, parallelism)
+  }
+    
   def layers = _layers
   def layers_=(layers: ArrayList[MlpLayer]) {
     _layers = layers
@@ -232,15 +248,22 @@ class MlpNetwork extends Network {
   }
     
   private def trainBatchMode(iops: InputOutputPointSet[_ <: InputOutputPoint]) {
+    val nShards = math.min(parallelism, iops.size / MlpNetwork.MIN_SHARD_SIZE)
+    val shards = if (nShards > 1) Array.fill(nShards)(replica) else null
+    
     val syncVar = new SyncVar[Boolean]
     var break = false
     var epoch = 1L
     while (epoch <= param.maxEpoch && !break) {
       var epochSumError = 0.0
-      var i = 0
-      while (i < iops.size) {
-        epochSumError += propagteBidirection(iops(i).input, iops(i).output)
-        i += 1
+      if (shards == null) {
+        var i = 0
+        while (i < iops.size) {
+          epochSumError += propagteBidirection(iops(i).input, iops(i).output)
+          i += 1
+        }
+      } else {
+        epochSumError = propagteBidirectionInShards(iops, shards)
       }
       adapt()
             
@@ -260,6 +283,83 @@ class MlpNetwork extends Network {
   }
     
     
+  /**
+   * Each shard propagates a slice of iops and sums gradients in its own learners,
+   * then the gradients are merged to this network's learners before adapt().
+   * 
+   * @return sum of errors
+   */
+  private def propagteBidirectionInShards(iops: InputOutputPointSet[_ <: InputOutputPoint], shards: Array[MlpNetwork]): Double = {
+    val size = iops.size
+    val n = shards.length
+    val tasks = new java.util.ArrayList[Callable[Double]](n)
+    var k = 0
+    while (k < n) {
+      val shard = shards(k)
+      val from = (size.toLong * k / n).toInt
+      val until = (size.toLong * (k + 1) / n).toInt
+      tasks.add(new Callable[Double] {
+          def call = {
+            var sumError = 0.0
+            var i = from
+            while (i < until) {
+              sumError += shard.propagteBidirection(iops(i).input, iops(i).output)
+              i += 1
+            }
+            sumError
+          }
+        })
+      k += 1
+    }
+
+    var sumError = 0.0
+    val futures = MlpNetwork.executor.invokeAll(tasks).iterator
+    while (futures.hasNext) {
+      try {
+        sumError += futures.next.get
+      } catch {
+        case ex: ExecutionException => throw ex.getCause
+      }
+    }
+    
+    k = 0
+    while (k < n) {
+      mergeSumGradients(shards(k))
+      k += 1
+    }
+    
+    sumError
+  }
+    
+  /**
+   * A network of same layers that shares the weights of this network, but has
+   * its own neuron states and learners to sum gradients.
+   */
+  private def replica: MlpNetwork = {
+    val x = new MlpNetwork
+    x.init(_descriptor)
+    forEachNeuronPair(x) {(neuron, xNeuron) => xNeuron.weight = neuron.weight}
+    x
+  }
+  
+  private def mergeSumGradients(shard: MlpNetwork) {
+    forEachNeuronPair(shard) {(neuron, shardNeuron) => neuron.learner.mergeSumGradient(shardNeuron.learner)}
+  }
+  
+  private def forEachNeuronPair(that: MlpNetwork)(f: (PerceptronNeuron, PerceptronNeuron) => Unit) {
+    var i = 0
+    while (i < _layers.length) {
+      val neurons = _layers(i).neurons
+      val thatNeurons = that.layers(i).neurons
+      var j = 0
+      while (j < neurons.length) {
+        f(neurons(j).asInstanceOf[PerceptronNeuron], thatNeurons(j).asInstanceOf[PerceptronNeuron])
+        j += 1
+      }
+      i += 1
+    }
+  }
+    
   def learnOnePoint(input: Vec, expectedOutput: Vec): Double = {
     val error = propagteBidirection(input, expectedOutput)
         
@@ -279,6 +379,20 @@ class MlpNetwork extends Network {
 }
 
 object MlpNetwork {
+  /** at least so many points per shard, otherwise the concurrency is not worth */
+  private val MIN_SHARD_SIZE = 256
+  
+  val defaultParallelism = Runtime.getRuntime.availableProcessors
+  
+  private val threadCount = new AtomicInteger
+  private lazy val executor = Executors.newFixedThreadPool(defaultParallelism, new ThreadFactory {
+      def newThread(r: Runnable) = {
+        val t = new Thread(r, "MlpNetwork-" + threadCount.incrementAndGet)
+        t.setDaemon(true)
+        t
+      }
+    })
+  
   case class Param(
     maxEpoch: Long,
     learningRate: Double,
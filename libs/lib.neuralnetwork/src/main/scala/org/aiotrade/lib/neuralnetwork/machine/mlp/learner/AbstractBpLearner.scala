@@ -83,6 +83,20 @@ abstract class AbstractBpLearner(val neuron: PerceptronNeuron, val mode: Mode) e
     }
   }
     
+  /**
+   * Add the summed gradient of that learner, which is of a replica of this neuron
+   * in data parallel batch training, to this one, then reset that one.
+   */
+  def mergeSumGradient(that: AbstractBpLearner) {
+    val thatSumGradient = that.sumGradient
+    var i = 0
+    while (i < neuron.inputDimension) {
+      _sumGradient(i) = _sumGradient(i) + thatSumGradient(i)
+      i += 1
+    }
+    that.reset()
+  }
+    
   /**
    * Reset leaner, here, we just set sumGradient to 0
    * This should be called after adapt() is called each time
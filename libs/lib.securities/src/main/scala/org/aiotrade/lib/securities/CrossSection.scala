@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities
+
+import java.util.Arrays
+import org.aiotrade.lib.math.timeseries.TFreq
+import org.aiotrade.lib.math.timeseries.TVar
+import org.aiotrade.lib.securities.model.Sec
+import scala.concurrent.forkjoin.ForkJoinPool
+import scala.concurrent.forkjoin.ForkJoinTask
+import scala.concurrent.forkjoin.RecursiveAction
+
+/**
+ * A cross section of securities' values aligned on a shared time axis, as a
+ * dense matrix of values(timeIdx)(secIdx), NaN where a sec has no bar at that
+ * time. All cross-sectional operations work on one row (time slice) at a time,
+ * so rows are processed in parallel for universe-wide computing.
+ * 
+ * @author Caoyuan Deng
+ */
+final class CrossSection(val secs: Array[Sec], val times: Array[Long], val values: Array[Array[Double]]) {
+  
+  def nTimes = times.length
+  def nSecs = secs.length
+  
+  /**
+   * @return index of time in times, or -1 if none
+   */
+  def indexOfTime(time: Long): Int = {
+    val idx = Arrays.binarySearch(times, time)
+    if (idx >= 0) idx else -1
+  }
+
+  def indexOfSec(sec: Sec): Int = secs.indexOf(sec)
+  
+  def apply(timeIdx: Int, secIdx: Int): Double = values(timeIdx)(secIdx)
+  
+  def valuesAt(time: Long): Array[Double] = {
+    val idx = indexOfTime(time)
+    if (idx >= 0) values(idx) else null
+  }
+  
+  /**
+   * Weighted mean of each time slice, the weights of secs without value are
+   * not counted.
+   * 
+   * @param weights in the same shape as this, NaN weight means not weighted
+   * @return weighted mean of each time, NaN if none
+   */
+  def weightedMean(weights: CrossSection): Array[Double] = {
+    val result = new Array[Double](nTimes)
+    eachRow {t => 
+      val xs = values(t)
+      val ws = weights.values(t)
+      var sum = 0.0
+      var sumWeight = 0.0
+      var s = 0
+      while (s < xs.length) {
+        val x = xs(s)
+        val w = ws(s)
+        if (!x.isNaN && !w.isNaN) {
+          sum += x * w
+          sumWeight += w
+        }
+        s += 1
+      }
+      result(t) = if (sumWeight != 0) sum / sumWeight else Double.NaN
+    }
+    result
+  }
+  
+  /**
+   * Weighted mean of each time slice by constant weights of secs
+   */
+  def weightedMean(weights: Array[Double]): Array[Double] = {
+    weightedMean(new CrossSection(secs, times, Array.fill(nTimes)(weights)))
+  }
+
+  /**
+   * @return mean of each time slice, NaN if none
+   */
+  def mean: Array[Double] = {
+    val result = new Array[Double](nTimes)
+    eachRow {t => 
+      result(t) = CrossSection.meanOf(values(t))
+    }
+    result
+  }
+  
+  /**
+   * Ranks 1 to n of each time slice in ascending order, ties get their average
+   * rank, NaN stays NaN.
+   */
+  def rank: CrossSection = {
+    val result = new Array[Array[Double]](nTimes)
+    eachRow {t => 
+      val xs = values(t)
+      val sorted = CrossSection.validsOf(xs)
+      Arrays.sort(sorted)
+      
+      val ranks = new Array[Double](xs.length)
+      var s = 0
+      while (s < xs.length) {
+        val x = xs(s)
+        ranks(s) = if (x.isNaN) {
+          Double.NaN
+        } else {
+          val lo = CrossSection.lowerBound(sorted, x)
+          val hi = CrossSection.upperBound(sorted, x) - 1
+          (lo + hi) / 2.0 + 1
+        }
+        s += 1
+      }
+      result(t) = ranks
+    }
+    new CrossSection(secs, times, result)
+  }
+  
+  /**
+   * Ranks of each time slice normalized to (0, 1]
+   */
+  def percentRank: CrossSection = {
+    val ranks = rank
+    ranks.eachRow {t =>
+      val xs = ranks.values(t)
+      val n = CrossSection.countValids(xs)
+      var s = 0
+      while (s < xs.length) {
+        xs(s) /= n
+        s += 1
+      }
+    }
+    ranks
+  }
+  
+  /**
+   * (x - mean) / stdDev of each time slice, NaN stays NaN.
+   */
+  def zscore: CrossSection = {
+    val result = new Array[Array[Double]](nTimes)
+    eachRow {t => 
+      val xs = values(t)
+      val mean = CrossSection.meanOf(xs)
+      var sumSq = 0.0
+      var n = 0
+      var s = 0
+      while (s < xs.length) {
+        val x = xs(s)
+        if (!x.isNaN) {
+          val d = x - mean
+          sumSq += d * d
+          n += 1
+        }
+        s += 1
+      }
+      val stdDev = if (n > 1) math.sqrt(sumSq / (n - 1)) else Double.NaN
+      
+      val zs = new Array[Double](xs.length)
+      s = 0
+      while (s < xs.length) {
+        zs(s) = if (stdDev > 0) (xs(s) - mean) / stdDev else Double.NaN
+        s += 1
+      }
+      result(t) = zs
+    }
+    new CrossSection(secs, times, result)
+  }
+  
+  /**
+   * Apply f on each time slice index, in parallel when the cross section is large.
+   */
+  def eachRow(f: Int => Unit) {
+    if (nTimes.toLong * nSecs >= CrossSection.PARALLEL_THRESHOLD) {
+      CrossSection.pool.invoke(new CrossSection.RowTask(f, 0, nTimes))
+    } else {
+      var t = 0
+      while (t < nTimes) {
+        f(t)
+        t += 1
+      }
+    }
+  }
+}
+
+object CrossSection {
+  private val SLICE_SIZE = 64
+  /** cells, under which the parallel overhead is not worth */
+  private val PARALLEL_THRESHOLD = 1L << 16
+  
+  private lazy val pool = new ForkJoinPool
+  
+  /**
+   * Align field of secs' quote sers of freq into a cross section, the time axis
+   * is the union of all sers' times in [fromTime, toTime].
+   */
+  def apply(secs: Array[Sec], freq: TFreq, field: QuoteSer => TVar[Double] = _.close, 
+            fromTime: Long = Long.MinValue, toTime: Long = Long.MaxValue): CrossSection = {
+    val sers = secs map (_.serOf(freq).orNull)
+    
+    // --- shared time axis
+    var nAll = 0
+    var s = 0
+    while (s < sers.length) {
+      if (sers(s) ne null) nAll += sers(s).size
+      s += 1
+    }
+    val allTimes = new Array[Long](nAll)
+    var n = 0
+    s = 0
+    while (s < sers.length) {
+      val ser = sers(s)
+      if (ser ne null) {
+        val size = math.min(ser.size, nAll - n)
+        var i = 0
+        while (i < size) {
+          val time = ser.timeOfIndex(i)
+          if (time >= fromTime && time <= toTime) {
+            allTimes(n) = time
+            n += 1
+          }
+          i += 1
+        }
+      }
+      s += 1
+    }
+    Arrays.sort(allTimes, 0, n)
+    var nTimes = 0
+    var i = 0
+    while (i < n) {
+      if (nTimes == 0 || allTimes(i) != allTimes(nTimes - 1)) {
+        allTimes(nTimes) = allTimes(i)
+        nTimes += 1
+      }
+      i += 1
+    }
+    val times = Arrays.copyOf(allTimes, nTimes)
+    
+    // --- fill values, by merging each ser's times with the time axis
+    val values = Array.fill(nTimes, secs.length)(Double.NaN)
+    s = 0
+    while (s < sers.length) {
+      val ser = sers(s)
+      if (ser ne null) {
+        val vs = field(ser)
+        val size = ser.size
+        var i = 0
+        var t = 0
+        while (i < size && t < nTimes) {
+          val time = ser.timeOfIndex(i)
+          if (time < times(t)) {
+            i += 1
+          } else if (time > times(t)) {
+            t += 1
+          } else {
+            values(t)(s) = vs(i)
+            i += 1
+            t += 1
+          }
+        }
+      }
+      s += 1
+    }
+    
+    new CrossSection(secs, times, values)
+  }
+  
+  private def countValids(xs: Array[Double]): Int = {
+    var n = 0
+    var s = 0
+    while (s < xs.length) {
+      if (!xs(s).isNaN) n += 1
+      s += 1
+    }
+    n
+  }
+  
+  private def validsOf(xs: Array[Double]): Array[Double] = {
+    val valids = new Array[Double](countValids(xs))
+    var n = 0
+    var s = 0
+    while (s < xs.length) {
+      if (!xs(s).isNaN) {
+        valids(n) = xs(s)
+        n += 1
+      }
+      s += 1
+    }
+    valids
+  }
+  
+  private def meanOf(xs: Array[Double]): Double = {
+    var sum = 0.0
+    var n = 0
+    var s = 0
+    while (s < xs.length) {
+      val x = xs(s)
+      if (!x.isNaN) {
+        sum += x
+        n += 1
+      }
+      s += 1
+    }
+    if (n > 0) sum / n else Double.NaN
+  }
+  
+  /** @return first index of sorted whose value >= x */
+  private def lowerBound(sorted: Array[Double], x: Double): Int = {
+    var lo = 0
+    var hi = sorted.length
+    while (lo < hi) {
+      val mid = (lo + hi) >>> 1
+      if (sorted(mid) < x) lo = mid + 1 else hi = mid
+    }
+    lo
+  }
+
+  /** @return first index of sorted whose value > x */
+  private def upperBound(sorted: Array[Double], x: Double): Int = {
+    var lo = 0
+    var hi = sorted.length
+    while (lo < hi) {
+      val mid = (lo + hi) >>> 1
+      if (sorted(mid) <= x) lo = mid + 1 else hi = mid
+    }
+    lo
+  }
+  
+  private final class RowTask(f: Int => Unit, rowFrom: Int, rowUntil: Int) extends RecursiveAction {
+    override
+    protected def compute() {
+      if (rowUntil - rowFrom <= SLICE_SIZE) {
+        var t = rowFrom
+        while (t < rowUntil) {
+          f(t)
+          t += 1
+        }
+      } else {
+        val mid = (rowFrom + rowUntil) >>> 1
+        ForkJoinTask.invokeAll(new RowTask(f, rowFrom, mid), new RowTask(f, mid, rowUntil))
+      }
+    }
+  }
+}
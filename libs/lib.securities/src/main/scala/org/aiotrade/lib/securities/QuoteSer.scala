@@ -36,7 +36,9 @@ import org.aiotrade.lib.math.timeseries.DefaultBaseTSer
 import org.aiotrade.lib.math.timeseries.TFreq
 import org.aiotrade.lib.math.timeseries.TSerEvent
 import org.aiotrade.lib.math.timeseries.TVal
+import org.aiotrade.lib.securities.data.QuoteStore
 import org.aiotrade.lib.securities.model.Exchanges
+import org.aiotrade.lib.securities.model.Flag
 import org.aiotrade.lib.securities.model.Quote
 import org.aiotrade.lib.securities.model.Sec
 import org.aiotrade.lib.util.reactors.Reactions
@@ -55,27 +57,27 @@ class QuoteSer(_sec: Sec, _freq: TFreq) extends DefaultBaseTSer(_sec, _freq) wit
   override 
   def serProvider: Sec = super.serProvider.asInstanceOf[Sec]
 
-  val open = TVar[Double]("O", Plot.Quote)
-  val high = TVar[Double]("H", Plot.Quote)
-  val low = TVar[Double]("L", Plot.Quote)
-  val close = TVar[Double]("C", Plot.Quote)
-  val volume = TVar[Double]("V", Plot.Volume)
-  val amount = TVar[Double]("A", Plot.Volume)
-  val average = TVar[Double]("R", Plot.None)
-  val prevClose = TVar[Double]("PC", Plot.None)
-  val prev5Close = TVar[Double]("P5C", Plot.None)
-  val execCount = TVar[Double]("E", Plot.None)
-  val turnoverRate = TVar[Double]("T", Plot.None)
-  val lastModify = TVar[Long]("LM", Plot.None)
+  val open = DoubleTVar("O", Plot.Quote)
+  val high = DoubleTVar("H", Plot.Quote)
+  val low = DoubleTVar("L", Plot.Quote)
+  val close = DoubleTVar("C", Plot.Quote)
+  val volume = DoubleTVar("V", Plot.Volume)
+  val amount = DoubleTVar("A", Plot.Volume)
+  val average = DoubleTVar("R", Plot.None)
+  val prevClose = DoubleTVar("PC", Plot.None)
+  val prev5Close = DoubleTVar("P5C", Plot.None)
+  val execCount = DoubleTVar("E", Plot.None)
+  val turnoverRate = DoubleTVar("T", Plot.None)
+  val lastModify = LongTVar("LM", Plot.None)
     
   // unadjusted values
-  val open_ori = TVar[Double]("O")
-  val high_ori = TVar[Double]("H")
-  val low_ori = TVar[Double]("L")
-  val close_ori = TVar[Double]("C")
-  val average_ori = TVar[Double]("R")
+  val open_ori = DoubleTVar("O")
+  val high_ori = DoubleTVar("H")
+  val low_ori = DoubleTVar("L")
+  val close_ori = DoubleTVar("C")
+  val average_ori = DoubleTVar("R")
 
-  val isClosed = TVar[Boolean]()
+  val isClosed = BooleanTVar()
   
   override 
   val exportableVars = List(open_ori, high_ori, low_ori, close_ori, volume, amount, prevClose, prev5Close, execCount, turnoverRate, lastModify)
@@ -113,6 +115,105 @@ class QuoteSer(_sec: Sec, _freq: TFreq) extends DefaultBaseTSer(_sec, _freq) wit
 
   }
 
+  override 
+  protected def assignValue(idx: Int, tval: TVal) {
+    super.assignValue(idx, tval)
+    tval match {
+      case quote: Quote =>
+        open(idx) = quote.open
+        high(idx) = quote.high
+        low(idx) = quote.low
+        close(idx) = quote.close
+        volume(idx) = quote.volume
+        amount(idx) = quote.amount
+        average(idx) = quote.average
+        prevClose(idx) = quote.prevClose
+        execCount(idx) = quote.execCount
+        turnoverRate(idx) = quote.volume / freeFloat(idx)
+        lastModify(idx) = quote.lastModify
+
+        open_ori(idx) = quote.open
+        high_ori(idx) = quote.high
+        low_ori(idx) = quote.low
+        close_ori(idx) = quote.close
+        average_ori(idx) = quote.average
+
+        isClosed(idx) = quote.closed_?
+
+        val idx5 = idx - 5
+        prev5Close(idx) = if (idx5 >= 0) prevClose(idx5) else prevClose(0)
+      case _ => assert(false, "Should pass a Quote type TimeValue")
+    }
+  }
+
+  /**
+   * Load rows of store that are after lastOccurredTime, columns are copied to
+   * vars' arrays directly, no Quote object is created per row. Publishes
+   * TSerEvent.Refresh as loadAll, TSerEvent.Loaded is left to the data server.
+   * 
+   * @return number of loaded rows
+   */
+  def loadFrom(store: QuoteStore): Int = {
+    var frTime = Long.MaxValue
+    var toTime = Long.MinValue
+    var n = 0
+    try {
+      writeLock.lock
+
+      val lastOccurredTime = if (timestamps.isEmpty) Long.MinValue else timestamps.lastOccurredTime
+      val fromRow = store.rowAfter(lastOccurredTime)
+      n = store.size - fromRow
+      if (n > 0) {
+        val times = new Array[Long](n)
+        store.readLongs(QuoteStore.Time, fromRow, times, 0, n)
+        val begIdx = appendTimes(times)
+        
+        store.readDoubles(QuoteStore.Open,      fromRow, open.values.underlyingArray,      begIdx, n)
+        store.readDoubles(QuoteStore.High,      fromRow, high.values.underlyingArray,      begIdx, n)
+        store.readDoubles(QuoteStore.Low,       fromRow, low.values.underlyingArray,       begIdx, n)
+        store.readDoubles(QuoteStore.Close,     fromRow, close.values.underlyingArray,     begIdx, n)
+        store.readDoubles(QuoteStore.Volume,    fromRow, volume.values.underlyingArray,    begIdx, n)
+        store.readDoubles(QuoteStore.Amount,    fromRow, amount.values.underlyingArray,    begIdx, n)
+        store.readDoubles(QuoteStore.PrevClose, fromRow, prevClose.values.underlyingArray, begIdx, n)
+        store.readDoubles(QuoteStore.ExecCount, fromRow, execCount.values.underlyingArray, begIdx, n)
+        store.readLongs(QuoteStore.LastModify,  fromRow, lastModify.values.underlyingArray, begIdx, n)
+        
+        System.arraycopy(open.values.underlyingArray,  begIdx, open_ori.values.underlyingArray,  begIdx, n)
+        System.arraycopy(high.values.underlyingArray,  begIdx, high_ori.values.underlyingArray,  begIdx, n)
+        System.arraycopy(low.values.underlyingArray,   begIdx, low_ori.values.underlyingArray,   begIdx, n)
+        System.arraycopy(close.values.underlyingArray, begIdx, close_ori.values.underlyingArray, begIdx, n)
+
+        val flags = new Array[Int](n)
+        store.readInts(QuoteStore.Flag, fromRow, flags, 0, n)
+        
+        // derived values, as what assignValue(idx, quote) does
+        var i = 0
+        while (i < n) {
+          val idx = begIdx + i
+          val avg = Quote.averageOf(open(idx), high(idx), low(idx), close(idx), volume(idx), amount(idx))
+          average(idx) = avg
+          average_ori(idx) = avg
+          if (idx >= 1) freeFloat(idx) = freeFloat(idx - 1)
+          turnoverRate(idx) = volume(idx) / freeFloat(idx)
+          isClosed(idx) = (flags(i) & Flag.MaskClosed) == Flag.MaskClosed
+          val idx5 = idx - 5
+          prev5Close(idx) = if (idx5 >= 0) prevClose(idx5) else prevClose(0)
+          i += 1
+        }
+        
+        frTime = times(0)
+        toTime = times(n - 1)
+      }
+    } finally {
+      writeLock.unlock
+    }
+
+    if (n > 0) {
+      publish(TSerEvent.Refresh(this, shortName, frTime, toTime))
+    }
+    n
+  }
+
   def valueOf(time: Long): Option[Quote] = {
     if (exists(time)) {
       val quote = new Quote
@@ -184,41 +285,30 @@ class QuoteSer(_sec: Sec, _freq: TFreq) extends DefaultBaseTSer(_sec, _freq) wit
   private def doAdjusting(b: Boolean, force: Boolean) {
     if (!force && (isAdjusted && b || !isAdjusted && !b)) return
     
-    val divs = Exchanges.dividendsOf(serProvider)
-    if (divs.isEmpty) {
+    val factors = Exchanges.adjustFactorsOf(serProvider)
+    if (factors.isEmpty) {
       isAdjusted = b
       return
     }
     
+    // times are ascending, so just advance the factors' idx in one pass
+    var k = 0
     var i = -1
     while ({i += 1; i < size}) {
-      val time = timestamps(i)
-
-      var h = high_ori(i)
-      var l = low_ori(i)
-      var o = open_ori(i)
-      var c = close_ori(i)
-      var r = average_ori(i)
-
       if (b) {
-        val divItr = divs.iterator
-        while (divItr.hasNext) {
-          val div = divItr.next
-          if (time < div.dividendDate) {
-            h = div.adjust(h)
-            l = div.adjust(l)
-            o = div.adjust(o)
-            c = div.adjust(c)
-            r = div.adjust(r)
-          }
-        }
+        k = factors.advance(k, timestamps(i))
+        high   (i) = factors.adjust(high_ori(i),    k)
+        low    (i) = factors.adjust(low_ori(i),     k)
+        open   (i) = factors.adjust(open_ori(i),    k)
+        close  (i) = factors.adjust(close_ori(i),   k)
+        average(i) = factors.adjust(average_ori(i), k)
+      } else {
+        high   (i) = high_ori(i)
+        low    (i) = low_ori(i)
+        open   (i) = open_ori(i)
+        close  (i) = close_ori(i)
+        average(i) = average_ori(i)
       }
-      
-      high   (i) = h
-      low    (i) = l
-      open   (i) = o
-      close  (i) = c
-      average(i) = r
     }
 
     isAdjusted = b
@@ -255,7 +345,9 @@ class QuoteSer(_sec: Sec, _freq: TFreq) extends DefaultBaseTSer(_sec, _freq) wit
   private def calPreClose {
     if (prevClose(0) == 0) prevClose(0) = open(0)
     
-    val divs = Exchanges.dividendsOf(serProvider)
+    // take divs from factors, so they are indexed as factors.dividendDates
+    val factors = Exchanges.adjustFactorsOf(serProvider)
+    val divs = factors.dividends
     if (divs.isEmpty) {
       var i = 0
       while ({i += 1; i < size}) {
@@ -264,17 +356,17 @@ class QuoteSer(_sec: Sec, _freq: TFreq) extends DefaultBaseTSer(_sec, _freq) wit
         }
       }
     } else {
+      val cal = java.util.Calendar.getInstance
       var i = 0
       while ({i += 1; i < size}) {
         if (prevClose(i) == 0) {
           prevClose(i) = close_ori(i - 1)
-          val time = TFreq.DAILY.round(timestamps(i), java.util.Calendar.getInstance)
-          val divItr = divs.iterator
-          while (divItr.hasNext) {
-            val div = divItr.next
-            if (time == div.dividendDate) {
-              prevClose(i) = div.adjust(prevClose(i))
-            }
+          val time = TFreq.DAILY.round(timestamps(i), cal)
+          // divs are sorted by dividendDate, the first one of this day is next to the ones before this day
+          var k = factors.indexOf(time - 1)
+          while (k < divs.length && factors.dividendDates(k) == time) {
+            prevClose(i) = divs(k).adjust(prevClose(i))
+            k += 1
           }
         }
       }
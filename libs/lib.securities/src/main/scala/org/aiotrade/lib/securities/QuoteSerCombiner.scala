@@ -33,6 +33,7 @@ package org.aiotrade.lib.securities
 import java.util.Calendar
 import java.util.TimeZone
 import java.util.logging.Logger
+import org.aiotrade.lib.math.timeseries.TCalendar
 import org.aiotrade.lib.math.timeseries.TSerEvent
 import org.aiotrade.lib.securities.model.Sec
 import org.aiotrade.lib.securities.model.Quote
@@ -55,14 +56,20 @@ class QuoteSerCombiner(srcSer: QuoteSer, tarSer: QuoteSer, timeZone: TimeZone) e
   reactions += {
     case TSerEvent.Loaded(_, _, fromTime, _, _, _) => compute(fromTime)
     case TSerEvent.Computed(_, _, fromTime, _, _, _) => compute(fromTime)
-    case TSerEvent.Updated(_, _, fromTime, _, _, _) => compute(fromTime)
+    case TSerEvent.Updated(_, _, fromTime, _, _, _) => update(fromTime)
     case TSerEvent.Cleared(_, _, fromTime, _, _, _) => compute(fromTime)
   }
   listenTo(srcSer)
 
   private val sec = srcSer.serProvider.asInstanceOf[Sec]
   private val freq = tarSer.freq
+  private val tcal = TCalendar(timeZone)
   private var quote: Quote = _
+  
+  /** state of incremental combining: the open target interval and its last source bar */
+  private var bucketTime = Long.MinValue
+  private var lastSrcTime = Long.MinValue
+  private val closedAgg = new Agg
 
   /**
    * Combine data according to wanted frequency, such as Weekly, Monthly etc.
@@ -112,7 +119,7 @@ class QuoteSerCombiner(srcSer: QuoteSer, tarSer: QuoteSer, timeZone: TimeZone) e
            * if j == 0, because jdata is the same data as idata in this case:
            */
           val inSameInterval = if (j == 0) true else {
-            freq.sameInterval(time_i, time_j, cal)
+            freq.sameInterval(time_i, time_j, tcal)
           }
         
           if (inSameInterval) {
@@ -166,64 +173,100 @@ class QuoteSerCombiner(srcSer: QuoteSer, tarSer: QuoteSer, timeZone: TimeZone) e
     tarSer.publish(evt)
   }
 
+  /**
+   * Recompute target quotes from the interval that includes fromTime.
+   */
   def compute(fromTime: Long) {
-    val cal = Calendar.getInstance(timeZone)
-    cal.setTimeInMillis(fromTime)
-    val roundedFromTime = freq.round(fromTime, cal)
-    cal.setTimeInMillis(roundedFromTime)
-    val srcFromIdx = math.max(0, srcSer.timestamps.indexOrNextIndexOfOccurredTime(roundedFromTime))
-
-    // --- begin combining
+    bucketTime = Long.MinValue
+    lastSrcTime = Long.MinValue
+    closedAgg.reset
+    quote = null
+    
+    foldFrom(freq.bucketOf(fromTime, tcal))
+  }
+  
+  /**
+   * Fold only the source bars since fromTime into the open target quote, which
+   * is usually the last one or two source bars on live updating.
+   */
+  def update(fromTime: Long) {
+    if (fromTime < lastSrcTime) {
+      // source history before the open bar changed, recompute its interval
+      compute(fromTime)
+    } else {
+      foldFrom(fromTime)
+    }
+  }
 
+  private def foldFrom(fromTime: Long) {
     val n = srcSer.size
-    var i = srcFromIdx - 1
+    var i = math.max(0, srcSer.timestamps.indexOrNextIndexOfOccurredTime(fromTime)) - 1
     while ({i += 1; i < n}) {
       val time_i = srcSer.timeOfIndex(i)
-      if (time_i >= roundedFromTime) {
-        val quote = quoteOf(time_i)
-
-        var prevNorm = srcSer.close(time_i)
-        var postNorm = srcSer.close(time_i)//srcSer.close_adj(time_i) @todo deal with adjusted
-        
-        /**
-         * @TIPS
-         * when combine, do adjust on source's value, then de adjust on combined quote data.
-         * this will prevent bad high, open, and low into combined quote data:
-         *
-         * During the combining period, an adjust may happened, but we only record last
-         * close_adj, the high, low, and open of the data before adjusted acutally may has
-         * different scale close_adj, so must do adjust with its own close_adj firstly. then
-         * use the last close_orj to de-adjust it.
-         */
-        if (quote.justOpen_?) {
-          quote.unjustOpen_!
-          quote.open   = linearAdjust(srcSer.open(time_i),  prevNorm, postNorm)
-          quote.high   = linearAdjust(srcSer.high(time_i),  prevNorm, postNorm)
-          quote.low    = linearAdjust(srcSer.low(time_i),   prevNorm, postNorm)
-          quote.close  = linearAdjust(srcSer.close(time_i), prevNorm, postNorm)
-          quote.volume += srcSer.volume(time_i)
-          quote.amount += srcSer.amount(time_i)
-          quote.execCount += srcSer.execCount(time_i)
-        } else {
-          quote.high   = math.max(quote.high, linearAdjust(srcSer.high(time_i),  prevNorm, postNorm))
-          quote.low    = math.min(quote.low,  linearAdjust(srcSer.low(time_i),   prevNorm, postNorm))
-          quote.close  = linearAdjust(srcSer.close(time_i), prevNorm, postNorm)
-          quote.volume += srcSer.volume(time_i)
-          quote.amount += srcSer.amount(time_i)
-          quote.execCount += srcSer.execCount(time_i)
-        }
-        
-        tarSer.updateFrom(quote)
+      if (time_i >= fromTime) {
+        fold(time_i)
       }
     }
-
-//    val evt = TSerEvent.Updated(tarSer, null, baseFromTime, tarSer.lastOccurredTime)
-//    tarSer.publish(evt)
+  }
+  
+  /**
+   * Target quote = aggregate of closed source bars of this interval + source bar
+   * at time, which may be updated again later.
+   */
+  private def fold(time: Long) {
+    val bucket = freq.bucketOf(time, tcal)
+    if (bucket != bucketTime) {
+      bucketTime = bucket
+      closedAgg.reset
+      quote = quoteOf(bucket)
+    } else if (time != lastSrcTime) {
+      // the previous source bar is closed now
+      closedAgg.fold(lastSrcTime)
+    }
+    lastSrcTime = time
+    
+    /**
+     * @TIPS
+     * when combine, do adjust on source's value, then de adjust on combined quote data.
+     * this will prevent bad high, open, and low into combined quote data:
+     *
+     * During the combining period, an adjust may happened, but we only record last
+     * close_adj, the high, low, and open of the data before adjusted acutally may has
+     * different scale close_adj, so must do adjust with its own close_adj firstly. then
+     * use the last close_orj to de-adjust it.
+     */
+    val prevNorm = srcSer.close(time)
+    val postNorm = srcSer.close(time) //srcSer.close_adj(time) @todo deal with adjusted
+    val open  = linearAdjust(srcSer.open(time),  prevNorm, postNorm)
+    val high  = linearAdjust(srcSer.high(time),  prevNorm, postNorm)
+    val low   = linearAdjust(srcSer.low(time),   prevNorm, postNorm)
+    val close = linearAdjust(srcSer.close(time), prevNorm, postNorm)
+    
+    if (quote.justOpen_?) {
+      quote.unjustOpen_!
+    }
+    if (closedAgg.isEmpty) {
+      quote.open   = open
+      quote.high   = high
+      quote.low    = low
+      quote.volume = srcSer.volume(time)
+      quote.amount = srcSer.amount(time)
+      quote.execCount = srcSer.execCount(time)
+    } else {
+      quote.open   = closedAgg.open
+      quote.high   = math.max(closedAgg.high, high)
+      quote.low    = math.min(closedAgg.low,  low)
+      quote.volume = closedAgg.volume + srcSer.volume(time)
+      quote.amount = closedAgg.amount + srcSer.amount(time)
+      quote.execCount = closedAgg.execCount + srcSer.execCount(time)
+    }
+    quote.close = close
+        
+    tarSer.updateFrom(quote)
   }
 
   def quoteOf(time: Long): Quote = {
-    val cal = Calendar.getInstance(timeZone)
-    val rounded = freq.round(time, cal)
+    val rounded = freq.bucketOf(time, tcal)
     quote match {
       case one: Quote if one.time == rounded =>
         one
@@ -240,6 +283,40 @@ class QuoteSerCombiner(srcSer: QuoteSer, tarSer: QuoteSer, timeZone: TimeZone) e
         newone
     }
   }
+  
+  /**
+   * Aggregate of source bars
+   */
+  private final class Agg {
+    var isEmpty = true
+    var open, high, low, volume, amount, execCount = 0.0
+    
+    def reset {
+      isEmpty = true
+      volume = 0
+      amount = 0
+      execCount = 0
+    }
+    
+    def fold(time: Long) {
+      val prevNorm = srcSer.close(time)
+      val postNorm = srcSer.close(time)
+      val high = linearAdjust(srcSer.high(time), prevNorm, postNorm)
+      val low  = linearAdjust(srcSer.low(time),  prevNorm, postNorm)
+      if (isEmpty) {
+        isEmpty = false
+        this.open = linearAdjust(srcSer.open(time), prevNorm, postNorm)
+        this.high = high
+        this.low  = low
+      } else {
+        this.high = math.max(this.high, high)
+        this.low  = math.min(this.low,  low)
+      }
+      volume += srcSer.volume(time)
+      amount += srcSer.amount(time)
+      execCount += srcSer.execCount(time)
+    }
+  }
 
   /**
    * This function keeps the adjusting linear according to a norm
@@ -5,6 +5,7 @@ import java.util.Date
 import java.util.logging.Logger
 import org.aiotrade.lib.math.signal.Side
 import org.aiotrade.lib.math.timeseries.TFreq
+import org.aiotrade.lib.math.timeseries.TVar
 import org.aiotrade.lib.securities.model.Sec
 import org.aiotrade.lib.securities.model.SectorSec
 import org.aiotrade.lib.util.ValidTime
@@ -254,6 +255,39 @@ class SecPicking extends Publisher {
     mappedSecToWeight map {case (sec, weight) => sec -> weight / sumWeights} toMap
   }
   
+  // --- cross section
+  
+  /**
+   * Align all picked secs' field of freq into a cross section
+   */
+  def crossSection(freq: TFreq, field: QuoteSer => TVar[Double] = _.close, fromTime: Long = Long.MinValue, toTime: Long = Long.MaxValue): CrossSection = {
+    CrossSection(allSecs.toArray, freq, field, fromTime, toTime)
+  }
+  
+  /**
+   * @return weights in the same shape as cs, NaN if the sec is not picked or
+   *         has no weight at that time.
+   */
+  def weightsOf(cs: CrossSection): CrossSection = {
+    val weights = Array.fill(cs.nTimes, cs.nSecs)(Double.NaN)
+    val secToWeightValidTimesOfCs = cs.secs map (sec => secToWeightValidTimes.getOrElse(sec, Nil))
+    val secToValidTimesOfCs = cs.secs map (sec => secToValidTimes.getOrElse(sec, Nil))
+    cs.eachRow {t => 
+      val time = cs.times(t)
+      var s = 0
+      while (s < cs.nSecs) {
+        if (secToValidTimesOfCs(s).exists(_.isValid(time))) {
+          secToWeightValidTimesOfCs(s) find (_.isValid(time)) match {
+            case Some(x) => weights(t)(s) = x.ref
+            case None =>
+          }
+        }
+        s += 1
+      }
+    }
+    new CrossSection(cs.secs, cs.times, weights)
+  }
+  
   def nonValid(sec: Sec, times: Long*) = !isValid(sec, times: _*)
   def isValid(sec: Sec, times: Long*): Boolean = {
     secToValidTimes.get(sec) match {
@@ -15,7 +15,7 @@ import org.aiotrade.lib.securities.model.Sec
 
 trait WithFreeFloat {self: DefaultBaseTSer =>
 
-  val freeFloat = TVar[Double]("FF", Plot.None)
+  val freeFloat = DoubleTVar("FF", Plot.None)
 
   private val log = Logger.getLogger(getClass.getName)
 
@@ -25,6 +25,10 @@ trait WithFreeFloat {self: DefaultBaseTSer =>
     if (idx >= 0) freeFloat(time) = freeFloat(idx)
   }
 
+  override protected def assignValue(idx: Int, tval: TVal) {
+    if (idx >= 1) freeFloat(idx) = freeFloat(idx - 1)
+  }
+
   def doCalcRate
 
   protected def calcRateByFreeFloat(col: TVar[Double], volume: TVar[Double]){
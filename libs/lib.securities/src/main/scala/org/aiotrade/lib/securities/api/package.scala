@@ -4,27 +4,34 @@ import org.aiotrade.lib.avro.Evt
 import org.aiotrade.lib.securities.model.ExchangeStatus
 import org.aiotrade.lib.securities.model.Execution
 import org.aiotrade.lib.securities.model.MoneyFlow
+import org.aiotrade.lib.securities.model.MoneyFlowsCodec
 import org.aiotrade.lib.securities.model.PriceCollection
+import org.aiotrade.lib.securities.model.PriceCollectionCodec
+import org.aiotrade.lib.securities.model.PriceCollectionsCodec
 import org.aiotrade.lib.securities.model.Quote
+import org.aiotrade.lib.securities.model.QuotesCodec
 import org.aiotrade.lib.securities.model.SecDividend
 import org.aiotrade.lib.securities.model.Ticker
+import org.aiotrade.lib.securities.model.TickerDeltas
+import org.aiotrade.lib.securities.model.TickersCodec
 
 package object api {
 
   // snapshot evts
   val TickerEvt     = Evt[Ticker](0, "ticker")
-  val TickersEvt    = Evt[Array[Ticker]](1, "tickers")
+  val TickersEvt    = Evt[Array[Ticker]](1, "tickers", codec = TickersCodec)
   val ExecutionEvt  = Evt[(Double, Execution)](2, "prevClose, execution")
   val ExecutionsEvt = Evt[Array[Execution]](3)
+  val TickerDeltasEvt = Evt[TickerDeltas](4, "ticker deltas against last sent version, @see TickerDeltaSender")
 //  val DelimiterEvt  = Evt[Unit](9, "A delimiter to notice batch tickers got.")
 
   
   // update evts
   val QuoteEvt              = Evt[(String, Quote)](10, "freq, quote")
-  val QuotesEvt             = Evt[(String, Array[Quote])](11)
+  val QuotesEvt             = Evt[(String, Array[Quote])](11, codec = QuotesCodec)
   val MoneyFlowEvt          = Evt[(String, MoneyFlow)](20, "freq, moneyflow")
-  val MoneyFlowsEvt         = Evt[(String, Array[MoneyFlow])](21)
-  val PriceDistributionEvt  = Evt[PriceCollection](30, "", schemaJson = """
+  val MoneyFlowsEvt         = Evt[(String, Array[MoneyFlow])](21, codec = MoneyFlowsCodec)
+  val PriceDistributionEvt  = Evt[PriceCollection](30, codec = PriceCollectionCodec, schemaJson = """
       {"type":"record","name":"PriceCollection","namespace":"org.aiotrade.lib.securities.model",
               "fields":[{"name":"map","type":["null",
                                               {"type":"map",
@@ -41,7 +48,7 @@ package object api {
                         {"name":"data","type":["null",{"type":"array","items":"double"}]}]}
 """)
   
-  val PriceDistributionsEvt = Evt[Array[PriceCollection]](31)
+  val PriceDistributionsEvt = Evt[Array[PriceCollection]](31, codec = PriceCollectionsCodec)
   val ExchangeStatusEvt     = Evt[(String, ExchangeStatus)](40, "exchangeCode, status")
 
   // --- base data evt
@@ -0,0 +1,467 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities.data
+
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.channels.FileLock
+import java.util.logging.Level
+import java.util.logging.Logger
+import org.aiotrade.lib.math.timeseries.TFreq
+import org.aiotrade.lib.securities.model.Quote
+import org.aiotrade.lib.securities.model.Sec
+
+/**
+ * Local columnar store of quotes, one memory-mapped file per sec/freq.
+ * 
+ * File layout:
+ * header (HeaderSize bytes): magic, version, capacity, size
+ * columns, each has 'capacity' slots and is continuous in file:
+ *   time(long), lastModify(long), flag(int), open, high, low, close, volume, 
+ *   amount, vwap, prevClose, execCount, turnoverRate (double)
+ * 
+ * Rows are sorted by time ascending, and can only be appended after lastTime.
+ * When capacity is exhausted, the columns are moved in place to doubled capacity.
+ * Rows that were corrected in db are rewritten by sync, which is fed with the
+ * last verifyRows rows again on each load, or dropped by truncateFrom.
+ * 
+ * Columns can be copied to primitive arrays directly (@see QuoteSer.loadFrom),
+ * so no Quote object is created per row.
+ * 
+ * @Note there is only one instance per file, QuoteStore(sec, freq) returns the
+ * opened one and close releases it, so an importer and a running server can use
+ * the same store, its methods are synchronized. The file is also locked against
+ * other processes.
+ * 
+ * @author Caoyuan Deng
+ */
+final class QuoteStore private (val file: File) {
+  import QuoteStore._
+
+  private var channel: FileChannel = _
+  private var lock: FileLock = _
+  private var buf: MappedByteBuffer = _
+  private var _capacity = 0
+  private var _size = 0
+  /** number of holders, guarded by QuoteStore's registry */
+  private var refCount = 0
+  
+  open
+  
+  def capacity = synchronized {_capacity}
+  def size = synchronized {_size}
+  def isEmpty = synchronized {_size == 0}
+  
+  def firstTime: Long = synchronized {if (_size == 0) Long.MinValue else time(0)}
+  def lastTime: Long = synchronized {if (_size == 0) Long.MinValue else time(_size - 1)}
+
+  def time(row: Int): Long = synchronized {buf.getLong(offsetOf(Time, row))}
+  def flag(row: Int): Int = synchronized {buf.getInt(offsetOf(Flag, row))}
+  def double(col: Int, row: Int): Double = synchronized {buf.getDouble(offsetOf(col, row))}
+
+  /**
+   * @return the first row whose time > time, or size if none
+   */
+  def rowAfter(time: Long): Int = synchronized {
+    var lo = 0
+    var hi = _size - 1
+    while (lo <= hi) {
+      val mid = (lo + hi) >>> 1
+      if (this.time(mid) <= time) lo = mid + 1 else hi = mid - 1
+    }
+    lo
+  }
+
+  /**
+   * @return row of time, or -1 if none
+   */
+  def rowOf(time: Long): Int = synchronized {
+    val row = if (time == Long.MinValue) 0 else rowAfter(time - 1)
+    if (row < _size && this.time(row) == time) row else -1
+  }
+
+  /** copy column col of rows [fromRow, fromRow + length) to dest from destPos */
+  def readLongs(col: Int, fromRow: Int, dest: Array[Long], destPos: Int, length: Int) = synchronized {
+    checkColumn(col, LongWidth)
+    val b = buf.duplicate
+    b.position(offsetOf(col, fromRow))
+    b.asLongBuffer.get(dest, destPos, length)
+  }
+
+  def readInts(col: Int, fromRow: Int, dest: Array[Int], destPos: Int, length: Int) = synchronized {
+    checkColumn(col, IntWidth)
+    val b = buf.duplicate
+    b.position(offsetOf(col, fromRow))
+    b.asIntBuffer.get(dest, destPos, length)
+  }
+
+  def readDoubles(col: Int, fromRow: Int, dest: Array[Double], destPos: Int, length: Int) = synchronized {
+    checkColumn(col, DoubleWidth)
+    val b = buf.duplicate
+    b.position(offsetOf(col, fromRow))
+    b.asDoubleBuffer.get(dest, destPos, length)
+  }
+  
+  /**
+   * Append quotes which are after lastTime, others are ignored.
+   * @param quotes sorted by time, ascending or descending
+   * @return number of appended rows
+   */
+  def append(quotes: Seq[Quote]): Int = synchronized {
+    if (quotes.isEmpty) return 0
+    
+    val sorted = if (quotes.head.time <= quotes.last.time) quotes else quotes.reverse
+    val lastTime0 = lastTime
+    val appendings = sorted filter (_.time > lastTime0)
+    val n = appendings.size
+    if (n == 0) return 0
+
+    if (_size + n > _capacity) {
+      relayout(math.max(_capacity * 2, _size + n))
+    }
+
+    var row = _size
+    val itr = appendings.iterator
+    while (itr.hasNext) {
+      val quote = itr.next
+      putRow(row, quote.time, quote.lastModify, quote.flag, 
+             quote.open, quote.high, quote.low, quote.close, quote.volume, quote.amount, 
+             quote.vwap, quote.prevClose, quote.execCount, quote.turnoverRate)
+      row += 1
+    }
+    
+    // update size at last, so a crash during appending won't expose partial rows
+    _size = row
+    buf.putInt(SizeOffset, _size)
+    n
+  }
+
+  /**
+   * Sync quotes from db, which is the source of truth, to store: 
+   * - a row of same time is rewritten if any of its values differs,
+   * - a quote in store's time range but has no row truncates store from its time,
+   *   since rows can not be inserted, 
+   * - then quotes after lastTime are appended.
+   * So quotes should contain all quotes of db since its first one.
+   * 
+   * @param quotes sorted by time, ascending or descending
+   * @return number of rewritten and appended rows
+   */
+  def sync(quotes: Seq[Quote]): Int = synchronized {
+    if (quotes.isEmpty) return 0
+    
+    val sorted = if (quotes.head.time <= quotes.last.time) quotes else quotes.reverse
+    var nRewritten = 0
+    var truncateTime = Long.MaxValue
+    if (_size > 0) {
+      val lastTime0 = lastTime
+      val itr = sorted.iterator
+      while (itr.hasNext && truncateTime == Long.MaxValue) {
+        val quote = itr.next
+        if (quote.time <= lastTime0) {
+          val row = rowOf(quote.time)
+          if (row < 0) {
+            truncateTime = quote.time
+          } else if (!rowEquals(row, quote)) {
+            putRow(row, quote.time, quote.lastModify, quote.flag, 
+                   quote.open, quote.high, quote.low, quote.close, quote.volume, quote.amount, 
+                   quote.vwap, quote.prevClose, quote.execCount, quote.turnoverRate)
+            nRewritten += 1
+          }
+        }
+      }
+    }
+    
+    if (truncateTime != Long.MaxValue) {
+      log.info("Truncate " + file + " from " + truncateTime + ", which is missing in store")
+      truncateFrom(truncateTime)
+    }
+    if (nRewritten > 0) {
+      log.info("Rewrote " + nRewritten + " changed rows of " + file)
+    }
+    
+    nRewritten + append(sorted)
+  }
+  
+  /**
+   * Drop rows whose time >= time, they will be synced again
+   */
+  def truncateFrom(time: Long) = synchronized {
+    val row = if (time == Long.MinValue) 0 else rowAfter(time - 1)
+    if (row < _size) {
+      _size = row
+      buf.putInt(SizeOffset, _size)
+    }
+  }
+  
+  private def rowEquals(row: Int, quote: Quote): Boolean = {
+    flag(row) == quote.flag &&
+    same(Open, row, quote.open) && same(High, row, quote.high) && same(Low, row, quote.low) && 
+    same(Close, row, quote.close) && same(Volume, row, quote.volume) && same(Amount, row, quote.amount) &&
+    same(Vwap, row, quote.vwap) && same(PrevClose, row, quote.prevClose) && same(ExecCount, row, quote.execCount) &&
+    same(TurnoverRate, row, quote.turnoverRate)
+  }
+  
+  private def same(col: Int, row: Int, value: Double) = {
+    java.lang.Double.doubleToLongBits(double(col, row)) == java.lang.Double.doubleToLongBits(value)
+  }
+
+  /**
+   * Append one row if it's after lastTime, no Quote is needed, so bulk importers 
+   * can write fields from their source buffers directly.
+   * @return true if appended
+   */
+  def append(time: Long, lastModify: Long, flag: Int, 
+             open: Double, high: Double, low: Double, close: Double, volume: Double, amount: Double,
+             vwap: Double = 0.0, prevClose: Double = 0.0, execCount: Double = 0.0, turnoverRate: Double = 0.0): Boolean = synchronized {
+    if (_size > 0 && time <= lastTime) return false
+    
+    if (_size + 1 > _capacity) {
+      relayout(_capacity * 2)
+    }
+    
+    putRow(_size, time, lastModify, flag, open, high, low, close, volume, amount, vwap, prevClose, execCount, turnoverRate)
+    _size += 1
+    buf.putInt(SizeOffset, _size)
+    true
+  }
+
+  private def putRow(row: Int, time: Long, lastModify: Long, flag: Int, 
+                     open: Double, high: Double, low: Double, close: Double, volume: Double, amount: Double,
+                     vwap: Double, prevClose: Double, execCount: Double, turnoverRate: Double) {
+    buf.putLong(offsetOf(Time, row), time)
+    buf.putLong(offsetOf(LastModify, row), lastModify)
+    buf.putInt(offsetOf(Flag, row), flag)
+    buf.putDouble(offsetOf(Open, row), open)
+    buf.putDouble(offsetOf(High, row), high)
+    buf.putDouble(offsetOf(Low, row), low)
+    buf.putDouble(offsetOf(Close, row), close)
+    buf.putDouble(offsetOf(Volume, row), volume)
+    buf.putDouble(offsetOf(Amount, row), amount)
+    buf.putDouble(offsetOf(Vwap, row), vwap)
+    buf.putDouble(offsetOf(PrevClose, row), prevClose)
+    buf.putDouble(offsetOf(ExecCount, row), execCount)
+    buf.putDouble(offsetOf(TurnoverRate, row), turnoverRate)
+  }
+
+  def flush = synchronized {
+    if (buf != null) buf.force
+  }
+
+  /**
+   * Release this store, the file is closed when all holders have released it
+   */
+  def close {
+    QuoteStore.release(this)
+  }
+  
+  private def doClose = synchronized {
+    flush
+    buf = null
+    if (channel != null) {
+      channel.close // lock is released too
+      channel = null
+      lock = null
+    }
+  }
+
+  private def offsetOf(col: Int, row: Int): Int = {
+    HeaderSize + ColumnOffsets(col) * _capacity + ColumnWidths(col) * row
+  }
+  
+  private def checkColumn(col: Int, width: Int) {
+    assert(ColumnWidths(col) == width, "Column " + col + " is not of width " + width)
+  }
+
+  private def open {
+    val exists = file.exists && file.length >= HeaderSize
+    if (!exists) {
+      val parent = file.getParentFile
+      if (parent != null && !parent.exists) parent.mkdirs
+    }
+    
+    channel = new RandomAccessFile(file, "rw").getChannel
+    lock = channel.tryLock
+    if (lock == null) {
+      channel.close
+      throw new IllegalStateException("Quote store is locked by another process: " + file)
+    }
+    
+    if (exists) {
+      val header = ByteBuffer.allocate(HeaderSize)
+      channel.read(header, 0)
+      header.flip
+      val magic = header.getInt
+      val version = header.getInt
+      if (magic != Magic || version != Version) {
+        channel.close
+        throw new IllegalStateException("Not a quote store file or unsupported version: " + file)
+      }
+      _capacity = header.getInt
+      _size = header.getInt
+      buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileLength(_capacity))
+    } else {
+      _capacity = InitCapacity
+      _size = 0
+      buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileLength(_capacity))
+      writeHeader(buf, _capacity, _size)
+    }
+  }
+
+  /**
+   * Grow to new capacity in place: the mapping is extended, and columns are moved
+   * to their new offsets from the last one, whose new offsets are never before
+   * the old ones, so the file is never deleted or renamed while it's mapped. 
+   * Size in header is cleared during moving, so a store broken by a crash here 
+   * is taken as empty and will be synced from db again.
+   */
+  private def relayout(newCapacity: Int) {
+    buf.putInt(SizeOffset, 0)
+    buf.force
+    
+    val newBuf = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileLength(newCapacity))
+    var col = NumColumns - 1
+    while (col > 0) {
+      val bytes = new Array[Byte](ColumnWidths(col) * _size)
+      val src = newBuf.duplicate
+      src.position(HeaderSize + ColumnOffsets(col) * _capacity)
+      src.get(bytes)
+      val dst = newBuf.duplicate
+      dst.position(HeaderSize + ColumnOffsets(col) * newCapacity)
+      dst.put(bytes)
+      col -= 1
+    }
+    
+    buf = newBuf
+    _capacity = newCapacity
+    writeHeader(buf, _capacity, _size)
+    buf.force
+    log.fine("Relayout " + file + " to capacity " + newCapacity)
+  }
+}
+
+object QuoteStore {
+  private val log = Logger.getLogger(this.getClass.getName)
+
+  private val Magic = 0x41515331 // "AQS1"
+  private val Version = 1
+  private val HeaderSize = 64
+  private val SizeOffset = 12
+  private val InitCapacity = 1024
+
+  private val LongWidth = 8
+  private val IntWidth = 4
+  private val DoubleWidth = 8
+
+  // columns
+  val Time         = 0
+  val LastModify   = 1
+  val Flag         = 2
+  val Open         = 3
+  val High         = 4
+  val Low          = 5
+  val Close        = 6
+  val Volume       = 7
+  val Amount       = 8
+  val Vwap         = 9
+  val PrevClose    = 10
+  val ExecCount    = 11
+  val TurnoverRate = 12
+  
+  private val ColumnWidths = Array(LongWidth, LongWidth, IntWidth, DoubleWidth, DoubleWidth, DoubleWidth, DoubleWidth, DoubleWidth, DoubleWidth, DoubleWidth, DoubleWidth, DoubleWidth, DoubleWidth)
+  private val NumColumns = ColumnWidths.length
+  /** sum of widths of previous columns, times capacity is the begin offset of column */
+  private val ColumnOffsets = ColumnWidths.scanLeft(0)(_ + _)
+  private val RowWidth = ColumnWidths.sum
+
+  private def fileLength(capacity: Int): Long = HeaderSize + RowWidth.toLong * capacity
+
+  private def writeHeader(buf: ByteBuffer, capacity: Int, size: Int) {
+    buf.putInt(0, Magic)
+    buf.putInt(4, Version)
+    buf.putInt(8, capacity)
+    buf.putInt(SizeOffset, size)
+  }
+
+  private val config = org.aiotrade.lib.util.config.Config()
+  /** directory of store files, store is disabled if it's not configured */
+  val dir: Option[File] = config.getString("dataserver.quotestore.dir") map (new File(_))
+  def isEnabled = dir.isDefined
+  /** number of last rows that are synced from db again on each load, to catch corrected quotes */
+  val verifyRows = config.getInt("dataserver.quotestore.verifyrows", 250)
+  
+  def fileOf(sec: Sec, freq: TFreq): Option[File] = {
+    dir map (new File(_, sec.uniSymbol + "." + freq.shortName + ".aqs"))
+  }
+  
+  private val fileToStore = new java.util.HashMap[File, QuoteStore]()
+  
+  /**
+   * Open (create if not exists) store of sec/freq, or get the opened one. Should
+   * be closed after using.
+   */
+  def apply(sec: Sec, freq: TFreq): Option[QuoteStore] = {
+    fileOf(sec, freq) flatMap {file => 
+      val key = file.getAbsoluteFile
+      fileToStore synchronized {
+        fileToStore.get(key) match {
+          case null =>
+            try {
+              val store = new QuoteStore(key)
+              store.refCount = 1
+              fileToStore.put(key, store)
+              Some(store)
+            } catch {
+              case ex: Throwable => log.log(Level.WARNING, ex.getMessage, ex); None
+            }
+          case store =>
+            store.refCount += 1
+            Some(store)
+        }
+      }
+    }
+  }
+  
+  private def release(store: QuoteStore) {
+    fileToStore synchronized {
+      store.refCount -= 1
+      if (store.refCount == 0) {
+        fileToStore.remove(store.file)
+        store.doClose
+      } else {
+        store.flush
+      }
+    }
+  }
+}
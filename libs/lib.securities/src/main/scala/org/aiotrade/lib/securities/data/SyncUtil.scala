@@ -186,6 +186,7 @@ object SyncUtil {
     val holdingRecords = basisTables map {x => selectAvroRecords(dataDir + File.separator +  x.relationName + ".avro", x)}
     basisTables foreach {x => importAvroToDb(dataDir + File.separator + x.relationName + ".avro", x)}
     COMMIT
+    Exchanges.resetDividends
     log.info("Imported data to db in " + (System.currentTimeMillis - t0) / 1000.0 + " s.")
   }
   
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities.dataserver
+
+import java.util.logging.Logger
+import org.aiotrade.lib.securities.model.Exchange
+import org.aiotrade.lib.securities.model.Ticker
+import org.aiotrade.lib.securities.model.TickerDelta
+import org.aiotrade.lib.securities.model.TickerDeltas
+import org.aiotrade.lib.collection.ArrayList
+import scala.collection.mutable
+
+/**
+ * Publisher side of the ticker delta stream: keeps the last sent version of each
+ * uniSymbol, sends only changed fields against it, and a full snapshot of all 
+ * exchanges' last tickers every snapshotInterval batches.
+ * 
+ * @author Caoyuan Deng
+ */
+final class TickerDeltaSender(snapshotInterval: Int) {
+  private var seq = 0L
+  private val uniSymbolToSent = mutable.Map[String, Ticker]()
+  
+  def deltasOf(tickers: Array[Ticker]): TickerDeltas = synchronized {
+    seq += 1
+    if (seq == 1 || snapshotInterval > 0 && seq % snapshotInterval == 0) {
+      snapshot
+    } else {
+      val deltas = new Array[TickerDelta](tickers.length)
+      var i = -1
+      while ({i += 1; i < tickers.length}) {
+        val ticker = tickers(i)
+        deltas(i) = TickerDelta.diff(uniSymbolToSent.get(ticker.uniSymbol).getOrElse(null), ticker)
+        sent(ticker)
+      }
+      new TickerDeltas(seq, false, deltas)
+    }
+  }
+  
+  /**
+   * Snapshot of Exchange.uniSymbolToLastTicker of all exchanges
+   */
+  private def snapshot: TickerDeltas = {
+    val deltas = new ArrayList[TickerDelta]
+    for (exchange <- Exchange.allExchanges) {
+      for ((uniSymbol, ticker) <- exchange.uniSymbolToLastTicker) {
+        deltas += TickerDelta.diff(null, ticker)
+        sent(ticker)
+      }
+    }
+    new TickerDeltas(seq, true, deltas.toArray)
+  }
+  
+  private def sent(ticker: Ticker) {
+    val copy = uniSymbolToSent.get(ticker.uniSymbol) match {
+      case Some(x) if x.depth == ticker.depth => x
+      case _ =>
+        val x = new Ticker(ticker.depth)
+        uniSymbolToSent.put(ticker.uniSymbol, x)
+        x
+    }
+    copy.copyFrom(ticker)
+  }
+}
+
+/**
+ * Consumer side of the ticker delta stream: applies deltas to its own copies of
+ * tickers. When a gap of seq is detected, the deltas are dropped until next 
+ * snapshot arrives, since the local copies are no longer reliable.
+ * 
+ * @author Caoyuan Deng
+ */
+final class TickerDeltaReceiver {
+  private val log = Logger.getLogger(this.getClass.getName)
+  
+  private var expectedSeq = -1L
+  private val uniSymbolToTicker = mutable.Map[String, Ticker]()
+  
+  def isSynced = expectedSeq >= 0
+  
+  /**
+   * @return updated tickers (copies, so can be passed to other threads), or 
+   *         empty when not synced
+   */
+  def receive(deltas: TickerDeltas): Array[Ticker] = synchronized {
+    if (deltas.isSnapshot) {
+      uniSymbolToTicker.clear
+    } else if (deltas.seq != expectedSeq) {
+      if (isSynced) {
+        log.warning("Ticker deltas gap: expected seq " + expectedSeq + ", got " + deltas.seq + ", waiting for next snapshot")
+        expectedSeq = -1
+      }
+      return Array()
+    }
+    expectedSeq = deltas.seq + 1
+
+    val xs = deltas.deltas
+    val tickers = new Array[Ticker](xs.length)
+    var i = -1
+    while ({i += 1; i < xs.length}) {
+      val delta = xs(i)
+      val ticker = uniSymbolToTicker.get(delta.uniSymbol) match {
+        case Some(x) => x
+        case None =>
+          val x = new Ticker
+          uniSymbolToTicker.put(delta.uniSymbol, x)
+          x
+      }
+      delta.applyTo(ticker)
+      
+      val copy = new Ticker(ticker.depth)
+      copy.copyFrom(ticker)
+      copy.isDayFirst = ticker.isDayFirst
+      tickers(i) = copy
+    }
+    tickers
+  }
+  
+  def lastTickerOf(uniSymbol: String): Option[Ticker] = synchronized {
+    uniSymbolToTicker.get(uniSymbol)
+  }
+}
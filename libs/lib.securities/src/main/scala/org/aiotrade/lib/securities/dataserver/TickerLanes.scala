@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities.dataserver
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+import org.aiotrade.lib.collection.ArrayList
+import org.aiotrade.lib.securities.model.SecSnap
+
+/**
+ * Worker lanes of TickerServer: secSnaps of a batch are partitioned by hash of
+ * uniSymbol, each lane processes its secSnaps in batch order, and process returns
+ * only when all lanes have finished, so a sec is always processed by one thread
+ * at a time and in order of batches.
+ *
+ * @Note results are put at the secSnap's idx, so caller can merge them in the
+ * original order, which keeps the batch outputs deterministic.
+ *
+ * @author Caoyuan Deng
+ */
+final class TickerLanes(name: String, val nLanes: Int) {
+  private val laneCount = new AtomicInteger
+  private val executor = Executors.newFixedThreadPool(nLanes, new ThreadFactory {
+      def newThread(r: Runnable) = {
+        val t = new Thread(r, name + "-" + laneCount.incrementAndGet)
+        t.setDaemon(true)
+        t
+      }
+    })
+
+  def laneOf(uniSymbol: String): Int = (uniSymbol.hashCode & Int.MaxValue) % nLanes
+
+  def process[R](secSnaps: Seq[SecSnap], results: Array[R])(f: SecSnap => R) {
+    val laneToIdxs = Array.fill(nLanes)(new ArrayList[Int])
+    var i = -1
+    while ({i += 1; i < secSnaps.length}) {
+      laneToIdxs(laneOf(secSnaps(i).sec.uniSymbol)) += i
+    }
+
+    val tasks = new java.util.ArrayList[Callable[Unit]](nLanes)
+    for (idxs <- laneToIdxs if idxs.length > 0) {
+      tasks.add(new Callable[Unit] {
+          def call {
+            var j = -1
+            while ({j += 1; j < idxs.length}) {
+              val idx = idxs(j)
+              results(idx) = f(secSnaps(idx))
+            }
+          }
+        })
+    }
+
+    // invokeAll waits until all tasks are done, then rethrow the first failure if any
+    val futures = executor.invokeAll(tasks).iterator
+    while (futures.hasNext) {
+      try {
+        futures.next.get
+      } catch {
+        case ex: ExecutionException => throw ex.getCause
+      }
+    }
+  }
+
+  def shutdown {
+    executor.shutdown
+  }
+}
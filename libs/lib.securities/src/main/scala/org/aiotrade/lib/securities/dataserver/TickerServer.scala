@@ -46,6 +46,7 @@ import org.aiotrade.lib.securities.model.SecSnap
 import org.aiotrade.lib.securities.model.Ticker
 import org.aiotrade.lib.securities.model.TickersLast
 import org.aiotrade.lib.util.actors.Publisher
+import org.aiotrade.lib.util.metrics.Metrics
 import org.aiotrade.lib.collection.ArrayList
 import ru.circumflex.orm._
 import scala.collection.mutable
@@ -60,6 +61,15 @@ import scala.collection.mutable
 //  execution: Execution
 //)
 
+/**
+ * Batch level outputs of processing one secSnap
+ */
+private[dataserver] final class SnapResult(val secSnap: SecSnap, val isDayFirst: Boolean) {
+  var isValid = false
+  var isMoneyFlowUpdated = false
+  var execution: Execution = null
+}
+
 abstract class TickerServer extends DataServer[Ticker] {
   type C = TickerContract
 
@@ -134,6 +144,7 @@ abstract class TickerServer extends DataServer[Ticker] {
 
     log.info("Composing quote from tickers: " + tickers.length)
     if (tickers.length == 0) return lastTime
+    TickerServer.batchSizeMetric.record(tickers.length)
 
     if (TickerServer.isServer) Exchange.checkIfSomethingNew(tickers)
     
@@ -150,166 +161,43 @@ abstract class TickerServer extends DataServer[Ticker] {
 
     exchangeToLastTime.clear
 
-    var i = -1
-    while ({i += 1; i < secSnaps.length}) {
-      val secSnap = secSnaps(i)
+    val results = new Array[SnapResult](secSnaps.length)
+    TickerServer.lanes match {
+      case Some(lanes) => lanes.process(secSnaps, results)(processSecSnap)
+      case None =>
+        var i = -1
+        while ({i += 1; i < secSnaps.length}) {
+          results(i) = processSecSnap(secSnaps(i))
+        }
+    }
 
-      val sec = secSnap.sec
+    // merge results in order of secSnaps, so batch outputs are same as sequential processing
+    var i = -1
+    while ({i += 1; i < results.length}) {
+      val result = results(i)
+      val secSnap = result.secSnap
       val ticker = secSnap.newTicker
-      val lastTicker = secSnap.lastTicker
-      val isDayFirst = ticker.isDayFirst
-      val dayQuote = secSnap.dayQuote
-      val minQuote = secSnap.minQuote
-      val dayMoneyFlow = secSnap.dayMoneyFlow
-      val minMoneyFlow = secSnap.minMoneyFlow
-
-      log.fine("Composing from ticker: " + ticker + ", lasticker: " + lastTicker)
-
-      var tickerValid = false
-      var execution: Execution = null
-      if (isDayFirst) {
-        log.fine("Got day's first ticker: " + ticker)
-        
-        /**
-         * this is today's first ticker we got when begin update data server,
-         * actually it should be, so maybe we should check this.
-         * As this is the first data of today:
-         * 1. set OHLC = Ticker.LAST_PRICE
-         * 2. to avoid too big volume that comparing to following dataSeries.
-         * so give it a small 0.0001 (if give it a 0, it will won't be calculated
-         * in calcMaxMin() of ChartView)
-         */
-
-        tickerValid = true
-        
-        dayQuote.unjustOpen_!
-        dayMoneyFlow.unjustOpen_!
-        minMoneyFlow.unjustOpen_!
-
-        minQuote.unjustOpen_!
-        minQuote.open   = ticker.dayOpen
-        minQuote.high   = ticker.dayHigh
-        minQuote.low    = ticker.dayLow
-        minQuote.close  = ticker.lastPrice
-        minQuote.volume = ticker.dayVolume
-        minQuote.amount = ticker.dayAmount
-        minQuote.execCount += 1
-
-        execution = new Execution
-        execution.sec = sec
-        execution.time = ticker.time
-        execution.price  = ticker.lastPrice
-        execution.volume = ticker.dayVolume
-        execution.amount = ticker.dayAmount
-        
+      if (result.isDayFirst) {
         // re-init lastTime
         lastTime = ticker.time
-      } else {
-                
-        /**
-         *    ticker.time    prevTicker.time
-         *          |------------------|------------------->
-         *          |<----- 1000 ----->|
-         */
-        if (ticker.time + 1000 > lastTicker.time) { // 1000ms, @Note: we may add +1 to ticker.time later
-          // some datasources only count on second, but we may truly have a new ticker
-          if (ticker.time <= lastTicker.time) {
-            ticker.time = lastTicker.time + 1 // avoid duplicate key
-          }
-
-          tickerValid = true
-
-          if (ticker.dayVolume > lastTicker.dayVolume) {
-            execution = new Execution
-            execution.sec = sec
-            execution.time = ticker.time
-            execution.price = ticker.lastPrice
-            execution.volume = ticker.dayVolume - lastTicker.dayVolume
-            execution.amount = ticker.dayAmount - lastTicker.dayAmount
-          } else {
-            log.fine("dayVolome curr: " + ticker.dayVolume + ", last: " + lastTicker.dayVolume)
-          }
-
-          if (minQuote.justOpen_?) {
-            minQuote.unjustOpen_!
-            
-            // init minQuote values:
-            minQuote.open = ticker.lastPrice
-            minQuote.high = ticker.lastPrice
-            minQuote.low  = ticker.lastPrice
-            minQuote.volume = 0
-            minQuote.amount = 0
-            minQuote.execCount = 0
-          }
-
-          minQuote.execCount += 1
-
-          if (lastTicker.dayHigh > 0 && ticker.dayHigh > 0) {
-            if (ticker.dayHigh > lastTicker.dayHigh) {
-              // this is a new day high happened during prevTicker to this ticker
-              minQuote.high = ticker.dayHigh
-            }
-          }
-          if (ticker.lastPrice > 0) {
-            minQuote.high = math.max(minQuote.high, ticker.lastPrice)
-          }
-
-          if (lastTicker.dayLow > 0 && ticker.dayLow > 0) {
-            if (ticker.dayLow < lastTicker.dayLow) {
-              // this is a new day low happened during prevTicker to this ticker
-              minQuote.low = ticker.dayLow
-            }
-          }
-          if (ticker.lastPrice > 0) {
-            minQuote.low = math.min(minQuote.low, ticker.lastPrice)
-          }
-          
-          minQuote.close = ticker.lastPrice
-          if (execution != null && execution.volume > 0) {
-            minQuote.volume += execution.volume
-            minQuote.amount += execution.amount
-          }
-          else if (minMoneyFlow.isDataOnlyInited){
-            allUpdatedMinuteMoneyFlows += minMoneyFlow
-            minMoneyFlow.lastModify = ticker.time
-              
-            allUpdatedDailyMoneyFlows += dayMoneyFlow
-            dayMoneyFlow.lastModify = ticker.time
-          }
-
-        } else {
-          log.warning("Discard ticker: " + ticker.uniSymbol + " -> time=" + ticker.time + ", but lastTicker.time=" + lastTicker.time)
-        }
       }
-
-
-      if (tickerValid) {
-        sec.publish(api.TickerEvt(ticker))
+      
+      if (result.isMoneyFlowUpdated) {
+        allUpdatedMinuteMoneyFlows += secSnap.minMoneyFlow
+        allUpdatedDailyMoneyFlows += secSnap.dayMoneyFlow
+      }
+      
+      if (result.isValid) {
         allTickers += ticker
-
-        if (execution != null) {
-          val prevPrice = if (isDayFirst) ticker.prevClose else lastTicker.lastPrice
-          val prevDepth = if (isDayFirst) MarketDepth.Empty else MarketDepth(lastTicker.bidAsks, copy = true)
-          execution.setDirection(prevPrice, prevDepth)
-
-          sec.publish(api.ExecutionEvt(ticker.prevClose, execution))
-          allExecutions += execution
+        if (result.execution != null) {
+          allExecutions += result.execution
         }
-
-        // update daily quote and ser
-        dayQuote.updateDailyQuoteByTicker(ticker)
-//        minQuote.lastModify = ticker.time
-
-        // updated quote ser
-        sec.updateQuoteSer(TFreq.DAILY, dayQuote)
-        sec.updateQuoteSer(TFreq.ONE_MIN, minQuote)
         
-        allUpdatedDailyQuotes += dayQuote
-        allUpdatedMinuteQuotes += minQuote
+        allUpdatedDailyQuotes += secSnap.dayQuote
+        allUpdatedMinuteQuotes += secSnap.minQuote
         
-        exchangeToLastTime.put(sec.exchange, ticker.time)
+        exchangeToLastTime.put(secSnap.sec.exchange, ticker.time)
 
-        lastTicker.copyFrom(ticker)
         lastTime = math.max(lastTime, ticker.time)
       }
     }
@@ -345,7 +233,10 @@ abstract class TickerServer extends DataServer[Ticker] {
     // 1. to forward to remote message system;
     // 2. to compute money flow etc.
     if (allTickers.length > 0) {
-      TickerServer.publish(api.TickersEvt(allTickers.toArray))
+      TickerServer.deltaSender match {
+        case Some(sender) => TickerServer.publish(api.TickerDeltasEvt(sender.deltasOf(allTickers.toArray)))
+        case None => TickerServer.publish(api.TickersEvt(allTickers.toArray))
+      }
     }
     if (allExecutions.length > 0) {
       TickerServer.publish(api.ExecutionsEvt(allExecutions.toArray))
@@ -361,48 +252,25 @@ abstract class TickerServer extends DataServer[Ticker] {
       TickerServer.publish(("null", api.MoneyFlowsEvt(TFreq.ONE_MIN.shortName, allUpdatedMinuteMoneyFlows.toArray)))
       TickerServer.publish(("null", api.MoneyFlowsEvt(TFreq.DAILY.shortName, allUpdatedDailyMoneyFlows.toArray)))
     }
+    
+    if (allTickers.length > 0) {
+      // from the newest ticker's time to all events of this batch being published
+      TickerServer.tickToPublishMetric.record(System.currentTimeMillis - lastTime)
+    }
 
     // batch save to db
 
-    val (tickersLastToInsert, tickersLastToUpdate) = tickersLast.partition(_.isTransient)
-    log.info("Going to save to db ...")
-    try {
-      var willCommit = false
-      val t0 = System.currentTimeMillis
-      if (tickersLastToInsert.length > 0) {
-        TickersLast.insertBatch_!(tickersLastToInsert.toArray)
-        willCommit = true
-      }
-      if (tickersLastToUpdate.length > 0) {
-        TickersLast.updateBatch_!(tickersLastToUpdate.toArray)
-        willCommit = true
-      }
-      if (willCommit) {
-        log.info("Saved tickersLast in " + (System.currentTimeMillis - t0) + "ms: tickersLastToInsert=" + tickersLastToInsert.length + ", tickersLastToUpdate=" + tickersLastToUpdate.length)
-      }
-
-      if (TickerServer.isServer && TickerServer.isSaveTickers) {
-        val t1 = System.currentTimeMillis
-        if (allTickers.length > 0) {
-          Tickers.insertBatch_!(allTickers.toArray)
-          willCommit = true
-        }
-        if (allExecutions.length > 0) {
-          Executions.insertBatch_!(allExecutions.toArray)
-          willCommit = true
-        }
-        if (willCommit) {
-          log.info("Saved Tickers/Executions in " + (System.currentTimeMillis - t1) + "ms: tickers=" + allTickers.length + ", executions=" + allExecutions.length)
-        }
-      }
-
-      // @Note if there is no update/insert on db, do not call commit, which may cause deadlock
-      if (willCommit) {
-        COMMIT
-        log.info("Committed")
-      }
-    } catch {
-      case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex)
+    val saveTickers = TickerServer.isServer && TickerServer.isSaveTickers
+    TickerServer.tickersWriter match {
+      case Some(writer) =>
+        log.info("Submitting to write-behind queue, queueDepth=" + writer.queueDepth)
+        writer.submit(tickersLast.toArray, allTickers.toArray, allExecutions.toArray)
+      case None =>
+        val (tickersLastToInsert, tickersLastToUpdate) = tickersLast.partition(_.isTransient)
+        log.info("Going to save to db ...")
+        TickersWriter.save(tickersLastToInsert.toArray, tickersLastToUpdate.toArray,
+                           if (saveTickers) allTickers.toArray else Array(),
+                           if (saveTickers) allExecutions.toArray else Array())
     }
 
     // Update exchange status and try to close and save updated quotes, moneyflows etc
@@ -418,6 +286,167 @@ abstract class TickerServer extends DataServer[Ticker] {
     lastTime
   }
   
+  /**
+   * Process one secSnap: compose quotes/moneyflows, update sec's quote sers and
+   * publish sec's events. Batch level outputs are collected into SnapResult, which
+   * will be merged by processData in order of secSnaps.
+   * 
+   * @Note may be called in a TickerLanes' worker, so should only touch this sec's
+   * states.
+   */
+  private def processSecSnap(secSnap: SecSnap): SnapResult = {
+    val sec = secSnap.sec
+    val ticker = secSnap.newTicker
+    val lastTicker = secSnap.lastTicker
+    val isDayFirst = ticker.isDayFirst
+    val dayQuote = secSnap.dayQuote
+    val minQuote = secSnap.minQuote
+    val dayMoneyFlow = secSnap.dayMoneyFlow
+    val minMoneyFlow = secSnap.minMoneyFlow
+    val result = new SnapResult(secSnap, isDayFirst)
+
+    log.fine("Composing from ticker: " + ticker + ", lasticker: " + lastTicker)
+
+    var tickerValid = false
+    var execution: Execution = null
+    if (isDayFirst) {
+      log.fine("Got day's first ticker: " + ticker)
+      
+      /**
+       * this is today's first ticker we got when begin update data server,
+       * actually it should be, so maybe we should check this.
+       * As this is the first data of today:
+       * 1. set OHLC = Ticker.LAST_PRICE
+       * 2. to avoid too big volume that comparing to following dataSeries.
+       * so give it a small 0.0001 (if give it a 0, it will won't be calculated
+       * in calcMaxMin() of ChartView)
+       */
+
+      tickerValid = true
+      
+      dayQuote.unjustOpen_!
+      dayMoneyFlow.unjustOpen_!
+      minMoneyFlow.unjustOpen_!
+
+      minQuote.unjustOpen_!
+      minQuote.open   = ticker.dayOpen
+      minQuote.high   = ticker.dayHigh
+      minQuote.low    = ticker.dayLow
+      minQuote.close  = ticker.lastPrice
+      minQuote.volume = ticker.dayVolume
+      minQuote.amount = ticker.dayAmount
+      minQuote.execCount += 1
+
+      execution = new Execution
+      execution.sec = sec
+      execution.time = ticker.time
+      execution.price  = ticker.lastPrice
+      execution.volume = ticker.dayVolume
+      execution.amount = ticker.dayAmount
+    } else {
+              
+      /**
+       *    ticker.time    prevTicker.time
+       *          |------------------|------------------->
+       *          |<----- 1000 ----->|
+       */
+      if (ticker.time + 1000 > lastTicker.time) { // 1000ms, @Note: we may add +1 to ticker.time later
+        // some datasources only count on second, but we may truly have a new ticker
+        if (ticker.time <= lastTicker.time) {
+          ticker.time = lastTicker.time + 1 // avoid duplicate key
+        }
+
+        tickerValid = true
+
+        if (ticker.dayVolume > lastTicker.dayVolume) {
+          execution = new Execution
+          execution.sec = sec
+          execution.time = ticker.time
+          execution.price = ticker.lastPrice
+          execution.volume = ticker.dayVolume - lastTicker.dayVolume
+          execution.amount = ticker.dayAmount - lastTicker.dayAmount
+        } else {
+          log.fine("dayVolome curr: " + ticker.dayVolume + ", last: " + lastTicker.dayVolume)
+        }
+
+        if (minQuote.justOpen_?) {
+          minQuote.unjustOpen_!
+          
+          // init minQuote values:
+          minQuote.open = ticker.lastPrice
+          minQuote.high = ticker.lastPrice
+          minQuote.low  = ticker.lastPrice
+          minQuote.volume = 0
+          minQuote.amount = 0
+          minQuote.execCount = 0
+        }
+
+        minQuote.execCount += 1
+
+        if (lastTicker.dayHigh > 0 && ticker.dayHigh > 0) {
+          if (ticker.dayHigh > lastTicker.dayHigh) {
+            // this is a new day high happened during prevTicker to this ticker
+            minQuote.high = ticker.dayHigh
+          }
+        }
+        if (ticker.lastPrice > 0) {
+          minQuote.high = math.max(minQuote.high, ticker.lastPrice)
+        }
+
+        if (lastTicker.dayLow > 0 && ticker.dayLow > 0) {
+          if (ticker.dayLow < lastTicker.dayLow) {
+            // this is a new day low happened during prevTicker to this ticker
+            minQuote.low = ticker.dayLow
+          }
+        }
+        if (ticker.lastPrice > 0) {
+          minQuote.low = math.min(minQuote.low, ticker.lastPrice)
+        }
+        
+        minQuote.close = ticker.lastPrice
+        if (execution != null && execution.volume > 0) {
+          minQuote.volume += execution.volume
+          minQuote.amount += execution.amount
+        }
+        else if (minMoneyFlow.isDataOnlyInited){
+          result.isMoneyFlowUpdated = true
+          minMoneyFlow.lastModify = ticker.time
+          dayMoneyFlow.lastModify = ticker.time
+        }
+
+      } else {
+        log.warning("Discard ticker: " + ticker.uniSymbol + " -> time=" + ticker.time + ", but lastTicker.time=" + lastTicker.time)
+      }
+    }
+
+
+    if (tickerValid) {
+      sec.publish(api.TickerEvt(ticker))
+      result.isValid = true
+
+      if (execution != null) {
+        val prevPrice = if (isDayFirst) ticker.prevClose else lastTicker.lastPrice
+        val prevDepth = if (isDayFirst) MarketDepth.Empty else MarketDepth(lastTicker.bidAsks, copy = true)
+        execution.setDirection(prevPrice, prevDepth)
+
+        sec.publish(api.ExecutionEvt(ticker.prevClose, execution))
+        result.execution = execution
+      }
+
+      // update daily quote and ser
+      dayQuote.updateDailyQuoteByTicker(ticker)
+//        minQuote.lastModify = ticker.time
+
+      // updated quote ser
+      sec.updateQuoteSer(TFreq.DAILY, dayQuote)
+      sec.updateQuoteSer(TFreq.ONE_MIN, minQuote)
+
+      lastTicker.copyFrom(ticker)
+    }
+
+    result
+  }
+  
   def toSrcSymbol(uniSymbol: String): String = uniSymbol
   def toUniSymbol(srcSymbol: String): String = srcSymbol
 }
@@ -431,10 +460,60 @@ object TickerServer {
   private val log = Logger.getLogger(this.getClass.getName)
 
   private val config = org.aiotrade.lib.util.config.Config()
+  
+  private[dataserver] val batchSizeMetric = Metrics.histogram("tickerserver.batchSize")
+  private[dataserver] val tickToPublishMetric = Metrics.histogram("tickerserver.tickToPublish.ms")
   val isServer = !config.getBool("dataserver.client", false)
   val isSaveTickers = config.getBool("dataserver.savetickers", false)
+  
+  /**
+   * Write-behind of tickers to db, so tick processing won't wait for db commit.
+   * Configured by dataserver.writebehind.* , disabled by default.
+   */
+  val tickersWriter: Option[TickersWriter] = 
+    if (config.getBool("dataserver.writebehind", false)) {
+      Some(new TickersWriter("TickersWriter",
+                             config.getInt("dataserver.writebehind.capacity", 1000),
+                             config.getInt("dataserver.writebehind.batchsize", 2000),
+                             config.getInt("dataserver.writebehind.flushinterval", 1000),
+                             isServer && isSaveTickers))
+    } else None
+
+  /**
+   * Process secSnaps of a batch on lanes partitioned by sec, configured by
+   * dataserver.lanes, 0 (default) means processing them sequentially in caller.
+   */
+  val lanes: Option[TickerLanes] = {
+    val nLanes = config.getInt("dataserver.lanes", 0)
+    if (nLanes > 0) Some(new TickerLanes("TickerLane", nLanes)) else None
+  }
+  /**
+   * Publish tickers as TickerDeltasEvt instead of TickersEvt, configured by 
+   * dataserver.tickerdelta, with a full snapshot every dataserver.tickerdelta.snapshotinterval
+   * batches.
+   */
+  val deltaSender: Option[TickerDeltaSender] = 
+    if (config.getBool("dataserver.tickerdelta", false)) {
+      Some(new TickerDeltaSender(config.getInt("dataserver.tickerdelta.snapshotinterval", 100)))
+    } else None
+  
   log.info("Ticker server is started as " + (if (TickerServer.isServer) "server" else "client"))
   
+  if (tickersWriter.isDefined) {
+    Runtime.getRuntime.addShutdownHook(new Thread("TickerServer-shutdown") {
+        override def run = shutdown
+      })
+  }
+  
+  /**
+   * Drain the write-behind queue and stop lanes, it's also called by a shutdown 
+   * hook when write-behind is enabled.
+   */
+  def shutdown: Unit = synchronized {
+    tickersWriter foreach (_.close(config.getInt("dataserver.writebehind.closetimeout", 30000)))
+    lanes foreach (_.shutdown)
+  }
+  
   
   val publishers = {
     var xs: List[Publisher] = Nil
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities.dataserver
+
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.logging.Level
+import java.util.logging.Logger
+import org.aiotrade.lib.collection.ArrayList
+import org.aiotrade.lib.securities.model.Exchange
+import org.aiotrade.lib.securities.model.Execution
+import org.aiotrade.lib.securities.model.Sec
+import org.aiotrade.lib.securities.model.Executions
+import org.aiotrade.lib.securities.model.Ticker
+import org.aiotrade.lib.securities.model.Tickers
+import org.aiotrade.lib.securities.model.TickersLast
+import org.aiotrade.lib.util.metrics.Metrics
+import ru.circumflex.orm._
+import scala.collection.mutable
+
+/**
+ * Write-behind stage of TickerServer: batches submitted by processData are
+ * queued and drained by a dedicated daemon thread, which merges them and
+ * saves/commits when batchSize rows are pending or flushInterval elapsed.
+ *
+ * @Note The queue is bounded, submit will block when it is full, so a slow db
+ * finally throttles the tick stream instead of exhausting memory.
+ * @Note tickersLast are the live instances that keep being updated in place by
+ * the tick processing, so they are copied when submitted. The copies are saved 
+ * via records owned by this writer (one per sec, loaded from TickersLast or 
+ * inserted at first flush), so writing never reads a ticker that is being updated.
+ * @Note close drains queued batches, it's called by TickerServer.shutdown.
+ *
+ * @author Caoyuan Deng
+ */
+final class TickersWriter(name: String, capacity: Int, batchSize: Int, flushInterval: Long, saveTickers: Boolean) {
+  private val log = Logger.getLogger(this.getClass.getName)
+
+  private case class Batch(tickersLast: Array[Ticker], tickers: Array[Ticker], executions: Array[Execution]) {
+    def size = tickersLast.length + tickers.length + executions.length
+  }
+  
+  /** put by close, the writer flushes all pending batches and exits when it's got */
+  private val Poison = Batch(Array(), Array(), Array())
+  
+  private val queue = new ArrayBlockingQueue[Batch](capacity)
+
+  /** records of TickersLast owned by writer thread, @see flush */
+  private val secToLastRecord = mutable.Map[Sec, Ticker]()
+  private val loadedExchanges = mutable.Set[Exchange]()
+  @volatile private var isClosed = false
+
+  private val _flushCount = new AtomicLong
+  private val _rowsWritten = new AtomicLong
+  private val _totalFlushTime = new AtomicLong
+  @volatile private var _lastFlushTime = 0L
+  @volatile private var _maxFlushTime = 0L
+  private val _blockedCount = new AtomicLong
+
+  private val writer = new Thread(new Runnable {
+      def run = loop
+    }, name)
+  writer.setDaemon(true)
+  writer.start
+
+  /** number of batches waiting to be written */
+  def queueDepth: Int = queue.size
+  def flushCount: Long = _flushCount.get
+  def rowsWritten: Long = _rowsWritten.get
+  /** latency of last flush in ms */
+  def lastFlushTime: Long = _lastFlushTime
+  def maxFlushTime: Long = _maxFlushTime
+  def avgFlushTime: Double = {
+    val n = _flushCount.get
+    if (n == 0) 0.0 else _totalFlushTime.get.toDouble / n
+  }
+  /** times submit was blocked by a full queue */
+  def blockedCount: Long = _blockedCount.get
+
+  /**
+   * @Note the arrays should not be reused by caller after submitted, tickersLast
+   * are copied here, so they can be updated in place by caller.
+   */
+  def submit(tickersLast: Array[Ticker], tickers: Array[Ticker], executions: Array[Execution]) {
+    if (isClosed) {
+      log.warning(name + " is closed, dropped batch of " + (tickersLast.length + tickers.length + executions.length) + " rows")
+      return
+    }
+    
+    val lastCopies = new Array[Ticker](tickersLast.length)
+    var i = -1
+    while ({i += 1; i < tickersLast.length}) {
+      val x = tickersLast(i)
+      val copy = new Ticker(x.depth)
+      copy.copyFrom(x)
+      lastCopies(i) = copy
+    }
+    
+    val batch = Batch(lastCopies, tickers, executions)
+    if (batch.size == 0) return
+    
+    if (!queue.offer(batch)) {
+      _blockedCount.incrementAndGet
+      log.warning(name + " queue is full (" + capacity + "), blocking until db catches up")
+      queue.put(batch)
+    }
+  }
+
+  /**
+   * Stop accepting batches, flush all queued ones and wait the writer thread
+   * to exit in timeout ms.
+   * @return true if all queued batches were flushed in time
+   */
+  def close(timeout: Long): Boolean = {
+    if (!isClosed) {
+      isClosed = true
+      queue.put(Poison)
+    }
+    writer.join(timeout)
+    if (writer.isAlive) {
+      log.warning(name + " is not drained in " + timeout + "ms, queueDepth=" + queue.size)
+      false
+    } else true
+  }
+
+  private def loop {
+    val pending = new ArrayList[Batch]()
+    var pendingRows = 0
+    var firstPendingTime = 0L
+    while (true) {
+      try {
+        val timeout = if (pending.isEmpty) flushInterval else math.max(0L, firstPendingTime + flushInterval - System.currentTimeMillis)
+        val batch = queue.poll(timeout, TimeUnit.MILLISECONDS)
+        if (batch eq Poison) {
+          val rest = new java.util.ArrayList[Batch]()
+          queue.drainTo(rest)
+          val itr = rest.iterator
+          while (itr.hasNext) {
+            val x = itr.next
+            if (x ne Poison) pending += x
+          }
+          if (!pending.isEmpty) flush(pending)
+          log.info(name + " is drained and closed")
+          return
+        } else if (batch != null) {
+          if (pending.isEmpty) firstPendingTime = System.currentTimeMillis
+          pending += batch
+          pendingRows += batch.size
+        }
+
+        if (!pending.isEmpty && (pendingRows >= batchSize || System.currentTimeMillis - firstPendingTime >= flushInterval)) {
+          flush(pending)
+          pending.clear
+          pendingRows = 0
+        }
+      } catch {
+        case ex: InterruptedException => return
+        case ex: Throwable => 
+          log.log(Level.SEVERE, ex.getMessage, ex)
+          pending.clear
+          pendingRows = 0
+      }
+    }
+  }
+
+  private def flush(batches: ArrayList[Batch]) {
+    val t0 = System.currentTimeMillis
+
+    // merge tickersLast by sec, the later submitted one is the newer one
+    val secToLastTicker = new java.util.HashMap[Sec, Ticker]()
+    val tickers = new ArrayList[Ticker]()
+    val executions = new ArrayList[Execution]()
+    var i = -1
+    while ({i += 1; i < batches.length}) {
+      val batch = batches(i)
+      var j = -1
+      while ({j += 1; j < batch.tickersLast.length}) {
+        val x = batch.tickersLast(j)
+        if (x.sec != null) secToLastTicker.put(x.sec, x)
+      }
+      tickers ++= batch.tickers
+      executions ++= batch.executions
+    }
+    
+    val tickersLastToInsert = new ArrayList[Ticker]()
+    val tickersLastToUpdate = new ArrayList[Ticker]()
+    val itr = secToLastTicker.values.iterator
+    while (itr.hasNext) {
+      val x = itr.next
+      lastRecordOf(x.sec) match {
+        case Some(record) =>
+          record.copyFrom(x)
+          tickersLastToUpdate += record
+        case None =>
+          val record = new Ticker(x.depth)
+          record.copyFrom(x)
+          tickersLastToInsert += record
+      }
+    }
+
+    try {
+      val saved = TickersWriter.save(tickersLastToInsert.toArray, tickersLastToUpdate.toArray, 
+                                     if (saveTickers) tickers.toArray else Array(),
+                                     if (saveTickers) executions.toArray else Array())
+      if (saved) {
+        // inserted records are known by db now, will be updated later
+        tickersLastToInsert foreach {x => secToLastRecord.put(x.sec, x)}
+      }
+    } finally {
+      val time = System.currentTimeMillis - t0
+      _lastFlushTime = time
+      if (time > _maxFlushTime) _maxFlushTime = time
+      _totalFlushTime.addAndGet(time)
+      _flushCount.incrementAndGet
+      _rowsWritten.addAndGet(secToLastTicker.size + (if (saveTickers) tickers.length + executions.length else 0))
+    }
+    
+    log.info(name + " flushed " + batches.length + " batches in " + (System.currentTimeMillis - t0) + "ms, queueDepth=" + queue.size)
+  }
+  
+  /**
+   * TickersLast record of sec owned by writer thread, records of an exchange 
+   * are loaded at once when its first sec is asked.
+   */
+  private def lastRecordOf(sec: Sec): Option[Ticker] = {
+    secToLastRecord.get(sec) match {
+      case None if sec.exchange != null && !loadedExchanges.contains(sec.exchange) =>
+        loadedExchanges += sec.exchange
+        for ((x, record) <- TickersLast.lastTickersOf(sec.exchange) if x != null) {
+          secToLastRecord.getOrElseUpdate(x, record)
+        }
+        secToLastRecord.get(sec)
+      case x => x
+    }
+  }
+}
+
+object TickersWriter {
+  private val log = Logger.getLogger(this.getClass.getName)
+  
+  private val tickersLastFlushMetric = Metrics.histogram("tickerswriter.tickersLast.flush.ms")
+  private val tickersFlushMetric = Metrics.histogram("tickerswriter.tickers.flush.ms")
+  private val commitMetric = Metrics.histogram("tickerswriter.commit.ms")
+
+  /**
+   * Batch save and commit in current thread's transaction
+   * @return false if failed
+   */
+  def save(tickersLastToInsert: Array[Ticker], tickersLastToUpdate: Array[Ticker], tickers: Array[Ticker], executions: Array[Execution]): Boolean = {
+    try {
+      var willCommit = false
+      val t0 = System.currentTimeMillis
+      if (tickersLastToInsert.length > 0) {
+        TickersLast.insertBatch_!(tickersLastToInsert)
+        willCommit = true
+      }
+      if (tickersLastToUpdate.length > 0) {
+        TickersLast.updateBatch_!(tickersLastToUpdate)
+        willCommit = true
+      }
+      if (willCommit) {
+        tickersLastFlushMetric.record(System.currentTimeMillis - t0)
+        log.info("Saved tickersLast in " + (System.currentTimeMillis - t0) + "ms: tickersLastToInsert=" + tickersLastToInsert.length + ", tickersLastToUpdate=" + tickersLastToUpdate.length)
+      }
+
+      val t1 = System.currentTimeMillis
+      if (tickers.length > 0) {
+        Tickers.insertBatch_!(tickers)
+        willCommit = true
+      }
+      if (executions.length > 0) {
+        Executions.insertBatch_!(executions)
+        willCommit = true
+      }
+      if (tickers.length > 0 || executions.length > 0) {
+        tickersFlushMetric.record(System.currentTimeMillis - t1)
+        log.info("Saved Tickers/Executions in " + (System.currentTimeMillis - t1) + "ms: tickers=" + tickers.length + ", executions=" + executions.length)
+      }
+
+      // @Note if there is no update/insert on db, do not call commit, which may cause deadlock
+      if (willCommit) {
+        commitMetric.time {COMMIT}
+        log.info("Committed")
+      }
+      true
+    } catch {
+      case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex); false
+    }
+  }
+}
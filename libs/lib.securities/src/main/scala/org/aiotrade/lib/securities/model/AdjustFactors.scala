@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities.model
+
+/**
+ * Cumulative adjust factors of a sec's dividends.
+ * 
+ * Each dividend adjusts price linearly, @see SecDividend.adjustCoefficients,
+ * so adjusting a price by all dividends after its time is composited to one
+ * p' = scale * p + shift. These are precomputed as suffixes of dividends, then
+ * adjusting a bar is just a lookup.
+ * 
+ * @param divs dividends sorted by dividendDate ascending
+ * 
+ * @author Caoyuan Deng
+ */
+final class AdjustFactors(divs: Seq[SecDividend]) {
+  /** the dividends these factors were composited from, indexed as dividendDates */
+  val dividends: IndexedSeq[SecDividend] = divs.toIndexedSeq
+  val size = dividends.length
+  
+  val dividendDates = new Array[Long](size)
+  
+  /** scales(k)/shifts(k) composite dividends k until size - 1, scales(size)/shifts(size) is identity */
+  private val scales = new Array[Double](size + 1)
+  private val shifts = new Array[Double](size + 1)
+  
+  composite(dividends)
+  
+  private def composite(xs: IndexedSeq[SecDividend]) {
+    scales(size) = 1.0
+    shifts(size) = 0.0
+    var k = size
+    while ({k -= 1; k >= 0}) {
+      val div = xs(k)
+      dividendDates(k) = div.dividendDate
+      val (a, b) = div.adjustCoefficients
+      // apply div k first, then the following ones
+      scales(k) = scales(k + 1) * a
+      shifts(k) = scales(k + 1) * b + shifts(k + 1)
+    }
+  }
+  
+  def isEmpty = size == 0
+
+  /**
+   * @return index of first dividend whose dividendDate > time, or size if none.
+   */
+  def indexOf(time: Long): Int = {
+    var lo = 0
+    var hi = size
+    while (lo < hi) {
+      val mid = (lo + hi) >>> 1
+      if (dividendDates(mid) <= time) lo = mid + 1 else hi = mid
+    }
+    lo
+  }
+  
+  /**
+   * Move index of time to time1, which should be >= time, for scanning bars in
+   * ascending order.
+   */
+  def advance(idx: Int, time1: Long): Int = {
+    var k = idx
+    while (k < size && dividendDates(k) <= time1) k += 1
+    k
+  }
+
+  /**
+   * @param idx got by indexOf(time) or advance
+   */
+  def adjust(price: Double, idx: Int): Double = scales(idx) * price + shifts(idx)
+  def unadjust(price: Double, idx: Int): Double = (price - shifts(idx)) / scales(idx)
+
+  def adjustAt(price: Double, time: Long): Double = adjust(price, indexOf(time))
+  def unadjustAt(price: Double, time: Long): Double = unadjust(price, indexOf(time))
+}
+
+object AdjustFactors {
+  val Empty = new AdjustFactors(Nil)
+}
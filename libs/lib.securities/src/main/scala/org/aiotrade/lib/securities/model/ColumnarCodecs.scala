@@ -0,0 +1,587 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities.model
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import org.aiotrade.lib.avro.EvtCodec
+import org.apache.avro.io.BinaryDecoder
+import org.apache.avro.io.BinaryEncoder
+import org.apache.avro.io.DecoderFactory
+import org.apache.avro.io.EncoderFactory
+
+/**
+ * Columnar binary codecs for batch evts of tickers, quotes and moneyflows.
+ * 
+ * Instead of writing records one by one via avro reflection, values of same
+ * field are written together as a column. Times are written as deltas to previous
+ * one, and a price column is written as scaled long deltas to its reference column
+ * (prevClose, lastPrice etc) when all of its values are exactly presentable by
+ * SCALE, which takes only 1-3 bytes per value for most stock prices, otherwise
+ * as raw doubles.
+ * 
+ * Layout: MAGIC, VERSION, [freq], count, uniSymbols, times, ..., columns
+ * 
+ * @author Caoyuan Deng
+ */
+abstract class ColumnarCodec[T] extends EvtCodec[T] {
+  import ColumnarCodec._
+  
+  protected def newEncoder(out: ByteArrayOutputStream): BinaryEncoder = {
+    out.write(EvtCodec.MAGIC)
+    out.write(VERSION)
+    EncoderFactory.get.directBinaryEncoder(out, null)
+  }
+  
+  protected def newDecoder(bytes: Array[Byte]): BinaryDecoder = {
+    if (bytes.length < 2 || bytes(0) != EvtCodec.MAGIC) {
+      throw new IllegalArgumentException("Not a columnar encoded evt")
+    }
+    if (bytes(1) != VERSION) {
+      throw new IllegalArgumentException("Unsupported columnar codec version: " + bytes(1))
+    }
+    DecoderFactory.get.directBinaryDecoder(new ByteArrayInputStream(bytes, 2, bytes.length - 2), null)
+  }
+  
+  protected def writeNullableString(enc: BinaryEncoder, s: String) {
+    if (s == null) {
+      enc.writeBoolean(false)
+    } else {
+      enc.writeBoolean(true)
+      enc.writeString(s)
+    }
+  }
+  
+  protected def readNullableString(dec: BinaryDecoder): String = {
+    if (dec.readBoolean) dec.readString(null).toString else null
+  }
+  
+  protected def writeTimes(enc: BinaryEncoder, times: Array[Long]) {
+    var prev = 0L
+    var i = -1
+    while ({i += 1; i < times.length}) {
+      enc.writeLong(times(i) - prev)
+      prev = times(i)
+    }
+  }
+  
+  protected def readTimes(dec: BinaryDecoder, n: Int): Array[Long] = {
+    val times = new Array[Long](n)
+    var prev = 0L
+    var i = -1
+    while ({i += 1; i < n}) {
+      prev += dec.readLong
+      times(i) = prev
+    }
+    times
+  }
+  
+  /**
+   * @param refs the reference column that was already written, or null for 0
+   */
+  protected def writeColumn(enc: BinaryEncoder, values: Array[Double], refs: Array[Double]) {
+    if (isScalable(values) && (refs == null || isScalable(refs))) {
+      enc.writeInt(MODE_SCALED)
+      var i = -1
+      while ({i += 1; i < values.length}) {
+        val ref = if (refs == null) 0L else scaled(refs(i))
+        enc.writeLong(scaled(values(i)) - ref)
+      }
+    } else {
+      enc.writeInt(MODE_RAW)
+      var i = -1
+      while ({i += 1; i < values.length}) {
+        enc.writeDouble(values(i))
+      }
+    }
+  }
+  
+  protected def readColumn(dec: BinaryDecoder, n: Int, refs: Array[Double]): Array[Double] = {
+    val values = new Array[Double](n)
+    dec.readInt match {
+      case MODE_SCALED =>
+        var i = -1
+        while ({i += 1; i < n}) {
+          val ref = if (refs == null) 0L else scaled(refs(i))
+          values(i) = (ref + dec.readLong) / SCALE
+        }
+      case MODE_RAW =>
+        var i = -1
+        while ({i += 1; i < n}) {
+          values(i) = dec.readDouble
+        }
+      case mode => throw new IllegalArgumentException("Unknown column mode: " + mode)
+    }
+    values
+  }
+}
+
+private[model] object ColumnarCodec {
+  val VERSION: Byte = 1
+  
+  val MODE_RAW = 0
+  val MODE_SCALED = 1
+  
+  val SCALE = 10000.0
+  private val MAX_SCALED = (1L << 53).toDouble
+  
+  def scaled(v: Double): Long = math.round(v * SCALE)
+  
+  /**
+   * @return true if v can be restored from its scaled long exactly, NaN, -0.0 
+   *         and infinites are never
+   */
+  def isScalable(v: Double): Boolean = {
+    val x = v * SCALE
+    x > -MAX_SCALED && x < MAX_SCALED && 
+    java.lang.Double.doubleToLongBits(math.round(x) / SCALE) == java.lang.Double.doubleToLongBits(v)
+  }
+  
+  def isScalable(values: Array[Double]): Boolean = {
+    var i = -1
+    while ({i += 1; i < values.length}) {
+      if (!isScalable(values(i))) return false
+    }
+    true
+  }
+}
+
+/**
+ * Codec of TickersEvt. Prices are delta to prevClose, depth prices are delta to
+ * lastPrice.
+ */
+object TickersCodec extends ColumnarCodec[Array[Ticker]] {
+  // column index of LightTicker's data, and its reference column index or -1
+  private val PREV_CLOSE = 0
+  private val LAST_PRICE = 1
+  private val REFS = Array(-1, PREV_CLOSE, PREV_CLOSE, PREV_CLOSE, PREV_CLOSE, -1, -1, -1)
+  
+  def encode(tickers: Array[Ticker]): Array[Byte] = {
+    val out = new ByteArrayOutputStream(64 + tickers.length * 48)
+    val enc = newEncoder(out)
+    
+    val n = tickers.length
+    enc.writeInt(n)
+    
+    val times = new Array[Long](n)
+    val datas = new Array[Array[Double]](n)
+    val bidAskss = new Array[Array[Double]](n)
+    var i = -1
+    while ({i += 1; i < n}) {
+      val ticker = tickers(i)
+      val (time, data, bidAsks) = ticker.exportTo
+      times(i) = time
+      datas(i) = data
+      bidAskss(i) = bidAsks
+      writeNullableString(enc, ticker.uniSymbol)
+      writeNullableString(enc, ticker.name)
+      enc.writeBoolean(ticker.isTransient)
+      enc.writeBoolean(ticker.isDayFirst)
+      enc.writeInt(bidAsks.length)
+    }
+    writeTimes(enc, times)
+    
+    val columns = new Array[Array[Double]](LightTicker.FIELD_LENGTH)
+    var j = -1
+    while ({j += 1; j < columns.length}) {
+      val column = new Array[Double](n)
+      i = -1
+      while ({i += 1; i < n}) {
+        column(i) = datas(i)(j)
+      }
+      columns(j) = column
+      writeColumn(enc, column, if (REFS(j) >= 0) columns(REFS(j)) else null)
+    }
+    
+    // flatten bidAsks, price slots are delta to lastPrice, size slots to 0
+    val nDepthValues = bidAskss.foldLeft(0){_ + _.length}
+    val depthValues = new Array[Double](nDepthValues)
+    val depthRefs = new Array[Double](nDepthValues)
+    var k = 0
+    i = -1
+    while ({i += 1; i < n}) {
+      val bidAsks = bidAskss(i)
+      val lastPrice = columns(LAST_PRICE)(i)
+      j = -1
+      while ({j += 1; j < bidAsks.length}) {
+        depthValues(k) = bidAsks(j)
+        depthRefs(k) = if (j % 2 == 0) lastPrice else 0
+        k += 1
+      }
+    }
+    writeColumn(enc, depthValues, depthRefs)
+    
+    enc.flush
+    out.toByteArray
+  }
+  
+  def decode(bytes: Array[Byte]): Array[Ticker] = {
+    val dec = newDecoder(bytes)
+    
+    val n = dec.readInt
+    val tickers = new Array[Ticker](n)
+    val depthLengths = new Array[Int](n)
+    var i = -1
+    while ({i += 1; i < n}) {
+      val ticker = new Ticker
+      ticker.uniSymbol = readNullableString(dec)
+      ticker.name = readNullableString(dec)
+      ticker.isTransient = dec.readBoolean
+      ticker.isDayFirst = dec.readBoolean
+      depthLengths(i) = dec.readInt
+      tickers(i) = ticker
+    }
+    val times = readTimes(dec, n)
+    
+    val columns = new Array[Array[Double]](LightTicker.FIELD_LENGTH)
+    var j = -1
+    while ({j += 1; j < columns.length}) {
+      columns(j) = readColumn(dec, n, if (REFS(j) >= 0) columns(REFS(j)) else null)
+    }
+    
+    val nDepthValues = depthLengths.sum
+    val depthRefs = new Array[Double](nDepthValues)
+    var k = 0
+    i = -1
+    while ({i += 1; i < n}) {
+      val lastPrice = columns(LAST_PRICE)(i)
+      j = -1
+      while ({j += 1; j < depthLengths(i)}) {
+        depthRefs(k) = if (j % 2 == 0) lastPrice else 0
+        k += 1
+      }
+    }
+    val depthValues = readColumn(dec, nDepthValues, depthRefs)
+
+    k = 0
+    i = -1
+    while ({i += 1; i < n}) {
+      val data = new Array[Double](LightTicker.FIELD_LENGTH)
+      j = -1
+      while ({j += 1; j < data.length}) {
+        data(j) = columns(j)(i)
+      }
+      val bidAsks = new Array[Double](depthLengths(i))
+      System.arraycopy(depthValues, k, bidAsks, 0, bidAsks.length)
+      k += bidAsks.length
+      tickers(i).importFrom((times(i), data, bidAsks))
+    }
+    
+    tickers
+  }
+}
+
+/**
+ * Codec of QuotesEvt. open, high, low, close and vwap are delta to prevClose.
+ */
+object QuotesCodec extends ColumnarCodec[(String, Array[Quote])] {
+  private val PREV_CLOSE = 7
+  // write order of data columns, prevClose first since it's the reference
+  private val ORDER = Array(PREV_CLOSE, 0, 1, 2, 3, 4, 5, 6, 8, 9)
+  // reference column index of each data column or -1
+  private val REFS  = Array(PREV_CLOSE, PREV_CLOSE, PREV_CLOSE, PREV_CLOSE, -1, -1, PREV_CLOSE, -1, -1, -1)
+  
+  def encode(value: (String, Array[Quote])): Array[Byte] = {
+    val (freq, quotes) = value
+    val out = new ByteArrayOutputStream(64 + quotes.length * 40)
+    val enc = newEncoder(out)
+    
+    writeNullableString(enc, freq)
+    val n = quotes.length
+    enc.writeInt(n)
+    
+    val times = new Array[Long](n)
+    var i = -1
+    while ({i += 1; i < n}) {
+      val quote = quotes(i)
+      times(i) = quote.time
+      writeNullableString(enc, quote.uniSymbol)
+      enc.writeLong(quote.lastModify - quote.time)
+      enc.writeInt(quote.flag)
+      enc.writeBoolean(quote.hasGaps)
+      enc.writeBoolean(quote.isTransient)
+    }
+    writeTimes(enc, times)
+    
+    val columns = new Array[Array[Double]](ORDER.length)
+    var o = -1
+    while ({o += 1; o < ORDER.length}) {
+      val j = ORDER(o)
+      val column = new Array[Double](n)
+      i = -1
+      while ({i += 1; i < n}) {
+        column(i) = quotes(i).data(j)
+      }
+      columns(j) = column
+      writeColumn(enc, column, if (REFS(j) >= 0) columns(REFS(j)) else null)
+    }
+    
+    enc.flush
+    out.toByteArray
+  }
+  
+  def decode(bytes: Array[Byte]): (String, Array[Quote]) = {
+    val dec = newDecoder(bytes)
+    
+    val freq = readNullableString(dec)
+    val n = dec.readInt
+    val quotes = new Array[Quote](n)
+    val lastModifies = new Array[Long](n)
+    var i = -1
+    while ({i += 1; i < n}) {
+      val quote = new Quote
+      quote.uniSymbol = readNullableString(dec)
+      lastModifies(i) = dec.readLong
+      quote.flag = dec.readInt
+      quote.hasGaps = dec.readBoolean
+      quote.isTransient = dec.readBoolean
+      quotes(i) = quote
+    }
+    val times = readTimes(dec, n)
+    i = -1
+    while ({i += 1; i < n}) {
+      quotes(i).time = times(i)
+      quotes(i).lastModify = times(i) + lastModifies(i)
+    }
+    
+    val columns = new Array[Array[Double]](ORDER.length)
+    var o = -1
+    while ({o += 1; o < ORDER.length}) {
+      val j = ORDER(o)
+      val column = readColumn(dec, n, if (REFS(j) >= 0) columns(REFS(j)) else null)
+      columns(j) = column
+      i = -1
+      while ({i += 1; i < n}) {
+        quotes(i).data(j) = column(i)
+      }
+    }
+    
+    (freq, quotes)
+  }
+}
+
+/**
+ * Codec of MoneyFlowsEvt. There are no natural reference columns, but most of
+ * moneyflow values are still small scaled longs.
+ */
+object MoneyFlowsCodec extends ColumnarCodec[(String, Array[MoneyFlow])] {
+  private val FIELD_LENGTH = 30
+  
+  def encode(value: (String, Array[MoneyFlow])): Array[Byte] = {
+    val (freq, mfs) = value
+    val out = new ByteArrayOutputStream(64 + mfs.length * 96)
+    val enc = newEncoder(out)
+    
+    writeNullableString(enc, freq)
+    val n = mfs.length
+    enc.writeInt(n)
+    
+    val times = new Array[Long](n)
+    var i = -1
+    while ({i += 1; i < n}) {
+      val mf = mfs(i)
+      times(i) = mf.time
+      writeNullableString(enc, mf.uniSymbol)
+      enc.writeLong(mf.lastModify - mf.time)
+      enc.writeInt(mf.flag)
+      enc.writeBoolean(mf.isTransient)
+    }
+    writeTimes(enc, times)
+    
+    val column = new Array[Double](n)
+    var j = -1
+    while ({j += 1; j < FIELD_LENGTH}) {
+      i = -1
+      while ({i += 1; i < n}) {
+        column(i) = mfs(i).data(j)
+      }
+      writeColumn(enc, column, null)
+    }
+    
+    enc.flush
+    out.toByteArray
+  }
+  
+  def decode(bytes: Array[Byte]): (String, Array[MoneyFlow]) = {
+    val dec = newDecoder(bytes)
+    
+    val freq = readNullableString(dec)
+    val n = dec.readInt
+    val mfs = new Array[MoneyFlow](n)
+    val lastModifies = new Array[Long](n)
+    var i = -1
+    while ({i += 1; i < n}) {
+      val mf = new MoneyFlow
+      mf.uniSymbol = readNullableString(dec)
+      lastModifies(i) = dec.readLong
+      mf.flag = dec.readInt
+      mf.isTransient = dec.readBoolean
+      mfs(i) = mf
+    }
+    val times = readTimes(dec, n)
+    i = -1
+    while ({i += 1; i < n}) {
+      mfs(i).time = times(i)
+      mfs(i).lastModify = times(i) + lastModifies(i)
+    }
+    
+    var j = -1
+    while ({j += 1; j < FIELD_LENGTH}) {
+      val column = readColumn(dec, n, null)
+      i = -1
+      while ({i += 1; i < n}) {
+        mfs(i).data(j) = column(i)
+      }
+    }
+    
+    (freq, mfs)
+  }
+}
+
+/**
+ * Codec of PriceDistributionsEvt. Levels of each price collection are written
+ * as delta ticks, volumes are written as columns. The schema based one still
+ * uses the old map shape of PriceCollection.
+ */
+object PriceCollectionsCodec extends ColumnarCodec[Array[PriceCollection]] {
+  
+  override def toReflect(pcs: Array[PriceCollection]) = pcs map (_.toReflect)
+  override def fromReflect(pcs: Array[PriceCollection]) = pcs map (_.fromReflect)
+  
+  def encode(pcs: Array[PriceCollection]): Array[Byte] = {
+    val out = new ByteArrayOutputStream(64 + pcs.length * 256)
+    val enc = newEncoder(out)
+    
+    val n = pcs.length
+    enc.writeInt(n)
+    
+    val times = new Array[Long](n)
+    var nAllLevels = 0
+    var i = -1
+    while ({i += 1; i < n}) {
+      val pc = pcs(i)
+      times(i) = pc.time
+      writeNullableString(enc, pc.uniSymbol)
+      enc.writeDouble(pc.tickSize)
+      enc.writeInt(pc.flag)
+      enc.writeBoolean(pc.isTransient)
+      enc.writeInt(pc.ladder.nLevels)
+      nAllLevels += pc.ladder.nLevels
+    }
+    writeTimes(enc, times)
+    
+    val volumeUps = new Array[Double](nAllLevels)
+    val volumeDowns = new Array[Double](nAllLevels)
+    val volumeEvens = new Array[Double](nAllLevels)
+    var k = 0
+    i = -1
+    while ({i += 1; i < n}) {
+      val ladder = pcs(i).ladder
+      var prevTick = 0L
+      ladder foreach {(price, volumeUp, volumeDown, volumeEven) =>
+        val tick = ladder.tickOf(price)
+        enc.writeLong(tick - prevTick)
+        prevTick = tick
+        volumeUps(k) = volumeUp
+        volumeDowns(k) = volumeDown
+        volumeEvens(k) = volumeEven
+        k += 1
+      }
+    }
+    writeColumn(enc, volumeUps, null)
+    writeColumn(enc, volumeDowns, null)
+    writeColumn(enc, volumeEvens, null)
+    
+    enc.flush
+    out.toByteArray
+  }
+  
+  def decode(bytes: Array[Byte]): Array[PriceCollection] = {
+    val dec = newDecoder(bytes)
+    
+    val n = dec.readInt
+    val pcs = new Array[PriceCollection](n)
+    val nLevels = new Array[Int](n)
+    var i = -1
+    while ({i += 1; i < n}) {
+      val uniSymbol = readNullableString(dec)
+      val pc = new PriceCollection(dec.readDouble)
+      pc.uniSymbol = uniSymbol
+      pc.flag = dec.readInt
+      pc.isTransient = dec.readBoolean
+      nLevels(i) = dec.readInt
+      pcs(i) = pc
+    }
+    val times = readTimes(dec, n)
+    
+    val nAllLevels = nLevels.sum
+    val ticks = new Array[Long](nAllLevels)
+    var k = 0
+    i = -1
+    while ({i += 1; i < n}) {
+      pcs(i).time = times(i)
+      var prevTick = 0L
+      var j = -1
+      while ({j += 1; j < nLevels(i)}) {
+        prevTick += dec.readLong
+        ticks(k) = prevTick
+        k += 1
+      }
+    }
+    val volumeUps = readColumn(dec, nAllLevels, null)
+    val volumeDowns = readColumn(dec, nAllLevels, null)
+    val volumeEvens = readColumn(dec, nAllLevels, null)
+    
+    k = 0
+    i = -1
+    while ({i += 1; i < n}) {
+      val ladder = pcs(i).ladder
+      var j = -1
+      while ({j += 1; j < nLevels(i)}) {
+        ladder.set(ladder.priceOf(ticks(k)), volumeUps(k), volumeDowns(k), volumeEvens(k))
+        k += 1
+      }
+    }
+    
+    pcs
+  }
+}
+
+/**
+ * Codec of PriceDistributionEvt
+ */
+object PriceCollectionCodec extends ColumnarCodec[PriceCollection] {
+  override def toReflect(pc: PriceCollection) = pc.toReflect
+  override def fromReflect(pc: PriceCollection) = pc.fromReflect
+  
+  def encode(pc: PriceCollection): Array[Byte] = PriceCollectionsCodec.encode(Array(pc))
+  def decode(bytes: Array[Byte]): PriceCollection = PriceCollectionsCodec.decode(bytes)(0)
+}
@@ -36,12 +36,14 @@ import java.util.logging.Level
 import java.util.logging.Logger
 import java.util.{Calendar, TimeZone, ResourceBundle}
 import org.aiotrade.lib.collection.ArrayList
+import org.aiotrade.lib.math.timeseries.TCalendar
 import org.aiotrade.lib.math.timeseries.TFreq
 import org.aiotrade.lib.math.timeseries.TUnit
 import org.aiotrade.lib.securities.api
 import org.aiotrade.lib.securities.dataserver.TickerServer
 import org.aiotrade.lib.util
 import org.aiotrade.lib.util.actors.Publisher
+import org.aiotrade.lib.util.metrics.Metrics
 import org.aiotrade.lib.util.pinyin.PinYin
 import ru.circumflex.orm._
 import scala.collection.mutable
@@ -95,6 +97,8 @@ final class Exchange extends CRCLongId with Ordered[Exchange] {
   lazy val longName:  String = BUNDLE.getString(code + "_Long")
   lazy val shortName: String = BUNDLE.getString(code + "_Short")
   lazy val timeZone: TimeZone = TimeZone.getTimeZone(timeZoneStr)
+  /** precomputed calendar of timeZone for thread safe rounding/bucketing of times */
+  lazy val tcalendar: TCalendar = TCalendar(timeZone)
 
   private var _status: ExchangeStatus = ExchangeStatus.Unknown(-1, -1)
 
@@ -512,6 +516,7 @@ final class Exchange extends CRCLongId with Ordered[Exchange] {
               Quotes1m.saveBatch(time, quotesToClose)
             case _ =>
           }
+          Exchange.closedQuotesFlushMetric.record(System.currentTimeMillis - t0)
           log.info("Saved closed quotes in " + (System.currentTimeMillis - t0) + "ms: size=" + quotesToClose.length +
                    ", freq=" + freq.shortName + ", time(in os timezone)=" + util.formatTime(time))
         }
@@ -536,6 +541,7 @@ final class Exchange extends CRCLongId with Ordered[Exchange] {
               MoneyFlows1m.saveBatch(time, mfsToClose)
             case _ =>
           }
+          Exchange.closedMoneyFlowsFlushMetric.record(System.currentTimeMillis - t0)
           log.info("Saved closed moneyflows in " + (System.currentTimeMillis - t0) + "ms, size=" + mfsToClose.length +
                    ", freq=" + freq.shortName + ", time(in os timezone)=" + util.formatTime(time))
         }
@@ -560,6 +566,7 @@ final class Exchange extends CRCLongId with Ordered[Exchange] {
               SectorMoneyFlows1m.saveBatch(time, sectorMfsToClose)
             case _ =>
           }
+          Exchange.closedSectorMoneyFlowsFlushMetric.record(System.currentTimeMillis - t0)
           log.info("Saved closed sector moneyflows in " + (System.currentTimeMillis - t0) + "ms, size=" + sectorMfsToClose.length +
                    ", freq=" + freq.shortName + ", time(in os timezone)=" + util.formatTime(time))
         }
@@ -582,6 +589,7 @@ final class Exchange extends CRCLongId with Ordered[Exchange] {
               PriceDistributions.saveBatch(time, pdsToClose)
             case _ =>
           }
+          Exchange.closedPriceDistributionsFlushMetric.record(System.currentTimeMillis - t0)
           log.info("Saved closed price distributions in " + (System.currentTimeMillis - t0) + "ms, size=" + pdsToClose.length +
                    ", freq=" + freq.shortName + ", time(in os timezone)=" + util.formatTime(time))
         }
@@ -628,6 +636,11 @@ object Exchange extends Publisher {
   private val ONE_DAY = 24 * 60 * 60 * 1000
   private val config = org.aiotrade.lib.util.config.Config()
   private val closingScheduler = new ScheduledThreadPoolExecutor(1)
+  
+  private val closedQuotesFlushMetric = Metrics.histogram("exchange.closedQuotes.flush.ms")
+  private val closedMoneyFlowsFlushMetric = Metrics.histogram("exchange.closedMoneyFlows.flush.ms")
+  private val closedSectorMoneyFlowsFlushMetric = Metrics.histogram("exchange.closedSectorMoneyFlows.flush.ms")
+  private val closedPriceDistributionsFlushMetric = Metrics.histogram("exchange.closedPriceDistributions.flush.ms")
 
   // ----- search tables, always use immutable collections to avoid sync issue
   private var _allExchanges: Seq[Exchange] = Nil
@@ -693,6 +706,9 @@ object Exchange extends Publisher {
         )
       }
 
+      // secDividends may have been changed too
+      Exchanges.resetDividends
+
       log.info("Reset search table in " + (System.currentTimeMillis - t0) + "ms.")
     } catch {
       case ex: Throwable => log.severe(ex.getMessage)
@@ -997,22 +1013,98 @@ object Exchanges extends CRCLongPKTable[Exchange] {
     res map (_._1)
   }
 
-  def dividendsOf(sec: Sec): Seq[SecDividend] = {
+  /**
+   * Dividends grouped by sec id, loaded by one query from db or avro at first
+   * access. They are reset by Exchange.resetSearchTables after base data were
+   * synced, or call resetDividends directly after dividends were changed.
+   * @Note dividends may also be changed by other processes in db, so they are
+   * reloaded at most 'dividends.ttl' minutes (default one day) after loaded.
+   */
+  private val dividendsTtl = org.aiotrade.lib.util.config.Config().getInt("dividends.ttl", 24 * 60) * 60 * 1000L
+  @volatile private var _dividendsLoadedTime = 0L
+  @volatile private var _secIdToRawDividends: collection.Map[Long, Seq[SecDividend]] = _
+  private val secIdToDividends = new java.util.concurrent.ConcurrentHashMap[Long, Seq[SecDividend]]()
+  private val secIdToAdjustFactors = new java.util.concurrent.ConcurrentHashMap[Long, AdjustFactors]()
+
+  private def secIdToRawDividends: collection.Map[Long, Seq[SecDividend]] = {
+    if (_secIdToRawDividends == null) synchronized {
+      if (_secIdToRawDividends == null) {
+        _secIdToRawDividends = loadDividends
+        _dividendsLoadedTime = System.currentTimeMillis
+      }
+    }
+    _secIdToRawDividends
+  }
+
+  private def loadDividends: collection.Map[Long, Seq[SecDividend]] = {
+    val t0 = System.currentTimeMillis
     val divs = try {
       if (TickerServer.isServer) {
-        val secId = Secs.idOf(sec)
-        SELECT (SecDividends.*) FROM (SecDividends) WHERE (SecDividends.sec.field EQ secId) list()
+        SELECT (SecDividends.*) FROM (SecDividends) list()
       } else {
-        SELECT (SecDividends.*) FROM (AVRO(SecDividends)) list() filter (div => div.sec eq sec)
+        SELECT (SecDividends.*) FROM (AVRO(SecDividends)) list()
       }
     } catch {
       case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex); Nil
     }
 
-    log.info("Got %s div records for %s".format(divs.length, sec.uniSymbol))
-    val cal = util.calendarOf(sec.exchange.timeZone)
-    divs foreach {div => div.dividendDate = TFreq.DAILY.round(div.dividendDate, cal)}
-    divs.sortWith((a, b) => a.dividendDate < b.dividendDate)
+    val secIdToDivs = mutable.HashMap[Long, ArrayList[SecDividend]]()
+    for (div <- divs if div.sec != null) {
+      secIdToDivs.getOrElseUpdate(div.sec.id, new ArrayList[SecDividend]) += div
+    }
+
+    log.info("Dividends number is " + divs.size + " of " + secIdToDivs.size + " secs, loaded in " + (System.currentTimeMillis - t0) + " ms")
+    secIdToDivs
+  }
+
+  def resetDividends() {
+    synchronized {
+      _secIdToRawDividends = null
+    }
+    secIdToDividends.clear
+    secIdToAdjustFactors.clear
+  }
+
+  private def checkDividendsExpired() {
+    if (_secIdToRawDividends != null && System.currentTimeMillis - _dividendsLoadedTime > dividendsTtl) {
+      log.info("Dividends expired, will reload")
+      resetDividends
+    }
+  }
+
+  /**
+   * @return dividends of sec, with dividendDate rounded to day, sorted by dividendDate ascending
+   */
+  def dividendsOf(sec: Sec): Seq[SecDividend] = {
+    checkDividendsExpired
+    val divs = secIdToDividends.get(sec.id)
+    if (divs != null) {
+      divs
+    } else {
+      val rawDivs = secIdToRawDividends.getOrElse(sec.id, Nil)
+      log.info("Got %s div records for %s".format(rawDivs.length, sec.uniSymbol))
+      val cal = util.calendarOf(sec.exchange.timeZone)
+      rawDivs foreach {div => div.dividendDate = TFreq.DAILY.round(div.dividendDate, cal)}
+      val newOne = rawDivs.sortWith((a, b) => a.dividendDate < b.dividendDate)
+      secIdToDividends.put(sec.id, newOne)
+      newOne
+    }
+  }
+
+  /**
+   * @return cumulative adjust factors of sec's dividends
+   */
+  def adjustFactorsOf(sec: Sec): AdjustFactors = {
+    checkDividendsExpired
+    val factors = secIdToAdjustFactors.get(sec.id)
+    if (factors != null) {
+      factors
+    } else {
+      val divs = dividendsOf(sec)
+      val newOne = if (divs.isEmpty) AdjustFactors.Empty else new AdjustFactors(divs)
+      secIdToAdjustFactors.put(sec.id, newOne)
+      newOne
+    }
   }
 
   def secInfosOf(sec: Sec): Seq[SecInfo] = {
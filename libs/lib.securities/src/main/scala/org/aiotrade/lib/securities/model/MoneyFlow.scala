@@ -78,7 +78,7 @@ final class MoneyFlow extends BelongsToSec with TVal with Flag {
   }
 
   @transient var freeFloat = 0.0
-  private val data = new Array[Double](30)
+  private[model] val data = new Array[Double](30)
   
   def superVolumeIn = data(0)
   def superAmountIn = data(1)
@@ -57,11 +57,18 @@ final class PriceDistribution extends BelongsToSec with TVal with Flag with Seri
   }
 }
 
+/**
+ * Price distribution of a sec in a period, the levels are kept in a tick-indexed
+ * PriceLadder, PriceDistribution records are only materialized on demand.
+ * 
+ * @Note fields map and data are only filled in the wire shape of reflect avro
+ * and java serialization, @see toReflect and fromReflect
+ */
 @serializable
-final class PriceCollection extends BelongsToSec with TVal with Flag  {
+final class PriceCollection(_tickSize: Double) extends BelongsToSec with TVal with Flag  {
   @transient
   val cal = Calendar.getInstance
-  private var map = mutable.Map[String, PriceDistribution]()
+  private var map: mutable.Map[String, PriceDistribution] = _
 
   var isTransient = true
 
@@ -73,87 +80,132 @@ final class PriceCollection extends BelongsToSec with TVal with Flag  {
   def flag = _flag
   def flag_=(flag: Int) {this._flag = flag}
 
-  private val data = new Array[Double](2)
-
-  def avgPrice = data(0)
-  def totalVolume = data(1)
+  private var data: Array[Double] = _
 
-  private def avgPrice_= (value: Double){ data(0) = value}
-  private def totalVolume_= (value: Double){ data(1) = value}
+  @transient
+  private[model] val ladder = new PriceLadder(_tickSize)
 
-  def get(price: String) = map.get(price)
+  def this() = this(PriceLadder.DEFAULT_TICK_SIZE)
+  
+  def tickSize = ladder.tickSize
+  
+  def avgPrice = ladder.avgPrice
+  def totalVolume = ladder.totalVolume
+
+  def get(price: String): Option[PriceDistribution] = get(price.toDouble)
+  def get(price: Double): Option[PriceDistribution] = {
+    if (ladder.contains(price)) {
+      Some(newPriceDistribution(ladder.priceOf(ladder.tickOf(price)), ladder.volumeUpAt(price), ladder.volumeDownAt(price), ladder.volumeEvenAt(price)))
+    } else None
+  }
     
-  def put(price: String, pd: PriceDistribution) = {
-    if (map.isEmpty){
+  /**
+   * @Note the level is decided by pd.price, price key is kept for compatible only
+   */
+  def put(price: String, pd: PriceDistribution) {
+    put(pd)
+  }
+  
+  def put(pd: PriceDistribution) {
+    if (ladder.isEmpty){
       this.time = pd.time
       this.sec = pd.sec
       this.flag = pd.flag
     }
 
     if (TFreq.DAILY.round(this.time, cal) == TFreq.DAILY.round(pd.time, cal)){
-      val vol0 = map.get(price) match{
-        case Some(pr) => pr.volumeDown + pr.volumeEven + pr.volumeUp
-        case None => 0
-      }
-      
-      val vol = pd.volumeUp + pd.volumeDown + pd.volumeEven
-      avgPrice = (avgPrice * totalVolume + pd.price * (vol - vol0)) / (totalVolume + vol - vol0)
-      totalVolume += vol - vol0
-      pd.flag = flag
-      map.put(price, pd)
-      if (this.closed_?) pd.closed_! else pd.unclosed_!
+      ladder.set(pd.price, pd.volumeUp, pd.volumeDown, pd.volumeEven)
     }
   }
-
-  def keys = map.keys
-
-  def values = map.values
-
-  def clear = {
-    map.clear
-    var i= -1
-    while ({i += 1; i< data.length}) data(i) = 0.0
+  
+  /**
+   * Add volumes of an execution to its price level, O(1) without allocating
+   */
+  def add(price: Double, volumeUp: Double, volumeDown: Double, volumeEven: Double) {
+    ladder.add(price, volumeUp, volumeDown, volumeEven)
   }
-
-  def isEmpty = map.isEmpty
-
-  override def closed_! = {
-    super.closed_!
-    this.map.values foreach (_.closed_!)
+  
+  def merge(that: PriceCollection) {
+    ladder.merge(that.ladder)
   }
 
-  override def unclosed_! = {
-    super.unclosed_!
-    this.map.values foreach (_.unclosed_!)
-  }
+  def keys: Iterable[String] = values map (_.price.toString)
 
-  override def justOpen_! = {
-    super.justOpen_!
-    this.map.values foreach (_.justOpen_!)
+  def values: Iterable[PriceDistribution] = toPriceDistributions(Int.MaxValue)
+  
+  /**
+   * @param maxLevels levels are merged to at most maxLevels in equal price interval
+   * @return price distributions in ascending price order
+   */
+  def toPriceDistributions(maxLevels: Int): ArrayList[PriceDistribution] = {
+    val Array(prices, volumeUps, volumeDowns, volumeEvens) = ladder.coarsened(maxLevels)
+    val pds = new ArrayList[PriceDistribution]()
+    var i = -1
+    while ({i += 1; i < prices.length}) {
+      pds += newPriceDistribution(prices(i), volumeUps(i), volumeDowns(i), volumeEvens(i))
+    }
+    pds
   }
-
-  override def unjustOpen_! = {
-    super.unjustOpen_!
-    this.map.values foreach (_.unjustOpen_!)
+  
+  private def newPriceDistribution(price: Double, volumeUp: Double, volumeDown: Double, volumeEven: Double) = {
+    val pd = new PriceDistribution
+    pd.sec = sec
+    pd.time = time
+    pd.flag = flag
+    pd.price = price
+    pd.volumeUp = volumeUp
+    pd.volumeDown = volumeDown
+    pd.volumeEven = volumeEven
+    pd
   }
 
-  override def fromMe_! = {
-    super.fromMe_!
-    this.map.values foreach (_.fromMe_!)
+  def clear = ladder.clear
+
+  def isEmpty = ladder.isEmpty
+  
+  /**
+   * @return a copy in the old wire shape: levels are put in map keyed by price
+   *         string, avgPrice and totalVolume are put in data.
+   */
+  private[model] def toReflect: PriceCollection = {
+    val pc = new PriceCollection(tickSize)
+    pc.sec = sec
+    pc.uniSymbol = uniSymbol
+    pc.time = time
+    pc.flag = flag
+    pc.isTransient = isTransient
+    pc.map = mutable.Map[String, PriceDistribution]()
+    values foreach {pd => pc.map.put(pd.price.toString, pd)}
+    pc.data = Array(avgPrice, totalVolume)
+    pc
   }
 
-  override def unfromMe_! = {
-    super.unfromMe_!
-    this.map.values foreach (_.unfromMe_!)
+  /**
+   * @return a copy with levels of map put to ladder, tick size is decided by uniSymbol
+   */
+  private[model] def fromReflect: PriceCollection = {
+    val pc = new PriceCollection(PriceLadder.tickSizeOf(uniSymbol))
+    pc.sec = sec
+    pc.uniSymbol = uniSymbol
+    pc.time = time
+    pc.flag = flag
+    pc.isTransient = isTransient
+    if (map != null) {
+      map.values foreach {pd => pc.ladder.set(pd.price, pd.volumeUp, pd.volumeDown, pd.volumeEven)}
+    }
+    pc
   }
   
+  private def writeReplace(): AnyRef = if (map == null) toReflect else this
+  private def readResolve(): AnyRef = fromReflect
+
   override def toString() ={
     val sp = new StringBuffer
     sp.append("\nunisymbol:").append(uniSymbol)
     sp.append("\ntime:").append(time)
     sp.append("\navgPrice:").append(avgPrice)
     sp.append("\ntotalVolume:").append(totalVolume)
-    for((key, value) <- this.map) sp.append("\n").append(value.toString)
+    for (value <- values) sp.append("\n").append(value.toString)
     sp.toString
   }
 }
@@ -179,13 +231,13 @@ object PriceDistributions  extends Table[PriceDistribution] {
     dailyCache.get(sec -> date) match {
       case Some(map) => map
       case None =>
-        val map = new PriceCollection
+        val map = new PriceCollection(PriceLadder.tickSizeOf(sec))
 
         dailyCache.put(sec -> date, map)
 
         try{
           (SELECT (this.*) FROM this WHERE ((this.time EQ date) AND (this.sec.field EQ Secs.idOf(sec))) list
-          ) foreach {x => map.put(x.price.toString, x)}
+          ) foreach {x => map.put(x)}
         }
         catch{
           case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex)
@@ -205,10 +257,10 @@ object PriceDistributions  extends Table[PriceDistribution] {
 
   @deprecated
   def dailyDistribuOf_ignoreCache(sec: Sec, date: Long): PriceCollection ={
-    val map = new PriceCollection
+    val map = new PriceCollection(PriceLadder.tickSizeOf(sec))
     try{
       (SELECT (this.*) FROM this WHERE ((this.time EQ date) AND (this.sec.field EQ Secs.idOf(sec))) list
-      ) foreach {x => map.put(x.price.toString, x)}
+      ) foreach {x => map.put(x)}
     }
     catch{
       case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex)
@@ -252,14 +304,14 @@ object PriceDistributions  extends Table[PriceDistribution] {
     ) foreach {x =>
       if (x.closed_?){
         map.get(x.time) match{
-          case Some(m) => m.isTransient = false; m.put(x.price.toString, x)
+          case Some(m) => m.isTransient = false; m.put(x)
           case None =>
-            val m = new PriceCollection
+            val m = new PriceCollection(PriceLadder.tickSizeOf(sec))
             m.isTransient = false
             map.put(x.time, m)
             m.time = x.time
             m.sec = sec
-            m.put(x.price.toString, x)
+            m.put(x)
         }
       }
     }
@@ -306,14 +358,14 @@ object PriceDistributions  extends Table[PriceDistribution] {
     val map = mutable.Map[Long, PriceCollection]()
     list foreach {x =>
       map.get(x.time) match{
-        case Some(m) => m.isTransient = false; m.put(x.price.toString, x)
+        case Some(m) => m.isTransient = false; m.put(x)
         case None =>
-          val m = new PriceCollection
+          val m = new PriceCollection(PriceLadder.tickSizeOf(x.uniSymbol))
           m.isTransient = false
           map.put(x.time, m)
           m.time = x.time
           m.sec = x.sec
-          m.put(x.price.toString, x)
+          m.put(x)
       }
     }
     map
@@ -326,24 +378,22 @@ object PriceDistributions  extends Table[PriceDistribution] {
     val last = sortedPDs.last
     val frTime = math.min(head.time, last.time)
     val toTime = math.max(head.time, last.time)
-    val exists = mutable.Map[(Long, Double), PriceDistribution]()
+    val exists = mutable.Map[(Long, Long), PriceDistribution]()
     (SELECT (this.*) FROM (this) WHERE (
         (this.sec.field EQ Secs.idOf(sec)) AND (this.time GE frTime) AND (this.time LE toTime)
       ) ORDER_BY (this.time) list
-    ) foreach {x => exists.put(x.time -> x.price, x)}
+    ) foreach {x => exists.put(x.time -> levelKeyOf(x.price), x)}
 
     val updates = new ArrayList[PriceDistribution]()
     val inserts = new ArrayList[PriceDistribution]()
 
-    sortedPDs.foreach{pc =>
-      val (u, i) = pc.values.partition(x => exists.contains(x.time -> x.price))
-      updates ++= sortAndMergingPriceDistribution(u, SIZE)
-      inserts ++= sortAndMergingPriceDistribution(i, SIZE)
-    }
-
-    for (x <- updates) {
-      val existOne = exists(x.time -> x.price)
-      existOne.copyFrom(x)
+    sortedPDs foreach {pc =>
+      pc.toPriceDistributions(SIZE) foreach {x =>
+        exists.get(x.time -> levelKeyOf(x.price)) match {
+          case Some(existOne) => existOne.copyFrom(x); updates += existOne
+          case None => inserts += x
+        }
+      }
     }
 
     try {
@@ -361,7 +411,7 @@ object PriceDistributions  extends Table[PriceDistribution] {
   def saveBatch(atSameTime: Long, pcs: Array[PriceCollection]) {
     if (pcs.isEmpty) return
 
-    val exists = mutable.Map[(Sec, Double),PriceDistribution]()
+    val exists = mutable.Map[(Sec, Long), PriceDistribution]()
     val res = try {
       SELECT (this.*) FROM (this) WHERE (
         (this.time EQ atSameTime) AND (this.sec.field GT 0) AND (this.sec.field LT CRCLongId.MaxId )
@@ -369,15 +419,18 @@ object PriceDistributions  extends Table[PriceDistribution] {
     } catch {
       case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex); Nil
     }
-    res foreach {x => exists.put(x.sec -> x.price, x)}
+    res foreach {x => exists.put(x.sec -> levelKeyOf(x.price), x)}
 
     val updates = new ArrayList[PriceDistribution]()
     val inserts = new ArrayList[PriceDistribution]()
 
-    pcs.foreach{pc =>
-      val (u, i) = pc.values partition {x => exists.contains(x.sec -> x.price)}
-      updates ++= sortAndMergingPriceDistribution(u, SIZE)
-      inserts ++= sortAndMergingPriceDistribution(i, SIZE)
+    pcs foreach {pc =>
+      pc.toPriceDistributions(SIZE) foreach {x =>
+        exists.get(x.sec -> levelKeyOf(x.price)) match {
+          case Some(existOne) => existOne.copyFrom(x); updates += existOne
+          case None => inserts += x
+        }
+      }
     }
 
     try {
@@ -392,6 +445,11 @@ object PriceDistributions  extends Table[PriceDistribution] {
     }
   }
   
+  /**
+   * Stored prices are matched in the finest tick instead of double equality
+   */
+  private def levelKeyOf(price: Double): Long = math.round(price / PriceLadder.FINE_TICK_SIZE)
+  
   /**
    * Merge the prices' size to size.
    * @param list The price collection needed to be merge.
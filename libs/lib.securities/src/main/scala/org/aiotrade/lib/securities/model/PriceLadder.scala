@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities.model
+
+/**
+ * A price ladder of volumes keyed by integer price ticks. Levels are kept in
+ * parallel primitive arrays indexed by (tick - baseTick), so adding a volume of
+ * an execution is O(1) without allocating, and levels are always iterated in
+ * price order without sorting.
+ * 
+ * The arrays span at most MAX_DENSE_TICKS ticks, levels out of that band (an 
+ * outlier or zero price) are kept in a sorted sparse map instead. Non-finite
+ * prices are ignored.
+ * 
+ * @param tickSize the minimal price change, prices are rounded to it, so it
+ *        should not be larger than the sec's one, @see PriceLadder.tickSizeOf
+ * 
+ * @author Caoyuan Deng
+ */
+@serializable
+final class PriceLadder(val tickSize: Double) {
+  import PriceLadder._
+  
+  private val ticksPerUnit = 1.0 / tickSize
+  
+  private var baseTick = 0L
+  private var ups   = EMPTY
+  private var downs = EMPTY
+  private var evens = EMPTY
+  /** levels out of dense band: tick -> Array(volumeUp, volumeDown, volumeEven), created lazily */
+  private var sparse: java.util.TreeMap[java.lang.Long, Array[Double]] = null
+  
+  private var _nLevels = 0
+  private var _totalVolume = 0.0
+  private var _amount = 0.0
+
+  def this() = this(PriceLadder.DEFAULT_TICK_SIZE)
+  
+  def tickOf(price: Double): Long = math.round(price * ticksPerUnit)
+  def priceOf(tick: Long): Double = tick / ticksPerUnit
+  
+  /** number of none empty levels */
+  def nLevels = _nLevels
+  def isEmpty = _nLevels == 0
+  def totalVolume = _totalVolume
+  def avgPrice = if (_totalVolume != 0) _amount / _totalVolume else 0.0
+  
+  def volumeUpAt(price: Double): Double = valueAt(0, price)
+  def volumeDownAt(price: Double): Double = valueAt(1, price)
+  def volumeEvenAt(price: Double): Double = valueAt(2, price)
+  
+  def contains(price: Double): Boolean = {
+    if (isInvalid(price)) return false
+    
+    val tick = tickOf(price)
+    val idx = tick - baseTick
+    if (idx >= 0 && idx < ups.length) {
+      nonEmptyAt(idx.toInt)
+    } else {
+      sparse != null && sparse.containsKey(tick)
+    }
+  }
+  
+  /**
+   * Add volumes to the level of price, usually by an execution
+   */
+  def add(price: Double, volumeUp: Double, volumeDown: Double, volumeEven: Double) {
+    if (isInvalid(price)) return
+    
+    val tick = tickOf(price)
+    val idx = ensureIndex(tick)
+    if (idx >= 0) {
+      update(idx, ups(idx) + volumeUp, downs(idx) + volumeDown, evens(idx) + volumeEven)
+    } else {
+      val level = sparseLevelOf(tick)
+      updateSparse(tick, level, level(0) + volumeUp, level(1) + volumeDown, level(2) + volumeEven)
+    }
+  }
+  
+  /**
+   * Replace volumes of the level of price
+   */
+  def set(price: Double, volumeUp: Double, volumeDown: Double, volumeEven: Double) {
+    if (isInvalid(price)) return
+    
+    val tick = tickOf(price)
+    val idx = ensureIndex(tick)
+    if (idx >= 0) {
+      update(idx, volumeUp, volumeDown, volumeEven)
+    } else {
+      updateSparse(tick, sparseLevelOf(tick), volumeUp, volumeDown, volumeEven)
+    }
+  }
+  
+  private def update(idx: Int, volumeUp: Double, volumeDown: Double, volumeEven: Double) {
+    val wasEmpty = !nonEmptyAt(idx)
+    val volume0 = ups(idx) + downs(idx) + evens(idx)
+    ups(idx)   = volumeUp
+    downs(idx) = volumeDown
+    evens(idx) = volumeEven
+    updated(baseTick + idx, wasEmpty, !nonEmptyAt(idx), volumeUp + volumeDown + volumeEven - volume0)
+  }
+  
+  private def updateSparse(tick: Long, level: Array[Double], volumeUp: Double, volumeDown: Double, volumeEven: Double) {
+    val wasEmpty = isEmptyLevel(level)
+    val volume0 = level(0) + level(1) + level(2)
+    level(0) = volumeUp
+    level(1) = volumeDown
+    level(2) = volumeEven
+    val isEmptyNow = isEmptyLevel(level)
+    if (isEmptyNow) {
+      if (sparse != null) sparse.remove(tick)
+    } else {
+      if (sparse == null) sparse = new java.util.TreeMap[java.lang.Long, Array[Double]]
+      sparse.put(tick, level)
+    }
+    updated(tick, wasEmpty, isEmptyNow, volumeUp + volumeDown + volumeEven - volume0)
+  }
+  
+  private def updated(tick: Long, wasEmpty: Boolean, isEmptyNow: Boolean, dVolume: Double) {
+    if (wasEmpty && !isEmptyNow) {
+      _nLevels += 1
+    } else if (!wasEmpty && isEmptyNow) {
+      _nLevels -= 1
+    }
+    
+    _totalVolume += dVolume
+    _amount += priceOf(tick) * dVolume
+  }
+  
+  def merge(that: PriceLadder) {
+    that foreach {(price, volumeUp, volumeDown, volumeEven) => add(price, volumeUp, volumeDown, volumeEven)}
+  }
+  
+  /**
+   * Apply f(price, volumeUp, volumeDown, volumeEven) on none empty levels in
+   * ascending price order
+   */
+  def foreach(f: (Double, Double, Double, Double) => Unit) {
+    foreachLevel {(tick, volumeUp, volumeDown, volumeEven) => f(priceOf(tick), volumeUp, volumeDown, volumeEven)}
+  }
+  
+  /**
+   * Apply f(tick, volumeUp, volumeDown, volumeEven) on none empty levels in
+   * ascending tick order: sparse ones below dense band, dense ones, then sparse
+   * ones above dense band.
+   */
+  private def foreachLevel(f: (Long, Double, Double, Double) => Unit) {
+    if (sparse != null) {
+      val itr = sparse.headMap(baseTick).entrySet.iterator
+      while (itr.hasNext) {
+        val entry = itr.next
+        val level = entry.getValue
+        f(entry.getKey.longValue, level(0), level(1), level(2))
+      }
+    }
+    
+    var i = -1
+    while ({i += 1; i < ups.length}) {
+      if (nonEmptyAt(i)) {
+        f(baseTick + i, ups(i), downs(i), evens(i))
+      }
+    }
+    
+    if (sparse != null) {
+      val itr = sparse.tailMap(baseTick + ups.length).entrySet.iterator
+      while (itr.hasNext) {
+        val entry = itr.next
+        val level = entry.getValue
+        f(entry.getKey.longValue, level(0), level(1), level(2))
+      }
+    }
+  }
+  
+  /**
+   * Merge levels into at most maxLevels levels of equal price interval, each
+   * level is put to its nearest one.
+   * 
+   * @return arrays of price, volumeUp, volumeDown and volumeEven
+   */
+  def coarsened(maxLevels: Int): Array[Array[Double]] = {
+    val n = if (_nLevels <= maxLevels) _nLevels else maxLevels
+    val prices = new Array[Double](n)
+    val volUps = new Array[Double](n)
+    val volDowns = new Array[Double](n)
+    val volEvens = new Array[Double](n)
+    
+    if (_nLevels <= maxLevels) {
+      var k = 0
+      foreachLevel {(tick, volumeUp, volumeDown, volumeEven) =>
+        prices(k) = priceOf(tick)
+        volUps(k) = volumeUp
+        volDowns(k) = volumeDown
+        volEvens(k) = volumeEven
+        k += 1
+      }
+    } else {
+      var lo = Long.MaxValue
+      var hi = Long.MinValue
+      foreachLevel {(tick, _, _, _) =>
+        if (lo == Long.MaxValue) lo = tick
+        hi = tick
+      }
+      
+      val step = (hi - lo).toDouble / (n - 1) // in ticks
+      // keep merged levels on ticks, so their prices are still exact ones
+      var k = -1
+      while ({k += 1; k < n}) {
+        prices(k) = priceOf(lo + math.round(k * step))
+      }
+      foreachLevel {(tick, volumeUp, volumeDown, volumeEven) =>
+        val k = math.min(n - 1, math.round((tick - lo) / step).toInt)
+        volUps(k) += volumeUp
+        volDowns(k) += volumeDown
+        volEvens(k) += volumeEven
+      }
+    }
+    
+    Array(prices, volUps, volDowns, volEvens)
+  }
+  
+  def clear {
+    baseTick = 0L
+    ups = EMPTY
+    downs = EMPTY
+    evens = EMPTY
+    sparse = null
+    _nLevels = 0
+    _totalVolume = 0.0
+    _amount = 0.0
+  }
+  
+  private def isInvalid(price: Double) = java.lang.Double.isNaN(price) || java.lang.Double.isInfinite(price)
+  
+  private def nonEmptyAt(idx: Int) = ups(idx) != 0 || downs(idx) != 0 || evens(idx) != 0
+  private def isEmptyLevel(level: Array[Double]) = level(0) == 0 && level(1) == 0 && level(2) == 0
+  
+  private def sparseLevelOf(tick: Long): Array[Double] = {
+    val level = if (sparse != null) sparse.get(tick) else null
+    if (level != null) level else new Array[Double](3)
+  }
+  
+  /**
+   * @param i 0: volumeUp, 1: volumeDown, 2: volumeEven
+   */
+  private def valueAt(i: Int, price: Double): Double = {
+    if (isInvalid(price)) return 0.0
+    
+    val tick = tickOf(price)
+    val idx = tick - baseTick
+    if (idx >= 0 && idx < ups.length) {
+      val values = i match {
+        case 0 => ups
+        case 1 => downs
+        case _ => evens
+      }
+      values(idx.toInt)
+    } else {
+      val level = if (sparse != null) sparse.get(tick) else null
+      if (level != null) level(i) else 0.0
+    }
+  }
+  
+  /**
+   * @return index of tick, arrays are grown (with spare room at both ends) to
+   *         cover it if necessary, or -1 if tick is out of dense band, i.e. not
+   *         positive or the arrays would span more than MAX_DENSE_TICKS.
+   */
+  private def ensureIndex(tick: Long): Int = {
+    if (tick <= 0) return -1
+    
+    if (ups.length == 0) {
+      baseTick = math.max(tick - INITIAL_CAPACITY / 2, 1)
+      ups   = new Array[Double](INITIAL_CAPACITY)
+      downs = new Array[Double](INITIAL_CAPACITY)
+      evens = new Array[Double](INITIAL_CAPACITY)
+      migrateSparse
+    } else {
+      val idx = tick - baseTick
+      if (idx < 0 || idx >= ups.length) {
+        val lastTick = baseTick + ups.length - 1
+        val minTick = math.min(tick, baseTick)
+        val maxTick = math.max(tick, lastTick)
+        if (maxTick - minTick + 1 > MAX_DENSE_TICKS) return -1
+        
+        val spare = ups.length / 2
+        var newBaseTick = if (tick < baseTick) math.max(tick - spare, 1) else baseTick
+        var newLastTick = if (tick > lastTick) tick + spare else lastTick
+        if (newLastTick - newBaseTick + 1 > MAX_DENSE_TICKS) {
+          // no room for full spare, just cover [minTick, maxTick] within the limit
+          newBaseTick = if (tick < baseTick) math.max(maxTick - MAX_DENSE_TICKS + 1, 1) else minTick
+          newLastTick = newBaseTick + MAX_DENSE_TICKS - 1
+        }
+        val newLength = (newLastTick - newBaseTick + 1).toInt
+        val offset = (baseTick - newBaseTick).toInt
+        ups   = grown(ups,   newLength, offset)
+        downs = grown(downs, newLength, offset)
+        evens = grown(evens, newLength, offset)
+        baseTick = newBaseTick
+        migrateSparse
+      }
+    }
+    (tick - baseTick).toInt
+  }
+  
+  /**
+   * Move sparse levels that are covered by dense band now into arrays
+   */
+  private def migrateSparse {
+    if (sparse == null || sparse.isEmpty) return
+    
+    val itr = sparse.subMap(baseTick, baseTick + ups.length).entrySet.iterator
+    while (itr.hasNext) {
+      val entry = itr.next
+      val idx = (entry.getKey.longValue - baseTick).toInt
+      val level = entry.getValue
+      ups(idx)   = level(0)
+      downs(idx) = level(1)
+      evens(idx) = level(2)
+      itr.remove
+    }
+  }
+  
+  private def grown(values: Array[Double], length: Int, offset: Int): Array[Double] = {
+    val newValues = new Array[Double](length)
+    System.arraycopy(values, 0, newValues, offset, values.length)
+    newValues
+  }
+}
+
+object PriceLadder {
+  /** finest tick size of SS/SZ secs, such as funds, B-shares, warrants and bonds */
+  val DEFAULT_TICK_SIZE = 0.001
+  /** tick size of other exchanges' secs, which are not known here */
+  val FINE_TICK_SIZE = 0.0001
+  
+  def tickSizeOf(sec: Sec): Double = tickSizeOf(sec.uniSymbol)
+  
+  /**
+   * Tick size by kind and board of sec, only A-share stocks are traded in 0.01,
+   * a smaller tick size is always safe but costs more levels.
+   */
+  def tickSizeOf(uniSymbol: String): Double = {
+    if (uniSymbol == null || uniSymbol == "") return FINE_TICK_SIZE
+    
+    val sectorKeys = Sector.cnSymbolToSectorKey(uniSymbol)
+    if (sectorKeys.isEmpty) {
+      FINE_TICK_SIZE
+    } else if (sectorKeys.contains(StockKey) && !sectorKeys.contains(BShareKey)) {
+      0.01
+    } else {
+      DEFAULT_TICK_SIZE
+    }
+  }
+  
+  private val StockKey = Sector.toKey(Sector.Category.Kind, Sector.Kind.Stock)
+  private val BShareKey = Sector.toKey(Sector.Category.Board, Sector.Board.BShare)
+  private val INITIAL_CAPACITY = 64
+  /** max span of dense arrays, about 400K bytes for 3 arrays */
+  private val MAX_DENSE_TICKS = 1 << 14
+  private val EMPTY = Array[Double]()
+}
@@ -74,7 +74,7 @@ final class Quote extends BelongsToSec with TVal with Flag {
 
   var hasGaps = false
   
-  private val data = new Array[Double](10) // will increase to 11 to add averagy
+  private[model] val data = new Array[Double](10) // will increase to 11 to add averagy
   
   def open      = data(0)
   def high      = data(1)
@@ -119,14 +119,7 @@ final class Quote extends BelongsToSec with TVal with Flag {
    */
   def average: Double = {
     if (_average.isNaN) { // has not been set by outside (for example, by adjusted QuoteSer)
-      if (amount != 0 && volume != 0) {
-        amount / volume match {
-          case x if x >= low && x <= high => x // beware that index's amount/volume may not be average
-          case _ => (open + high + low + close) / 4
-        }
-      } else {
-        (open + high + low + close) / 4
-      }
+      Quote.averageOf(open, high, low, close, volume, amount)
     } else { // has been set by outside, just use it
       _average
     }
@@ -248,6 +241,21 @@ abstract class Quotes extends Table[Quote] with TableEx {
     }
   }
 
+  /**
+   * Quotes after time, in ascending order
+   */
+  def quotesAfter(sec: Sec, time: Long): Seq[Quote] = {
+    try {
+      val list1 = SELECT (this.*) FROM (this) WHERE (
+        (this.sec.field EQ Secs.idOf(sec)) AND (this.time GT time)
+      ) ORDER_BY (this.time) list;
+      list1 foreach{ x => x.lastModify = x.time}
+      list1
+    } catch {
+      case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex); Nil
+    }
+  }
+
   def closedQuotesOf(sec: Sec): Seq[Quote] = {
     val xs = new ArrayList[Quote]()
     for (x <- quotesOf(sec) if x.closed_?) {
@@ -557,6 +565,17 @@ object Quotes1m extends Quotes {
 object Quote {
   private val log = Logger.getLogger(this.getClass.getName)
   
+  def averageOf(open: Double, high: Double, low: Double, close: Double, volume: Double, amount: Double): Double = {
+    if (amount != 0 && volume != 0) {
+      amount / volume match {
+        case x if x >= low && x <= high => x // beware that index's amount/volume may not be average
+        case _ => (open + high + low + close) / 4
+      }
+    } else {
+      (open + high + low + close) / 4
+    }
+  }
+
   def importFrom(vmap: collection.Map[String, Array[_]]): Array[Quote] = {
     if (vmap.isEmpty) return Array()
     
@@ -48,6 +48,7 @@ import org.aiotrade.lib.securities.PersistenceManager
 import org.aiotrade.lib.securities.PriceDistributionSer
 import org.aiotrade.lib.securities.QuoteSer
 import org.aiotrade.lib.securities.QuoteSerCombiner
+import org.aiotrade.lib.securities.data.QuoteStore
 import org.aiotrade.lib.securities.dataserver.MoneyFlowContract
 import org.aiotrade.lib.securities.dataserver.PriceDistributionContract
 import org.aiotrade.lib.securities.dataserver.QuoteContract
@@ -465,15 +466,20 @@ class Sec extends SerProvider with CRCLongId with Ordered[Sec] {
 
     } else {
 
-      ser.freq match {
-        case TFreq.ONE_MIN => Quotes1m.quotesOf(this)
-        case TFreq.DAILY   => Quotes1d.quotesOf(this)
+      val quotesTable = ser.freq match {
+        case TFreq.ONE_MIN => Quotes1m
+        case TFreq.DAILY   => Quotes1d
         case _ => return 0L
       }
+      
+      QuoteStore(this, ser.freq) match {
+        case Some(store) => return loadSerFromStore(ser, store, quotesTable)
+        case None => quotesTable.quotesOf(this)
+      }
 
     }
 
-    ser ++= quotes.toArray
+    ser.loadAll(quotes.toArray)
 
     /**
      * get the newest time which DataServer will load quotes after this time
@@ -486,8 +492,6 @@ class Sec extends SerProvider with CRCLongId with Ordered[Sec] {
       else
         (quotes.last, quotes.head, false)
 
-      ser.publish(TSerEvent.Refresh(ser, uniSymbol, first.time, last.time))
-
       // should load earlier quotes from data source? first.fromMe_? may means never load from data server
       val wantTime = if (first.fromMe_?) 0 else {
         // search the lastFromMe one, if exist, should re-load quotes from data source to override them
@@ -514,6 +518,59 @@ class Sec extends SerProvider with CRCLongId with Ordered[Sec] {
     }
   }
 
+  /**
+   * Load ser from local columnar store, which is synced with the quotes in db
+   * after its lastTime first. Only closed quotes are kept in store.
+   * 
+   * @return the time that DataServer will load quotes after
+   */
+  private def loadSerFromStore(ser: QuoteSer, store: QuoteStore, quotesTable: Quotes): Long = {
+    try {
+      val t0 = System.currentTimeMillis
+      // last verifyRows rows are synced again, so quotes corrected in db are rewritten
+      val quotes = if (store.isEmpty || store.size <= QuoteStore.verifyRows) {
+        quotesTable.quotesOf(this) 
+      } else {
+        quotesTable.quotesAfter(this, store.time(store.size - QuoteStore.verifyRows) - 1)
+      }
+      val (closedQuotes, unclosedQuotes) = quotes partition (_.closed_?)
+      store.sync(closedQuotes)
+      store.flush
+
+      val n = ser.loadFrom(store)
+      val lastTime = store.lastTime
+      val unclosed = (unclosedQuotes filter (_.time > lastTime) sortWith (_.time < _.time)).toArray
+      if (unclosed.length > 0) {
+        ser.loadAll(unclosed)
+      }
+
+      // rows of store are followed by unclosed quotes, which are all after store's lastTime
+      val nRows = store.size
+      val nAll = nRows + unclosed.length
+      def timeAt(i: Int) = if (i < nRows) store.time(i) else unclosed(i - nRows).time
+      def isFromMeAt(i: Int) = if (i < nRows) (store.flag(i) & Flag.MaskFromMe) == Flag.MaskFromMe else unclosed(i - nRows).fromMe_?
+
+      // same as loadSerFromPersistence: should load earlier quotes from data source? first.fromMe_? may means never load from data server
+      val wantTime = if (nAll == 0 || isFromMeAt(0)) 0L else {
+        // search the lastFromMe one, if exist, should re-load quotes from data source to override them
+        var lastFromMe = -1
+        var i = 0
+        while (i < nAll && isFromMeAt(i)) {
+          lastFromMe = i
+          i += 1
+        }
+
+        if (lastFromMe >= 0) timeAt(lastFromMe) - 1 else timeAt(nAll - 1)
+      }
+
+      log.info(uniSymbol + "(" + ser.freq + "): loaded from store in " + (System.currentTimeMillis - t0) + "ms, rows=" + n + 
+               ", synced from db=" + quotes.length + ", ser size=" + ser.size + ", will try to load from data source from: " + wantTime)
+      wantTime
+    } finally {
+      store.close
+    }
+  }
+
   def loadInfoPointSer(ser : InfoPointSer) : Boolean = synchronized {
     //after resolve orm problem
     val wantTime = loadInfoPointSerFromPersistence(ser)
@@ -966,10 +1023,9 @@ class SecSnap(val sec: Sec) {
   var dayMoneyFlow: MoneyFlow = _
   var minMoneyFlow: MoneyFlow = _
 
-  var priceCollection = new PriceCollection
+  var priceCollection = new PriceCollection(PriceLadder.tickSizeOf(sec))
 
-  // it's not thread safe, but we know it won't be accessed parallel, @see sequenced accessing in setByTicker(ticker)
-  private val cal = Calendar.getInstance(sec.exchange.timeZone) 
+  private val tcal = sec.exchange.tcalendar
 
   final def setByTicker(ticker: Ticker): SecSnap = {
     newTicker = ticker
@@ -986,7 +1042,7 @@ class SecSnap(val sec: Sec) {
 
   private def checkDayQuoteAt(time: Long): Quote = {
     assert(Secs.idOf(sec).isDefined, "Sec: " + sec + " is transient")
-    val rounded = TFreq.DAILY.round(time, cal)
+    val rounded = TFreq.DAILY.bucketOf(time, tcal)
     dayQuote match {
       case oldone: Quote if oldone.time == rounded =>
         oldone.lastModify = time
@@ -1011,7 +1067,7 @@ class SecSnap(val sec: Sec) {
 
   private def checkDayMoneyFlowAt(time: Long): MoneyFlow = {
     assert(Secs.idOf(sec).isDefined, "Sec: " + sec + " is transient")
-    val rounded = TFreq.DAILY.round(time, cal)
+    val rounded = TFreq.DAILY.bucketOf(time, tcal)
     dayMoneyFlow match {
       case oldone: MoneyFlow if oldone.time == rounded =>
         oldone
@@ -1033,11 +1089,11 @@ class SecSnap(val sec: Sec) {
 
   private def checkPriceDistributionAt(time: Long): PriceCollection  = {
     assert(Secs.idOf(sec).isDefined, "Sec: " + sec + " is transient")
-    val rounded = TFreq.DAILY.round(time, cal)
+    val rounded = TFreq.DAILY.bucketOf(time, tcal)
     priceCollection match {
       case oldOne: PriceCollection if oldOne.time == rounded => oldOne
       case _ =>
-        val newone = new PriceCollection
+        val newone = new PriceCollection(PriceLadder.tickSizeOf(sec))
         newone.time = rounded
         newone.sec = sec
         newone.unclosed_!
@@ -1052,7 +1108,7 @@ class SecSnap(val sec: Sec) {
   }
 
   private def checkMinQuoteAt(time: Long): Quote = {
-    val rounded = TFreq.ONE_MIN.round(time, cal)
+    val rounded = TFreq.ONE_MIN.bucketOf(time, tcal)
     minQuote match {
       case oldone: Quote if oldone.time == rounded =>
         oldone.lastModify = time
@@ -1075,7 +1131,7 @@ class SecSnap(val sec: Sec) {
   }
 
   private def checkMinMoneyFlowAt(time: Long): MoneyFlow = {
-    val rounded = TFreq.ONE_MIN.round(time, cal)
+    val rounded = TFreq.ONE_MIN.bucketOf(time, tcal)
     minMoneyFlow match {
       case oldone: MoneyFlow if oldone.time == rounded =>
         oldone
@@ -1098,7 +1154,7 @@ class SecSnap(val sec: Sec) {
    * @return lastTicker of this day
    */
   private def checkLastTickerAt(time: Long): Ticker = {
-    val rounded = TFreq.DAILY.round(time, cal)
+    val rounded = TFreq.DAILY.bucketOf(time, tcal)
     lastTicker match {
       case oldone: Ticker if oldone.time >= rounded && oldone.time < rounded + ONE_DAY =>
         newTicker.isDayFirst = false
@@ -86,6 +86,20 @@ final class SecDividend extends BelongsToSec  {
     if (p != price) p else (if (adjWeight != 0) (price - adjOffset) / adjWeight else price)
   }
   
+  /**
+   * @return (a, b) that adjust(price) == a * price + b, with the same branches 
+   *         as adjust: accurate params if they change price, else adjWeight/adjOffset
+   */
+  final def adjustCoefficients: (Double, Double) = {
+    if (cashAfterward != 0 || shareAfterward != 1) {
+      (1.0 / shareAfterward, -cashAfterward / shareAfterward)
+    } else if (adjWeight != 0) {
+      (1.0 / adjWeight, -adjOffset / adjWeight)
+    } else {
+      (1.0, 0.0)
+    }
+  }
+  
   final def unadjust(price: Double) = {
     val p = accurateUnadjust(price)
     if (p != price) p else (if (adjWeight != 0) price * adjWeight + adjOffset else price)
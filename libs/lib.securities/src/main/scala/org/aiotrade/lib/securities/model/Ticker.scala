@@ -430,7 +430,7 @@ object Tickers extends TickersTable {
 
 object TickersLast extends TickersTable {
 
-  private[model] def lastTickersOf(exchange: Exchange): mutable.Map[Sec, Ticker] = {
+  private[securities] def lastTickersOf(exchange: Exchange): mutable.Map[Sec, Ticker] = {
     Exchange.uniSymbolToSec // force all secs and secInfos loaded
 
     val start = System.currentTimeMillis
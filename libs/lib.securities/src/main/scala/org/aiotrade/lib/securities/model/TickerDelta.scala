@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities.model
+
+/**
+ * Changed fields of a ticker against the version that was last sent to consumers.
+ * 
+ * mask bit 0-7 : LightTicker's data fields, whose values are in 'values' in order
+ * mask bit 8   : bidAsks
+ * mask bit 9   : name
+ * 
+ * @author Caoyuan Deng
+ */
+final class TickerDelta {
+  var uniSymbol: String = ""
+  var time: Long = _
+  var isDayFirst: Boolean = _
+  var mask: Int = _
+  var values: Array[Double] = Array()
+  var bidAsks: Array[Double] = Array()
+  var name: String = ""
+  
+  def isEmpty = mask == 0
+  
+  /**
+   * Apply this delta to ticker, which should be the consumer's copy of last version
+   */
+  def applyTo(ticker: Ticker): Ticker = {
+    import TickerDelta._
+    
+    val (_, prevData, prevBidAsks) = ticker.exportTo
+    val data = new Array[Double](LightTicker.FIELD_LENGTH)
+    System.arraycopy(prevData, 0, data, 0, math.min(prevData.length, data.length))
+    var k = 0
+    var i = -1
+    while ({i += 1; i < LightTicker.FIELD_LENGTH}) {
+      if ((mask & (1 << i)) != 0) {
+        data(i) = values(k)
+        k += 1
+      }
+    }
+    
+    ticker.importFrom((time, data, if ((mask & BID_ASKS) != 0) bidAsks.clone else prevBidAsks))
+    if ((mask & NAME) != 0) {
+      ticker.name = name
+    }
+    ticker.uniSymbol = uniSymbol
+    ticker.isDayFirst = isDayFirst
+    ticker
+  }
+  
+  override def toString = {
+    "TickerDelta(" + uniSymbol + ", time=" + time + ", mask=" + Integer.toBinaryString(mask) + ", values=" + values.mkString("[", ",", "]") + ")"
+  }
+}
+
+object TickerDelta {
+  val BID_ASKS = 1 << LightTicker.FIELD_LENGTH
+  val NAME     = BID_ASKS << 1
+  val ALL      = (NAME << 1) - 1
+  
+  /**
+   * @param prev last sent version, or null to get a full one
+   */
+  def diff(prev: Ticker, ticker: Ticker): TickerDelta = {
+    val delta = new TickerDelta
+    delta.uniSymbol = ticker.uniSymbol
+    delta.time = ticker.time
+    delta.isDayFirst = ticker.isDayFirst
+    
+    val (_, data, bidAsks) = ticker.exportTo
+    val values = new Array[Double](LightTicker.FIELD_LENGTH)
+    var mask = 0
+    var k = 0
+    if (prev == null) {
+      System.arraycopy(data, 0, values, 0, values.length)
+      k = values.length
+      mask = ALL
+    } else {
+      val (_, prevData, prevBidAsks) = prev.exportTo
+      var i = -1
+      while ({i += 1; i < LightTicker.FIELD_LENGTH}) {
+        if (isChanged(prevData(i), data(i))) {
+          values(k) = data(i)
+          k += 1
+          mask |= 1 << i
+        }
+      }
+      if (!java.util.Arrays.equals(bidAsks, prevBidAsks)) {
+        mask |= BID_ASKS
+      }
+      if (ticker.name != prev.name) {
+        mask |= NAME
+      }
+    }
+    
+    delta.mask = mask
+    delta.values = if (k == values.length) values else java.util.Arrays.copyOf(values, k)
+    if ((mask & BID_ASKS) != 0) {
+      delta.bidAsks = bidAsks.clone
+    }
+    if ((mask & NAME) != 0) {
+      delta.name = ticker.name
+    }
+    delta
+  }
+
+  /** NaN (Null) fields are unchanged if they were NaN too */
+  private def isChanged(prev: Double, value: Double) = {
+    prev != value && !(java.lang.Double.isNaN(prev) && java.lang.Double.isNaN(value))
+  }
+}
+
+/**
+ * A batch of ticker deltas.
+ * 
+ * @param seq sequence number of this batch in the stream, consumers can detect
+ *        gaps by it and wait for next snapshot
+ * @param isSnapshot if true, the deltas are full tickers of all secs, consumers 
+ *        should reset their states by it
+ */
+final class TickerDeltas(var seq: Long, var isSnapshot: Boolean, var deltas: Array[TickerDelta]) {
+  def this() = this(0, false, Array())
+  
+  override def toString = {
+    "TickerDeltas(seq=" + seq + ", isSnapshot=" + isSnapshot + ", size=" + deltas.length + ")"
+  }
+}
@@ -146,36 +146,20 @@ package object securities {
   }
   
   def doAdjusting(sec: Sec, quotes: Array[Quote]) {
-    val divs = Exchanges.dividendsOf(sec)
-    if (divs.isEmpty) {
+    val factors = Exchanges.adjustFactorsOf(sec)
+    if (factors.isEmpty) {
       return
     }
     
     var i = 0
     while (i < quotes.length) {
       val quote = quotes(i)
-      val time = quote.time
-
-      var h = quote.high
-      var l = quote.low
-      var o = quote.open
-      var c = quote.close
-
-      val divItr = divs.iterator
-      while (divItr.hasNext) {
-        val div = divItr.next
-        if (time < div.dividendDate) {
-          h = div.adjust(h)
-          l = div.adjust(l)
-          o = div.adjust(o)
-          c = div.adjust(c)
-        }
-      }
-      
-      quote.high  = h
-      quote.low   = l
-      quote.open  = o
-      quote.close = c
+      val k = factors.indexOf(quote.time)
+
+      quote.high  = factors.adjust(quote.high,  k)
+      quote.low   = factors.adjust(quote.low,   k)
+      quote.open  = factors.adjust(quote.open,  k)
+      quote.close = factors.adjust(quote.close, k)
       
       i += 1
     }
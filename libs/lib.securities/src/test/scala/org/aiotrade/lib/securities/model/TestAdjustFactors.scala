@@ -0,0 +1,89 @@
+package org.aiotrade.lib.securities.model
+
+import junit.framework.TestCase
+import junit.framework.Assert._
+
+class TestAdjustFactors extends TestCase {
+
+  private val Day = 24 * 60 * 60 * 1000L
+  private val t0 = 1262304000000L // 2010-01-01
+
+  private def dividend(day: Int, cashBonus: Double = 0, shareBonus: Double = 0, shareRight: Double = 0, shareRightPrice: Double = 0) = {
+    val div = new SecDividend
+    div.dividendDate = t0 + day * Day
+    div.cashBonus = cashBonus
+    div.shareBonus = shareBonus
+    div.shareRight = shareRight
+    div.shareRightPrice = shareRightPrice
+    div
+  }
+
+  /** legacy record without accurate params, only adjust params got from adjusted prices */
+  private def legacyDividend(day: Int, p1: Double, p1Adj: Double, p2: Double, p2Adj: Double) = {
+    val div = dividend(day)
+    div.setAdjParams(p1, p1Adj, p2, p2Adj)
+    div
+  }
+
+  private val divs = List(
+    dividend(10, cashBonus = 0.25),                                    // cash only
+    legacyDividend(50, 12.0, 11.5, 8.0, 7.6),                          // adjWeight/adjOffset only
+    dividend(120, shareBonus = 0.3),                                   // bonus share only
+    dividend(200, cashBonus = 0.1, shareBonus = 0.2),                  // cash and bonus share
+    dividend(300, shareRight = 0.3, shareRightPrice = 4.5),            // allotment
+    dividend(300, cashBonus = 0.05, shareRight = 0.1, shareRightPrice = 6.0), // two at same day
+    dividend(420)                                                      // nothing, keeps price
+  )
+
+  private def adjustByLoop(price: Double, time: Long): Double = {
+    var p = price
+    for (div <- divs if div.dividendDate > time) {
+      p = div.adjust(p)
+    }
+    p
+  }
+
+  private def unadjustByLoop(price: Double, time: Long): Double = {
+    var p = price
+    for (div <- divs.reverse if div.dividendDate > time) {
+      p = div.unadjust(p)
+    }
+    p
+  }
+
+  def testCoefficientsAsAdjust() {
+    for (div <- divs; price <- List(0.5, 3.21, 10.0, 57.8)) {
+      val (a, b) = div.adjustCoefficients
+      assertEquals(div.adjust(price), a * price + b, 1e-9)
+    }
+  }
+
+  def testCompositeAsLoopOfAdjust() {
+    val factors = new AdjustFactors(divs)
+    assertEquals(divs.length, factors.size)
+    for (day <- List(-5, 0, 10, 11, 49, 50, 100, 200, 299, 300, 301, 419, 420, 500); price <- List(3.21, 10.0, 57.8)) {
+      val time = t0 + day * Day
+      val msg = "day " + day + ", price " + price
+      assertEquals(msg, adjustByLoop(price, time), factors.adjustAt(price, time), 1e-9)
+      assertEquals(msg, unadjustByLoop(price, time), factors.unadjustAt(price, time), 1e-9)
+    }
+  }
+
+  def testAdvanceAsIndexOf() {
+    val factors = new AdjustFactors(divs)
+    var k = 0
+    for (day <- -5 to 500) {
+      val time = t0 + day * Day
+      k = factors.advance(k, time)
+      assertEquals(factors.indexOf(time), k)
+      if (k < factors.size) {
+        assertTrue(factors.dividends(k).dividendDate > time)
+      }
+    }
+  }
+
+  def testEmpty() {
+    assertTrue(AdjustFactors.Empty.isEmpty)
+    assertEquals(10.0, AdjustFactors.Empty.adjustAt(10.0, t0), 0.0)
+  }
+}
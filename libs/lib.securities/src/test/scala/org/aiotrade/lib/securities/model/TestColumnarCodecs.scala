@@ -0,0 +1,243 @@
+package org.aiotrade.lib.securities.model
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import junit.framework.TestCase
+import junit.framework.Assert._
+import org.aiotrade.lib.avro.Evt
+import org.aiotrade.lib.avro.EvtCodec
+import org.aiotrade.lib.avro.ReflectDatumReader
+import org.aiotrade.lib.avro.ReflectDatumWriter
+import org.aiotrade.lib.securities.api
+import org.apache.avro.io.DecoderFactory
+import org.apache.avro.io.EncoderFactory
+import scala.collection.mutable
+
+/**
+ * Values decoded from columnar codecs should be same as the original ones, and
+ * as those decoded from the schema based reflect encoding.
+ */
+class TestColumnarCodecs extends TestCase {
+
+  private val t0 = 1262304000000L // 2010-01-01
+  private val uniSymbol = "600000.SS"
+
+  /** encode and decode by evt's schema, as Evt.toAvro/fromAvro do when codecs are disabled */
+  private def viaReflect[T](evt: Evt[T], value: T): T = {
+    val out = new ByteArrayOutputStream
+    val encoder = EncoderFactory.get.binaryEncoder(out, null)
+    ReflectDatumWriter[T](evt.schema).write(evt.codec.toReflect(value), encoder)
+    encoder.flush
+
+    val bytes = out.toByteArray
+    assertFalse(EvtCodec.isEncodedBy(bytes))
+    val decoder = DecoderFactory.get.binaryDecoder(new ByteArrayInputStream(bytes), null)
+    evt.codec.fromReflect(ReflectDatumReader[T](evt.schema).read(null.asInstanceOf[T], decoder))
+  }
+
+  private def viaColumnar[T](evt: Evt[T], value: T): T = {
+    val bytes = evt.codec.encode(value)
+    assertTrue(EvtCodec.isEncodedBy(bytes))
+    evt.codec.decode(bytes)
+  }
+
+  /** NaN equals NaN */
+  private def assertSameValue(msg: String, expected: Double, actual: Double) {
+    assertTrue(msg + ": expected " + expected + ", got " + actual, java.lang.Double.compare(expected, actual) == 0)
+  }
+
+  private def assertSameValue(msg: String, expected: Array[Double], actual: Array[Double]) {
+    assertEquals(msg + " length", expected.length, actual.length)
+    var i = 0
+    while (i < expected.length) {
+      assertSameValue(msg + "(" + i + ")", expected(i), actual(i))
+      i += 1
+    }
+  }
+
+  // --- tickers
+
+  private def ticker(i: Int, data: Array[Double], bidAsks: Array[Double]) = {
+    val ticker = new Ticker
+    ticker.uniSymbol = uniSymbol
+    ticker.name = "ticker" + i
+    ticker.isDayFirst = i == 0
+    ticker.importFrom((t0 + i * 3000L, data, bidAsks))
+    ticker
+  }
+
+  private def tickers = Array(
+    ticker(0, Array(10.0, 10.05, 10.0, 10.1, 9.95, 12345, 123456.78, 0.5), Array(10.04, 100, 10.05, 200, 10.03, 300, 10.06, 400)),
+    ticker(1, Array(10.0, 10.123456789, 10.0, 10.2, 9.9, 20000, 1.0 / 3, -1.5), Array(10.1, 100, 10.2, 200)),
+    ticker(2, Array(10.0, Double.NaN, 10.0, 10.2, 9.9, Double.NaN, 0, 0), Array(Double.NaN, 100, 10.2, Double.NaN)),
+    ticker(3, Array(10.0, 10.1, 10.0, 10.2, 9.9, 30000, 0, 0), Array())
+  )
+
+  private def assertTickers(expected: Array[Ticker], actual: Array[Ticker]) {
+    assertEquals(expected.length, actual.length)
+    for (i <- 0 until expected.length) {
+      val (x, y) = (expected(i), actual(i))
+      val msg = "ticker " + i
+      assertEquals(msg, x.uniSymbol, y.uniSymbol)
+      assertEquals(msg, x.name, y.name)
+      assertEquals(msg, x.isDayFirst, y.isDayFirst)
+      val (xTime, xData, xBidAsks) = x.exportTo
+      val (yTime, yData, yBidAsks) = y.exportTo
+      assertEquals(msg, xTime, yTime)
+      assertSameValue(msg + " data", xData, yData)
+      assertSameValue(msg + " bidAsks", xBidAsks, yBidAsks)
+    }
+  }
+
+  def testTickers() {
+    for (xs <- List(tickers, Array[Ticker]())) {
+      val columnar = viaColumnar(api.TickersEvt, xs)
+      assertTickers(xs, columnar)
+      assertTickers(viaReflect(api.TickersEvt, xs), columnar)
+    }
+  }
+
+  // --- quotes
+
+  private def quote(i: Int, data: Array[Double]) = {
+    val quote = new Quote
+    quote.uniSymbol = uniSymbol
+    quote.time = t0 + i * 60000L
+    quote.lastModify = quote.time + 1234
+    quote.flag = if (i % 2 == 0) 1 else 0
+    quote.hasGaps = i == 1
+    System.arraycopy(data, 0, quote.data, 0, data.length)
+    quote
+  }
+
+  private def quotes = Array(
+    quote(0, Array(10.0, 10.2, 9.9, 10.1, 12345, 124567.89, 10.05, 10.0, 33, 0.012)),
+    quote(1, Array(10.1, 10.123456789, 9.9, 10.1, 20000, 1.0 / 3, 10.05, 10.1, 40, 0.02)),
+    quote(2, Array(Double.NaN, 10.2, 9.9, Double.NaN, 0, 0, Double.NaN, 10.1, 0, Double.NaN)),
+    quote(5, Array(-0.0, 1e300, Double.MinPositiveValue, 10.1, 1, 2, 3, 4, 5, 6))
+  )
+
+  private def assertQuotes(expected: (String, Array[Quote]), actual: (String, Array[Quote])) {
+    assertEquals(expected._1, actual._1)
+    assertEquals(expected._2.length, actual._2.length)
+    for (i <- 0 until expected._2.length) {
+      val (x, y) = (expected._2(i), actual._2(i))
+      val msg = "quote " + i
+      assertEquals(msg, x.uniSymbol, y.uniSymbol)
+      assertEquals(msg, x.time, y.time)
+      assertEquals(msg, x.lastModify, y.lastModify)
+      assertEquals(msg, x.flag, y.flag)
+      assertEquals(msg, x.hasGaps, y.hasGaps)
+      assertSameValue(msg + " data", x.data, y.data)
+    }
+  }
+
+  def testQuotes() {
+    for (xs <- List(("1m", quotes), ("1d", Array[Quote]()))) {
+      val columnar = viaColumnar(api.QuotesEvt, xs)
+      assertQuotes(xs, columnar)
+      assertQuotes(viaReflect(api.QuotesEvt, xs), columnar)
+    }
+  }
+
+  // --- moneyflows
+
+  private def moneyFlow(i: Int, nans: Set[Int]) = {
+    val mf = new MoneyFlow
+    mf.uniSymbol = uniSymbol
+    mf.time = t0 + i * 60000L
+    mf.lastModify = mf.time
+    mf.flag = 1
+    for (j <- 0 until mf.data.length) {
+      mf.data(j) = if (nans.contains(j)) Double.NaN else (i + 1) * (j + 0.25) * (if (j % 3 == 0) -1 else 1)
+    }
+    mf
+  }
+
+  private def moneyFlows = Array(moneyFlow(0, Set()), moneyFlow(1, Set(0, 7, 29)), moneyFlow(3, Set()))
+
+  private def assertMoneyFlows(expected: (String, Array[MoneyFlow]), actual: (String, Array[MoneyFlow])) {
+    assertEquals(expected._1, actual._1)
+    assertEquals(expected._2.length, actual._2.length)
+    for (i <- 0 until expected._2.length) {
+      val (x, y) = (expected._2(i), actual._2(i))
+      val msg = "moneyflow " + i
+      assertEquals(msg, x.uniSymbol, y.uniSymbol)
+      assertEquals(msg, x.time, y.time)
+      assertEquals(msg, x.lastModify, y.lastModify)
+      assertEquals(msg, x.flag, y.flag)
+      assertSameValue(msg + " data", x.data, y.data)
+    }
+  }
+
+  def testMoneyFlows() {
+    for (xs <- List(("1m", moneyFlows), ("1d", Array[MoneyFlow]()))) {
+      val columnar = viaColumnar(api.MoneyFlowsEvt, xs)
+      assertMoneyFlows(xs, columnar)
+      assertMoneyFlows(viaReflect(api.MoneyFlowsEvt, xs), columnar)
+    }
+  }
+
+  // --- price collections
+
+  /** NaN prices are ignored by ladder, so are not here */
+  private def priceCollection(i: Int, levels: List[(Double, Double, Double, Double)]) = {
+    // reflect one restores tickSize from uniSymbol
+    val pc = new PriceCollection(PriceLadder.tickSizeOf(uniSymbol))
+    pc.uniSymbol = uniSymbol
+    pc.time = t0 + i * 86400000L
+    pc.flag = 1
+    for ((price, volumeUp, volumeDown, volumeEven) <- levels) {
+      pc.add(price, volumeUp, volumeDown, volumeEven)
+    }
+    pc
+  }
+
+  private def priceCollections = Array(
+    priceCollection(0, List((10.0, 100.0, 0.0, 0.0), (10.01, 0.0, 200.0, 0.0), (9.5, 1.0, 2.0, 3.0), (0.0, 5.0, 0.0, 0.0), (1e6, 0.0, 0.0, 7.0))),
+    priceCollection(1, Nil),
+    priceCollection(2, List((10.0, 1.0 / 3, 0.0, 0.0)))
+  )
+
+  private def levelsOf(pc: PriceCollection) = {
+    val levels = new mutable.ArrayBuffer[(Double, Double, Double, Double)]
+    pc.ladder foreach {(price, volumeUp, volumeDown, volumeEven) => levels += ((price, volumeUp, volumeDown, volumeEven))}
+    levels
+  }
+
+  private def assertPriceCollections(expected: Array[PriceCollection], actual: Array[PriceCollection]) {
+    assertEquals(expected.length, actual.length)
+    for (i <- 0 until expected.length) {
+      val (x, y) = (expected(i), actual(i))
+      val msg = "price collection " + i
+      assertEquals(msg, x.uniSymbol, y.uniSymbol)
+      assertEquals(msg, x.time, y.time)
+      assertEquals(msg, x.flag, y.flag)
+      assertSameValue(msg + " tickSize", x.tickSize, y.tickSize)
+      val (xLevels, yLevels) = (levelsOf(x), levelsOf(y))
+      assertEquals(msg + " levels", xLevels.length, yLevels.length)
+      for (j <- 0 until xLevels.length) {
+        val ((xPrice, xUp, xDown, xEven), (yPrice, yUp, yDown, yEven)) = (xLevels(j), yLevels(j))
+        assertEquals(msg + " price", xPrice, yPrice, x.tickSize / 2)
+        assertSameValue(msg + " volumeUp", xUp, yUp)
+        assertSameValue(msg + " volumeDown", xDown, yDown)
+        assertSameValue(msg + " volumeEven", xEven, yEven)
+      }
+    }
+  }
+
+  def testPriceCollections() {
+    for (xs <- List(priceCollections, Array[PriceCollection]())) {
+      val columnar = viaColumnar(api.PriceDistributionsEvt, xs)
+      assertPriceCollections(xs, columnar)
+      assertPriceCollections(viaReflect(api.PriceDistributionsEvt, xs), columnar)
+    }
+  }
+
+  def testPriceCollection() {
+    val pc = priceCollections(0)
+    val columnar = viaColumnar(api.PriceDistributionEvt, pc)
+    assertPriceCollections(Array(pc), Array(columnar))
+    assertPriceCollections(Array(viaReflect(api.PriceDistributionEvt, pc)), Array(columnar))
+  }
+}
@@ -0,0 +1,110 @@
+package org.aiotrade.lib.securities.model
+
+import junit.framework.TestCase
+import junit.framework.Assert._
+import scala.collection.mutable
+
+class TestPriceLadder extends TestCase {
+
+  private def levelsOf(ladder: PriceLadder) = {
+    val levels = new mutable.ArrayBuffer[(Double, Double, Double, Double)]
+    ladder foreach {(price, volumeUp, volumeDown, volumeEven) => levels += ((price, volumeUp, volumeDown, volumeEven))}
+    levels
+  }
+
+  private def assertAscending(ladder: PriceLadder) {
+    val prices = levelsOf(ladder) map (_._1)
+    assertEquals(ladder.nLevels, prices.length)
+    for (i <- 1 until prices.length) {
+      assertTrue(prices(i - 1) + " < " + prices(i), prices(i - 1) < prices(i))
+    }
+  }
+
+  def testOutlierPrices() {
+    for (tickSize <- List(0.01, 0.001, 0.0001)) {
+      val ladder = new PriceLadder(tickSize)
+      ladder.add(0.0, 1, 0, 0)
+      ladder.add(10.0, 2, 0, 0)
+      ladder.add(1e9, 0, 3, 0)
+      ladder.add(10.5, 0, 0, 4)
+      ladder.add(1e9, 0, 3, 0)
+      ladder.add(0.0, 1, 0, 0)
+      ladder.add(-1.0, 0, 0, 5)
+
+      assertEquals(5, ladder.nLevels)
+      assertEquals(2.0, ladder.volumeUpAt(0.0), 0.0)
+      assertEquals(2.0, ladder.volumeUpAt(10.0), 0.0)
+      assertEquals(6.0, ladder.volumeDownAt(1e9), 0.0)
+      assertEquals(4.0, ladder.volumeEvenAt(10.5), 0.0)
+      assertEquals(5.0, ladder.volumeEvenAt(-1.0), 0.0)
+      assertTrue(ladder.contains(0.0))
+      assertTrue(ladder.contains(1e9))
+      assertFalse(ladder.contains(5e8))
+      assertEquals(19.0, ladder.totalVolume, 0.0)
+      assertAscending(ladder)
+
+      val prices = levelsOf(ladder) map (_._1)
+      assertEquals(List(-1.0, 0.0, 10.0, 10.5, 1e9), prices.toList)
+    }
+  }
+
+  def testZeroPriceFirst() {
+    val ladder = new PriceLadder(0.01)
+    ladder.add(0.0, 1, 0, 0)
+    for (i <- 0 to 200) {
+      ladder.add(9.0 + i * 0.01, 1, 1, 1)
+    }
+    assertEquals(202, ladder.nLevels)
+    assertAscending(ladder)
+  }
+
+  def testSetToEmptyRemovesLevel() {
+    val ladder = new PriceLadder(0.01)
+    ladder.add(10.0, 1, 0, 0)
+    ladder.add(1e9, 1, 0, 0)
+    ladder.set(1e9, 0, 0, 0)
+    ladder.set(10.0, 0, 0, 0)
+    assertEquals(0, ladder.nLevels)
+    assertTrue(ladder.isEmpty)
+    assertFalse(ladder.contains(1e9))
+    assertEquals(0.0, ladder.totalVolume, 0.0)
+  }
+
+  def testNonFinitePricesIgnored() {
+    val ladder = new PriceLadder(0.01)
+    ladder.add(Double.NaN, 1, 0, 0)
+    ladder.add(Double.PositiveInfinity, 1, 0, 0)
+    assertTrue(ladder.isEmpty)
+    assertFalse(ladder.contains(Double.NaN))
+  }
+
+  def testWideSpreadKeepsAllLevels() {
+    val ladder = new PriceLadder(0.0001)
+    // spans far more than dense band
+    for (i <- 0 until 1000) {
+      ladder.add(1.0 + i * 0.37, 1, 0, 0)
+    }
+    ladder.add(0.5, 1, 0, 0)
+    assertEquals(1001, ladder.nLevels)
+    assertEquals(1001.0, ladder.totalVolume, 1e-9)
+    assertAscending(ladder)
+
+    val coarsened = ladder.coarsened(10)
+    assertEquals(10, coarsened(0).length)
+    assertEquals(1001.0, coarsened(1).sum, 1e-9)
+    assertEquals(0.5, coarsened(0)(0), 1e-9)
+  }
+
+  def testMerge() {
+    val a = new PriceLadder(0.01)
+    a.add(10.0, 1, 0, 0)
+    a.add(0.0, 1, 0, 0)
+    val b = new PriceLadder(0.01)
+    b.add(1e9, 0, 1, 0)
+    b.add(10.0, 1, 0, 0)
+    a.merge(b)
+    assertEquals(3, a.nLevels)
+    assertEquals(2.0, a.volumeUpAt(10.0), 0.0)
+    assertAscending(a)
+  }
+}
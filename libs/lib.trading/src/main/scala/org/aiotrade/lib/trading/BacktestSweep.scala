@@ -0,0 +1,98 @@
+package org.aiotrade.lib.trading
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorCompletionService
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.logging.Level
+import java.util.logging.Logger
+import org.aiotrade.lib.math.indicator.Function
+import scala.collection.mutable
+
+/**
+ * Runs backtest rounds of a parameter grid in parallel.
+ * 
+ * The loaded sers are shared read-only by all rounds, each round should create
+ * its own broker, accounts, secPicking and indicators in createService, and its
+ * functions are computed in a function cache private to the worker thread.
+ * 
+ * @Note indicators of all rounds listen to the shared sers, which is safe since
+ * Publisher guards its listeners. The function cache isolation is per worker
+ * thread only, so the sers should not be loaded or updated during a sweep, 
+ * otherwise their events will trigger computings of all rounds in actor threads
+ * with the global function cache.
+ * 
+ * @Note rounds publish their ReportData concurrently. Each Reactor that listens
+ * to params, such as a ChartTab of ChartReport, still reacts to its events one
+ * by one in its own actor, but state that is shared by reactors of several 
+ * params, or touched outside of reactions, must be thread-safe or confined to 
+ * one thread, as ChartReport does by updating charts in FX thread only. 
+ * roundFinished is serialized, it's always called in caller's thread.
+ * 
+ * @param nThreads number of workers, default is number of cores
+ * 
+ * @author Caoyuan Deng
+ */
+class BacktestSweep[P <: Param](nThreads: Int = Runtime.getRuntime.availableProcessors) {
+  private val log = Logger.getLogger(this.getClass.getName)
+
+  /**
+   * @param createService create an isolated trading service for param, will be called in worker thread
+   * @param roundFinished called in caller's thread once a round finished, in finishing order,
+   *        never concurrently, so it needs no synchronization
+   * @return benchmarks of succeeded rounds, in finishing order
+   */
+  def run(params: Seq[P], fromTime: Long, toTime: Long)(createService: P => TradingService)(roundFinished: (P, Benchmark) => Unit): Seq[(P, Benchmark)] = {
+    val executor = Executors.newFixedThreadPool(math.max(1, math.min(nThreads, params.size)), BacktestSweep.threadFactory)
+    val completion = new ExecutorCompletionService[(P, Benchmark)](executor)
+    
+    try {
+      for (param <- params) {
+        completion.submit(new Callable[(P, Benchmark)] {
+            def call = {
+              Function.isolated {
+                val t0 = System.currentTimeMillis
+                val tradingService = createService(param)
+                try {
+                  tradingService.backtest(fromTime, toTime)
+                } finally {
+                  tradingService.release
+                }
+                log.info("Backtest round %s finished in %ss".format(param.shortDescription, (System.currentTimeMillis - t0) / 1000))
+                (param, tradingService.benchmark)
+              }
+            }
+          })
+      }
+
+      val results = new mutable.ArrayBuffer[(P, Benchmark)]()
+      var i = 0
+      while (i < params.size) {
+        try {
+          val result = completion.take.get
+          results += result
+          roundFinished(result._1, result._2)
+        } catch {
+          case ex: InterruptedException => throw ex
+          case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex)
+        }
+        i += 1
+      }
+      results
+    } finally {
+      executor.shutdownNow
+    }
+  }
+}
+
+object BacktestSweep {
+  private val threadFactory = new ThreadFactory {
+    private val count = new AtomicInteger
+    def newThread(r: Runnable) = {
+      val t = new Thread(r, "backtest-" + count.incrementAndGet)
+      t.setDaemon(true)
+      t
+    }
+  }
+}
@@ -235,6 +235,7 @@ class TradingService(val broker: Broker, val accounts: List[Account], val param:
     deafTo(Signal)
     deafTo(referSer)
     deafTo(secPicking)
+    taskScheduler.shutdown
     org.aiotrade.lib.math.indicator.Function.releaseAll
   }  
   
@@ -629,22 +630,25 @@ object TradingService {
     
     val (secs, referSer) = init
     
-    val secPicking = new SecPicking()
-    secPicking ++= secs map (ValidTime(_, 0, 0))
-    
-    for {
+    val params = for {
       fasterPeriod <- List(5, 8, 12)
       slowPeriod <- List(26, 30, 55) if slowPeriod > fasterPeriod
       signalPeriod <- List(5, 9)
-      param = TestParam(fasterPeriod, slowPeriod, signalPeriod)
-    } {
+    } yield TestParam(fasterPeriod, slowPeriod, signalPeriod)
+    
+    // each round runs in its own worker with its own broker, account, secPicking and indicators, 
+    // only the loaded sers are shared
+    def createTradingService(param: TestParam) = {
       val broker = new PaperBroker("Backtest")
       val tradingRule = new TradingRule()
       val account = new StockAccount("Backtest", 10000000.0, tradingRule)
     
-      val indTemplate = createIndicator(classOf[MACDSignal], Array(fasterPeriod, slowPeriod, signalPeriod))
+      val secPicking = new SecPicking()
+      secPicking ++= secs map (ValidTime(_, 0, 0))
+
+      val indTemplate = createIndicator(classOf[MACDSignal], Array(param.faster, param.slow, param.signal))
     
-      val tradingService = new TradingService(broker, List(account), param, referSer, secPicking, indTemplate) {
+      new TradingService(broker, List(account), param, referSer, secPicking, indTemplate) {
         override 
         def atClose(idx: Int) {
           val triggers = scanTriggers(idx)
@@ -667,18 +671,22 @@ object TradingService {
           }
         }
       }
+    }
     
-      chartReport.roundStarted(List(param))
-      tradingService.backtest(fromTime, toTime)
-      tradingService.release
-      chartReport.roundFinished
-      System.gc
+    chartReport.roundStarted(params)
+    new BacktestSweep[TestParam]().run(params, fromTime, toTime)(createTradingService){(param, benchmark) =>
+      println("Round " + param.shortDescription + " finished:\n" + benchmark.report)
     }
+    chartReport.roundFinished
     
     println("Done!")
   }
 }
 
+/**
+ * Publishes ReportData of its round, in the round's thread. 
+ * @see BacktestSweep about listeners of params of parallel rounds
+ */
 trait Param extends Publisher {
   /** Used in the image title */
   def titleDescription: String = toString
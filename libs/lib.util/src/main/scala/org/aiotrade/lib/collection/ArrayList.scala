@@ -361,6 +361,15 @@ abstract class AbstractArrayList[A](
     res
   }
 
+  /**
+   * The backing array, only elements in [0, size) are valid.
+   *
+   * It's for hot loops on primitive typed elements, where the caller knows A,
+   * ie. ArrayList[Double], so array(i) will be a primitive access without boxing.
+   * @Note Don't hold it, it will be replaced by a new one when this list grows.
+   */
+  def underlyingArray: Array[A] = array
+
   // --- overrided methods for performance
 
   override 
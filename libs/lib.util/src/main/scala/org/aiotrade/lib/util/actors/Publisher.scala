@@ -1,6 +1,7 @@
 package org.aiotrade.lib.util.actors
 
 import scala.collection.mutable
+import scala.ref.Reference
 
 
 /** <p>
@@ -19,24 +20,52 @@ import scala.collection.mutable
  */
 trait Publisher extends Reactor {
   
+  private val listenerRefs = new mutable.HashSet[Reference[Reactor]]
+  /** copy of listenerRefs, replaced on each subscribe/unsubscribe, so publish iterates it without locking */
+  @volatile private var listenerRefsSnapshot: List[Reference[Reactor]] = Nil
+  
   final val listeners = new RefSet[Reactor] {
     import Reactions._
     import scala.ref._
-    val underlying = new mutable.HashSet[Reference[Reactor]]
+    val underlying = listenerRefs
     protected def Ref(a: Reactor) = a match {
       case a: StronglyReferenced => new StrongReference[Reactor](a) with super.Ref[Reactor]
       case _ => new WeakReference[Reactor](a, referenceQueue) with super.Ref[Reactor]
     }
   }
   
-  private[actors] def subscribe(listener: Reactor)   { listeners += listener }
-  private[actors] def unsubscribe(listener: Reactor) { listeners -= listener }
+  /**
+   * @Note subscribing is guarded by listeners, so reactors of different threads 
+   * may listen to a shared publisher, such as parallel backtest rounds on same sers.
+   */
+  private[actors] def subscribe(listener: Reactor) { 
+    listeners synchronized {
+      listeners += listener
+      listenerRefsSnapshot = listenerRefs.toList
+    } 
+  }
+  
+  private[actors] def unsubscribe(listener: Reactor) { 
+    listeners synchronized {
+      listeners -= listener
+      listenerRefsSnapshot = listenerRefs.toList
+    } 
+  }
   
   /**
-   * Notify all registered reactions.
+   * Notify all registered reactions. References are snapshotted, so reactors 
+   * are still weakly referenced, a collected one is skipped here and purged on
+   * next subscribe/unsubscribe.
    */
   def publish(e: Any) { 
-    for (l <- listeners) l.underlying ! e 
+    var refs = listenerRefsSnapshot
+    while (!refs.isEmpty) {
+      refs.head.get match {
+        case Some(l) => l.underlying ! e
+        case None =>
+      }
+      refs = refs.tail
+    }
   }
 
   listenTo(this)
@@ -53,13 +82,13 @@ private[actors] trait LazyPublisher extends Publisher {
   protected def onLastUnsubscribe()
   
   override 
-  def subscribe(listener: Reactor) {
+  def subscribe(listener: Reactor) = listeners synchronized {
     if (listeners.size == 1) onFirstSubscribe()
     super.subscribe(listener) 
   }
   
   override 
-  def unsubscribe(listener: Reactor) {
+  def unsubscribe(listener: Reactor) = listeners synchronized {
     super.unsubscribe(listener) 
     if (listeners.size == 1) onLastUnsubscribe()
   }
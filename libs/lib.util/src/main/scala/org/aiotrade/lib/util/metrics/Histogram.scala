@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2006-2011, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.util.metrics
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * JMX view of Histogram
+ */
+trait HistogramMBean {
+  def getCount: Long
+  def getMean: Double
+  def getMax: Long
+  def get50thPercentile: Long
+  def get90thPercentile: Long
+  def get99thPercentile: Long
+  def get999thPercentile: Long
+  def reset()
+}
+
+/**
+ * A lock free, fixed memory histogram of non-negative long values, such as
+ * latencies or batch sizes.
+ * 
+ * Values are counted in HDR-style log-linear buckets: values under SUB_COUNT
+ * are exact, others are bucketed in SUB_COUNT linear sub-buckets of each power
+ * of 2 range, so the relative error of percentiles is under 1/SUB_COUNT.
+ * 
+ * @author Caoyuan Deng
+ */
+final class Histogram(val name: String) extends Metric with HistogramMBean {
+  import Histogram._
+  
+  private val counts = new AtomicLongArray(N_BUCKETS)
+  private val _count = new AtomicLong
+  private val _sum = new AtomicLong
+  private val _max = new AtomicLong
+  
+  def record(value: Long) {
+    val v = math.max(0L, value)
+    counts.incrementAndGet(indexOf(v))
+    _count.incrementAndGet
+    _sum.addAndGet(v)
+    var max = _max.get
+    while (v > max && !_max.compareAndSet(max, v)) {
+      max = _max.get
+    }
+  }
+  
+  /**
+   * Record the elapsed milliseconds of body
+   */
+  def time[T](body: => T): T = {
+    val t0 = System.currentTimeMillis
+    try {
+      body
+    } finally {
+      record(System.currentTimeMillis - t0)
+    }
+  }
+  
+  def count: Long = _count.get
+  def max: Long = _max.get
+  def mean: Double = {
+    val n = count
+    if (n > 0) _sum.get.toDouble / n else 0.0
+  }
+  
+  /**
+   * @param p percentile in [0, 100]
+   * @return the upper bound of bucket where p percentile falls in, 0 if empty
+   */
+  def percentile(p: Double): Long = {
+    val n = count
+    if (n == 0) return 0
+    
+    val rank = math.max(1L, math.ceil(n * p / 100.0).toLong)
+    var acc = 0L
+    var i = 0
+    while (i < N_BUCKETS) {
+      acc += counts.get(i)
+      if (acc >= rank) {
+        return math.min(upperBoundOf(i), max)
+      }
+      i += 1
+    }
+    max
+  }
+  
+  def reset() {
+    var i = 0
+    while (i < N_BUCKETS) {
+      counts.set(i, 0)
+      i += 1
+    }
+    _count.set(0)
+    _sum.set(0)
+    _max.set(0)
+  }
+  
+  def getCount = count
+  def getMean = mean
+  def getMax = max
+  def get50thPercentile = percentile(50)
+  def get90thPercentile = percentile(90)
+  def get99thPercentile = percentile(99)
+  def get999thPercentile = percentile(99.9)
+  
+  def report = {
+    "%s count=%d mean=%.2f p50=%d p90=%d p99=%d p999=%d max=%d".format(
+      name, count, mean, percentile(50), percentile(90), percentile(99), percentile(99.9), max
+    )
+  }
+}
+
+object Histogram {
+  private val SUB_BITS = 4
+  private val SUB_COUNT = 1 << SUB_BITS
+  private val N_BUCKETS = SUB_COUNT + (63 - SUB_BITS) * SUB_COUNT
+  
+  private def indexOf(v: Long): Int = {
+    if (v < SUB_COUNT) {
+      v.toInt
+    } else {
+      val exp = 63 - java.lang.Long.numberOfLeadingZeros(v)
+      val shift = exp - SUB_BITS
+      SUB_COUNT + shift * SUB_COUNT + ((v >>> shift).toInt - SUB_COUNT)
+    }
+  }
+  
+  private def upperBoundOf(idx: Int): Long = {
+    if (idx < SUB_COUNT) {
+      idx
+    } else {
+      val shift = (idx - SUB_COUNT) / SUB_COUNT
+      val sub = (idx - SUB_COUNT) % SUB_COUNT + SUB_COUNT
+      ((sub.toLong + 1) << shift) - 1
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2006-2011, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.util.metrics
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpHandler
+import com.sun.net.httpserver.HttpServer
+import java.lang.management.ManagementFactory
+import java.net.InetSocketAddress
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.logging.Level
+import java.util.logging.Logger
+import javax.management.ObjectName
+import scala.collection.JavaConversions._
+
+trait Metric {
+  def name: String
+  def report: String
+}
+
+/**
+ * Registry of hot-path metrics. Metrics are registered once by name and then
+ * updated lock free, they are exposed as MBeans under "org.aiotrade:type=Metrics"
+ * and, if config 'metrics.http.port' is set, as plain text at
+ * http://127.0.0.1:port/metrics
+ * 
+ * @author Caoyuan Deng
+ */
+object Metrics {
+  private val log = Logger.getLogger(this.getClass.getName)
+  
+  private val config = org.aiotrade.lib.util.config.Config()
+  private val isJmxEnabled = config.getBool("metrics.jmx", true)
+  private val httpPort = config.getInt("metrics.http.port", 0)
+
+  private val nameToMetric = new ConcurrentHashMap[String, Metric]()
+  
+  private var httpServer: HttpServer = _
+  if (httpPort > 0) {
+    startHttp(httpPort)
+  }
+
+  def counter(name: String): Counter = register(name, new Counter(name))
+  def histogram(name: String): Histogram = register(name, new Histogram(name))
+  
+  private def register[T <: Metric](name: String, metric: T): T = {
+    nameToMetric.putIfAbsent(name, metric) match {
+      case null =>
+        if (isJmxEnabled) {
+          try {
+            val objName = new ObjectName("org.aiotrade:type=Metrics,name=" + ObjectName.quote(name))
+            ManagementFactory.getPlatformMBeanServer.registerMBean(metric, objName)
+          } catch {
+            case ex: Throwable => log.log(Level.WARNING, ex.getMessage, ex)
+          }
+        }
+        metric
+      case existed => existed.asInstanceOf[T]
+    }
+  }
+  
+  def metrics: List[Metric] = nameToMetric.values.toList.sortBy(_.name)
+  
+  def report: String = {
+    val sb = new StringBuilder
+    for (metric <- metrics) {
+      sb.append(metric.report).append("\n")
+    }
+    sb.toString
+  }
+  
+  /**
+   * Serve report at http://127.0.0.1:port/metrics, on local interface only.
+   */
+  def startHttp(port: Int): Unit = synchronized {
+    if (httpServer != null) return
+    
+    try {
+      val server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0)
+      server.createContext("/metrics", new HttpHandler {
+          def handle(exchange: HttpExchange) {
+            try {
+              val bytes = report.getBytes("UTF-8")
+              exchange.getResponseHeaders.set("Content-Type", "text/plain; charset=utf-8")
+              exchange.sendResponseHeaders(200, bytes.length)
+              exchange.getResponseBody.write(bytes)
+            } finally {
+              exchange.close
+            }
+          }
+        })
+      server.setExecutor(Executors.newSingleThreadExecutor(new ThreadFactory {
+            def newThread(r: Runnable) = {
+              val t = new Thread(r, "metrics-http")
+              t.setDaemon(true)
+              t
+            }
+          }))
+      server.start
+      httpServer = server
+      log.info("Metrics are served at http://127.0.0.1:" + port + "/metrics")
+    } catch {
+      case ex: Throwable => log.log(Level.WARNING, ex.getMessage, ex)
+    }
+  }
+  
+  def stopHttp(): Unit = synchronized {
+    if (httpServer != null) {
+      httpServer.stop(0)
+      httpServer = null
+    }
+  }
+}
@@ -57,6 +57,7 @@ import javax.swing.table.TableRowSorter
 import org.aiotrade.lib.collection.ArrayList
 import org.aiotrade.lib.charting.laf.LookFeel
 import org.aiotrade.lib.securities.api
+import org.aiotrade.lib.securities.dataserver.TickerDeltaReceiver
 import org.aiotrade.lib.securities.dataserver.TickerServer
 import org.aiotrade.lib.securities.model.Exchange
 import org.aiotrade.lib.securities.model.LightTicker
@@ -115,6 +116,7 @@ class RealTimeWatchListPanel extends JPanel with Reactor {
     }
   }
   private val symbolToInfo = mutable.Map[String, Info]()
+  private lazy val deltaReceiver = new TickerDeltaReceiver
   
   val table = new JTable
   private val model = new WatchListTableModel
@@ -139,6 +141,7 @@ class RealTimeWatchListPanel extends JPanel with Reactor {
 
   reactions += {
     case api.TickersEvt(tickers) => updateByTickers(tickers)
+    case api.TickerDeltasEvt(deltas) => updateByTickers(deltaReceiver.receive(deltas))
   }
 
   listenTo(TickerServer.publishers: _*)